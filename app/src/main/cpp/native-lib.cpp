@@ -1,6 +1,8 @@
 #include <jni.h>
 #include <string>
 
+#include "yuv_convert.h"
+
 extern "C"
 JNIEXPORT jstring
 
@@ -11,3 +13,126 @@ Java_io_github_junyuecao_androidlivedemo_MainActivity_stringFromJNI(
     std::string hello = "Hello from C++";
     return env->NewStringUTF(hello.c_str());
 }
+
+namespace {
+
+// 检查尺寸和数组长度，不合法时抛IllegalArgumentException
+bool CheckArgs(JNIEnv *env, jbyteArray src, jint srcSize, jbyteArray dst, jint dstSize,
+               jint width, jint height) {
+    if (width <= 0 || height <= 0 || (width & 1) || (height & 1)) {
+        env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"),
+                      "width and height must be positive and even");
+        return false;
+    }
+    if (env->GetArrayLength(src) < srcSize || env->GetArrayLength(dst) < dstSize) {
+        env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"), "buffer too small");
+        return false;
+    }
+    return true;
+}
+
+typedef void (*ConvertFn)(const uint8_t *, uint8_t *, int, int);
+
+void Convert(JNIEnv *env, jbyteArray src, jint srcSize, jbyteArray dst, jint dstSize,
+             jint width, jint height, ConvertFn fn) {
+    if (!CheckArgs(env, src, srcSize, dst, dstSize, width, height)) {
+        return;
+    }
+    // critical区间内不能有其他JNI调用，转换本身很短
+    uint8_t *s = static_cast<uint8_t *>(env->GetPrimitiveArrayCritical(src, nullptr));
+    uint8_t *d = static_cast<uint8_t *>(env->GetPrimitiveArrayCritical(dst, nullptr));
+    if (s != nullptr && d != nullptr) {
+        fn(s, d, width, height);
+    }
+    if (d != nullptr) {
+        env->ReleasePrimitiveArrayCritical(dst, d, 0);
+    }
+    if (s != nullptr) {
+        env->ReleasePrimitiveArrayCritical(src, s, JNI_ABORT);
+    }
+}
+
+}  // namespace
+
+extern "C"
+JNIEXPORT jstring JNICALL
+Java_io_github_junyuecao_androidlivedemo_YuvConverter_nativeSimdName(JNIEnv *env, jclass) {
+    return env->NewStringUTF(yuv::SimdName());
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_io_github_junyuecao_androidlivedemo_YuvConverter_nativeNv21ToI420(
+        JNIEnv *env, jclass, jbyteArray src, jbyteArray dst, jint width, jint height) {
+    jint size = width * height * 3 / 2;
+    Convert(env, src, size, dst, size, width, height, yuv::Nv21ToI420);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_io_github_junyuecao_androidlivedemo_YuvConverter_nativeI420ToNv21(
+        JNIEnv *env, jclass, jbyteArray src, jbyteArray dst, jint width, jint height) {
+    jint size = width * height * 3 / 2;
+    Convert(env, src, size, dst, size, width, height, yuv::I420ToNv21);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_io_github_junyuecao_androidlivedemo_YuvConverter_nativeNv21ToNv12(
+        JNIEnv *env, jclass, jbyteArray src, jbyteArray dst, jint width, jint height) {
+    jint size = width * height * 3 / 2;
+    Convert(env, src, size, dst, size, width, height, yuv::Nv21ToNv12);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_io_github_junyuecao_androidlivedemo_YuvConverter_nativeNv21ToRgba(
+        JNIEnv *env, jclass, jbyteArray src, jbyteArray dst, jint width, jint height) {
+    Convert(env, src, width * height * 3 / 2, dst, width * height * 4, width, height, yuv::Nv21ToRgba);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_io_github_junyuecao_androidlivedemo_YuvConverter_nativeTransform(
+        JNIEnv *env, jclass, jbyteArray src, jint srcFormat, jbyteArray dst, jint dstFormat,
+        jint width, jint height, jint rotation, jboolean flipHorizontal, jboolean flipVertical) {
+    jint size = width * height * 3 / 2;
+    if (!CheckArgs(env, src, size, dst, size, width, height)) {
+        return;
+    }
+    uint8_t *s = static_cast<uint8_t *>(env->GetPrimitiveArrayCritical(src, nullptr));
+    uint8_t *d = static_cast<uint8_t *>(env->GetPrimitiveArrayCritical(dst, nullptr));
+    if (s != nullptr && d != nullptr) {
+        yuv::Transform(s, srcFormat, d, dstFormat, width, height, rotation,
+                       flipHorizontal == JNI_TRUE, flipVertical == JNI_TRUE);
+    }
+    if (d != nullptr) {
+        env->ReleasePrimitiveArrayCritical(dst, d, 0);
+    }
+    if (s != nullptr) {
+        env->ReleasePrimitiveArrayCritical(src, s, JNI_ABORT);
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_io_github_junyuecao_androidlivedemo_YuvConverter_nativeScale(
+        JNIEnv *env, jclass, jbyteArray src, jint srcFormat, jint srcWidth, jint srcHeight,
+        jbyteArray dst, jint dstFormat, jint dstWidth, jint dstHeight) {
+    jint dstSize = dstFormat == yuv::kFormatY8 ? dstWidth * dstHeight : dstWidth * dstHeight * 3 / 2;
+    if (!CheckArgs(env, src, srcWidth * srcHeight * 3 / 2, dst, dstSize, srcWidth, srcHeight)
+        || !CheckArgs(env, src, 0, dst, 0, dstWidth, dstHeight)) {
+        return;
+    }
+    uint8_t *s = static_cast<uint8_t *>(env->GetPrimitiveArrayCritical(src, nullptr));
+    uint8_t *d = static_cast<uint8_t *>(env->GetPrimitiveArrayCritical(dst, nullptr));
+    if (s != nullptr && d != nullptr) {
+        yuv::Scale(s, srcFormat, srcWidth, srcHeight, d, dstFormat, dstWidth, dstHeight);
+    }
+    if (d != nullptr) {
+        env->ReleasePrimitiveArrayCritical(dst, d, 0);
+    }
+    if (s != nullptr) {
+        env->ReleasePrimitiveArrayCritical(src, s, JNI_ABORT);
+    }
+}
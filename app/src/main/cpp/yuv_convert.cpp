@@ -0,0 +1,323 @@
+#include "yuv_convert.h"
+
+#include <string.h>
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define YUV_HAS_NEON 1
+#elif defined(__SSE2__)
+#include <emmintrin.h>
+#define YUV_HAS_SSE2 1
+#endif
+
+// 每一行的转换核心：SIMD处理整块，剩下的尾巴交给C实现
+// RGBA用BT.601 video range的8位定点公式，所有实现都在32位下计算，结果逐字节一致：
+//   c = 298 * (Y - 16), d = U - 128, e = V - 128
+//   R = clamp((c + 409 * e + 128) >> 8)
+//   G = clamp((c - 100 * d - 208 * e + 128) >> 8)
+//   B = clamp((c + 516 * d + 128) >> 8)
+
+namespace yuv {
+
+namespace {
+
+inline uint8_t Clamp(int v) {
+    return static_cast<uint8_t>(v < 0 ? 0 : (v > 255 ? 255 : v));
+}
+
+void SplitVURow_C(const uint8_t *vu, uint8_t *u, uint8_t *v, int pairs) {
+    for (int i = 0; i < pairs; i++) {
+        v[i] = vu[2 * i];
+        u[i] = vu[2 * i + 1];
+    }
+}
+
+void MergeVURow_C(const uint8_t *u, const uint8_t *v, uint8_t *vu, int pairs) {
+    for (int i = 0; i < pairs; i++) {
+        vu[2 * i] = v[i];
+        vu[2 * i + 1] = u[i];
+    }
+}
+
+void SwapPairsRow_C(const uint8_t *src, uint8_t *dst, int pairs) {
+    for (int i = 0; i < pairs; i++) {
+        uint8_t a = src[2 * i];
+        dst[2 * i] = src[2 * i + 1];
+        dst[2 * i + 1] = a;
+    }
+}
+
+// width个像素，vu指向这一行对应的色度行
+void RgbaRow_C(const uint8_t *y, const uint8_t *vu, uint8_t *rgba, int width) {
+    for (int x = 0; x < width; x++) {
+        int c = 298 * (y[x] - 16);
+        int e = vu[x & ~1] - 128;
+        int d = vu[(x & ~1) + 1] - 128;
+        rgba[4 * x] = Clamp((c + 409 * e + 128) >> 8);
+        rgba[4 * x + 1] = Clamp((c - 100 * d - 208 * e + 128) >> 8);
+        rgba[4 * x + 2] = Clamp((c + 516 * d + 128) >> 8);
+        rgba[4 * x + 3] = 255;
+    }
+}
+
+#if defined(YUV_HAS_NEON)
+
+void SplitVURow(const uint8_t *vu, uint8_t *u, uint8_t *v, int pairs) {
+    int n = pairs & ~15;
+    for (int i = 0; i < n; i += 16) {
+        uint8x16x2_t p = vld2q_u8(vu + 2 * i);
+        vst1q_u8(v + i, p.val[0]);
+        vst1q_u8(u + i, p.val[1]);
+    }
+    SplitVURow_C(vu + 2 * n, u + n, v + n, pairs - n);
+}
+
+void MergeVURow(const uint8_t *u, const uint8_t *v, uint8_t *vu, int pairs) {
+    int n = pairs & ~15;
+    for (int i = 0; i < n; i += 16) {
+        uint8x16x2_t p;
+        p.val[0] = vld1q_u8(v + i);
+        p.val[1] = vld1q_u8(u + i);
+        vst2q_u8(vu + 2 * i, p);
+    }
+    MergeVURow_C(u + n, v + n, vu + 2 * n, pairs - n);
+}
+
+void SwapPairsRow(const uint8_t *src, uint8_t *dst, int pairs) {
+    int n = pairs & ~7;
+    for (int i = 0; i < n; i += 8) {
+        vst1q_u8(dst + 2 * i, vrev16q_u8(vld1q_u8(src + 2 * i)));
+    }
+    SwapPairsRow_C(src + 2 * n, dst + 2 * n, pairs - n);
+}
+
+inline uint8x8_t Narrow(int32x4_t lo, int32x4_t hi) {
+    int32x4_t bias = vdupq_n_s32(128);
+    int16x4_t l = vqmovn_s32(vshrq_n_s32(vaddq_s32(lo, bias), 8));
+    int16x4_t h = vqmovn_s32(vshrq_n_s32(vaddq_s32(hi, bias), 8));
+    return vqmovun_s16(vcombine_s16(l, h));
+}
+
+// 8个像素，y16/e16/d16已经减去偏移
+inline void Rgba8(int16x8_t y16, int16x8_t e16, int16x8_t d16, uint8_t *rgba) {
+    int32x4_t cl = vmull_n_s16(vget_low_s16(y16), 298);
+    int32x4_t ch = vmull_n_s16(vget_high_s16(y16), 298);
+    uint8x8x4_t out;
+    out.val[0] = Narrow(vmlal_n_s16(cl, vget_low_s16(e16), 409),
+                        vmlal_n_s16(ch, vget_high_s16(e16), 409));
+    out.val[1] = Narrow(vmlsl_n_s16(vmlsl_n_s16(cl, vget_low_s16(d16), 100), vget_low_s16(e16), 208),
+                        vmlsl_n_s16(vmlsl_n_s16(ch, vget_high_s16(d16), 100), vget_high_s16(e16), 208));
+    out.val[2] = Narrow(vmlal_n_s16(cl, vget_low_s16(d16), 516),
+                        vmlal_n_s16(ch, vget_high_s16(d16), 516));
+    out.val[3] = vdup_n_u8(255);
+    vst4_u8(rgba, out);
+}
+
+void RgbaRow(const uint8_t *y, const uint8_t *vu, uint8_t *rgba, int width) {
+    int n = width & ~15;
+    uint8x8_t k16 = vdup_n_u8(16);
+    uint8x8_t k128 = vdup_n_u8(128);
+    for (int x = 0; x < n; x += 16) {
+        uint8x16_t yy = vld1q_u8(y + x);
+        uint8x8x2_t p = vld2_u8(vu + x);
+        // 每个色度样本对应两个像素
+        uint8x8x2_t ev = vzip_u8(p.val[0], p.val[0]);
+        uint8x8x2_t du = vzip_u8(p.val[1], p.val[1]);
+        Rgba8(vreinterpretq_s16_u16(vsubl_u8(vget_low_u8(yy), k16)),
+              vreinterpretq_s16_u16(vsubl_u8(ev.val[0], k128)),
+              vreinterpretq_s16_u16(vsubl_u8(du.val[0], k128)),
+              rgba + 4 * x);
+        Rgba8(vreinterpretq_s16_u16(vsubl_u8(vget_high_u8(yy), k16)),
+              vreinterpretq_s16_u16(vsubl_u8(ev.val[1], k128)),
+              vreinterpretq_s16_u16(vsubl_u8(du.val[1], k128)),
+              rgba + 4 * x + 32);
+    }
+    RgbaRow_C(y + n, vu + n, rgba + 4 * n, width - n);
+}
+
+#elif defined(YUV_HAS_SSE2)
+
+void SplitVURow(const uint8_t *vu, uint8_t *u, uint8_t *v, int pairs) {
+    int n = pairs & ~15;
+    const __m128i mask = _mm_set1_epi16(0x00ff);
+    for (int i = 0; i < n; i += 16) {
+        __m128i a = _mm_loadu_si128(reinterpret_cast<const __m128i *>(vu + 2 * i));
+        __m128i b = _mm_loadu_si128(reinterpret_cast<const __m128i *>(vu + 2 * i + 16));
+        __m128i vv = _mm_packus_epi16(_mm_and_si128(a, mask), _mm_and_si128(b, mask));
+        __m128i uu = _mm_packus_epi16(_mm_srli_epi16(a, 8), _mm_srli_epi16(b, 8));
+        _mm_storeu_si128(reinterpret_cast<__m128i *>(v + i), vv);
+        _mm_storeu_si128(reinterpret_cast<__m128i *>(u + i), uu);
+    }
+    SplitVURow_C(vu + 2 * n, u + n, v + n, pairs - n);
+}
+
+void MergeVURow(const uint8_t *u, const uint8_t *v, uint8_t *vu, int pairs) {
+    int n = pairs & ~15;
+    for (int i = 0; i < n; i += 16) {
+        __m128i vv = _mm_loadu_si128(reinterpret_cast<const __m128i *>(v + i));
+        __m128i uu = _mm_loadu_si128(reinterpret_cast<const __m128i *>(u + i));
+        _mm_storeu_si128(reinterpret_cast<__m128i *>(vu + 2 * i), _mm_unpacklo_epi8(vv, uu));
+        _mm_storeu_si128(reinterpret_cast<__m128i *>(vu + 2 * i + 16), _mm_unpackhi_epi8(vv, uu));
+    }
+    MergeVURow_C(u + n, v + n, vu + 2 * n, pairs - n);
+}
+
+void SwapPairsRow(const uint8_t *src, uint8_t *dst, int pairs) {
+    int n = pairs & ~7;
+    for (int i = 0; i < n; i += 8) {
+        __m128i a = _mm_loadu_si128(reinterpret_cast<const __m128i *>(src + 2 * i));
+        _mm_storeu_si128(reinterpret_cast<__m128i *>(dst + 2 * i),
+                         _mm_or_si128(_mm_slli_epi16(a, 8), _mm_srli_epi16(a, 8)));
+    }
+    SwapPairsRow_C(src + 2 * n, dst + 2 * n, pairs - n);
+}
+
+inline __m128i MakeCoef(int coefV, int coefU) {
+    return _mm_set1_epi32(static_cast<int>((static_cast<uint32_t>(coefU) << 16) | (coefV & 0xffff)));
+}
+
+// 4对色度的32位结果复制成8个像素，加上亮度后饱和到8位，结果在低8字节
+inline __m128i Channel(__m128i cLo, __m128i cHi, __m128i chroma) {
+    const __m128i bias = _mm_set1_epi32(128);
+    __m128i lo = _mm_add_epi32(cLo, _mm_unpacklo_epi32(chroma, chroma));
+    __m128i hi = _mm_add_epi32(cHi, _mm_unpackhi_epi32(chroma, chroma));
+    lo = _mm_srai_epi32(_mm_add_epi32(lo, bias), 8);
+    hi = _mm_srai_epi32(_mm_add_epi32(hi, bias), 8);
+    __m128i w = _mm_packs_epi32(lo, hi);
+    return _mm_packus_epi16(w, w);
+}
+
+void RgbaRow(const uint8_t *y, const uint8_t *vu, uint8_t *rgba, int width) {
+    int n = width & ~7;
+    const __m128i zero = _mm_setzero_si128();
+    const __m128i k16 = _mm_set1_epi16(16);
+    const __m128i k128 = _mm_set1_epi16(128);
+    const __m128i k298 = _mm_set1_epi16(298);
+    const __m128i coefR = MakeCoef(409, 0);
+    const __m128i coefG = MakeCoef(-208, -100);
+    const __m128i coefB = MakeCoef(0, 516);
+    const __m128i alpha = _mm_set1_epi8(static_cast<char>(0xff));
+    for (int x = 0; x < n; x += 8) {
+        __m128i y16 = _mm_sub_epi16(
+                _mm_unpacklo_epi8(_mm_loadl_epi64(reinterpret_cast<const __m128i *>(y + x)), zero), k16);
+        // 298 * y超出16位，用高低两半拼成32位
+        __m128i pl = _mm_mullo_epi16(y16, k298);
+        __m128i ph = _mm_mulhi_epi16(y16, k298);
+        __m128i cLo = _mm_unpacklo_epi16(pl, ph);
+        __m128i cHi = _mm_unpackhi_epi16(pl, ph);
+        // [e0, d0, e1, d1, ...]，madd一次算出一对色度的线性组合
+        __m128i ed = _mm_sub_epi16(
+                _mm_unpacklo_epi8(_mm_loadl_epi64(reinterpret_cast<const __m128i *>(vu + x)), zero), k128);
+        __m128i r = Channel(cLo, cHi, _mm_madd_epi16(ed, coefR));
+        __m128i g = Channel(cLo, cHi, _mm_madd_epi16(ed, coefG));
+        __m128i b = Channel(cLo, cHi, _mm_madd_epi16(ed, coefB));
+        __m128i rg = _mm_unpacklo_epi8(r, g);
+        __m128i ba = _mm_unpacklo_epi8(b, alpha);
+        _mm_storeu_si128(reinterpret_cast<__m128i *>(rgba + 4 * x), _mm_unpacklo_epi16(rg, ba));
+        _mm_storeu_si128(reinterpret_cast<__m128i *>(rgba + 4 * x + 16), _mm_unpackhi_epi16(rg, ba));
+    }
+    RgbaRow_C(y + n, vu + n, rgba + 4 * n, width - n);
+}
+
+#else
+
+void SplitVURow(const uint8_t *vu, uint8_t *u, uint8_t *v, int pairs) {
+    SplitVURow_C(vu, u, v, pairs);
+}
+
+void MergeVURow(const uint8_t *u, const uint8_t *v, uint8_t *vu, int pairs) {
+    MergeVURow_C(u, v, vu, pairs);
+}
+
+void SwapPairsRow(const uint8_t *src, uint8_t *dst, int pairs) {
+    SwapPairsRow_C(src, dst, pairs);
+}
+
+void RgbaRow(const uint8_t *y, const uint8_t *vu, uint8_t *rgba, int width) {
+    RgbaRow_C(y, vu, rgba, width);
+}
+
+#endif
+
+typedef void (*SplitFn)(const uint8_t *, uint8_t *, uint8_t *, int);
+typedef void (*MergeFn)(const uint8_t *, const uint8_t *, uint8_t *, int);
+typedef void (*SwapFn)(const uint8_t *, uint8_t *, int);
+typedef void (*RgbaFn)(const uint8_t *, const uint8_t *, uint8_t *, int);
+
+// 色度平面整体是连续的，不需要逐行处理
+void DoNv21ToI420(const uint8_t *src, uint8_t *dst, int width, int height, SplitFn split) {
+    int ySize = width * height;
+    int pairs = ySize / 4;
+    memcpy(dst, src, static_cast<size_t>(ySize));
+    split(src + ySize, dst + ySize, dst + ySize + pairs, pairs);
+}
+
+void DoI420ToNv21(const uint8_t *src, uint8_t *dst, int width, int height, MergeFn merge) {
+    int ySize = width * height;
+    int pairs = ySize / 4;
+    memcpy(dst, src, static_cast<size_t>(ySize));
+    merge(src + ySize, src + ySize + pairs, dst + ySize, pairs);
+}
+
+void DoNv21ToNv12(const uint8_t *src, uint8_t *dst, int width, int height, SwapFn swap) {
+    int ySize = width * height;
+    memcpy(dst, src, static_cast<size_t>(ySize));
+    swap(src + ySize, dst + ySize, ySize / 4);
+}
+
+void DoNv21ToRgba(const uint8_t *src, uint8_t *dst, int width, int height, RgbaFn row) {
+    const uint8_t *vu = src + width * height;
+    for (int j = 0; j < height; j++) {
+        row(src + j * width, vu + (j >> 1) * width, dst + 4 * j * width, width);
+    }
+}
+
+}  // namespace
+
+const char *SimdName() {
+#if defined(YUV_HAS_NEON)
+    return "neon";
+#elif defined(YUV_HAS_SSE2)
+    return "sse2";
+#else
+    return "c";
+#endif
+}
+
+void Nv21ToI420(const uint8_t *src, uint8_t *dst, int width, int height) {
+    DoNv21ToI420(src, dst, width, height, SplitVURow);
+}
+
+void I420ToNv21(const uint8_t *src, uint8_t *dst, int width, int height) {
+    DoI420ToNv21(src, dst, width, height, MergeVURow);
+}
+
+void Nv21ToNv12(const uint8_t *src, uint8_t *dst, int width, int height) {
+    DoNv21ToNv12(src, dst, width, height, SwapPairsRow);
+}
+
+void Nv21ToRgba(const uint8_t *src, uint8_t *dst, int width, int height) {
+    DoNv21ToRgba(src, dst, width, height, RgbaRow);
+}
+
+namespace c {
+
+void Nv21ToI420(const uint8_t *src, uint8_t *dst, int width, int height) {
+    DoNv21ToI420(src, dst, width, height, SplitVURow_C);
+}
+
+void I420ToNv21(const uint8_t *src, uint8_t *dst, int width, int height) {
+    DoI420ToNv21(src, dst, width, height, MergeVURow_C);
+}
+
+void Nv21ToNv12(const uint8_t *src, uint8_t *dst, int width, int height) {
+    DoNv21ToNv12(src, dst, width, height, SwapPairsRow_C);
+}
+
+void Nv21ToRgba(const uint8_t *src, uint8_t *dst, int width, int height) {
+    DoNv21ToRgba(src, dst, width, height, RgbaRow_C);
+}
+
+}  // namespace c
+
+}  // namespace yuv
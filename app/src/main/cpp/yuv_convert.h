@@ -0,0 +1,47 @@
+#ifndef ANDROIDLIVEDEMO_YUV_CONVERT_H
+#define ANDROIDLIVEDEMO_YUV_CONVERT_H
+
+#include <stdint.h>
+
+// NV21/I420/NV12/RGBA互转，和Java端YuvConverter的参考实现逐字节一致
+// 宽高必须是偶数，各平面紧密排列(stride等于宽)
+
+namespace yuv {
+
+// 和YuvConverter.FORMAT_*一致
+const int kFormatNv21 = 0;
+const int kFormatNv12 = 1;
+const int kFormatI420 = 2;
+// 只有Y平面，只能作为Scale的输出
+const int kFormatY8 = 3;
+
+// 返回当前使用的SIMD实现名字："neon"、"sse2"或"c"
+const char *SimdName();
+
+void Nv21ToI420(const uint8_t *src, uint8_t *dst, int width, int height);
+void I420ToNv21(const uint8_t *src, uint8_t *dst, int width, int height);
+// NV21和NV12只是UV顺序相反，同一个函数可以双向转换
+void Nv21ToNv12(const uint8_t *src, uint8_t *dst, int width, int height);
+// BT.601 video range，8位定点
+void Nv21ToRgba(const uint8_t *src, uint8_t *dst, int width, int height);
+
+// 旋转/镜像并转换格式，先在src坐标系下镜像，再顺时针旋转rotation(0/90/180/270)度
+// width/height是src的尺寸，rotation为90/270时dst宽高互换
+void Transform(const uint8_t *src, int srcFormat, uint8_t *dst, int dstFormat, int width, int height,
+               int rotation, bool flipHorizontal, bool flipVertical);
+
+// 面积平均缩放，宽高都必须是偶数；2倍和4倍缩小时单通道平面走SIMD
+void Scale(const uint8_t *src, int srcFormat, int srcWidth, int srcHeight,
+           uint8_t *dst, int dstFormat, int dstWidth, int dstHeight);
+
+// 纯C实现，用于测试SIMD路径
+namespace c {
+void Nv21ToI420(const uint8_t *src, uint8_t *dst, int width, int height);
+void I420ToNv21(const uint8_t *src, uint8_t *dst, int width, int height);
+void Nv21ToNv12(const uint8_t *src, uint8_t *dst, int width, int height);
+void Nv21ToRgba(const uint8_t *src, uint8_t *dst, int width, int height);
+}  // namespace c
+
+}  // namespace yuv
+
+#endif  // ANDROIDLIVEDEMO_YUV_CONVERT_H
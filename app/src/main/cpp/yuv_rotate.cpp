@@ -0,0 +1,154 @@
+#include "yuv_convert.h"
+
+#include <string.h>
+
+// 旋转和镜像：dst上每个像素对应的src下标是dst坐标的线性函数
+//   index = start + dx * stepX + dy * stepY
+// 按kTile x kTile的块遍历dst，一个块里读到的src行数有限，旋转90/270时也不会频繁换出cache。
+// 色度平面按同样的方式处理，交错格式把pixel stride设为2，这样格式转换不需要额外一遍。
+
+namespace yuv {
+
+namespace {
+
+const int kTile = 32;
+
+struct PlaneMap {
+    int start;
+    int stepX;
+    int stepY;
+    int dstWidth;
+    int dstHeight;
+};
+
+int MapIndex(int dx, int dy, int width, int height, int rotation, bool flipHorizontal, bool flipVertical) {
+    int x;
+    int y;
+    switch (rotation) {
+        case 90:
+            x = dy;
+            y = height - 1 - dx;
+            break;
+        case 180:
+            x = width - 1 - dx;
+            y = height - 1 - dy;
+            break;
+        case 270:
+            x = width - 1 - dy;
+            y = dx;
+            break;
+        default:
+            x = dx;
+            y = dy;
+            break;
+    }
+    if (flipHorizontal) {
+        x = width - 1 - x;
+    }
+    if (flipVertical) {
+        y = height - 1 - y;
+    }
+    return y * width + x;
+}
+
+PlaneMap MakeMap(int width, int height, int rotation, bool flipHorizontal, bool flipVertical) {
+    PlaneMap map;
+    map.start = MapIndex(0, 0, width, height, rotation, flipHorizontal, flipVertical);
+    map.stepX = MapIndex(1, 0, width, height, rotation, flipHorizontal, flipVertical) - map.start;
+    map.stepY = MapIndex(0, 1, width, height, rotation, flipHorizontal, flipVertical) - map.start;
+    bool swap = rotation == 90 || rotation == 270;
+    map.dstWidth = swap ? height : width;
+    map.dstHeight = swap ? width : height;
+    return map;
+}
+
+void TransformLuma(const uint8_t *src, uint8_t *dst, const PlaneMap &map) {
+    if (map.stepX == 1) {
+        // 没有旋转和水平镜像，逐行复制
+        for (int dy = 0; dy < map.dstHeight; dy++) {
+            memcpy(dst + dy * map.dstWidth, src + map.start + dy * map.stepY, static_cast<size_t>(map.dstWidth));
+        }
+        return;
+    }
+    for (int ty = 0; ty < map.dstHeight; ty += kTile) {
+        int yEnd = ty + kTile < map.dstHeight ? ty + kTile : map.dstHeight;
+        for (int tx = 0; tx < map.dstWidth; tx += kTile) {
+            int xEnd = tx + kTile < map.dstWidth ? tx + kTile : map.dstWidth;
+            for (int dy = ty; dy < yEnd; dy++) {
+                const uint8_t *s = src + map.start + dy * map.stepY + tx * map.stepX;
+                uint8_t *d = dst + dy * map.dstWidth + tx;
+                for (int dx = tx; dx < xEnd; dx++) {
+                    *d++ = *s;
+                    s += map.stepX;
+                }
+            }
+        }
+    }
+}
+
+struct ChromaLayout {
+    int uOffset;
+    int vOffset;
+    int pixelStride;
+};
+
+ChromaLayout Layout(int format, int ySize) {
+    ChromaLayout layout;
+    switch (format) {
+        case kFormatNv21:
+            layout.vOffset = ySize;
+            layout.uOffset = ySize + 1;
+            layout.pixelStride = 2;
+            break;
+        case kFormatNv12:
+            layout.uOffset = ySize;
+            layout.vOffset = ySize + 1;
+            layout.pixelStride = 2;
+            break;
+        default:
+            layout.uOffset = ySize;
+            layout.vOffset = ySize + ySize / 4;
+            layout.pixelStride = 1;
+            break;
+    }
+    return layout;
+}
+
+// U和V在同一遍里处理，交错格式的一对UV只读一次cache line
+void TransformChroma(const uint8_t *src, const ChromaLayout &srcLayout, uint8_t *dst,
+                     const ChromaLayout &dstLayout, const PlaneMap &map) {
+    const uint8_t *srcU = src + srcLayout.uOffset;
+    const uint8_t *srcV = src + srcLayout.vOffset;
+    uint8_t *dstU = dst + dstLayout.uOffset;
+    uint8_t *dstV = dst + dstLayout.vOffset;
+    int sps = srcLayout.pixelStride;
+    int dps = dstLayout.pixelStride;
+    for (int ty = 0; ty < map.dstHeight; ty += kTile) {
+        int yEnd = ty + kTile < map.dstHeight ? ty + kTile : map.dstHeight;
+        for (int tx = 0; tx < map.dstWidth; tx += kTile) {
+            int xEnd = tx + kTile < map.dstWidth ? tx + kTile : map.dstWidth;
+            for (int dy = ty; dy < yEnd; dy++) {
+                int s = map.start + dy * map.stepY + tx * map.stepX;
+                int d = dy * map.dstWidth + tx;
+                for (int dx = tx; dx < xEnd; dx++) {
+                    dstU[d * dps] = srcU[s * sps];
+                    dstV[d * dps] = srcV[s * sps];
+                    s += map.stepX;
+                    d++;
+                }
+            }
+        }
+    }
+}
+
+}  // namespace
+
+void Transform(const uint8_t *src, int srcFormat, uint8_t *dst, int dstFormat, int width, int height,
+               int rotation, bool flipHorizontal, bool flipVertical) {
+    int ySize = width * height;
+    TransformLuma(src, dst, MakeMap(width, height, rotation, flipHorizontal, flipVertical));
+    TransformChroma(src, Layout(srcFormat, ySize), dst, Layout(dstFormat, ySize),
+                    MakeMap(width / 2, height / 2, rotation, flipHorizontal, flipVertical));
+}
+
+}  // namespace yuv
@@ -0,0 +1,283 @@
+#include "yuv_convert.h"
+
+#include <stddef.h>
+#include <stdint.h>
+#include <string.h>
+
+#include <vector>
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define YUV_HAS_NEON 1
+#elif defined(__SSE2__)
+#include <emmintrin.h>
+#define YUV_HAS_SSE2 1
+#endif
+
+// 面积平均缩放
+// 把src的每个像素看成宽dstW、高dstH个单位的格子，dst的每个像素宽srcW、高srcH个单位，
+// 权重就是重叠的面积，全部是整数：
+//   dst = (sum(wx * wy * src) + srcW * srcH / 2) / (srcW * srcH)
+// 宽高正好是2倍或4倍时这个公式就是(sum + n / 2) / n的盒式平均，单通道平面用SIMD处理，结果和通用路径一致。
+
+namespace yuv {
+
+namespace {
+
+struct ChromaPlanes {
+    int uOffset;
+    int vOffset;
+    int pixelStride;
+};
+
+ChromaPlanes Planes(int format, int ySize) {
+    ChromaPlanes planes;
+    switch (format) {
+        case kFormatNv21:
+            planes.vOffset = ySize;
+            planes.uOffset = ySize + 1;
+            planes.pixelStride = 2;
+            break;
+        case kFormatNv12:
+            planes.uOffset = ySize;
+            planes.vOffset = ySize + 1;
+            planes.pixelStride = 2;
+            break;
+        default:
+            planes.uOffset = ySize;
+            planes.vOffset = ySize + ySize / 4;
+            planes.pixelStride = 1;
+            break;
+    }
+    return planes;
+}
+
+// 一维的重叠权重，dst的第x个像素覆盖src的[start[x], start[x] + count[x])，权重在weights里连续存放
+struct AxisWeights {
+    std::vector<int> start;
+    std::vector<int> count;
+    std::vector<int> weights;
+};
+
+void ComputeWeights(int srcSize, int dstSize, AxisWeights *axis) {
+    axis->start.resize(static_cast<size_t>(dstSize));
+    axis->count.resize(static_cast<size_t>(dstSize));
+    axis->weights.clear();
+    for (int x = 0; x < dstSize; x++) {
+        long long lo = static_cast<long long>(x) * srcSize;
+        long long hi = lo + srcSize;
+        int first = static_cast<int>(lo / dstSize);
+        int last = static_cast<int>((hi - 1) / dstSize);
+        axis->start[x] = first;
+        axis->count[x] = last - first + 1;
+        for (int i = first; i <= last; i++) {
+            long long a = static_cast<long long>(i) * dstSize;
+            long long b = a + dstSize;
+            axis->weights.push_back(static_cast<int>((b < hi ? b : hi) - (a > lo ? a : lo)));
+        }
+    }
+}
+
+// 一种(src, dst)尺寸的权重和累加行，尺寸不变时每帧直接复用，不在JNI的critical区域里分配
+struct AreaScaler {
+    int srcWidth = 0;
+    int srcHeight = 0;
+    int dstWidth = 0;
+    int dstHeight = 0;
+    AxisWeights xs;
+    AxisWeights ys;
+    std::vector<long long> acc;
+
+    void Prepare(int sw, int sh, int dw, int dh) {
+        if (sw == srcWidth && sh == srcHeight && dw == dstWidth && dh == dstHeight) {
+            return;
+        }
+        ComputeWeights(sw, dw, &xs);
+        ComputeWeights(sh, dh, &ys);
+        acc.resize(static_cast<size_t>(dw));
+        srcWidth = sw;
+        srcHeight = sh;
+        dstWidth = dw;
+        dstHeight = dh;
+    }
+};
+
+// 每个线程一份，Y平面和色度平面各一个，可以在多个线程上同时缩放
+AreaScaler *ScalerFor(bool chroma) {
+    static thread_local AreaScaler scalers[2];
+    return &scalers[chroma ? 1 : 0];
+}
+
+void ScalePlaneArea(const uint8_t *src, int srcPixelStride, int srcWidth, int srcHeight,
+                    uint8_t *dst, int dstPixelStride, int dstWidth, int dstHeight, AreaScaler *scaler) {
+    scaler->Prepare(srcWidth, srcHeight, dstWidth, dstHeight);
+    const AxisWeights &xs = scaler->xs;
+    const AxisWeights &ys = scaler->ys;
+    long long *acc = scaler->acc.data();
+    long long total = static_cast<long long>(srcWidth) * srcHeight;
+    int wy = 0;
+    for (int y = 0; y < dstHeight; y++) {
+        for (int x = 0; x < dstWidth; x++) {
+            acc[x] = 0;
+        }
+        for (int j = 0; j < ys.count[y]; j++, wy++) {
+            const uint8_t *row = src + (ys.start[y] + j) * srcWidth * srcPixelStride;
+            int weight = ys.weights[wy];
+            int wx = 0;
+            for (int x = 0; x < dstWidth; x++) {
+                const uint8_t *p = row + xs.start[x] * srcPixelStride;
+                int sum = 0;
+                for (int i = 0; i < xs.count[x]; i++, wx++) {
+                    sum += xs.weights[wx] * p[i * srcPixelStride];
+                }
+                acc[x] += static_cast<long long>(weight) * sum;
+            }
+        }
+        uint8_t *out = dst + y * dstWidth * dstPixelStride;
+        for (int x = 0; x < dstWidth; x++) {
+            out[x * dstPixelStride] = static_cast<uint8_t>((acc[x] + total / 2) / total);
+        }
+    }
+}
+
+void HalveRow_C(const uint8_t *r0, const uint8_t *r1, uint8_t *dst, int dstWidth) {
+    for (int x = 0; x < dstWidth; x++) {
+        dst[x] = static_cast<uint8_t>((r0[2 * x] + r0[2 * x + 1] + r1[2 * x] + r1[2 * x + 1] + 2) >> 2);
+    }
+}
+
+void QuarterRow_C(const uint8_t *r0, int stride, uint8_t *dst, int dstWidth) {
+    for (int x = 0; x < dstWidth; x++) {
+        int sum = 0;
+        for (int j = 0; j < 4; j++) {
+            const uint8_t *p = r0 + j * stride + 4 * x;
+            sum += p[0] + p[1] + p[2] + p[3];
+        }
+        dst[x] = static_cast<uint8_t>((sum + 8) >> 4);
+    }
+}
+
+#if defined(YUV_HAS_NEON)
+
+void HalveRow(const uint8_t *r0, const uint8_t *r1, uint8_t *dst, int dstWidth) {
+    int n = dstWidth & ~7;
+    for (int x = 0; x < n; x += 8) {
+        uint16x8_t sum = vpaddlq_u8(vld1q_u8(r0 + 2 * x));
+        sum = vpadalq_u8(sum, vld1q_u8(r1 + 2 * x));
+        // 带舍入的右移，等于(sum + 2) >> 2
+        vst1_u8(dst + x, vrshrn_n_u16(sum, 2));
+    }
+    HalveRow_C(r0 + 2 * n, r1 + 2 * n, dst + n, dstWidth - n);
+}
+
+void QuarterRow(const uint8_t *r0, int stride, uint8_t *dst, int dstWidth) {
+    int n = dstWidth & ~3;
+    for (int x = 0; x < n; x += 4) {
+        const uint8_t *p = r0 + 4 * x;
+        uint16x8_t sum = vpaddlq_u8(vld1q_u8(p));
+        sum = vpadalq_u8(sum, vld1q_u8(p + stride));
+        sum = vpadalq_u8(sum, vld1q_u8(p + 2 * stride));
+        sum = vpadalq_u8(sum, vld1q_u8(p + 3 * stride));
+        uint16x4_t avg = vrshrn_n_u32(vpaddlq_u16(sum), 4);
+        uint8_t out[8];
+        vst1_u8(out, vmovn_u16(vcombine_u16(avg, avg)));
+        // dst + x不一定4字节对齐
+        memcpy(dst + x, out, 4);
+    }
+    QuarterRow_C(r0 + 4 * n, stride, dst + n, dstWidth - n);
+}
+
+#elif defined(YUV_HAS_SSE2)
+
+// 16个字节两两相加，得到8个16位的和
+inline __m128i PairSums(__m128i v) {
+    return _mm_add_epi16(_mm_and_si128(v, _mm_set1_epi16(0x00ff)), _mm_srli_epi16(v, 8));
+}
+
+void HalveRow(const uint8_t *r0, const uint8_t *r1, uint8_t *dst, int dstWidth) {
+    int n = dstWidth & ~15;
+    const __m128i two = _mm_set1_epi16(2);
+    for (int x = 0; x < n; x += 16) {
+        __m128i lo = _mm_add_epi16(
+                PairSums(_mm_loadu_si128(reinterpret_cast<const __m128i *>(r0 + 2 * x))),
+                PairSums(_mm_loadu_si128(reinterpret_cast<const __m128i *>(r1 + 2 * x))));
+        __m128i hi = _mm_add_epi16(
+                PairSums(_mm_loadu_si128(reinterpret_cast<const __m128i *>(r0 + 2 * x + 16))),
+                PairSums(_mm_loadu_si128(reinterpret_cast<const __m128i *>(r1 + 2 * x + 16))));
+        lo = _mm_srli_epi16(_mm_add_epi16(lo, two), 2);
+        hi = _mm_srli_epi16(_mm_add_epi16(hi, two), 2);
+        _mm_storeu_si128(reinterpret_cast<__m128i *>(dst + x), _mm_packus_epi16(lo, hi));
+    }
+    HalveRow_C(r0 + 2 * n, r1 + 2 * n, dst + n, dstWidth - n);
+}
+
+void QuarterRow(const uint8_t *r0, int stride, uint8_t *dst, int dstWidth) {
+    int n = dstWidth & ~3;
+    const __m128i eight = _mm_set1_epi32(8);
+    const __m128i low16 = _mm_set1_epi32(0xffff);
+    for (int x = 0; x < n; x += 4) {
+        const uint8_t *p = r0 + 4 * x;
+        __m128i sum = PairSums(_mm_loadu_si128(reinterpret_cast<const __m128i *>(p)));
+        sum = _mm_add_epi16(sum, PairSums(_mm_loadu_si128(reinterpret_cast<const __m128i *>(p + stride))));
+        sum = _mm_add_epi16(sum, PairSums(_mm_loadu_si128(reinterpret_cast<const __m128i *>(p + 2 * stride))));
+        sum = _mm_add_epi16(sum, PairSums(_mm_loadu_si128(reinterpret_cast<const __m128i *>(p + 3 * stride))));
+        __m128i quad = _mm_add_epi32(_mm_and_si128(sum, low16), _mm_srli_epi32(sum, 16));
+        quad = _mm_srli_epi32(_mm_add_epi32(quad, eight), 4);
+        __m128i packed = _mm_packs_epi32(quad, quad);
+        packed = _mm_packus_epi16(packed, packed);
+        int out = _mm_cvtsi128_si32(packed);
+        memcpy(dst + x, &out, 4);
+    }
+    QuarterRow_C(r0 + 4 * n, stride, dst + n, dstWidth - n);
+}
+
+#else
+
+void HalveRow(const uint8_t *r0, const uint8_t *r1, uint8_t *dst, int dstWidth) {
+    HalveRow_C(r0, r1, dst, dstWidth);
+}
+
+void QuarterRow(const uint8_t *r0, int stride, uint8_t *dst, int dstWidth) {
+    QuarterRow_C(r0, stride, dst, dstWidth);
+}
+
+#endif
+
+void ScalePlane(const uint8_t *src, int srcPixelStride, int srcWidth, int srcHeight,
+                uint8_t *dst, int dstPixelStride, int dstWidth, int dstHeight, bool chroma) {
+    if (srcPixelStride == 1 && dstPixelStride == 1) {
+        if (srcWidth == 2 * dstWidth && srcHeight == 2 * dstHeight) {
+            for (int y = 0; y < dstHeight; y++) {
+                const uint8_t *r0 = src + 2 * y * srcWidth;
+                HalveRow(r0, r0 + srcWidth, dst + y * dstWidth, dstWidth);
+            }
+            return;
+        }
+        if (srcWidth == 4 * dstWidth && srcHeight == 4 * dstHeight) {
+            for (int y = 0; y < dstHeight; y++) {
+                QuarterRow(src + 4 * y * srcWidth, srcWidth, dst + y * dstWidth, dstWidth);
+            }
+            return;
+        }
+    }
+    ScalePlaneArea(src, srcPixelStride, srcWidth, srcHeight, dst, dstPixelStride, dstWidth, dstHeight,
+                   ScalerFor(chroma));
+}
+
+}  // namespace
+
+void Scale(const uint8_t *src, int srcFormat, int srcWidth, int srcHeight,
+           uint8_t *dst, int dstFormat, int dstWidth, int dstHeight) {
+    ScalePlane(src, 1, srcWidth, srcHeight, dst, 1, dstWidth, dstHeight, false);
+    if (dstFormat == kFormatY8) {
+        return;
+    }
+    ChromaPlanes s = Planes(srcFormat, srcWidth * srcHeight);
+    ChromaPlanes d = Planes(dstFormat, dstWidth * dstHeight);
+    ScalePlane(src + s.uOffset, s.pixelStride, srcWidth / 2, srcHeight / 2,
+               dst + d.uOffset, d.pixelStride, dstWidth / 2, dstHeight / 2, true);
+    ScalePlane(src + s.vOffset, s.pixelStride, srcWidth / 2, srcHeight / 2,
+               dst + d.vOffset, d.pixelStride, dstWidth / 2, dstHeight / 2, true);
+}
+
+}  // namespace yuv
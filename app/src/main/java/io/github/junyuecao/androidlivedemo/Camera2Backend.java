@@ -0,0 +1,461 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于camera2的CameraBackend
+ * <p>
+ * 一个capture session同时输出到SurfaceTexture和YUV_420_888的ImageReader，
+ * ImageReader的Image平面直接交给FrameCallback，不像Camera1那样每帧拷贝到Java的byte[]。
+ * camera2的回调在内部的线程上，open和创建session时相机线程阻塞等待。
+ */
+@RequiresApi(21)
+public class Camera2Backend implements CameraBackend {
+    private static final String TAG = "Camera2Backend";
+    private static final long OPEN_TIMEOUT_MS = 3000;
+    /**
+     * ImageReader里最多同时持有的Image数
+     */
+    private static final int MAX_IMAGES = 3;
+
+    private final CameraManager mManager;
+    private final HandlerThread mCallbackThread;
+    private final Handler mCallbackHandler;
+
+    private int mCameraId;
+    /**
+     * 开启后断开或出错时在回调线程上清掉
+     */
+    private volatile CameraDevice mDevice;
+    private CameraCharacteristics mCharacteristics;
+    private CameraCaptureSession mSession;
+    private CaptureRequest.Builder mRequestBuilder;
+    private ImageReader mImageReader;
+    private Surface mPreviewSurface;
+
+    private int mPreviewWidth;
+    private int mPreviewHeight;
+    private Range<Integer> mFpsRange;
+    private boolean mTorchEnabled;
+
+    public Camera2Backend(Context context) {
+        mManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mCallbackThread = new HandlerThread(TAG);
+        mCallbackThread.start();
+        mCallbackHandler = new Handler(mCallbackThread.getLooper());
+    }
+
+    /**
+     * 按Camera1的cameraId(朝向)找camera2的id
+     */
+    private String findCameraId(int cameraId) throws CameraAccessException {
+        int facing = cameraId == Camera.CameraInfo.CAMERA_FACING_FRONT
+                ? CameraCharacteristics.LENS_FACING_FRONT : CameraCharacteristics.LENS_FACING_BACK;
+        for (String id : mManager.getCameraIdList()) {
+            Integer lensFacing = mManager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (lensFacing != null && lensFacing == facing) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean openCamera(int cameraId) {
+        releaseCamera();
+        final CameraDevice[] opened = new CameraDevice[1];
+        // 等待超时后设置，之后才到的onOpened直接关掉相机，否则没人持有它
+        final boolean[] cancelled = new boolean[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            String id = findCameraId(cameraId);
+            if (id == null) {
+                Log.d(TAG, "no camera facing " + cameraId);
+                return false;
+            }
+            mCharacteristics = mManager.getCameraCharacteristics(id);
+            mManager.openCamera(id, new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(CameraDevice camera) {
+                    synchronized (opened) {
+                        if (cancelled[0]) {
+                            Log.d(TAG, "camera opened after timeout, closing");
+                            camera.close();
+                            return;
+                        }
+                        opened[0] = camera;
+                    }
+                    latch.countDown();
+                }
+
+                @Override
+                public void onDisconnected(CameraDevice camera) {
+                    Log.d(TAG, "camera disconnected");
+                    onClosedByCamera(camera);
+                    latch.countDown();
+                }
+
+                @Override
+                public void onError(CameraDevice camera, int error) {
+                    Log.e(TAG, "camera error " + error);
+                    onClosedByCamera(camera);
+                    latch.countDown();
+                }
+
+                /**
+                 * 开启之后也可能收到，这时相机已经不可用，isOpened要返回false
+                 */
+                private void onClosedByCamera(CameraDevice camera) {
+                    camera.close();
+                    synchronized (opened) {
+                        if (opened[0] == camera) {
+                            opened[0] = null;
+                        }
+                        if (mDevice == camera) {
+                            mDevice = null;
+                        }
+                    }
+                }
+            }, mCallbackHandler);
+            latch.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (CameraAccessException | SecurityException e) {
+            Log.d(TAG, "openCamera fail msg=" + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (opened) {
+            if (opened[0] == null) {
+                cancelled[0] = true;
+                Log.d(TAG, "openCamera fail, camera id = " + cameraId);
+                return false;
+            }
+            mDevice = opened[0];
+        }
+        mCameraId = cameraId;
+        mTorchEnabled = false;
+        Log.d(TAG, "openCamera success. camera id = " + cameraId);
+        return true;
+    }
+
+    @Override
+    public void releaseCamera() {
+        stopPreview();
+        CameraDevice device = mDevice;
+        if (device != null) {
+            mDevice = null;
+            device.close();
+            Log.d(TAG, "camera released");
+        }
+    }
+
+    @Override
+    public boolean isOpened() {
+        return mDevice != null;
+    }
+
+    @Override
+    public int getNumberOfCameras() {
+        try {
+            return mManager.getCameraIdList().length;
+        } catch (CameraAccessException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public int getCameraId() {
+        return mCameraId;
+    }
+
+    @Override
+    public boolean isFrontCamera() {
+        return mCameraId == Camera.CameraInfo.CAMERA_FACING_FRONT;
+    }
+
+    @Override
+    public int getOrientation() {
+        if (mCharacteristics == null) {
+            return 0;
+        }
+        Integer orientation = mCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        return orientation != null ? orientation : 0;
+    }
+
+    @Override
+    public int getTimestampTimebase() {
+        if (mCharacteristics == null) {
+            return CaptureClock.TIMEBASE_MONOTONIC;
+        }
+        Integer source = mCharacteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        // UNKNOWN的时间戳实际上和nanoTime同一基准，只是不保证和其他传感器对齐
+        return source != null && source == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME
+                ? CaptureClock.TIMEBASE_REALTIME : CaptureClock.TIMEBASE_MONOTONIC;
+    }
+
+    /**
+     * SurfaceTexture和YUV_420_888都支持的尺寸
+     */
+    @Override
+    public PreviewNegotiator.Config negotiatePreview(PreviewNegotiator negotiator) {
+        if (!isOpened()) {
+            Log.d(TAG, "Camera is null, negotiatePreview just return");
+            return null;
+        }
+        StreamConfigurationMap map = mCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        List<Size> yuvSizes = Arrays.asList(map.getOutputSizes(ImageFormat.YUV_420_888));
+        List<int[]> sizes = new ArrayList<>();
+        for (Size size : map.getOutputSizes(SurfaceTexture.class)) {
+            if (yuvSizes.contains(size)) {
+                sizes.add(new int[]{size.getWidth(), size.getHeight()});
+            }
+        }
+        // camera2的帧率不乘1000，和Camera1统一成乘1000
+        List<int[]> fpsRanges = getSupportedPreviewFpsRanges();
+        PreviewNegotiator.Config config = negotiator.negotiate(sizes, fpsRanges);
+        if (config == null) {
+            return null;
+        }
+        mPreviewWidth = config.width;
+        mPreviewHeight = config.height;
+        mFpsRange = fpsRanges.isEmpty() ? null : new Range<>(config.minFps / 1000, config.maxFps / 1000);
+        Log.d(TAG, "preview config: " + config);
+        return config;
+    }
+
+    @Override
+    public List<int[]> getSupportedPreviewFpsRanges() {
+        if (mCharacteristics == null) {
+            return null;
+        }
+        List<int[]> fpsRanges = new ArrayList<>();
+        Range<Integer>[] ranges = mCharacteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges != null) {
+            for (Range<Integer> range : ranges) {
+                fpsRanges.add(new int[]{range.getLower() * 1000, range.getUpper() * 1000});
+            }
+        }
+        return fpsRanges;
+    }
+
+    /**
+     * 只需要更新repeating request
+     */
+    @Override
+    public boolean setPreviewFpsRange(int minFps, int maxFps) {
+        if (!isOpened()) {
+            return false;
+        }
+        mFpsRange = new Range<>(minFps / 1000, maxFps / 1000);
+        if (mRequestBuilder != null) {
+            mRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
+        }
+        return applyRepeatingRequest();
+    }
+
+    @Override
+    public void setPreviewSize(int width, int height) {
+        mPreviewWidth = width;
+        mPreviewHeight = height;
+    }
+
+    @Override
+    public int getPreviewWidth() {
+        return mPreviewWidth;
+    }
+
+    @Override
+    public int getPreviewHeight() {
+        return mPreviewHeight;
+    }
+
+    @Override
+    public int getPreviewFormat() {
+        return ImageFormat.YUV_420_888;
+    }
+
+    @Override
+    public void startPreview(SurfaceTexture surfaceTexture, final FrameCallback callback) {
+        CameraDevice device = mDevice;
+        if (device == null) {
+            return;
+        }
+        stopPreview();
+        surfaceTexture.setDefaultBufferSize(mPreviewWidth, mPreviewHeight);
+        mPreviewSurface = new Surface(surfaceTexture);
+        List<Surface> outputs = new ArrayList<>(2);
+        outputs.add(mPreviewSurface);
+        if (callback != null) {
+            mImageReader = ImageReader.newInstance(mPreviewWidth, mPreviewHeight, ImageFormat.YUV_420_888, MAX_IMAGES);
+            mImageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageReader reader) {
+                    Image image = reader.acquireLatestImage();
+                    if (image == null) {
+                        return;
+                    }
+                    try {
+                        Image.Plane[] planes = image.getPlanes();
+                        callback.onYuvFrame(planes[0].getBuffer(), planes[1].getBuffer(), planes[2].getBuffer(),
+                                planes[0].getRowStride(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                                image.getWidth(), image.getHeight(), image.getTimestamp());
+                    } finally {
+                        image.close();
+                    }
+                }
+            }, mCallbackHandler);
+            outputs.add(mImageReader.getSurface());
+        }
+
+        final CameraCaptureSession[] configured = new CameraCaptureSession[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            mRequestBuilder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            for (Surface output : outputs) {
+                mRequestBuilder.addTarget(output);
+            }
+            if (mFpsRange != null) {
+                mRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
+            }
+            mRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            device.createCaptureSession(outputs, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession session) {
+                    configured[0] = session;
+                    latch.countDown();
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession session) {
+                    Log.e(TAG, "capture session configure failed");
+                    latch.countDown();
+                }
+            }, mCallbackHandler);
+            if (!latch.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS) || configured[0] == null) {
+                return;
+            }
+            mSession = configured[0];
+            applyRepeatingRequest();
+        } catch (CameraAccessException e) {
+            Log.e(TAG, e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean applyRepeatingRequest() {
+        if (mSession == null) {
+            return true;
+        }
+        mRequestBuilder.set(CaptureRequest.FLASH_MODE,
+                mTorchEnabled ? CaptureRequest.FLASH_MODE_TORCH : CaptureRequest.FLASH_MODE_OFF);
+        try {
+            mSession.setRepeatingRequest(mRequestBuilder.build(), null, mCallbackHandler);
+            return true;
+        } catch (CameraAccessException | IllegalStateException | IllegalArgumentException e) {
+            Log.e(TAG, "setRepeatingRequest failed: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * ImageReader在回调线程上关闭：onImageAvailable交出去的平面没有拷贝，
+     * 在相机线程上直接close会释放正在被consumer读的Image
+     */
+    @Override
+    public void stopPreview() {
+        if (mSession != null) {
+            try {
+                mSession.stopRepeating();
+            } catch (CameraAccessException | IllegalStateException e) {
+                Log.d(TAG, "stopRepeating failed: " + e.getMessage());
+            }
+            mSession.close();
+            mSession = null;
+        }
+        if (mImageReader != null) {
+            final ImageReader reader = mImageReader;
+            mImageReader = null;
+            reader.setOnImageAvailableListener(null, null);
+            final CountDownLatch latch = new CountDownLatch(1);
+            // 排在已经派发的onImageAvailable之后
+            boolean posted = mCallbackHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    reader.close();
+                    latch.countDown();
+                }
+            });
+            if (!posted) {
+                // 回调线程已经退出，不会再有onImageAvailable
+                reader.close();
+            } else {
+                try {
+                    latch.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (mPreviewSurface != null) {
+            mPreviewSurface.release();
+            mPreviewSurface = null;
+        }
+    }
+
+    @Override
+    public void addCallbackBuffer(byte[] buffer) {
+    }
+
+    @Override
+    public void setLightEnable(boolean enable) {
+        if (mTorchEnabled == enable) {
+            return;
+        }
+        mTorchEnabled = enable;
+        applyRepeatingRequest();
+    }
+
+    @Override
+    public boolean isLightAvailable() {
+        if (mCharacteristics == null) {
+            return false;
+        }
+        Boolean available = mCharacteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+        return available != null && available;
+    }
+
+    /**
+     * 释放相机并停止回调线程，之后不能再使用
+     */
+    @Override
+    public void release() {
+        releaseCamera();
+        mCallbackThread.quitSafely();
+    }
+}
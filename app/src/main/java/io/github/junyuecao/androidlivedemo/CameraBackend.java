@@ -0,0 +1,106 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.graphics.SurfaceTexture;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 相机的开启、预览和参数设置，CameraProxy基于android.hardware.Camera，Camera2Backend基于camera2
+ * <p>
+ * 除了getter，方法都在CameraCapture的相机线程上调用，可以阻塞。
+ * cameraId沿用Camera1的约定，和Camera.CameraInfo.CAMERA_FACING_BACK/FRONT相同。
+ */
+public interface CameraBackend {
+    /**
+     * 预览帧的YUV数据，和SurfaceTexture同时输出
+     */
+    interface FrameCallback {
+        /**
+         * Camera1的NV21帧，data是addCallbackBuffer加进去的buffer，用完要再加回去
+         */
+        void onNv21Frame(byte[] data, long timestampNs);
+
+        /**
+         * camera2的YUV_420_888帧，直接是ImageReader里Image的平面，没有拷贝，只在回调期间有效
+         */
+        void onYuvFrame(ByteBuffer y, ByteBuffer u, ByteBuffer v, int yRowStride, int uvRowStride,
+                        int uvPixelStride, int width, int height, long timestampNs);
+    }
+
+    boolean openCamera(int cameraId);
+
+    void releaseCamera();
+
+    /**
+     * 释放相机和内部的线程等资源，CameraCapture销毁时调用，之后不能再使用
+     */
+    void release();
+
+    boolean isOpened();
+
+    int getNumberOfCameras();
+
+    int getCameraId();
+
+    boolean isFrontCamera();
+
+    /**
+     * @return 传感器相对屏幕自然方向的顺时针角度
+     */
+    int getOrientation();
+
+    /**
+     * @return FrameCallback和SurfaceTexture时间戳的基准，{@link CaptureClock#TIMEBASE_MONOTONIC}
+     * 或{@link CaptureClock#TIMEBASE_REALTIME}
+     */
+    int getTimestampTimebase();
+
+    /**
+     * 选择预览尺寸和帧率范围并应用
+     *
+     * @return 相机没有开启时返回null
+     */
+    PreviewNegotiator.Config negotiatePreview(PreviewNegotiator negotiator);
+
+    void setPreviewSize(int width, int height);
+
+    int getPreviewWidth();
+
+    int getPreviewHeight();
+
+    /**
+     * @return FrameCallback收到的格式，ImageFormat.NV21或ImageFormat.YUV_420_888
+     */
+    int getPreviewFormat();
+
+    /**
+     * @return 支持的帧率范围，每个是{min, max}，乘了1000；相机没有开启时为null
+     */
+    List<int[]> getSupportedPreviewFpsRanges();
+
+    /**
+     * 预览中修改帧率范围，不重启预览
+     *
+     * @param minFps 乘了1000
+     * @param maxFps 乘了1000
+     * @return 相机拒绝或者没有开启时返回false
+     */
+    boolean setPreviewFpsRange(int minFps, int maxFps);
+
+    /**
+     * @param callback 不需要YUV数据时传null
+     */
+    void startPreview(SurfaceTexture surfaceTexture, FrameCallback callback);
+
+    void stopPreview();
+
+    /**
+     * 把NV21的回调buffer还给相机，只有getPreviewFormat是NV21时有用
+     */
+    void addCallbackBuffer(byte[] buffer);
+
+    void setLightEnable(boolean enable);
+
+    boolean isLightAvailable();
+}
@@ -1,26 +1,26 @@
 package io.github.junyuecao.androidlivedemo;
 
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
+import android.opengl.EGL14;
+import android.opengl.EGLSurface;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.os.Environment;
 import android.support.annotation.RequiresApi;
 import android.util.Log;
 import android.view.Display;
 import android.view.Surface;
 import android.view.WindowManager;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -30,16 +30,71 @@ import javax.microedition.khronos.opengles.GL10;
  * 编码器
  */
 @RequiresApi(14)
-public class CameraCapture implements GLSurfaceView.Renderer {
+public class CameraCapture implements GLSurfaceView.Renderer, SurfaceTexture.OnFrameAvailableListener {
     private final String TAG = getClass().getSimpleName();
 
+    private static final int DEFAULT_DISPATCH_THREADS = 2;
+    private static final int DEFAULT_DISPATCH_QUEUE_SIZE = 2;
+    /**
+     * 不输出YUV，processTexture的outYUV为null
+     */
+    public static final int YUV_OUTPUT_NONE = -1;
+    /**
+     * setPreprocessColorConversion的色彩空间
+     */
+    public static final int COLOR_SPACE_BT601 = 0;
+    public static final int COLOR_SPACE_BT709 = 1;
+
 
     private int targetWidth = 720;
     private int targetHeight = 1280;
+    private int mTargetFps = 30;
     private TextureRender mGLRender;
+    /**
+     * 当前GL context的shader program缓存，surface尺寸变化和切换滤镜时复用
+     */
+    private ShaderProgramCache mProgramCache;
+    /**
+     * 滤镜链和它使用的FBO池，跟随GL context重建
+     */
+    private FrameBufferPool mFrameBufferPool;
+    /**
+     * mFrameBufferPool里的FBO对应的图像尺寸，只在GL线程上访问，变了之后删除旧尺寸的空闲FBO
+     */
+    private int mPooledImageWidth;
+    private int mPooledImageHeight;
+    /**
+     * 给processTexture里的贴纸等上传用的纹理池，跟随GL context重建
+     */
+    private TexturePool mTexturePool;
+    private FilterChain mFilterChain;
+    private ImageFilter[] mImageFilters;
+    /**
+     * 只在GL线程上访问，由setTextureReader设置
+     */
+    private TextureReader mTextureReader;
+    /**
+     * processTexture的outYUV格式，只在GL线程上访问
+     */
+    private int mYuvOutputFormat = YUV_OUTPUT_NONE;
+    private YuvPackPass mYuvPackPass;
+    /**
+     * 打包结果的读回，GLES3上走PBO，不阻塞GL线程
+     */
+    private TextureReader mYuvReader;
+    private byte[] mYuvBuffer;
+    private ByteBuffer mYuvByteBuffer;
+    /**
+     * mYuvBuffer里这一帧的采集时间
+     */
+    private long mYuvTimestampNs;
+    /**
+     * 是否用fence代替每帧的glFinish
+     */
+    private boolean mGpuPipelined = true;
 
     public void setFilter(final int filter) {
-        mGlSurfaceView.queueEvent(new Runnable() {
+        queueEvent(new Runnable() {
             @Override
             public void run() {
                 switch (filter) {
@@ -54,10 +109,105 @@ public class CameraCapture implements GLSurfaceView.Renderer {
         });
     }
 
+    /**
+     * 开启后渲染线程不再每帧等待GPU完成，GLES2 context上自动退化为glFinish
+     */
+    public void setGpuPipelined(final boolean pipelined) {
+        mGpuPipelined = pipelined;
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                if (mGLRender != null)
+                    mGLRender.setPipelined(pipelined);
+            }
+        });
+    }
+
+    /**
+     * 设置多pass滤镜链，相机OES纹理只在链头转换一次2D，之后每个滤镜一个pass；不传参数时关闭
+     */
+    public void setImageFilters(final ImageFilter... filters) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mImageFilters = filters;
+                if (mFilterChain != null)
+                    mFilterChain.setFilters(filters);
+            }
+        });
+    }
+
+    /**
+     * 每帧把屏幕上显示的画面(包括滤镜)异步读回，交给TextureReader的Callback，传null停止。
+     * TextureReader由调用方创建，不再使用时调用它的shutdown
+     */
+    public void setTextureReader(final TextureReader reader) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                if (mTextureReader != null && mTextureReader != reader) {
+                    mTextureReader.flush();
+                    mTextureReader.release();
+                }
+                mTextureReader = reader;
+            }
+        });
+    }
+
+    /**
+     * 每帧在GPU上把处理后的画面(包括滤镜)打包成YUV，通过processTexture的outYUV交出来，
+     * 读回的数据量是1.5字节/像素。
+     *
+     * @param format YuvConverter.FORMAT_NV12、FORMAT_I420或YUV_OUTPUT_NONE
+     */
+    public void setYuvOutputFormat(final int format) {
+        if (format != YUV_OUTPUT_NONE && format != YuvConverter.FORMAT_NV12 && format != YuvConverter.FORMAT_I420) {
+            throw new IllegalArgumentException("unsupported format " + format);
+        }
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mYuvOutputFormat = format;
+                if (format == YUV_OUTPUT_NONE) {
+                    mYuvBuffer = null;
+                    mYuvByteBuffer = null;
+                    if (mYuvPackPass != null)
+                        mYuvPackPass.release();
+                    if (mYuvReader != null)
+                        mYuvReader.release();
+                }
+            }
+        });
+    }
+
     public interface SurfaceTextureCallback {
         void onSurfaceCreated(int texWidth, int texHeight);
 
-        int processTexture(int texId, int texWidth, int texHeight, float[] matrix, byte[] outYUV);
+        /**
+         * matrix每帧复用，不要在回调之外持有
+         *
+         * @param outYUV      setYuvOutputFormat设置的格式，按相机buffer的方向(宽texHeight、高texWidth)，
+         *                    第一行是图像的顶部；没有开启时为null。GLES3上是异步读回的，是往前第二次打包的结果，
+         *                    降低处理频率或者读回没有及时完成时会晚更多帧，采集时间用getYuvTimestampNs取；
+         *                    读回还没完成的帧为null。每帧复用，不要在回调之外持有
+         * @param timestampNs texId这一帧的采集时间，System.nanoTime基准，不一定是outYUV的
+         */
+        int processTexture(int texId, int texWidth, int texHeight, float[] matrix, byte[] outYUV, long timestampNs);
+    }
+
+    /**
+     * @return processTexture收到的outYUV的采集时间，System.nanoTime基准，只在processTexture期间有效。
+     * 编码outYUV时用它做pts，而不是processTexture的timestampNs
+     */
+    public long getYuvTimestampNs() {
+        return mYuvTimestampNs;
+    }
+
+    /**
+     * 只能在GL线程上使用，比如在processTexture里上传贴纸；GL context重建后是新的池子
+     */
+    public TexturePool getTexturePool() {
+        return mTexturePool;
     }
 
     public void setSurfaceTextureCallback(SurfaceTextureCallback mSurfaceTextureCallback) {
@@ -67,80 +217,425 @@ public class CameraCapture implements GLSurfaceView.Renderer {
     protected SurfaceTextureCallback mSurfaceTextureCallback;
 
     public interface PreviewCallback {
+        /**
+         * @param tsInNanoTime 这一帧的采集时间，System.nanoTime基准
+         */
         void onPreviewFrame(byte[] bytes, int width, int height, int rotation, int fmt, long tsInNanoTime);
     }
 
+    /**
+     * PreviewCallback在FrameDispatcher的工作线程上回调，不会阻塞相机回调线程和渲染线程
+     */
     public void setPreviewCallback(PreviewCallback mPreviewCallback) {
-        this.mPreviewCallback = mPreviewCallback;
+        synchronized (mDispatcherLock) {
+            mFrameDispatcher.removeConsumer(this.mPreviewCallback);
+            this.mPreviewCallback = mPreviewCallback;
+            mFrameDispatcher.addConsumer(mPreviewCallback);
+        }
+    }
+
+    /**
+     * 增加一个预览帧的consumer，每个consumer都处理完后buffer才会还给相机
+     */
+    public void addPreviewCallback(PreviewCallback callback) {
+        synchronized (mDispatcherLock) {
+            mFrameDispatcher.addConsumer(callback);
+        }
+    }
+
+    public void removePreviewCallback(PreviewCallback callback) {
+        synchronized (mDispatcherLock) {
+            mFrameDispatcher.removeConsumer(callback);
+        }
     }
 
     protected PreviewCallback mPreviewCallback;
 
+    /**
+     * camera2的YUV_420_888帧，平面是ImageReader里Image的buffer，没有拷贝
+     */
+    public interface YuvPlanesCallback {
+        /**
+         * 在camera2的回调线程上同步调用，平面只在回调期间有效，需要保留时自己拷贝
+         *
+         * @param timestampNs 传感器的采集时间，已经换算到System.nanoTime基准
+         */
+        void onYuvFrame(ByteBuffer y, ByteBuffer u, ByteBuffer v, int yRowStride, int uvRowStride,
+                        int uvPixelStride, int width, int height, int rotation, long timestampNs);
+    }
+
+    private volatile YuvPlanesCallback mYuvPlanesCallback;
+
+    /**
+     * 使用Camera2Backend时接收YUV_420_888帧。camera2不会再把帧拷贝到byte[]，
+     * 这时PreviewCallback收不到数据
+     */
+    public void setYuvPlanesCallback(YuvPlanesCallback callback) {
+        mYuvPlanesCallback = callback;
+    }
+
     /**
      * SurfaceTexure texture id
      */
     private int mTextureId = OpenGLUtils.NO_TEXTURE;
-    private CameraProxy mCameraProxy;
+    private final CameraBackend mCameraProxy;
     /**
      * 相机摄像头ID
      */
-    private int mCameraID = Camera.CameraInfo.CAMERA_FACING_FRONT;
+    private volatile int mCameraID = Camera.CameraInfo.CAMERA_FACING_FRONT;
 
-    private int mCameraRotation = 0;
+    private volatile int mCameraRotation = 0;
     private int mImageFormat = ImageFormat.NV21;
+
+    private volatile int mImageWidth;
+    private volatile int mImageHeight;
+    private volatile int mSurfaceHeight;
+    private volatile int mSurfaceWidth;
     /**
-     * Camera支持的分辨率
+     * camera是否正在切换，切换期间一直显示旧相机的最后一帧，新相机的第一帧到达时清除
      */
-    private List<Camera.Size> mSupportedPreviewSizes;
-
-    private int mImageWidth;
-    private int mImageHeight;
-    private int mSurfaceHeight;
-    private int mSurfaceWidth;
+    private volatile boolean mCameraChanging = false;
     /**
-     * camera是否正在切换
+     * 相机线程开启了新的预览，GL线程在下一帧按新的尺寸和方向更新顶点和纹理坐标
      */
-    private boolean mCameraChanging = false;
+    private volatile boolean mSessionPending;
+    private volatile long mSwitchStartNs;
+    private volatile long mTimeToFirstFrameNs;
     private GLSurfaceView mGlSurfaceView;
-    private SurfaceTexture mSurfaceTexture;
+    /**
+     * 不使用GLSurfaceView时的渲染线程，和mGlSurfaceView只有一个不为null
+     */
+    private final RenderThread mRenderThread;
+    private final Context mContext;
+    /**
+     * GL线程创建，相机线程把它设为预览输出
+     */
+    private volatile SurfaceTexture mSurfaceTexture;
+    /**
+     * 相机当前预览输出的SurfaceTexture，只在相机线程上访问
+     */
+    private SurfaceTexture mPreviewTexture;
+    /**
+     * 相机的开启、切换、释放都在这个线程上
+     */
+    private final CameraThread mCameraThread;
     /**
      * activity是否是pause状态
      */
-    private boolean isPaused;
+    private volatile boolean isPaused;
+
+    private volatile ByteBuffer preprocessByteBuffer;
+    /**
+     * 把preprocessByteBuffer里的NV21转换成RGBA，跟随GL context重建
+     */
+    private Nv21Render mNv21Render;
+    private int mPreprocessColorSpace = COLOR_SPACE_BT601;
+    private boolean mPreprocessFullRange;
+
+    /**
+     * 预览回调的buffer环，可以在任意线程上替换，相机线程和分发线程上先读到局部变量再用
+     */
+    private volatile PreviewBufferRing mPreviewBufferRing = new PreviewBufferRing();
+    /**
+     * 已经把buffer加入当前相机队列的buffer环，只在相机线程上访问。
+     * stopPreview不会清空Camera1的buffer队列，同一个相机重启预览时不能再加一次
+     */
+    private PreviewBufferRing mQueuedBufferRing;
 
-    private ByteBuffer preprocessByteBuffer;
+    private final PreviewBufferRing.BufferQueue mCameraBufferQueue = new PreviewBufferRing.BufferQueue() {
+        @Override
+        public void queueBuffer(byte[] buffer) {
+            mCameraProxy.addCallbackBuffer(buffer);
+        }
+    };
 
-    private long renderFrameCountTotal;
+    private final FrameDispatcher.FrameReleaser mFrameReleaser = new FrameDispatcher.FrameReleaser() {
+        @Override
+        public void releaseFrame(byte[] data) {
+            mPreviewBufferRing.release(data, mCameraBufferQueue, System.nanoTime());
+        }
+    };
 
-    private long lastGetFpsTime;
+    /**
+     * 把预览帧分发给PreviewCallback的工作线程池，可以在任意线程上替换，相机线程上先读到局部变量再用
+     */
+    private volatile FrameDispatcher mFrameDispatcher = new FrameDispatcher(DEFAULT_DISPATCH_THREADS,
+            DEFAULT_DISPATCH_QUEUE_SIZE, FrameDispatcher.OVERFLOW_DROP_OLDEST, mFrameReleaser);
+    /**
+     * 替换mFrameDispatcher时不能丢掉同时增删的PreviewCallback
+     */
+    private final Object mDispatcherLock = new Object();
 
+    /**
+     * 渲染循环里复用的数组，避免每帧分配
+     */
+    private final float[] mTransformMatrix = new float[16];
+    /**
+     * 额外的输出和画它们用的EGL状态，只在GL线程上访问
+     */
+    private final ArrayList<RenderOutput> mOutputs = new ArrayList<>();
+    private EglCore mEglCore;
+    private EGLSurface mHomeDrawSurface;
+    private EGLSurface mHomeReadSurface;
+
+    /**
+     * 各渲染阶段的耗时直方图
+     */
+    private final FrameTimings mFrameTimings = new FrameTimings();
+    /**
+     * 最近一次相机回调的时间，0表示已经被渲染消费
+     */
+    private volatile long mLastFrameArrivalNs;
+    /**
+     * 只用SurfaceTexture，不注册预览回调
+     */
+    private volatile boolean mTextureOnly;
+    /**
+     * 上一次渲染之后到达的帧数，多帧只渲染一次
+     */
+    private final AtomicInteger mAvailableFrames = new AtomicInteger();
+    private volatile long mRenderedFrameCount;
+    private volatile long mSkippedFrameCount;
+    private final CaptureClock mCaptureClock = new CaptureClock();
+    /**
+     * 当前纹理里这一帧的采集时间，只在GL线程上访问
+     */
+    private long mFrameTimestampNs;
+    /**
+     * 帧率调节器，null时不调节
+     */
+    private volatile FrameRateGovernor mGovernor;
+    /**
+     * 调节器选的采集帧率，0表示使用mTargetFps
+     */
+    private volatile int mGovernedFps;
+    // 以下只在GL线程上访问
+    private int mProcessInterval = 1;
+    private int mProcessFrameIndex;
+    private long mLastDroppedCount;
 
     public void setTargetResolution(int width, int height) {
         this.targetWidth = width;
         this.targetHeight = height;
     }
 
+    /**
+     * 目标帧率，和setTargetResolution一起决定预览尺寸和帧率范围，下次开启预览时生效
+     */
+    public void setTargetFps(int fps) {
+        mTargetFps = fps;
+    }
+
+    /**
+     * 纹理模式：相机只输出到SurfaceTexture，不注册预览回调，省掉每帧拷贝到byte[]或者ImageReader的开销。
+     * 这时PreviewCallback、YuvPlanesCallback收不到数据，渲染由onFrameAvailable驱动。
+     * 正在预览时会重启预览
+     */
+    public void setTextureOnly(final boolean textureOnly) {
+        if (mTextureOnly == textureOnly) {
+            return;
+        }
+        mTextureOnly = textureOnly;
+        mCameraThread.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (mPreviewTexture != null) {
+                    // 同一个SurfaceTexture重新开始预览
+                    mPreviewTexture = null;
+                    startCameraPreview();
+                }
+            }
+        });
+    }
+
+    public boolean isTextureOnly() {
+        return mTextureOnly;
+    }
+
+    /**
+     * @return 渲染过的帧数
+     */
+    public long getRenderedFrameCount() {
+        return mRenderedFrameCount;
+    }
+
+    /**
+     * @return 两次渲染之间到达多帧时没有显示的相机帧数
+     */
+    public long getSkippedFrameCount() {
+        return mSkippedFrameCount;
+    }
+
+    /**
+     * 设置后按每帧的渲染处理耗时和掉帧数自动降低或恢复采集帧率和outYUV的输出频率，null关闭。
+     * 在GL线程上生效
+     */
+    public void setFrameRateGovernor(final FrameRateGovernor governor) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mGovernor = governor;
+                mGovernedFps = 0;
+                mProcessInterval = 1;
+                mLastDroppedCount = mCaptureClock.getDroppedFrameCount();
+                if (governor != null) {
+                    governor.reset();
+                }
+            }
+        });
+    }
+
+    /**
+     * 设置预览回调buffer的个数，需要在相机开启前调用
+     */
+    public void setPreviewBufferCount(int count) {
+        if (count != mPreviewBufferRing.getBufferCount()) {
+            mPreviewBufferRing = new PreviewBufferRing(count);
+        }
+    }
+
+    /**
+     * 配置预览帧分发的线程数、队列长度和队列满时的策略，已注册的PreviewCallback保留
+     *
+     * @param overflowPolicy {@link FrameDispatcher#OVERFLOW_DROP_OLDEST},
+     *                       {@link FrameDispatcher#OVERFLOW_DROP_NEWEST} 或 {@link FrameDispatcher#OVERFLOW_BLOCK}
+     */
+    public void setFrameDispatcherConfig(int threadCount, int queueSize, int overflowPolicy) {
+        FrameDispatcher old;
+        synchronized (mDispatcherLock) {
+            old = mFrameDispatcher;
+            FrameDispatcher dispatcher = new FrameDispatcher(threadCount, queueSize, overflowPolicy, mFrameReleaser);
+            old.moveConsumersTo(dispatcher);
+            mFrameDispatcher = dispatcher;
+        }
+        // 已经交给旧分发器的帧处理完或者被丢弃时，buffer照常还给相机
+        old.shutdown();
+    }
+
+    public FrameDispatcher getFrameDispatcher() {
+        return mFrameDispatcher;
+    }
+
+    public PreviewBufferRing getPreviewBufferRing() {
+        return mPreviewBufferRing;
+    }
+
     public CameraCapture(GLSurfaceView glSurfaceView) {
+        this(glSurfaceView, new CameraProxy());
+    }
+
+    /**
+     * @param camera 比如Camera2Backend；默认是基于android.hardware.Camera的CameraProxy
+     */
+    public CameraCapture(GLSurfaceView glSurfaceView, CameraBackend camera) {
         mTextureId = -1;
         mGlSurfaceView = glSurfaceView;
-        mCameraProxy = new CameraProxy();
+        mRenderThread = null;
+        mContext = glSurfaceView.getContext();
+        mCameraProxy = camera;
+        mCameraThread = new CameraThread();
     }
 
     /**
-     * 切换摄像头
+     * 在RenderThread上渲染，画面只输出到addOutput添加的输出上。构造后调用renderThread.start(this)
      */
-    public void switchCamera() {
-        deleteCameraPreviewTexture();
-        if (Camera.getNumberOfCameras() == 1
-                || mCameraChanging) {
-            return;
+    public CameraCapture(Context context, RenderThread renderThread, CameraBackend camera) {
+        mTextureId = -1;
+        mGlSurfaceView = null;
+        mRenderThread = renderThread;
+        mContext = context;
+        mCameraProxy = camera;
+        mCameraThread = new CameraThread();
+    }
+
+    private void queueEvent(Runnable event) {
+        if (mRenderThread != null) {
+            mRenderThread.queueEvent(event);
+        } else {
+            mGlSurfaceView.queueEvent(event);
         }
-        mCameraID = 1 - mCameraID;
-        mCameraChanging = true;
-        mCameraProxy.openCamera(mCameraID);
-        setUpCamera();
-        mCameraChanging = false;
-        mGlSurfaceView.requestRender();
+    }
+
+    private void requestRender() {
+        if (mRenderThread != null) {
+            mRenderThread.requestRender();
+        } else {
+            mGlSurfaceView.requestRender();
+        }
+    }
+
+    /**
+     * 增加一个输出，每帧处理后的画面按它的尺寸、旋转和最大帧率画上去。可以在任意线程调用
+     */
+    public void addOutput(final RenderOutput output) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                if (!mOutputs.contains(output)) {
+                    mOutputs.add(output);
+                }
+            }
+        });
+    }
+
+    /**
+     * 移除输出并释放它的EGL surface，之后可以释放Surface本身
+     *
+     * @return 在GL线程上移除完成
+     */
+    public Future<Void> removeOutput(final RenderOutput output) {
+        FutureTask<Void> task = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                if (mOutputs.remove(output)) {
+                    releaseOutput(output);
+                }
+            }
+        }, null);
+        queueEvent(task);
+        return task;
+    }
+
+    /**
+     * 切换摄像头，在相机线程上异步执行，新相机出第一帧之前屏幕上保留旧相机的最后一帧
+     *
+     * @return 新相机是否开启成功；只有一个摄像头或者正在切换时为false，开启失败时恢复原来的相机
+     */
+    public Future<Boolean> switchCamera() {
+        return mCameraThread.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                if (mCameraProxy.getNumberOfCameras() == 1 || mCameraChanging || isPaused) {
+                    return false;
+                }
+                mSwitchStartNs = System.nanoTime();
+                mCameraChanging = true;
+                int previousId = mCameraID;
+                int nextId = 1 - previousId;
+                // 旧相机和新相机共用同一个SurfaceTexture，纹理里一直是旧相机的最后一帧
+                mPreviewTexture = null;
+                if (!openCamera(nextId)) {
+                    // 打开新相机之前旧相机已经关掉了，重新打开旧相机继续预览
+                    Log.e(TAG, "failed switching to camera " + nextId + ", reopening " + previousId);
+                    mCameraChanging = false;
+                    if (openCamera(previousId)) {
+                        startCameraPreview();
+                    }
+                    return false;
+                }
+                // 开启成功之后才换ID，镜像和方向都按实际开启的相机计算
+                mCameraID = nextId;
+                startCameraPreview();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * @return 最近一次切换摄像头到新相机第一帧到达的时间，还没有切换过时为0
+     */
+    public long getTimeToFirstFrameMs() {
+        return mTimeToFirstFrameNs / 1000000;
     }
 
     /**
@@ -149,7 +644,7 @@ public class CameraCapture implements GLSurfaceView.Renderer {
      * @param enable true开启 false关闭
      */
     public void enableFlashLight(final boolean enable) {
-        mGlSurfaceView.queueEvent(new Runnable() {
+        mCameraThread.submit(new Runnable() {
             @Override
             public void run() {
                 mCameraProxy.setLightEnable(enable);
@@ -164,66 +659,95 @@ public class CameraCapture implements GLSurfaceView.Renderer {
         return mCameraProxy.isLightAvailable();
     }
 
-    private void setUpCamera() {
-        // 初始化Camera设备预览需要的显示区域(mSurfaceTexture)
-        if (mTextureId == OpenGLUtils.NO_TEXTURE) {
-            //创建一个纹理
-            mTextureId = mGLRender.getTextureId();
-            mSurfaceTexture = new SurfaceTexture(mTextureId);
-        }
-        if (mSupportedPreviewSizes == null) {
-            mSupportedPreviewSizes = mCameraProxy.getSupportedPreviewSize();
+    /**
+     * 在相机线程上开启相机，新相机的buffer队列是空的
+     */
+    private boolean openCamera(int cameraId) {
+        mQueuedBufferRing = null;
+        return mCameraProxy.openCamera(cameraId);
+    }
+
+    /**
+     * 在相机线程上开启预览，输出到GL线程创建的mSurfaceTexture；已经在预览同一个SurfaceTexture时不做任何事
+     */
+    private void startCameraPreview() {
+        SurfaceTexture surfaceTexture = mSurfaceTexture;
+        if (!mCameraProxy.isOpened() || surfaceTexture == null || surfaceTexture == mPreviewTexture) {
+            return;
         }
-        //取出相机采集支持的分辨率
+        //在相机支持的分辨率和帧率范围里选择开销最小的组合
         try {
-            Camera.Size cameraSize = CameraProxy.getClosestSupportedSize(mSupportedPreviewSizes, targetHeight, targetWidth);
-            if (cameraSize != null) {
-                mImageHeight = cameraSize.width;
-                mImageWidth = cameraSize.height;
+            PreviewNegotiator.Config config = mCameraProxy.negotiatePreview(
+                    new PreviewNegotiator(targetWidth, targetHeight)
+                            .setDisplaySize(mSurfaceWidth, mSurfaceHeight)
+                            .setTargetFps(mGovernedFps > 0 ? mGovernedFps : mTargetFps));
+            if (config != null) {
+                mImageHeight = config.width;
+                mImageWidth = config.height;
             } else {
                 mImageHeight = targetHeight;
                 mImageWidth = targetWidth;
+                mCameraProxy.setPreviewSize(mImageHeight, mImageWidth);
             }
+            Log.d(TAG, "Camera: " + mCameraProxy + " Preview :" + mCameraProxy.getPreviewWidth()
+                    + " height:" + mCameraProxy.getPreviewHeight());
 
-            mCameraProxy.setPreviewSize(mImageHeight, mImageWidth);
-            try {
-                int[] range = new int[2];
-                mCameraProxy.getParameters().getPreviewFpsRange(range);
-                Log.d(TAG,"FPS Range = " +range[0]+"~"+range[1]);
-                mCameraProxy.getParameters().setPreviewFpsRange(Math.max(range[0],5*1000),Math.min(range[1],30*1000));
-                Log.d(TAG,"Set Range = " +Math.max(range[0],5*1000)+"~"+Math.min(range[1],30*1000));
-            }catch (Exception e){
-                Log.e(TAG, e.getMessage(), e);
-            }
-            Log.d(TAG, "Camera: " + mCameraProxy.getCamera() + "Preview :" + mCameraProxy.getPreviewSize().width
-                    + " height:" + mCameraProxy.getPreviewSize().height);
+            mCameraRotation = mCameraProxy.getOrientation();
+            mImageFormat = mCameraProxy.getPreviewFormat();
+            // 在新相机的第一帧之前设置，GL线程画第一帧时已经是新的方向
+            mSessionPending = true;
 
-            final int previewBufferSize = (mImageWidth * mImageHeight * ImageFormat.getBitsPerPixel(mImageFormat)) / 8;
-            if (previewCallback != null) {
-                mCameraProxy.getCamera().addCallbackBuffer(new byte[previewBufferSize]);
-                mCameraProxy.startPreview(mSurfaceTexture, previewCallback);
-            } else
-                mCameraProxy.startPreview(mSurfaceTexture, null);
+            // 预览中不能换输出的SurfaceTexture
+            mCameraProxy.stopPreview();
+            mCaptureClock.setTimebase(mCameraProxy.getTimestampTimebase());
+            boolean textureOnly = mTextureOnly;
+            if (!textureOnly && mImageFormat == ImageFormat.NV21) {
+                // 只有Camera1需要预先分配回调buffer，camera2直接使用ImageReader的Image
+                final int previewBufferSize = (mImageWidth * mImageHeight * ImageFormat.getBitsPerPixel(mImageFormat)) / 8;
+                PreviewBufferRing ring = mPreviewBufferRing;
+                if (ring.ensureBufferSize(previewBufferSize)) {
+                    Log.d(TAG, "Preview buffers allocated: " + ring.getBufferCount()
+                            + " x " + previewBufferSize);
+                    mQueuedBufferRing = null;
+                }
+                if (mQueuedBufferRing != ring) {
+                    ring.queueAll(mCameraBufferQueue);
+                    mQueuedBufferRing = ring;
+                }
+            } else {
+                // 去掉回调时Camera1会清空buffer队列
+                mQueuedBufferRing = null;
+            }
+            mCameraProxy.startPreview(surfaceTexture, textureOnly ? null : mFrameCallback);
+            if (mPreviewTexture != null && mPreviewTexture != surfaceTexture) {
+                // surface重建后旧的SurfaceTexture已经没有人使用
+                mPreviewTexture.release();
+            }
+            mPreviewTexture = surfaceTexture;
         } catch (Exception e) {
             Log.e(TAG, e.getMessage(), e);
         }
-        Camera.CameraInfo info = new Camera.CameraInfo();
-        Camera.getCameraInfo(mCameraID, info);
+    }
 
-        mCameraRotation = info.orientation;
-        if (mGLRender != null)
-            mGLRender.adjustTextureBuffer(mCameraRotation, mCameraID == Camera.CameraInfo.CAMERA_FACING_FRONT, mCameraID == Camera.CameraInfo.CAMERA_FACING_FRONT);
+    /**
+     * 在GL线程上应用新的预览尺寸和方向
+     */
+    private void applyCameraSession() {
+        mSessionPending = false;
+        if (mSurfaceTextureCallback != null)
+            mSurfaceTextureCallback.onSurfaceCreated(mImageWidth, mImageHeight);
+        boolean front = mCameraID == Camera.CameraInfo.CAMERA_FACING_FRONT;
+        mGLRender.adjustTextureBuffer(mCameraRotation, front, front);
+        mGLRender.calculateVertexBuffer(mSurfaceWidth, mSurfaceHeight, mImageWidth, mImageHeight);
     }
 
     public void setCameraDisplayOrientation(Camera camera) {
-        Camera.Parameters parameters = camera.getParameters();
-
         android.hardware.Camera.CameraInfo camInfo =
                 new android.hardware.Camera.CameraInfo();
         android.hardware.Camera.getCameraInfo(mCameraID, camInfo);
 
 
-        Display display = ((WindowManager) mGlSurfaceView.getContext().getSystemService(Context.WINDOW_SERVICE))
+        Display display = ((WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE))
                 .getDefaultDisplay();
         int rotation = display.getRotation();
         int degrees = 0;
@@ -252,48 +776,174 @@ public class CameraCapture implements GLSurfaceView.Renderer {
         camera.setDisplayOrientation(result);
     }
 
-    public void onResume() {
+    /**
+     * 在相机线程上开启相机，surface已经就绪时直接开始预览
+     *
+     * @return 相机是否开启成功
+     */
+    public Future<Boolean> onResume() {
         isPaused = false;
-        if (mCameraProxy.getCamera() == null) {
-            if (mCameraProxy.getNumberOfCameras() == 1) {
-                mCameraID = Camera.CameraInfo.CAMERA_FACING_BACK;
+        Future<Boolean> result = mCameraThread.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                if (!mCameraProxy.isOpened()) {
+                    if (mCameraProxy.getNumberOfCameras() == 1) {
+                        mCameraID = Camera.CameraInfo.CAMERA_FACING_BACK;
+                    }
+                    if (!openCamera(mCameraID)) {
+                        return false;
+                    }
+                }
+                startCameraPreview();
+                return true;
             }
-            mCameraProxy.openCamera(mCameraID);
-            mSupportedPreviewSizes = mCameraProxy.getSupportedPreviewSize();
-        }
+        });
 //        mGlSurfaceView.onResume();
-        mGlSurfaceView.forceLayout();
-        mGlSurfaceView.requestRender();
+        if (mGlSurfaceView != null) {
+            mGlSurfaceView.forceLayout();
+        }
+        requestRender();
+        return result;
     }
 
-    public void onPause() {
+    /**
+     * 需要在GLSurfaceView.onPause之后调用，相机和SurfaceTexture在相机线程上释放
+     */
+    public Future<Void> onPause() {
         isPaused = true;
-        mCameraProxy.releaseCamera();
-//
-        deleteCameraPreviewTexture();
-        if (mSurfaceTexture != null) {
-            mSurfaceTexture.release();
-            mSurfaceTexture = null;
-        }
+        final SurfaceTexture surfaceTexture = mSurfaceTexture;
+        mSurfaceTexture = null;
+        // GL context随GLSurfaceView.onPause销毁，纹理不需要再删除
+        mTextureId = OpenGLUtils.NO_TEXTURE;
+        return mCameraThread.submit(new Runnable() {
+            @Override
+            public void run() {
+                mCameraProxy.releaseCamera();
+                mCameraChanging = false;
+                if (mPreviewTexture != null && mPreviewTexture != surfaceTexture) {
+                    mPreviewTexture.release();
+                }
+                mPreviewTexture = null;
+                if (surfaceTexture != null) {
+                    surfaceTexture.release();
+                }
+            }
+        });
+    }
+
+    private File getProgramBinaryDir() {
+        Context context = mContext;
+        if (context == null) return null;
+        return new File(context.getCacheDir(), "program_cache");
     }
 
     public void onDestroy() {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < mOutputs.size(); i++) {
+                    releaseOutput(mOutputs.get(i));
+                }
+                mOutputs.clear();
+                if (mRenderThread != null) {
+                    // RenderThread的context一直保留到quit，可以删除GL对象
+                    releaseGlObjects();
+                } else {
+                    // GLSurfaceView已经onPause，context随之销毁，这里没有当前context，只丢掉记录
+                    abandonGlObjects();
+                }
+                if (mYuvReader != null) {
+                    mYuvReader.shutdown();
+                }
+            }
+        });
+        mCameraThread.submit(new Runnable() {
+            @Override
+            public void run() {
+                mCameraProxy.release();
+            }
+        });
+        mCameraThread.quit();
+        mFrameDispatcher.shutdown();
     }
 
-    private void deleteCameraPreviewTexture() {
-        if (mTextureId != OpenGLUtils.NO_TEXTURE) {
-            GLES20.glDeleteTextures(1, new int[]{
-                    mTextureId
-            }, 0);
+    /**
+     * 删除纹理池、YUV读回和NV21转换的GL对象，只能在context还有效时调用
+     */
+    private void releaseGlObjects() {
+        if (mTexturePool != null) {
+            // 没还回来的纹理会打印泄漏报告
+            mTexturePool.release();
+        }
+        if (mYuvReader != null) {
+            mYuvReader.release();
+        }
+        if (mNv21Render != null) {
+            mNv21Render.release();
+        }
+    }
+
+    /**
+     * context已经销毁，只打印没还的纹理并丢掉记录，不调用glDelete*
+     */
+    private void abandonGlObjects() {
+        if (mTexturePool != null) {
+            String leaks = mTexturePool.getLeakReport();
+            if (!leaks.isEmpty()) {
+                Log.w(TAG, mTexturePool.getInUseCount() + " textures not released:\n" + leaks);
+            }
+            mTexturePool.abandon();
+        }
+        if (mYuvReader != null) {
+            mYuvReader.abandon();
+        }
+        if (mNv21Render != null) {
+            mNv21Render.abandon();
         }
-        mTextureId = OpenGLUtils.NO_TEXTURE;
     }
 
 
     @Override
     public void onSurfaceCreated(GL10 unused, EGLConfig config) {
-        lastGetFpsTime = System.currentTimeMillis();
-        renderFrameCountTotal = 0;
+        mProgramCache = new ShaderProgramCache(getProgramBinaryDir());
+        mProgramCache.init();
+        if (mFilterChain != null) {
+            // 旧context上的FBO已经随context销毁
+            mFilterChain.abandon();
+            mFrameBufferPool.abandon();
+        }
+        mFrameBufferPool = new FrameBufferPool();
+        if (mTexturePool != null) {
+            mTexturePool.abandon();
+        }
+        mTexturePool = new TexturePool();
+        mFilterChain = new FilterChain(mProgramCache, mFrameBufferPool);
+        mFilterChain.setFilters(mImageFilters);
+        if (mYuvPackPass != null) {
+            mYuvPackPass.abandon();
+        }
+        mYuvPackPass = new YuvPackPass(mProgramCache, mFrameBufferPool);
+        if (mYuvReader != null) {
+            mYuvReader.abandon();
+        } else {
+            mYuvReader = new TextureReader(null);
+        }
+        if (mNv21Render != null) {
+            mNv21Render.abandon();
+        }
+        mNv21Render = new Nv21Render(mProgramCache, mFrameBufferPool);
+        mNv21Render.setColorConversion(mPreprocessColorSpace, mPreprocessFullRange);
+        if (mTextureReader != null) {
+            mTextureReader.abandon();
+        }
+        // 新的context，输出的EGL surface和program都要重建
+        for (int i = 0; i < mOutputs.size(); i++) {
+            RenderOutput output = mOutputs.get(i);
+            output.mEglSurface = null;
+            output.mRender = null;
+        }
+        mEglCore = mRenderThread != null ? mRenderThread.getEglCore() : EglCore.wrapCurrent();
+        mFrameTimings.reset();
     }
 
     @Override
@@ -301,106 +951,340 @@ public class CameraCapture implements GLSurfaceView.Renderer {
         Log.d(TAG, "onSurfaceChanged " + surfaceWidth + "x" + surfaceHeight);
         mSurfaceWidth = surfaceWidth;
         mSurfaceHeight = surfaceHeight;
+        mFrameBufferPool.trim();
         GLES20.glEnable(GL10.GL_DITHER);
         GLES20.glClearColor(0, 0, 0, 0);
         GLES20.glEnable(GL10.GL_DEPTH_TEST);
         GLES20.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
-        mGLRender = new TextureRender();
+        mGLRender = new TextureRender(mProgramCache);
         mGLRender.surfaceCreated();// 需要先创建一个TextureId
-
-        if (mCameraProxy.getCamera() != null) {
-            setUpCamera();
+        mGLRender.setPipelined(mGpuPipelined);
+        if (mEglCore != null) {
+            // 画完输出之后切回来
+            mHomeDrawSurface = mEglCore.getCurrentSurface(EGL14.EGL_DRAW);
+            mHomeReadSurface = mEglCore.getCurrentSurface(EGL14.EGL_READ);
         }
-        if (mSurfaceTextureCallback != null)
-            mSurfaceTextureCallback.onSurfaceCreated(mImageWidth, mImageHeight);
 
-        mGLRender.adjustTextureBuffer(mCameraRotation, mCameraID == Camera.CameraInfo.CAMERA_FACING_FRONT, mCameraID == Camera.CameraInfo.CAMERA_FACING_FRONT);
-        mGLRender.calculateVertexBuffer(mSurfaceWidth, mSurfaceHeight, mImageWidth, mImageHeight);
+        // 相机预览输出到新render的纹理，旧的SurfaceTexture由相机线程换下后释放
+        mTextureId = mGLRender.getTextureId();
+        mSurfaceTexture = new SurfaceTexture(mTextureId);
+        // 旧SurfaceTexture留下的计数不清掉，onFrameAvailable就不会再请求渲染
+        mAvailableFrames.set(0);
+        // GL线程没有Looper，回调在主线程上
+        mSurfaceTexture.setOnFrameAvailableListener(this);
+        applyCameraSession();
+        mCameraThread.submit(new Runnable() {
+            @Override
+            public void run() {
+                startCameraPreview();
+            }
+        });
     }
 
     @Override
     public void onDrawFrame(GL10 unused) {
-        if (isPaused) return;
-        if (mCameraChanging) return;
-
+        if (isPaused || mSurfaceTexture == null) {
+            // 不画也要清掉计数，否则之后的onFrameAvailable不再请求渲染
+            mAvailableFrames.set(0);
+            return;
+        }
+        if (mSessionPending && !mCameraChanging) {
+            applyCameraSession();
+        }
+        drawCameraFrame();
+    }
 
-        if (mCameraProxy.getCamera() == null) return;
-        if (mSurfaceTexture == null) return;
-        try {
-            mSurfaceTexture.updateTexImage();
-        } catch (IllegalStateException e) {
-            Log.e(TAG, e.getMessage(), e);
+    /**
+     * 稳定状态下每帧的渲染，不能有任何对象分配
+     */
+    void drawCameraFrame() {
+        long renderStartTime = System.nanoTime();
+        int available = mAvailableFrames.getAndSet(0);
+        if (available > 1) {
+            // updateTexImage只取最新的一帧，中间的帧没有显示
+            mSkippedFrameCount += available - 1;
+        }
+        mRenderedFrameCount++;
+        mFrameTimings.onFrameRendered(renderStartTime);
+        long arrival = mLastFrameArrivalNs;
+        if (arrival != 0) {
+            mLastFrameArrivalNs = 0;
+            mFrameTimings.record(FrameTimings.STAGE_CAPTURE_TO_RENDER, renderStartTime - arrival);
         }
+        // 切换摄像头期间不更新纹理，保留旧相机的最后一帧
+        boolean latched = false;
+        if (!mCameraChanging) {
+            try {
+                mSurfaceTexture.updateTexImage();
+                mFrameTimestampNs = mCaptureClock.toMonotonic(mSurfaceTexture.getTimestamp(), renderStartTime);
+                latched = true;
+            } catch (IllegalStateException e) {
+                Log.e(TAG, e.getMessage(), e);
+            }
+        }
+        long stageEnd = System.nanoTime();
+        mFrameTimings.record(FrameTimings.STAGE_UPDATE_TEX_IMAGE, stageEnd - renderStartTime);
         GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
-        long renderStartTime = System.currentTimeMillis();
         int texId2D = mTextureId;
+        mSurfaceTexture.getTransformMatrix(mTransformMatrix);
+
+        int filteredTexId = OpenGLUtils.NO_TEXTURE;
+        ByteBuffer preprocessed = preprocessByteBuffer;
+        if (preprocessed != null && mNv21Render != null
+                && preprocessed.capacity() >= mImageWidth * mImageHeight * 3 / 2) {
+            // 显示预处理后的NV21，按相机buffer的方向
+            int nv21TexId;
+            synchronized (preprocessed) {
+                nv21TexId = mNv21Render.render(preprocessed, mImageHeight, mImageWidth, YuvConverter.FORMAT_NV21);
+            }
+            filteredTexId = mFilterChain != null ? mFilterChain.process2D(nv21TexId, mImageHeight, mImageWidth)
+                    : nv21TexId;
+        } else if (mFilterChain != null && !mFilterChain.isEmpty()) {
+            // 滤镜链按相机buffer的方向处理，宽高和mImageWidth/mImageHeight相反
+            filteredTexId = mFilterChain.process(mTextureId, mTransformMatrix, mImageHeight, mImageWidth);
+        }
 
         if (mSurfaceTextureCallback != null) {
-            float[] matrix = new float[16];
-            mSurfaceTexture.getTransformMatrix(matrix);
-            texId2D = mSurfaceTextureCallback.processTexture(texId2D, mImageWidth, mImageHeight, matrix, null);
+            long stageStart = System.nanoTime();
+            // outYUV要包含滤镜的结果，所以放在滤镜链之后
+            // 调节器降低处理频率时，跳过的帧不输出outYUV
+            byte[] outYUV = mProcessFrameIndex++ % mProcessInterval == 0 ? packYuv(filteredTexId) : null;
+            texId2D = mSurfaceTextureCallback.processTexture(texId2D, mImageWidth, mImageHeight, mTransformMatrix, outYUV,
+                    mFrameTimestampNs);
+            stageEnd = System.nanoTime();
+            mFrameTimings.record(FrameTimings.STAGE_PROCESS_TEXTURE, stageEnd - stageStart);
         }
 
-//        saveTextureToFile(texId2D,mImageWidth,mImageHeight);
-        GLES20.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
-        mGLRender.drawFrame(mSurfaceTexture);
-        renderFrameCountTotal++;
+        long drawStart = System.nanoTime();
+        if (mRenderThread == null) {
+            GLES20.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
+            if (filteredTexId != OpenGLUtils.NO_TEXTURE) {
+                mGLRender.drawTexture(filteredTexId);
+            } else {
+                mGLRender.drawFrame(mSurfaceTexture);
+            }
+        }
+        if (latched && !mOutputs.isEmpty()) {
+            drawOutputs(filteredTexId);
+        }
+        long drawEnd = System.nanoTime();
+        mFrameTimings.record(FrameTimings.STAGE_DRAW_FRAME, drawEnd - drawStart);
+        if (latched) {
+            // GLSurfaceView在onDrawFrame返回后才swap，这里是提交到显示之前的最后时刻
+            mCaptureClock.onFrameDisplayed(mFrameTimestampNs, drawEnd);
+            FrameRateGovernor governor = mGovernor;
+            if (governor != null) {
+                long dropped = mCaptureClock.getDroppedFrameCount();
+                if (governor.onFrame(drawEnd - renderStartTime, (int) (dropped - mLastDroppedCount))) {
+                    applyGovernorLevel(governor);
+                }
+                mLastDroppedCount = dropped;
+            }
+        }
+        if (mImageWidth != mPooledImageWidth || mImageHeight != mPooledImageHeight) {
+            // 各个pass在这一帧已经换成新尺寸的FBO，旧尺寸的都还回了池子
+            mFrameBufferPool.trim();
+            mPooledImageWidth = mImageWidth;
+            mPooledImageHeight = mImageHeight;
+        }
+        if (mTextureReader != null && mRenderThread == null) {
+            mTextureReader.readFramebuffer(mSurfaceWidth, mSurfaceHeight, mFrameTimestampNs);
+        }
     }
 
-    public void saveTextureToFile(int textureId, int width, int height) {
-        if (width <= 0 || height <= 0)
+    /**
+     * 把这一帧的结果画到每个到了时间的输出上，画完切回原来的surface
+     */
+    private void drawOutputs(int filteredTexId) {
+        if (mEglCore == null) {
             return;
-        ByteBuffer rgbaBuffer = ByteBuffer.allocate(width * height * 4);
-        Bitmap srcBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        rgbaBuffer.position(0);
-        srcBitmap.copyPixelsFromBuffer(rgbaBuffer);
-        File file = new File(Environment.getExternalStorageDirectory() + File.separator + "test" + File.separator + System.currentTimeMillis() + ".jpg");
-        File parent = new File(file.getParent());
-        if (!parent.exists())
-            parent.mkdirs();
-        if (!file.exists())
-            try {
-                file.createNewFile();
-            } catch (IOException e) {
-                e.printStackTrace();
+        }
+        boolean front = mCameraID == Camera.CameraInfo.CAMERA_FACING_FRONT;
+        for (int i = 0; i < mOutputs.size(); i++) {
+            RenderOutput output = mOutputs.get(i);
+            if (!output.shouldRender(mFrameTimestampNs)) {
+                continue;
             }
-        BufferedOutputStream bos = null;
-        try {
-            bos = new BufferedOutputStream(new FileOutputStream(file));
-            srcBitmap.compress(Bitmap.CompressFormat.JPEG, 90, bos);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } finally {
-            if (bos != null)
+            if (output.mEglSurface == null) {
                 try {
-                    bos.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    output.mEglSurface = output.isOffscreen()
+                            ? mEglCore.createOffscreenSurface(output.getWidth(), output.getHeight())
+                            : mEglCore.createWindowSurface(output.getSurface());
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "create surface failed for " + output, e);
+                    mOutputs.remove(i--);
+                    continue;
                 }
+            }
+            if (!mEglCore.makeCurrent(output.mEglSurface)) {
+                continue;
+            }
+            if (output.mRender == null) {
+                output.mRender = new TextureRender(mProgramCache);
+                output.mRender.initPrograms();
+                // window surface由swap同步，pbuffer由Callback自己读取
+                output.mRender.setFrameSync(false);
+                output.mGeometryRotation = -1;
+            }
+            int rotation = (mCameraRotation + output.getRotation()) % 360;
+            if (rotation != output.mGeometryRotation || front != output.mGeometryMirror
+                    || mImageWidth != output.mGeometryImageWidth || mImageHeight != output.mGeometryImageHeight) {
+                output.mGeometryRotation = rotation;
+                output.mGeometryMirror = front;
+                output.mGeometryImageWidth = mImageWidth;
+                output.mGeometryImageHeight = mImageHeight;
+                boolean swap = output.getRotation() == 90 || output.getRotation() == 270;
+                output.mRender.adjustTextureBuffer(rotation, front, front);
+                output.mRender.calculateVertexBuffer(output.getWidth(), output.getHeight(),
+                        swap ? mImageHeight : mImageWidth, swap ? mImageWidth : mImageHeight);
+            }
+            GLES20.glViewport(0, 0, output.getWidth(), output.getHeight());
+            GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            if (filteredTexId != OpenGLUtils.NO_TEXTURE) {
+                output.mRender.drawTexture(filteredTexId);
+            } else {
+                output.mRender.drawExternalTexture(mTextureId, mTransformMatrix);
+            }
+            RenderOutput.Callback callback = output.getCallback();
+            if (callback != null) {
+                callback.onFrameRendered(output, mFrameTimestampNs);
+            }
+            if (!output.isOffscreen()) {
+                // 编码器用采集时间作为pts
+                mEglCore.setPresentationTime(output.mEglSurface, mFrameTimestampNs);
+                mEglCore.swapBuffers(output.mEglSurface);
+            }
+        }
+        mEglCore.makeCurrent(mHomeDrawSurface, mHomeReadSurface);
+    }
+
+    /**
+     * 在GL线程上释放输出的EGL surface
+     */
+    private void releaseOutput(RenderOutput output) {
+        if (output.mEglSurface != null && mEglCore != null) {
+            mEglCore.releaseSurface(output.mEglSurface);
+        }
+        output.mEglSurface = null;
+        output.mRender = null;
+    }
+
+    private void applyGovernorLevel(FrameRateGovernor governor) {
+        mProcessInterval = governor.getProcessInterval();
+        final int fps = governor.getFps();
+        Log.d(TAG, "frame rate governor: " + fps + "fps, process every " + mProcessInterval + " frames");
+        if (fps == mGovernedFps) {
+            return;
+        }
+        mGovernedFps = fps;
+        mCameraThread.submit(new Runnable() {
+            @Override
+            public void run() {
+                int[] range = PreviewNegotiator.chooseFpsRange(mCameraProxy.getSupportedPreviewFpsRanges(), fps * 1000);
+                if (range != null && mCameraProxy.setPreviewFpsRange(range[0], range[1])) {
+                    mCaptureClock.resetIntervalEstimate();
+                }
+            }
+        });
+    }
+
+    /**
+     * 把滤镜结果(没有滤镜时是相机的OES纹理)打包成YUV，读回到mYuvBuffer
+     * <p>
+     * GLES3上读回走mYuvReader的PBO，拿到的是往前第二次打包的结果，不等GPU；结果的采集时间记在mYuvTimestampNs
+     *
+     * @return 没有开启、尺寸不支持或者还没有读回完成的结果时返回null
+     */
+    private byte[] packYuv(int filteredTexId) {
+        int width = mImageHeight;
+        int height = mImageWidth;
+        if (mYuvOutputFormat == YUV_OUTPUT_NONE || mYuvPackPass == null
+                || !YuvPackPass.isSupportedSize(width, height)) {
+            return null;
+        }
+        int size = YuvPackPass.yuvSize(width, height);
+        if (mYuvBuffer == null || mYuvBuffer.length != size) {
+            mYuvBuffer = new byte[size];
+            mYuvByteBuffer = ByteBuffer.wrap(mYuvBuffer);
+        }
+        if (filteredTexId != OpenGLUtils.NO_TEXTURE) {
+            mYuvPackPass.pack(filteredTexId, false, null, width, height, mYuvOutputFormat);
+        } else {
+            mYuvPackPass.pack(mTextureId, true, mTransformMatrix, width, height, mYuvOutputFormat);
+        }
+        mYuvByteBuffer.clear();
+        if (!mYuvReader.readTextureInto(mYuvPackPass.getPackedTextureId(), YuvPackPass.packedWidth(width),
+                YuvPackPass.packedHeight(height), mFrameTimestampNs, mYuvByteBuffer)) {
+            return null;
+        }
+        mYuvTimestampNs = mYuvReader.getLastCollectedTimestampNs();
+        return mYuvBuffer;
+    }
+
+    /**
+     * 新的一帧进入SurfaceTexture时请求渲染，上一次请求还没有渲染时只计数
+     */
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        if (surfaceTexture != mSurfaceTexture) {
+            // surface重建前的旧SurfaceTexture
+            return;
+        }
+        long now = System.nanoTime();
+        onFrameArrived(now);
+        if (mTextureOnly) {
+            // 没有预览回调，用到达时间估计帧间隔和掉帧
+            mCaptureClock.onFrameCaptured(0, now);
+        }
+        if (mAvailableFrames.getAndIncrement() == 0) {
+            requestRender();
         }
-        srcBitmap.recycle();
     }
-//
-//    @Override
-//    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
-//        if (!mCameraChanging) {
-//            mGlSurfaceView.requestRender();
-//        }
-//    }
 
-    private Camera.PreviewCallback previewCallback = new Camera.PreviewCallback() {
+    private final CameraBackend.FrameCallback mFrameCallback = new CameraBackend.FrameCallback() {
         @Override
-        public void onPreviewFrame(byte[] data, Camera camera) {
-            if (camera != null)
-                camera.addCallbackBuffer(data);
-            if (!mCameraChanging) {
-                mGlSurfaceView.requestRender();
+        public void onNv21Frame(byte[] data, long timestampNs) {
+            long now = System.nanoTime();
+            long captureNs = mCaptureClock.onFrameCaptured(timestampNs, now);
+            // 两个字段都可能在别的线程上被替换，这一帧只用同一个实例
+            PreviewBufferRing ring = mPreviewBufferRing;
+            FrameDispatcher dispatcher = mFrameDispatcher;
+            if (ring.onFrameDelivered(data, now)) {
+                if (dispatcher.hasConsumers()) {
+                    dispatcher.dispatch(data, mImageWidth, mImageHeight, mCameraRotation, mImageFormat,
+                            captureNs);
+                } else {
+                    ring.release(data, mCameraBufferQueue, System.nanoTime());
+                }
+            }
+        }
+
+        @Override
+        public void onYuvFrame(ByteBuffer y, ByteBuffer u, ByteBuffer v, int yRowStride, int uvRowStride,
+                               int uvPixelStride, int width, int height, long timestampNs) {
+            long captureNs = mCaptureClock.onFrameCaptured(timestampNs, System.nanoTime());
+            YuvPlanesCallback callback = mYuvPlanesCallback;
+            if (callback != null) {
+                callback.onYuvFrame(y, u, v, yRowStride, uvRowStride, uvPixelStride, width, height,
+                        mCameraRotation, captureNs);
             }
         }
     };
 
+    private void onFrameArrived(long now) {
+        mLastFrameArrivalNs = now;
+        // mSessionPending在新相机startPreview之前设置，之前到达的是旧相机的帧
+        if (mCameraChanging && mSessionPending) {
+            // 新相机的第一帧
+            mTimeToFirstFrameNs = now - mSwitchStartNs;
+            mCameraChanging = false;
+            Log.d(TAG, "time to first frame after switch: " + mTimeToFirstFrameNs / 1000000 + "ms");
+        }
+    }
+
     public boolean isFrontCamera() {
         return mCameraID == Camera.CameraInfo.CAMERA_FACING_FRONT;
     }
@@ -409,17 +1293,75 @@ public class CameraCapture implements GLSurfaceView.Renderer {
         return mCameraRotation;
     }
 
+    /**
+     * 设置后每帧显示这个buffer里的NV21而不是相机纹理，用于显示CPU预处理(美颜等)之后的帧，
+     * 在GPU上转换成RGB，不需要在CPU上转RGBA。滤镜、outYUV和输出都作用在它上面，processTexture仍然收到相机纹理
+     *
+     * @param byteBuffer 和预览回调的NV21相同的尺寸和方向，至少宽 * 高 * 3 / 2字节；
+     *                   写入时要对byteBuffer加锁，容量不够时显示相机纹理。传null恢复显示相机纹理
+     */
     public void setPreprocessByteBuffer(ByteBuffer byteBuffer) {
         preprocessByteBuffer = byteBuffer;
+        if (byteBuffer == null) {
+            queueEvent(new Runnable() {
+                @Override
+                public void run() {
+                    // 不再显示预处理的帧，释放两个平面的纹理和输出的FBO，重新设置时再创建
+                    if (mNv21Render != null && preprocessByteBuffer == null) {
+                        mNv21Render.release();
+                    }
+                }
+            });
+        }
     }
 
-    public double getRenderFps() {
-        long currentTime = System.currentTimeMillis();
-        if ((currentTime - lastGetFpsTime) == 0) return 0;
+    /**
+     * 预处理buffer的YUV转RGB方式，默认BT.601 video range，和YuvConverter一致
+     *
+     * @param colorSpace COLOR_SPACE_BT601或COLOR_SPACE_BT709
+     * @param fullRange  Y是否是0~255
+     */
+    public void setPreprocessColorConversion(final int colorSpace, final boolean fullRange) {
+        if (colorSpace != COLOR_SPACE_BT601 && colorSpace != COLOR_SPACE_BT709) {
+            throw new IllegalArgumentException("unsupported color space " + colorSpace);
+        }
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mPreprocessColorSpace = colorSpace;
+                mPreprocessFullRange = fullRange;
+                if (mNv21Render != null) {
+                    mNv21Render.setColorConversion(colorSpace, fullRange);
+                }
+            }
+        });
+    }
 
-        double result = (double) (renderFrameCountTotal) * 1000 / (double) (currentTime - lastGetFpsTime);
-        lastGetFpsTime = currentTime;
-        renderFrameCountTotal = 0;
-        return result;
+    /**
+     * @return 采集时钟，可以设置Listener拿到每帧采集到显示的延迟和异常的帧间隔
+     */
+    public CaptureClock getCaptureClock() {
+        return mCaptureClock;
+    }
+
+    /**
+     * @return 各渲染阶段的p50/p95/p99/max和jank次数，按FrameTimings.STAGE_*排列
+     */
+    public LatencyHistogram.Snapshot[] getFrameTimings() {
+        return mFrameTimings.snapshot();
+    }
+
+    public void resetFrameTimings() {
+        mFrameTimings.reset();
+    }
+
+    /**
+     * @deprecated 只有平均值，用 {@link #getFrameTimings()} 查看各阶段的分布
+     */
+    @Deprecated
+    public double getRenderFps() {
+        long meanInterval = mFrameTimings.getHistogram(FrameTimings.STAGE_FRAME_INTERVAL).snapshot().meanNs;
+        if (meanInterval == 0) return 0;
+        return 1000000000.0 / meanInterval;
     }
 }
\ No newline at end of file
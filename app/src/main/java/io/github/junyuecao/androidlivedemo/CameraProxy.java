@@ -1,5 +1,6 @@
 package io.github.junyuecao.androidlivedemo;
 
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
@@ -10,14 +11,13 @@ import android.hardware.Camera.Size;
 import android.util.Log;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
- * 相机开启，参数设置，闪光灯等操作
+ * 相机开启，参数设置，闪光灯等操作，基于android.hardware.Camera的CameraBackend
  */
-public class CameraProxy {
+public class CameraProxy implements CameraBackend {
 
     private final String TAG = getClass().getSimpleName();
 
@@ -25,16 +25,34 @@ public class CameraProxy {
     private Camera mCamera;
 
     private CameraInfo mCameraInfo = new CameraInfo();
+    /**
+     * 参数缓存，读取不需要再走一次binder和字符串解析；修改通过beginParameters/commitParameters
+     */
+    private Parameters mParameters;
+    private int mTransactionDepth;
+    /**
+     * 相机开启后不会变化的能力，开启时读一次
+     */
+    private List<Size> mSupportedPreviewSizes;
+    private List<int[]> mSupportedPreviewFpsRanges;
+    private List<String> mSupportedFlashModes;
+    private List<String> mSupportedFocusModes;
 
     public Camera getCamera() {
         return mCamera;
     }
 
+    @Override
     public boolean openCamera(int cameraId) {
         try {
             releaseCamera();
             mCamera = Camera.open(cameraId);
-            mCamera.getParameters();
+            mParameters = mCamera.getParameters();
+            mSupportedPreviewSizes = mParameters.getSupportedPreviewSizes();
+            mSupportedPreviewFpsRanges = mParameters.getSupportedPreviewFpsRange();
+            mSupportedFlashModes = mParameters.getSupportedFlashModes();
+            mSupportedFocusModes = mParameters.getSupportedFocusModes();
+            mTransactionDepth = 0;
             mCameraId = cameraId;
             mCamera.getCameraInfo(cameraId, mCameraInfo);
 
@@ -49,16 +67,26 @@ public class CameraProxy {
         return true;
     }
 
+    @Override
     public void releaseCamera() {
         if (mCamera != null) {
             mCamera.setPreviewCallback(null);
             mCamera.stopPreview();
             mCamera.release();
             mCamera = null;
+            mParameters = null;
             Log.d(TAG, "camera released");
         }
     }
 
+    /**
+     * Camera1没有额外的线程，只释放相机
+     */
+    @Override
+    public void release() {
+        releaseCamera();
+    }
+
     /**
      * 启动相机预览
      *
@@ -68,20 +96,43 @@ public class CameraProxy {
     public void startPreview(SurfaceTexture surfaceTexture, PreviewCallback previewcallback) {
         try {
             mCamera.setPreviewTexture(surfaceTexture);
-            if (previewcallback != null) {
-                mCamera.setPreviewCallbackWithBuffer(previewcallback);
-            }
+            // Camera1的回调在明确清掉之前一直有效，stopPreview也不会清，不要回调时必须设为null
+            setPreviewCallbackWithBuffer(previewcallback);
             mCamera.startPreview();
         } catch (IOException e) {
             Log.e(TAG, e.getMessage(), e);
         }
     }
 
+    void setPreviewCallbackWithBuffer(PreviewCallback previewCallback) {
+        mCamera.setPreviewCallbackWithBuffer(previewCallback);
+    }
+
+    @Override
+    public void startPreview(SurfaceTexture surfaceTexture, final FrameCallback callback) {
+        PreviewCallback previewCallback = null;
+        if (callback != null) {
+            previewCallback = new PreviewCallback() {
+                @Override
+                public void onPreviewFrame(byte[] data, Camera camera) {
+                    callback.onNv21Frame(data, System.nanoTime());
+                }
+            };
+        }
+        startPreview(surfaceTexture, previewCallback);
+    }
+
     public void startPreview() {
         if (mCamera != null)
             mCamera.startPreview();
     }
 
+    @Override
+    public boolean isOpened() {
+        return mCamera != null;
+    }
+
+    @Override
     public void stopPreview() {
         if (mCamera != null)
             mCamera.stopPreview();
@@ -89,11 +140,26 @@ public class CameraProxy {
 
     public Size getPreviewSize() {
         if (mCamera != null) {
-            return mCamera.getParameters().getPreviewSize();
+            return mParameters.getPreviewSize();
         }
         return null;
     }
 
+    @Override
+    public int getPreviewWidth() {
+        return mCamera != null ? mParameters.getPreviewSize().width : 0;
+    }
+
+    @Override
+    public int getPreviewHeight() {
+        return mCamera != null ? mParameters.getPreviewSize().height : 0;
+    }
+
+    @Override
+    public int getPreviewFormat() {
+        return ImageFormat.NV21;
+    }
+
     public void setOneShotPreviewCallback(PreviewCallback callback) {
         mCamera.setOneShotPreviewCallback(callback);
     }
@@ -102,7 +168,15 @@ public class CameraProxy {
         mCamera.addCallbackBuffer(callbackBuffer);
     }
 
+    @Override
+    public void addCallbackBuffer(byte[] buffer) {
+        Camera camera = mCamera;
+        if (camera != null)
+            camera.addCallbackBuffer(buffer);
+    }
+
 
+    @Override
     public int getOrientation() {
         if (mCameraInfo == null) {
             return 0;
@@ -110,6 +184,14 @@ public class CameraProxy {
         return mCameraInfo.orientation;
     }
 
+    /**
+     * Camera1的回调没有时间戳，onNv21Frame用的是回调时的System.nanoTime
+     */
+    @Override
+    public int getTimestampTimebase() {
+        return CaptureClock.TIMEBASE_MONOTONIC;
+    }
+
     public boolean isFlipHorizontal() {
         if (mCameraInfo == null) {
             return false;
@@ -117,19 +199,24 @@ public class CameraProxy {
         return mCameraInfo.facing == CameraInfo.CAMERA_FACING_FRONT ? true : false;
     }
 
+    @Override
     public int getCameraId() {
         return mCameraId;
     }
 
+    @Override
     public boolean isFrontCamera() {
         return mCameraId == CameraInfo.CAMERA_FACING_FRONT;
     }
 
     public void setRotation(int rotation) {
         if (mCamera != null) {
-            Parameters params = mCamera.getParameters();
-            params.setRotation(rotation);
-            mCamera.setParameters(params);
+            Parameters parameters = beginParameters();
+            try {
+                parameters.setRotation(rotation);
+            } finally {
+                commitParameters();
+            }
         }
     }
 
@@ -163,58 +250,136 @@ public class CameraProxy {
     }
 
     private void setDefaultParameters() {
-        Parameters parameters = mCamera.getParameters();
-        Log.d(TAG, "parameters: " + parameters.flatten());
-        if (parameters.getSupportedFocusModes().contains(
-                Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
-            parameters.setFocusMode(Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
-        }
-        List<String> flashModes = parameters.getSupportedFlashModes();
-        if (flashModes != null && flashModes.contains(Parameters.FLASH_MODE_OFF)) {
-            parameters.setFlashMode(Parameters.FLASH_MODE_OFF);
-        }
+        Parameters parameters = beginParameters();
+        try {
+            Log.d(TAG, "parameters: " + parameters.flatten());
+            if (mSupportedFocusModes != null && mSupportedFocusModes.contains(
+                    Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
+                parameters.setFocusMode(Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+            }
+            List<String> flashModes = mSupportedFlashModes;
+            if (flashModes != null && flashModes.contains(Parameters.FLASH_MODE_OFF)) {
+                parameters.setFlashMode(Parameters.FLASH_MODE_OFF);
+            }
 
-        Point previewSize = getSuitablePreviewSize();
-        //	parameters.setPreviewSize(previewSize.x, previewSize.y);
-        parameters.setPreviewSize(640, 480);
-        Point pictureSize = getSuitablePictureSize();
-        parameters.setPictureSize(pictureSize.x, pictureSize.y);
-//        parameters.setPreviewFormat(ImageFormat.NV21);
-        mCamera.setParameters(parameters);
+            // 预览尺寸在setUpCamera里由negotiatePreview决定
+            Point pictureSize = getSuitablePictureSize();
+            parameters.setPictureSize(pictureSize.x, pictureSize.y);
+//            parameters.setPreviewFormat(ImageFormat.NV21);
+        } finally {
+            commitParameters();
+        }
     }
 
+    /**
+     * @return 缓存的参数，只用来读取；修改请用beginParameters
+     */
     public Parameters getParameters() {
-        return mCamera.getParameters();
+        return mParameters;
+    }
+
+    /**
+     * 开始修改参数，返回的缓存可以连续设置多个字段，commitParameters时一次setParameters。
+     * 可以嵌套，最外层commit时才提交；commitParameters要放在finally里，否则中间抛异常后之后的修改都不会提交
+     */
+    public Parameters beginParameters() {
+        mTransactionDepth++;
+        return mParameters;
+    }
+
+    /**
+     * 提交beginParameters之后的修改
+     *
+     * @return 相机拒绝时返回false，缓存会重新从相机读取
+     */
+    public boolean commitParameters() {
+        if (mTransactionDepth == 0) {
+            throw new IllegalStateException("commitParameters without beginParameters");
+        }
+        if (--mTransactionDepth > 0 || mCamera == null) {
+            return true;
+        }
+        try {
+            mCamera.setParameters(mParameters);
+            return true;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "setParameters failed: " + e.getMessage(), e);
+            mParameters = mCamera.getParameters();
+            return false;
+        }
     }
 
+    @Override
     public void setPreviewSize(int width, int height) {
         if (mCamera == null) {
             Log.d(TAG, "Camera is null, setPreviewSize just return");
             return;
         }
-        Parameters parameters = mCamera.getParameters();
-        parameters.setPreviewSize(width, height);
-        mCamera.setParameters(parameters);
-        Log.d(TAG, mCamera.getParameters().get("preview-size"));
+        Parameters parameters = beginParameters();
+        try {
+            parameters.setPreviewSize(width, height);
+        } finally {
+            commitParameters();
+        }
+        Log.d(TAG, mParameters.get("preview-size"));
+    }
+
+    /**
+     * 用PreviewNegotiator选择预览尺寸和帧率范围，一次setParameters设置
+     *
+     * @return 选中的配置，相机没有开启时返回null
+     */
+    @Override
+    public PreviewNegotiator.Config negotiatePreview(PreviewNegotiator negotiator) {
+        if (mCamera == null) {
+            Log.d(TAG, "Camera is null, negotiatePreview just return");
+            return null;
+        }
+        List<int[]> sizes = new ArrayList<>(mSupportedPreviewSizes.size());
+        for (Size s : mSupportedPreviewSizes) {
+            sizes.add(new int[]{s.width, s.height});
+        }
+        PreviewNegotiator.Config config = negotiator.negotiate(sizes, mSupportedPreviewFpsRanges);
+        if (config == null) {
+            return null;
+        }
+        Parameters parameters = beginParameters();
+        try {
+            parameters.setPreviewSize(config.width, config.height);
+            parameters.setPreviewFpsRange(config.minFps, config.maxFps);
+        } finally {
+            commitParameters();
+        }
+        Log.d(TAG, "preview config: " + config);
+        return config;
     }
 
-    private Point getSuitablePreviewSize() {
-        Point defaultsize = new Point(1920, 1080);
+    @Override
+    public List<int[]> getSupportedPreviewFpsRanges() {
         if (mCamera != null) {
-            List<Size> sizes = mCamera.getParameters().getSupportedPreviewSizes();
-            for (Size s : sizes) {
-                if ((s.width == defaultsize.x) && (s.height == defaultsize.y)) {
-                    return defaultsize;
-                }
-            }
-            return new Point(640, 480);
+            return mSupportedPreviewFpsRanges;
         }
         return null;
     }
 
+    @Override
+    public boolean setPreviewFpsRange(int minFps, int maxFps) {
+        if (mCamera == null) {
+            return false;
+        }
+        Parameters parameters = beginParameters();
+        boolean applied;
+        try {
+            parameters.setPreviewFpsRange(minFps, maxFps);
+        } finally {
+            applied = commitParameters();
+        }
+        return applied;
+    }
+
     public List<Size> getSupportedPreviewSize() {
         if (mCamera != null) {
-            return mCamera.getParameters().getSupportedPreviewSizes();
+            return mSupportedPreviewSizes;
         }
         return null;
     }
@@ -224,7 +389,7 @@ public class CameraProxy {
         //	Point defaultsize = new Point(3264, 2448);
         if (mCamera != null) {
             Point maxSize = new Point(0, 0);
-            List<Size> sizes = mCamera.getParameters().getSupportedPictureSizes();
+            List<Size> sizes = mParameters.getSupportedPictureSizes();
             for (Size s : sizes) {
                 if ((s.width == defaultsize.x) && (s.height == defaultsize.y)) {
                     return defaultsize;
@@ -240,48 +405,34 @@ public class CameraProxy {
     }
 
 
+    @Override
     public int getNumberOfCameras() {
         return Camera.getNumberOfCameras();
     }
 
+    @Override
     public void setLightEnable(boolean enable) {
         if (mCamera == null) return;
-        Parameters parameters = mCamera.getParameters();
-
-        if (enable) {
-            parameters.setFlashMode(Parameters.FLASH_MODE_TORCH);
-        } else {
-            parameters.setFlashMode(Parameters.FLASH_MODE_OFF);
+        String mode = enable ? Parameters.FLASH_MODE_TORCH : Parameters.FLASH_MODE_OFF;
+        if (mode.equals(mParameters.getFlashMode())) {
+            return;
         }
+        Parameters parameters = beginParameters();
         try {
-            mCamera.setParameters(parameters);
-        } catch (Exception ignore) {
+            parameters.setFlashMode(mode);
+        } finally {
+            commitParameters();
         }
     }
 
+    @Override
     public boolean isLightAvailable() {
         if (mCamera == null) return false;
-        Parameters parameters = mCamera.getParameters();
 
-        List<String> flashModes = parameters.getSupportedFlashModes();
+        List<String> flashModes = mSupportedFlashModes;
         if (flashModes == null) return false;
         if (flashModes.contains(Parameters.FLASH_MODE_TORCH)) return true;
         return false;
     }
 
-    public static Size getClosestSupportedSize(List<Size> supportedSizes, final int requestedWidth, final int requestedHeight) {
-        if (supportedSizes == null) return null;
-        return Collections.min(supportedSizes, new Comparator<Size>() {
-
-            private int diff(final Size size) {
-                return Math.abs(requestedWidth - size.width) + Math.abs(requestedHeight - size.height);
-            }
-
-            @Override
-            public int compare(final Size lhs, final Size rhs) {
-                return diff(lhs) - diff(rhs);
-            }
-        });
-    }
-
 }
@@ -0,0 +1,60 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 相机专用的HandlerThread
+ * <p>
+ * 开启、切换、释放相机和设置参数都在这个线程上串行执行，不阻塞UI线程和GL线程。
+ * Camera在这个线程上open，所以预览帧等回调也投递到这个线程的Looper上。
+ */
+class CameraThread {
+    private static final String TAG = "CameraThread";
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    CameraThread() {
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * 在相机线程上执行，已经在相机线程上时直接执行
+     *
+     * @return 线程已经退出时返回的Future是取消状态
+     */
+    <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        execute(future);
+        return future;
+    }
+
+    Future<Void> submit(Runnable task) {
+        FutureTask<Void> future = new FutureTask<>(task, null);
+        execute(future);
+        return future;
+    }
+
+    private void execute(FutureTask<?> future) {
+        if (Looper.myLooper() == mThread.getLooper()) {
+            future.run();
+        } else if (!mHandler.post(future)) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * 已经提交的任务执行完后退出
+     */
+    void quit() {
+        mThread.quitSafely();
+    }
+}
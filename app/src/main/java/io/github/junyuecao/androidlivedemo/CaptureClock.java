@@ -0,0 +1,242 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 帧的采集时钟
+ * <p>
+ * 把相机给出的时间戳统一换算到System.nanoTime的时间基准，在帧的源头打上采集时间，
+ * 渲染完成时记录采集到显示的延迟，并检测传感器帧间隔的异常(掉帧或者突发)。
+ * onFrameCaptured在相机回调线程上调用，onFrameDisplayed在GL线程上调用，都不分配对象。
+ */
+public class CaptureClock {
+    private static final String TAG = "CaptureClock";
+
+    /**
+     * 时间戳和System.nanoTime同一基准(CLOCK_MONOTONIC)
+     */
+    public static final int TIMEBASE_MONOTONIC = 0;
+    /**
+     * 时间戳和SystemClock.elapsedRealtimeNanos同一基准(CLOCK_BOOTTIME)
+     */
+    public static final int TIMEBASE_REALTIME = 1;
+
+    /**
+     * 换算后的采集时间离现在超过这个值就认为时间基准不对
+     */
+    static final long MAX_PLAUSIBLE_LATENCY_NS = 1000000000L;
+    /**
+     * 前几个间隔只用来估计正常的帧间隔，不做判断
+     */
+    static final int WARM_UP_INTERVALS = 8;
+    /**
+     * 超过期望间隔的1.5倍说明至少掉了一帧，不到一半说明帧是突发到达的
+     */
+    private static final float GAP_RATIO = 1.5f;
+    private static final float BURST_RATIO = 0.5f;
+    private static final long FRAME_BUDGET_NS = 1000000000L / 30;
+
+    public interface Listener {
+        /**
+         * 相机回调线程上调用
+         *
+         * @param intervalNs 和上一帧采集时间的间隔，时间戳倒退时为负数
+         * @param expectedNs 之前估计的正常帧间隔
+         */
+        void onIrregularInterval(long captureTimestampNs, long intervalNs, long expectedNs);
+
+        /**
+         * GL线程上每帧调用，不要做耗时操作
+         */
+        void onFrameDisplayed(long captureTimestampNs, long latencyNs);
+    }
+
+    private volatile int mTimebase = TIMEBASE_MONOTONIC;
+    /**
+     * elapsedRealtimeNanos - nanoTime，设备休眠后会变大，所以每次设置时间基准时重新取
+     */
+    private volatile long mRealtimeOffsetNs;
+    private volatile Listener mListener;
+
+    /**
+     * 保护帧间隔的估计：onFrameCaptured在相机回调线程上更新，resetIntervalEstimate在相机线程上调用
+     */
+    private final Object mIntervalLock = new Object();
+    private long mLastCaptureNs;
+    private volatile long mExpectedIntervalNs;
+    private int mIntervalCount;
+
+    private final LatencyHistogram mIntervalHistogram = new LatencyHistogram("captureInterval", FRAME_BUDGET_NS * 3 / 2);
+    private final LatencyHistogram mLatencyHistogram = new LatencyHistogram("captureToDisplay", FRAME_BUDGET_NS * 2);
+    private final AtomicLong mIrregularCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private volatile long mLastLatencyNs;
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 开始新的预览时调用，之前的帧间隔不再参与判断
+     *
+     * @param timebase {@link #TIMEBASE_MONOTONIC}或{@link #TIMEBASE_REALTIME}
+     */
+    public void setTimebase(int timebase) {
+        setTimebase(timebase, SystemClock.elapsedRealtimeNanos() - System.nanoTime());
+    }
+
+    void setTimebase(int timebase, long realtimeOffsetNs) {
+        mTimebase = timebase;
+        mRealtimeOffsetNs = realtimeOffsetNs;
+        resetIntervalEstimate();
+    }
+
+    /**
+     * 帧率范围变化后重新估计正常的帧间隔
+     */
+    public void resetIntervalEstimate() {
+        synchronized (mIntervalLock) {
+            mLastCaptureNs = 0;
+            mExpectedIntervalNs = 0;
+            mIntervalCount = 0;
+        }
+    }
+
+    public int getTimebase() {
+        return mTimebase;
+    }
+
+    /**
+     * 把相机的时间戳换算到System.nanoTime的基准。相机声明的基准对不上时(有的HAL的SurfaceTexture
+     * 时间戳是BOOTTIME)切换到另一个基准；都对不上或者没有时间戳时返回nowNs
+     */
+    public long toMonotonic(long sourceTimestampNs, long nowNs) {
+        if (sourceTimestampNs <= 0) {
+            return nowNs;
+        }
+        int timebase = mTimebase;
+        long converted = convert(sourceTimestampNs, timebase);
+        if (isPlausible(converted, nowNs)) {
+            return converted;
+        }
+        int other = timebase == TIMEBASE_MONOTONIC ? TIMEBASE_REALTIME : TIMEBASE_MONOTONIC;
+        long otherConverted = convert(sourceTimestampNs, other);
+        if (isPlausible(otherConverted, nowNs)) {
+            Log.w(TAG, "camera timestamps are not in timebase " + timebase + ", switch to " + other);
+            mTimebase = other;
+            return otherConverted;
+        }
+        return nowNs;
+    }
+
+    private long convert(long sourceTimestampNs, int timebase) {
+        return timebase == TIMEBASE_REALTIME ? sourceTimestampNs - mRealtimeOffsetNs : sourceTimestampNs;
+    }
+
+    private static boolean isPlausible(long captureNs, long nowNs) {
+        long latency = nowNs - captureNs;
+        return latency >= 0 && latency <= MAX_PLAUSIBLE_LATENCY_NS;
+    }
+
+    /**
+     * 在帧的源头(相机回调)调用，同一路流每帧一次
+     *
+     * @return System.nanoTime基准的采集时间
+     */
+    public long onFrameCaptured(long sourceTimestampNs, long nowNs) {
+        long captureNs = toMonotonic(sourceTimestampNs, nowNs);
+        long interval;
+        long expected;
+        synchronized (mIntervalLock) {
+            long last = mLastCaptureNs;
+            mLastCaptureNs = captureNs;
+            if (last == 0) {
+                return captureNs;
+            }
+            interval = captureNs - last;
+            if (interval > 0) {
+                mIntervalHistogram.record(interval);
+            }
+            if (mIntervalCount < WARM_UP_INTERVALS) {
+                if (interval > 0) {
+                    mExpectedIntervalNs = mIntervalCount == 0 ? interval
+                            : (mExpectedIntervalNs * mIntervalCount + interval) / (mIntervalCount + 1);
+                    mIntervalCount++;
+                }
+                return captureNs;
+            }
+            expected = mExpectedIntervalNs;
+            if (interval > 0 && interval <= expected * GAP_RATIO && interval >= expected * BURST_RATIO) {
+                // 只用正常的间隔更新估计，帧率变化时慢慢跟上
+                mExpectedIntervalNs = expected + (interval - expected) / 8;
+                return captureNs;
+            }
+        }
+        mIrregularCount.incrementAndGet();
+        if (interval > expected * GAP_RATIO) {
+            // 按期望间隔四舍五入估计中间掉了几帧
+            mDroppedCount.addAndGet((interval + expected / 2) / expected - 1);
+        }
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onIrregularInterval(captureNs, interval, expected);
+        }
+        return captureNs;
+    }
+
+    /**
+     * 这一帧渲染完成时在GL线程上调用
+     *
+     * @param captureTimestampNs onFrameCaptured或toMonotonic返回的采集时间
+     */
+    public void onFrameDisplayed(long captureTimestampNs, long nowNs) {
+        long latency = nowNs - captureTimestampNs;
+        mLastLatencyNs = latency;
+        mLatencyHistogram.record(latency);
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onFrameDisplayed(captureTimestampNs, latency);
+        }
+    }
+
+    /**
+     * @return 最近一帧采集到显示的延迟
+     */
+    public long getLastLatencyNs() {
+        return mLastLatencyNs;
+    }
+
+    public long getExpectedIntervalNs() {
+        return mExpectedIntervalNs;
+    }
+
+    public long getIrregularIntervalCount() {
+        return mIrregularCount.get();
+    }
+
+    /**
+     * @return 根据帧间隔估计的掉帧总数
+     */
+    public long getDroppedFrameCount() {
+        return mDroppedCount.get();
+    }
+
+    public LatencyHistogram getIntervalHistogram() {
+        return mIntervalHistogram;
+    }
+
+    public LatencyHistogram getLatencyHistogram() {
+        return mLatencyHistogram;
+    }
+
+    public void reset() {
+        mIntervalHistogram.reset();
+        mLatencyHistogram.reset();
+        mIrregularCount.set(0);
+        mDroppedCount.set(0);
+        mLastLatencyNs = 0;
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.junyuecao.androidlivedemo;
+
+/**
+ * ShaderComposer的一个颜色操作
+ * <p>
+ * 逐像素的操作(灰度、亮度、对比度、饱和度、LUT、暗角)可以融合到同一个片元shader里，
+ * 需要读取邻近像素的操作(锐化、模糊)不能融合，会单独开始一个pass。
+ * 参数以uniform的形式传给shader，修改参数不需要重新编译。
+ */
+public class ColorOp {
+    public static final int TYPE_GRAYSCALE = 0;
+    public static final int TYPE_BRIGHTNESS = 1;
+    public static final int TYPE_CONTRAST = 2;
+    public static final int TYPE_SATURATION = 3;
+    public static final int TYPE_LUT = 4;
+    public static final int TYPE_VIGNETTE = 5;
+    public static final int TYPE_SHARPEN = 6;
+    public static final int TYPE_BOX_BLUR = 7;
+
+    private static final String[] NAMES = {
+            "grayscale", "brightness", "contrast", "saturation", "lut", "vignette", "sharpen", "boxBlur"
+    };
+
+    private final int mType;
+    private final float[] mParams;
+    private int mLutTextureId = OpenGLUtils.NO_TEXTURE;
+
+    private ColorOp(int type, float... params) {
+        mType = type;
+        mParams = params;
+    }
+
+    public static ColorOp grayscale() {
+        return new ColorOp(TYPE_GRAYSCALE);
+    }
+
+    /**
+     * @param delta 加到rgb上的值，-1~1
+     */
+    public static ColorOp brightness(float delta) {
+        return new ColorOp(TYPE_BRIGHTNESS, delta);
+    }
+
+    /**
+     * @param contrast 1为原图，0为全灰
+     */
+    public static ColorOp contrast(float contrast) {
+        return new ColorOp(TYPE_CONTRAST, contrast);
+    }
+
+    /**
+     * @param saturation 1为原图，0为灰度
+     */
+    public static ColorOp saturation(float saturation) {
+        return new ColorOp(TYPE_SATURATION, saturation);
+    }
+
+    /**
+     * 512x512的LUT纹理，8x8个64x64的格子
+     *
+     * @param intensity 0~1，和原图混合的比例
+     */
+    public static ColorOp lut(int lutTextureId, float intensity) {
+        ColorOp op = new ColorOp(TYPE_LUT, intensity);
+        op.mLutTextureId = lutTextureId;
+        return op;
+    }
+
+    /**
+     * @param start 开始变暗的半径(纹理坐标，中心到边缘为0.5)
+     * @param end   完全变黑的半径
+     */
+    public static ColorOp vignette(float start, float end) {
+        return new ColorOp(TYPE_VIGNETTE, start, end);
+    }
+
+    /**
+     * 需要邻近像素，不能融合
+     */
+    public static ColorOp sharpen(float amount) {
+        return new ColorOp(TYPE_SHARPEN, amount);
+    }
+
+    /**
+     * 3x3均值模糊，需要邻近像素，不能融合
+     */
+    public static ColorOp boxBlur() {
+        return new ColorOp(TYPE_BOX_BLUR);
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public String getName() {
+        return NAMES[mType];
+    }
+
+    /**
+     * @return 是否只依赖当前像素，可以和前后的操作融合
+     */
+    public boolean isPointwise() {
+        return mType != TYPE_SHARPEN && mType != TYPE_BOX_BLUR;
+    }
+
+    public int getParamCount() {
+        return mParams.length;
+    }
+
+    public float getParam(int index) {
+        return mParams[index];
+    }
+
+    /**
+     * 可以在任意线程修改，下一帧生效
+     */
+    public void setParam(int index, float value) {
+        mParams[index] = value;
+    }
+
+    public int getLutTextureId() {
+        return mLutTextureId;
+    }
+
+    public void setLutTextureId(int lutTextureId) {
+        mLutTextureId = lutTextureId;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
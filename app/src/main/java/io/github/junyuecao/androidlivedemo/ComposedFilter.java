@@ -0,0 +1,83 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ShaderComposer生成的一个pass，作为ImageFilter交给FilterChain
+ * <p>
+ * 每帧把ColorOp当前的参数设置到uniform里，LUT纹理绑定在GL_TEXTURE1之后的纹理单元上。
+ */
+public class ComposedFilter extends ImageFilter {
+    private final ColorOp[] mOps;
+    private final boolean mNeedsTexelSize;
+    /**
+     * mParamLocations[i][p]为第i个op第p个参数的location
+     */
+    private final int[][] mParamLocations;
+    private final int[] mLutLocations;
+    private int mTexelSizeLocation = -1;
+
+    public ComposedFilter(ShaderComposer.Pass pass) {
+        super(pass.getFragmentShader());
+        List<ColorOp> ops = pass.getOps();
+        mOps = ops.toArray(new ColorOp[ops.size()]);
+        mNeedsTexelSize = pass.needsTexelSize();
+        mParamLocations = new int[mOps.length][];
+        mLutLocations = new int[mOps.length];
+        for (int i = 0; i < mOps.length; i++) {
+            mParamLocations[i] = new int[mOps[i].getParamCount()];
+        }
+    }
+
+    /**
+     * 把一串ColorOp融合成FilterChain可以直接使用的滤镜，pass数尽量少
+     */
+    public static ImageFilter[] fromOps(List<ColorOp> ops) {
+        List<ShaderComposer.Pass> passes = ShaderComposer.compose(ops).getPasses();
+        List<ImageFilter> filters = new ArrayList<>(passes.size());
+        for (ShaderComposer.Pass pass : passes) {
+            filters.add(new ComposedFilter(pass));
+        }
+        return filters.toArray(new ImageFilter[filters.size()]);
+    }
+
+    @Override
+    protected void onInit(int program) {
+        for (int i = 0; i < mOps.length; i++) {
+            for (int p = 0; p < mParamLocations[i].length; p++) {
+                mParamLocations[i][p] = getUniformLocation(program, ShaderComposer.uniformName(i, p));
+            }
+            mLutLocations[i] = mOps[i].getType() == ColorOp.TYPE_LUT
+                    ? getUniformLocation(program, ShaderComposer.lutSamplerName(i)) : -1;
+        }
+        if (mNeedsTexelSize) {
+            mTexelSizeLocation = getUniformLocation(program, "uTexelSize");
+        }
+    }
+
+    @Override
+    protected void onDraw(int width, int height) {
+        int textureUnit = 1;
+        for (int i = 0; i < mOps.length; i++) {
+            ColorOp op = mOps[i];
+            for (int p = 0; p < mParamLocations[i].length; p++) {
+                GLES20.glUniform1f(mParamLocations[i][p], op.getParam(p));
+            }
+            if (mLutLocations[i] >= 0) {
+                GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + textureUnit);
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, op.getLutTextureId());
+                GLES20.glUniform1i(mLutLocations[i], textureUnit);
+                textureUnit++;
+            }
+        }
+        if (textureUnit > 1) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        }
+        if (mTexelSizeLocation >= 0) {
+            GLES20.glUniform2f(mTexelSizeLocation, 1.0f / width, 1.0f / height);
+        }
+    }
+}
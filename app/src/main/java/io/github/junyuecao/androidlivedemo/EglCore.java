@@ -0,0 +1,159 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.util.Log;
+
+/**
+ * EGL display、context和config的封装
+ * <p>
+ * 可以自己创建context(RenderThread)，也可以包装当前线程上已经存在的context(GLSurfaceView的渲染线程)，
+ * 在同一个context上给多个输出创建window surface或者pbuffer。
+ */
+class EglCore {
+    private static final String TAG = "EglCore";
+    /**
+     * 没有公开的常量，MediaCodec的输入Surface需要这个属性
+     */
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private EGLDisplay mDisplay;
+    private EGLContext mContext;
+    private EGLConfig mConfig;
+    private final boolean mOwnsContext;
+
+    /**
+     * 创建新的GLES2 context，config可以用于编码器的输入Surface
+     */
+    EglCore() {
+        mDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (mDisplay == EGL14.EGL_NO_DISPLAY) {
+            throw new RuntimeException("unable to get EGL14 display");
+        }
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(mDisplay, version, 0, version, 1)) {
+            throw new RuntimeException("unable to initialize EGL14");
+        }
+        int[] attribs = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT | EGL14.EGL_PBUFFER_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(mDisplay, attribs, 0, configs, 0, 1, numConfigs, 0) || numConfigs[0] == 0) {
+            throw new RuntimeException("unable to find RGBA8888 recordable EGLConfig");
+        }
+        mConfig = configs[0];
+        int[] contextAttribs = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        mContext = EGL14.eglCreateContext(mDisplay, mConfig, EGL14.EGL_NO_CONTEXT, contextAttribs, 0);
+        checkEglError("eglCreateContext");
+        mOwnsContext = true;
+    }
+
+    private EglCore(EGLDisplay display, EGLContext context, EGLConfig config) {
+        mDisplay = display;
+        mContext = context;
+        mConfig = config;
+        mOwnsContext = false;
+    }
+
+    /**
+     * 包装当前线程上的context，比如GLSurfaceView的，release时不销毁context
+     *
+     * @return 当前线程没有context时返回null
+     */
+    static EglCore wrapCurrent() {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        if (context == null || context.equals(EGL14.EGL_NO_CONTEXT)) {
+            return null;
+        }
+        EGLDisplay display = EGL14.eglGetCurrentDisplay();
+        int[] value = new int[1];
+        EGL14.eglQueryContext(display, context, EGL14.EGL_CONFIG_ID, value, 0);
+        int[] attribs = {EGL14.EGL_CONFIG_ID, value[0], EGL14.EGL_NONE};
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(display, attribs, 0, configs, 0, 1, numConfigs, 0) || numConfigs[0] == 0) {
+            Log.e(TAG, "unable to find config of current context");
+            return null;
+        }
+        return new EglCore(display, context, configs[0]);
+    }
+
+    /**
+     * @param surface Surface、SurfaceTexture或SurfaceHolder
+     */
+    EGLSurface createWindowSurface(Object surface) {
+        int[] attribs = {EGL14.EGL_NONE};
+        EGLSurface eglSurface = EGL14.eglCreateWindowSurface(mDisplay, mConfig, surface, attribs, 0);
+        checkEglError("eglCreateWindowSurface");
+        return eglSurface;
+    }
+
+    EGLSurface createOffscreenSurface(int width, int height) {
+        int[] attribs = {EGL14.EGL_WIDTH, width, EGL14.EGL_HEIGHT, height, EGL14.EGL_NONE};
+        EGLSurface eglSurface = EGL14.eglCreatePbufferSurface(mDisplay, mConfig, attribs, 0);
+        checkEglError("eglCreatePbufferSurface");
+        return eglSurface;
+    }
+
+    boolean makeCurrent(EGLSurface surface) {
+        return makeCurrent(surface, surface);
+    }
+
+    boolean makeCurrent(EGLSurface draw, EGLSurface read) {
+        if (!EGL14.eglMakeCurrent(mDisplay, draw, read, mContext)) {
+            Log.e(TAG, "eglMakeCurrent failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+            return false;
+        }
+        return true;
+    }
+
+    EGLSurface getCurrentSurface(int readDraw) {
+        return EGL14.eglGetCurrentSurface(readDraw);
+    }
+
+    boolean swapBuffers(EGLSurface surface) {
+        return EGL14.eglSwapBuffers(mDisplay, surface);
+    }
+
+    /**
+     * 编码器根据这个时间戳给帧打pts
+     */
+    void setPresentationTime(EGLSurface surface, long nsecs) {
+        EGLExt.eglPresentationTimeANDROID(mDisplay, surface, nsecs);
+    }
+
+    void releaseSurface(EGLSurface surface) {
+        EGL14.eglDestroySurface(mDisplay, surface);
+    }
+
+    void release() {
+        if (mOwnsContext && mDisplay != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglMakeCurrent(mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            EGL14.eglDestroyContext(mDisplay, mContext);
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(mDisplay);
+        }
+        mDisplay = EGL14.EGL_NO_DISPLAY;
+        mContext = EGL14.EGL_NO_CONTEXT;
+        mConfig = null;
+    }
+
+    private static void checkEglError(String msg) {
+        int error = EGL14.eglGetError();
+        if (error != EGL14.EGL_SUCCESS) {
+            throw new RuntimeException(msg + ": EGL error: 0x" + Integer.toHexString(error));
+        }
+    }
+}
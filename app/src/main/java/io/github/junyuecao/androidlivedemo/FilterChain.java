@@ -0,0 +1,201 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+
+/**
+ * 多pass滤镜链
+ * <p>
+ * 链头把相机的OES纹理转换成2D纹理，之后每个滤镜一个pass，在两个FBO之间来回渲染(ping-pong)。
+ * FBO从FrameBufferPool按尺寸获取，跨帧复用，尺寸变化时才重新获取。只能在GL线程上使用。
+ */
+class FilterChain {
+    static final String VERTEX_SHADER =
+            "uniform mat4 uSTMatrix;\n" +
+                    "attribute vec4 aPosition;\n" +
+                    "attribute vec4 aTextureCoord;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "void main() {\n" +
+                    "  gl_Position = aPosition;\n" +
+                    "  vTextureCoord = (uSTMatrix * aTextureCoord).xy;\n" +
+                    "}\n";
+    static final String OES_FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+                    "precision mediump float;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "uniform samplerExternalOES sTexture;\n" +
+                    "void main() {\n" +
+                    "  gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+                    "}\n";
+
+    private static final ImageFilter[] NO_FILTERS = new ImageFilter[0];
+
+    private final ShaderProgramCache mProgramCache;
+    private final FrameBufferPool mFrameBufferPool;
+    private final QuadVertexBuffer mQuad = new QuadVertexBuffer();
+    private final float[] mIdentityMatrix = new float[16];
+
+    private int mOesProgram;
+    private final int[] mOesHandles = new int[3];
+    private ImageFilter[] mFilters = NO_FILTERS;
+    private int[] mPrograms = new int[0];
+    /**
+     * 每个program的aPosition, aTextureCoord, uSTMatrix
+     */
+    private int[][] mHandles = new int[0][];
+    private final FrameBufferPool.FrameBuffer[] mTargets = new FrameBufferPool.FrameBuffer[2];
+
+    FilterChain(ShaderProgramCache programCache, FrameBufferPool frameBufferPool) {
+        mProgramCache = programCache;
+        mFrameBufferPool = frameBufferPool;
+        Matrix.setIdentityM(mIdentityMatrix, 0);
+    }
+
+    /**
+     * 设置滤镜，传空数组关闭滤镜链
+     */
+    void setFilters(ImageFilter[] filters) {
+        ImageFilter[] copy = filters == null ? NO_FILTERS : filters.clone();
+        int[] programs = new int[copy.length];
+        int[][] handles = new int[copy.length][];
+        for (int i = 0; i < copy.length; i++) {
+            programs[i] = mProgramCache.getProgram(VERTEX_SHADER, copy[i].getFragmentShader());
+            if (programs[i] == 0) {
+                throw new RuntimeException("failed creating program for filter " + i);
+            }
+            handles[i] = new int[3];
+            loadHandles(programs[i], handles[i]);
+            copy[i].onInit(programs[i]);
+        }
+        mFilters = copy;
+        mPrograms = programs;
+        mHandles = handles;
+        if (copy.length > 0 && mOesProgram == 0) {
+            mOesProgram = mProgramCache.getProgram(VERTEX_SHADER, OES_FRAGMENT_SHADER);
+            loadHandles(mOesProgram, mOesHandles);
+        }
+        if (copy.length == 0) {
+            releaseTargets();
+        }
+    }
+
+    private static void loadHandles(int program, int[] handles) {
+        handles[0] = GLES20.glGetAttribLocation(program, "aPosition");
+        handles[1] = GLES20.glGetAttribLocation(program, "aTextureCoord");
+        handles[2] = GLES20.glGetUniformLocation(program, "uSTMatrix");
+    }
+
+    boolean isEmpty() {
+        return mFilters.length == 0;
+    }
+
+    int getFilterCount() {
+        return mFilters.length;
+    }
+
+    /**
+     * 渲染整个滤镜链
+     *
+     * @param oesTextureId 相机的OES纹理
+     * @param stMatrix     SurfaceTexture的transform matrix
+     * @return 最后一个滤镜输出的2D纹理，在下一次process之前有效
+     */
+    int process(int oesTextureId, float[] stMatrix, int width, int height) {
+        ensureTargets(width, height);
+        GLES20.glViewport(0, 0, width, height);
+
+        drawPass(mOesProgram, mOesHandles, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, oesTextureId,
+                stMatrix, mTargets[0], null);
+        int src = 0;
+        for (int i = 0; i < mFilters.length; i++) {
+            int dst = 1 - src;
+            drawPass(mPrograms[i], mHandles[i], GLES20.GL_TEXTURE_2D, mTargets[src].textureId,
+                    mIdentityMatrix, mTargets[dst], mFilters[i]);
+            src = dst;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        return mTargets[src].textureId;
+    }
+
+    /**
+     * 同process，输入是已经在SurfaceTexture坐标系里的2D纹理，比如Nv21Render的输出
+     *
+     * @return 最后一个滤镜输出的2D纹理；没有滤镜时返回textureId
+     */
+    int process2D(int textureId, int width, int height) {
+        if (mFilters.length == 0) {
+            return textureId;
+        }
+        ensureTargets(width, height);
+        GLES20.glViewport(0, 0, width, height);
+        int srcTexture = textureId;
+        int dst = 0;
+        for (int i = 0; i < mFilters.length; i++) {
+            drawPass(mPrograms[i], mHandles[i], GLES20.GL_TEXTURE_2D, srcTexture,
+                    mIdentityMatrix, mTargets[dst], mFilters[i]);
+            srcTexture = mTargets[dst].textureId;
+            dst = 1 - dst;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        return srcTexture;
+    }
+
+    private void drawPass(int program, int[] handles, int textureTarget, int textureId, float[] stMatrix,
+                          FrameBufferPool.FrameBuffer target, ImageFilter filter) {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, target.framebufferId);
+        GLES20.glUseProgram(program);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(textureTarget, textureId);
+        mQuad.bind(handles[0], handles[1], 0);
+        GLES20.glUniformMatrix4fv(handles[2], 1, false, stMatrix, 0);
+        if (filter != null) {
+            filter.onDraw(target.width, target.height);
+        }
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        mQuad.unbind(handles[0], handles[1]);
+        GLES20.glBindTexture(textureTarget, 0);
+    }
+
+    private void ensureTargets(int width, int height) {
+        for (int i = 0; i < mTargets.length; i++) {
+            FrameBufferPool.FrameBuffer fb = mTargets[i];
+            if (fb != null && (fb.width != width || fb.height != height)) {
+                mFrameBufferPool.release(fb);
+                fb = null;
+            }
+            if (fb == null) {
+                mTargets[i] = mFrameBufferPool.acquire(width, height);
+            }
+        }
+    }
+
+    private void releaseTargets() {
+        for (int i = 0; i < mTargets.length; i++) {
+            mFrameBufferPool.release(mTargets[i]);
+            mTargets[i] = null;
+        }
+    }
+
+    /**
+     * 把FBO还给池子，需要在GL线程上调用
+     */
+    void release() {
+        releaseTargets();
+        mQuad.release();
+    }
+
+    /**
+     * GL context已经丢失，只丢掉引用
+     */
+    void abandon() {
+        mTargets[0] = null;
+        mTargets[1] = null;
+        mQuad.abandon();
+        mOesProgram = 0;
+        mFilters = NO_FILTERS;
+        mPrograms = new int[0];
+        mHandles = new int[0][];
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按尺寸复用的FBO池
+ * <p>
+ * 每个FrameBuffer是一个framebuffer加上挂在上面的RGBA纹理，用完还回池子，下次同样尺寸直接复用，
+ * 避免每帧创建纹理导致驱动重新分配显存。只能在GL线程上使用。
+ */
+class FrameBufferPool {
+    private static final String TAG = "FrameBufferPool";
+
+    static class FrameBuffer {
+        final int framebufferId;
+        final int textureId;
+        final int width;
+        final int height;
+
+        FrameBuffer(int framebufferId, int textureId, int width, int height) {
+            this.framebufferId = framebufferId;
+            this.textureId = textureId;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final List<FrameBuffer> mFree = new ArrayList<>();
+    private final int[] mTmpIds = new int[1];
+    private int mAllocatedCount;
+
+    /**
+     * 取一个指定尺寸的FrameBuffer，池子里没有时新建
+     */
+    FrameBuffer acquire(int width, int height) {
+        for (int i = mFree.size() - 1; i >= 0; i--) {
+            FrameBuffer fb = mFree.get(i);
+            if (fb.width == width && fb.height == height) {
+                mFree.remove(i);
+                return fb;
+            }
+        }
+        int textureId = OpenGLUtils.genFrameBufferTextureID(width, height);
+        GLES20.glGenFramebuffers(1, mTmpIds, 0);
+        int framebufferId = mTmpIds[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferId);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, textureId, 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.e(TAG, "Framebuffer incomplete: 0x" + Integer.toHexString(status));
+        }
+        mAllocatedCount++;
+        Log.d(TAG, "allocated " + width + "x" + height + ", total " + mAllocatedCount);
+        return new FrameBuffer(framebufferId, textureId, width, height);
+    }
+
+    void release(FrameBuffer fb) {
+        if (fb != null) {
+            mFree.add(fb);
+        }
+    }
+
+    /**
+     * @return 已经分配、还没删除的FrameBuffer个数，包括正在使用的
+     */
+    int getAllocatedCount() {
+        return mAllocatedCount;
+    }
+
+    /**
+     * 删除池子里空闲的FrameBuffer，需要在GL线程上调用
+     */
+    void trim() {
+        for (FrameBuffer fb : mFree) {
+            delete(fb);
+        }
+        mFree.clear();
+    }
+
+    /**
+     * 删除一个正在使用的FrameBuffer而不还回池子
+     */
+    void delete(FrameBuffer fb) {
+        mTmpIds[0] = fb.framebufferId;
+        GLES20.glDeleteFramebuffers(1, mTmpIds, 0);
+        mTmpIds[0] = fb.textureId;
+        GLES20.glDeleteTextures(1, mTmpIds, 0);
+        mAllocatedCount--;
+    }
+
+    /**
+     * GL context已经丢失，对象随context一起销毁，只清掉记录
+     */
+    void abandon() {
+        mFree.clear();
+        mAllocatedCount = 0;
+    }
+}
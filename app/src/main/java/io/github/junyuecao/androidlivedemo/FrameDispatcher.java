@@ -0,0 +1,332 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.util.Log;
+
+/**
+ * 预览帧分发
+ * <p>
+ * 把相机回调线程上收到的NV21帧交给固定数量的工作线程，分别回调给每个PreviewCallback，
+ * 所有consumer都处理完后立即通过FrameReleaser把buffer还给相机。
+ * 队列满时按overflow policy处理：丢最旧的帧、丢最新的帧或者阻塞调用方。
+ */
+public class FrameDispatcher {
+    private static final String TAG = "FrameDispatcher";
+    /**
+     * 队列满时丢弃最旧的还没开始处理的帧
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 0;
+    /**
+     * 队列满时丢弃新到的帧
+     */
+    public static final int OVERFLOW_DROP_NEWEST = 1;
+    /**
+     * 队列满时阻塞调用方直到有空位，会反压到相机回调线程
+     */
+    public static final int OVERFLOW_BLOCK = 2;
+
+    /**
+     * 所有consumer处理完一帧后把buffer还回去
+     */
+    public interface FrameReleaser {
+        void releaseFrame(byte[] data);
+    }
+
+    private static class Frame {
+        byte[] data;
+        int width;
+        int height;
+        int rotation;
+        int format;
+        long timestampNs;
+        CameraCapture.PreviewCallback[] consumers;
+        /**
+         * 下一个还没被工作线程领取的consumer
+         */
+        int nextConsumer;
+        /**
+         * 还没处理完的consumer个数
+         */
+        int pending;
+    }
+
+    private static final CameraCapture.PreviewCallback[] NO_CONSUMERS = new CameraCapture.PreviewCallback[0];
+
+    private final Object mLock = new Object();
+    private final int mCapacity;
+    private final int mOverflowPolicy;
+    private final FrameReleaser mReleaser;
+    private final Thread[] mWorkers;
+
+    /**
+     * 等待处理的帧，环形队列
+     */
+    private final Frame[] mQueue;
+    private int mHead;
+    private int mSize;
+    /**
+     * 空闲的Frame对象，避免每帧分配
+     */
+    private final Frame[] mFreeFrames;
+    private int mFreeCount;
+
+    private volatile CameraCapture.PreviewCallback[] mConsumers = NO_CONSUMERS;
+    private boolean mShutdown;
+
+    private long mFramesDispatched;
+    private long mFramesDropped;
+
+    public FrameDispatcher(int threadCount, int queueCapacity, int overflowPolicy, FrameReleaser releaser) {
+        if (threadCount < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("threadCount and queueCapacity must be positive");
+        }
+        if (overflowPolicy != OVERFLOW_DROP_OLDEST && overflowPolicy != OVERFLOW_DROP_NEWEST
+                && overflowPolicy != OVERFLOW_BLOCK) {
+            throw new IllegalArgumentException("Unknown overflow policy: " + overflowPolicy);
+        }
+        mCapacity = queueCapacity;
+        mOverflowPolicy = overflowPolicy;
+        mReleaser = releaser;
+        mQueue = new Frame[queueCapacity];
+        // 每个工作线程最多占住一帧
+        mFreeFrames = new Frame[queueCapacity + threadCount];
+        for (int i = 0; i < mFreeFrames.length; i++) {
+            mFreeFrames[i] = new Frame();
+        }
+        mFreeCount = mFreeFrames.length;
+        mWorkers = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            mWorkers[i] = new Thread(mWorkerLoop, "FrameDispatcher-" + i);
+            mWorkers[i].start();
+        }
+    }
+
+    public void addConsumer(CameraCapture.PreviewCallback consumer) {
+        if (consumer == null) return;
+        synchronized (mLock) {
+            CameraCapture.PreviewCallback[] old = mConsumers;
+            for (CameraCapture.PreviewCallback c : old) {
+                if (c == consumer) return;
+            }
+            CameraCapture.PreviewCallback[] consumers = new CameraCapture.PreviewCallback[old.length + 1];
+            System.arraycopy(old, 0, consumers, 0, old.length);
+            consumers[old.length] = consumer;
+            mConsumers = consumers;
+        }
+    }
+
+    public void removeConsumer(CameraCapture.PreviewCallback consumer) {
+        synchronized (mLock) {
+            CameraCapture.PreviewCallback[] old = mConsumers;
+            for (int i = 0; i < old.length; i++) {
+                if (old[i] == consumer) {
+                    CameraCapture.PreviewCallback[] consumers = new CameraCapture.PreviewCallback[old.length - 1];
+                    System.arraycopy(old, 0, consumers, 0, i);
+                    System.arraycopy(old, i + 1, consumers, i, old.length - i - 1);
+                    mConsumers = consumers;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 把已注册的consumer转移到另一个FrameDispatcher，重新配置时使用
+     */
+    void moveConsumersTo(FrameDispatcher other) {
+        CameraCapture.PreviewCallback[] consumers;
+        synchronized (mLock) {
+            consumers = mConsumers;
+            mConsumers = NO_CONSUMERS;
+        }
+        for (CameraCapture.PreviewCallback c : consumers) {
+            other.addConsumer(c);
+        }
+    }
+
+    public boolean hasConsumers() {
+        return mConsumers.length > 0;
+    }
+
+    /**
+     * 分发一帧，返回后data的所有权交给FrameDispatcher，处理完或者被丢弃时通过FrameReleaser归还
+     *
+     * @return 是否进入了队列
+     */
+    public boolean dispatch(byte[] data, int width, int height, int rotation, int format, long timestampNs) {
+        CameraCapture.PreviewCallback[] consumers = mConsumers;
+        byte[] dropped = null;
+        boolean queued = false;
+        synchronized (mLock) {
+            if (!mShutdown && consumers.length > 0) {
+                if (mSize == mCapacity && mOverflowPolicy == OVERFLOW_BLOCK) {
+                    while (mSize == mCapacity && !mShutdown) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+                if (mSize == mCapacity && mOverflowPolicy == OVERFLOW_DROP_OLDEST) {
+                    dropped = dropOldestLocked();
+                }
+                if (mSize < mCapacity && !mShutdown && mFreeCount > 0) {
+                    Frame frame = mFreeFrames[--mFreeCount];
+                    mFreeFrames[mFreeCount] = null;
+                    frame.data = data;
+                    frame.width = width;
+                    frame.height = height;
+                    frame.rotation = rotation;
+                    frame.format = format;
+                    frame.timestampNs = timestampNs;
+                    frame.consumers = consumers;
+                    frame.nextConsumer = 0;
+                    frame.pending = consumers.length;
+                    mQueue[(mHead + mSize) % mCapacity] = frame;
+                    mSize++;
+                    mFramesDispatched++;
+                    queued = true;
+                    mLock.notifyAll();
+                } else {
+                    mFramesDropped++;
+                }
+            }
+        }
+        if (dropped != null) {
+            mReleaser.releaseFrame(dropped);
+        }
+        if (!queued) {
+            mReleaser.releaseFrame(data);
+        }
+        return queued;
+    }
+
+    /**
+     * 丢弃最旧的还没有任何consumer开始处理的帧
+     */
+    private byte[] dropOldestLocked() {
+        for (int i = 0; i < mSize; i++) {
+            int index = (mHead + i) % mCapacity;
+            Frame frame = mQueue[index];
+            if (frame.nextConsumer != 0) continue;
+            // 后面的帧往前挪一格
+            for (int j = i; j < mSize - 1; j++) {
+                mQueue[(mHead + j) % mCapacity] = mQueue[(mHead + j + 1) % mCapacity];
+            }
+            mQueue[(mHead + mSize - 1) % mCapacity] = null;
+            mSize--;
+            mFramesDropped++;
+            byte[] data = frame.data;
+            recycleLocked(frame);
+            return data;
+        }
+        return null;
+    }
+
+    private void recycleLocked(Frame frame) {
+        frame.data = null;
+        frame.consumers = null;
+        mFreeFrames[mFreeCount++] = frame;
+    }
+
+    private final Runnable mWorkerLoop = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                Frame frame;
+                CameraCapture.PreviewCallback consumer;
+                synchronized (mLock) {
+                    while (mSize == 0 && !mShutdown) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (mSize == 0) return;
+                    frame = mQueue[mHead];
+                    consumer = frame.consumers[frame.nextConsumer++];
+                    if (frame.nextConsumer == frame.consumers.length) {
+                        // 所有consumer都领取了，出队
+                        mQueue[mHead] = null;
+                        mHead = (mHead + 1) % mCapacity;
+                        mSize--;
+                        mLock.notifyAll();
+                    }
+                }
+                try {
+                    consumer.onPreviewFrame(frame.data, frame.width, frame.height, frame.rotation,
+                            frame.format, frame.timestampNs);
+                } catch (RuntimeException e) {
+                    // consumer的异常不能影响buffer归还
+                    Log.e(TAG, "consumer failed on frame " + frame.timestampNs, e);
+                }
+                byte[] done = null;
+                synchronized (mLock) {
+                    if (--frame.pending == 0) {
+                        done = frame.data;
+                        recycleLocked(frame);
+                    }
+                }
+                if (done != null) {
+                    mReleaser.releaseFrame(done);
+                }
+            }
+        }
+    };
+
+    public long getFramesDispatched() {
+        synchronized (mLock) {
+            return mFramesDispatched;
+        }
+    }
+
+    /**
+     * @return 因为队列满或者已经shutdown而丢掉的帧数
+     */
+    public long getFramesDropped() {
+        synchronized (mLock) {
+            return mFramesDropped;
+        }
+    }
+
+    public int getQueueDepth() {
+        synchronized (mLock) {
+            return mSize;
+        }
+    }
+
+    /**
+     * 停止工作线程，队列里还没处理的帧直接归还
+     */
+    public void shutdown() {
+        byte[][] pending;
+        synchronized (mLock) {
+            if (mShutdown) return;
+            mShutdown = true;
+            pending = new byte[mSize][];
+            for (int i = 0; i < mSize; i++) {
+                int index = (mHead + i) % mCapacity;
+                Frame frame = mQueue[index];
+                mQueue[index] = null;
+                if (frame.nextConsumer == 0) {
+                    pending[i] = frame.data;
+                    recycleLocked(frame);
+                } else {
+                    // 已经有consumer在处理，剩下的consumer不再回调
+                    frame.pending -= frame.consumers.length - frame.nextConsumer;
+                    if (frame.pending == 0) {
+                        pending[i] = frame.data;
+                        recycleLocked(frame);
+                    }
+                }
+            }
+            mSize = 0;
+            mLock.notifyAll();
+        }
+        for (byte[] data : pending) {
+            if (data != null) mReleaser.releaseFrame(data);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package io.github.junyuecao.androidlivedemo;
+
+/**
+ * 根据每帧的渲染处理耗时和掉帧数调整采集帧率和处理频率
+ * <p>
+ * 档位从高到低依次是fpsSteps里的每个帧率(每帧都处理)，然后在最低帧率上把处理间隔从2增加到maxProcessInterval。
+ * 每WINDOW_FRAMES帧统计一次平均耗时和掉帧数：连续DOWN_WINDOWS个窗口超出预算降一档，
+ * 连续若干个窗口在上一档的预算里还有余量才升一档，升降的阈值和窗口数都不同，避免来回跳。
+ * 升档后很快又降回来时，下次升档需要的窗口数加倍。
+ * <p>
+ * 纯Java实现，只在GL线程上调用，onFrame不分配对象，可以直接用录下来的耗时序列测试。
+ */
+public class FrameRateGovernor {
+    static final int WINDOW_FRAMES = 30;
+    static final int DOWN_WINDOWS = 2;
+    static final int UP_WINDOWS = 5;
+    static final int MAX_UP_WINDOWS = 40;
+    /**
+     * 一帧的预算只用帧间隔的80%，剩下的留给合成和系统
+     */
+    private static final float BUDGET_RATIO = 0.8f;
+    /**
+     * 上一档预算的60%以内才认为有余量
+     */
+    private static final float HEADROOM_RATIO = 0.6f;
+    /**
+     * 一个窗口里掉帧超过这个数算超出预算
+     */
+    private static final int MAX_DROPPED_PER_WINDOW = 1;
+
+    public static final int[] DEFAULT_FPS_STEPS = new int[]{30, 24, 20};
+    public static final int DEFAULT_MAX_PROCESS_INTERVAL = 3;
+
+    private final int[] mFpsSteps;
+    private final int mLevelCount;
+
+    private long mTotalCostNs;
+    private int mFrameCount;
+    private int mDropped;
+    private int mOverloadedWindows;
+    private int mHeadroomWindows;
+    private int mUpWindows = UP_WINDOWS;
+    /**
+     * 距离上一次升档的窗口数
+     */
+    private int mWindowsSinceUp = Integer.MAX_VALUE;
+    private int mLevel;
+
+    public FrameRateGovernor() {
+        this(DEFAULT_FPS_STEPS, DEFAULT_MAX_PROCESS_INTERVAL);
+    }
+
+    /**
+     * @param fpsSteps           从高到低的采集帧率，比如{30, 24, 20}
+     * @param maxProcessInterval 最低帧率上最多每几帧处理一次，1表示不降低处理频率
+     */
+    public FrameRateGovernor(int[] fpsSteps, int maxProcessInterval) {
+        if (fpsSteps == null || fpsSteps.length == 0 || maxProcessInterval < 1) {
+            throw new IllegalArgumentException("invalid steps");
+        }
+        for (int i = 1; i < fpsSteps.length; i++) {
+            if (fpsSteps[i] >= fpsSteps[i - 1]) {
+                throw new IllegalArgumentException("fps steps must be descending");
+            }
+        }
+        mFpsSteps = fpsSteps.clone();
+        mLevelCount = mFpsSteps.length + maxProcessInterval - 1;
+    }
+
+    /**
+     * 每渲染一帧调用一次
+     *
+     * @param costNs        这一帧渲染和处理的总耗时
+     * @param droppedFrames 和上一次调用之间相机掉的帧数
+     * @return 档位是否变化，变化时用getFps和getProcessInterval取新的值
+     */
+    public boolean onFrame(long costNs, int droppedFrames) {
+        mTotalCostNs += costNs;
+        mDropped += droppedFrames;
+        if (++mFrameCount < WINDOW_FRAMES) {
+            return false;
+        }
+        // 处理间隔大于1时平均耗时里已经摊掉了不处理的帧
+        long meanCost = mTotalCostNs / mFrameCount;
+        int dropped = mDropped;
+        mTotalCostNs = 0;
+        mFrameCount = 0;
+        mDropped = 0;
+        if (mWindowsSinceUp < Integer.MAX_VALUE) {
+            mWindowsSinceUp++;
+        }
+
+        if (meanCost > budgetNs(mLevel) || dropped > MAX_DROPPED_PER_WINDOW) {
+            mHeadroomWindows = 0;
+            if (++mOverloadedWindows >= DOWN_WINDOWS && mLevel < mLevelCount - 1) {
+                if (mWindowsSinceUp <= UP_WINDOWS * 2) {
+                    // 上一档撑不住，过一段时间再试
+                    mUpWindows = Math.min(mUpWindows * 2, MAX_UP_WINDOWS);
+                }
+                mWindowsSinceUp = Integer.MAX_VALUE;
+                return setLevel(mLevel + 1);
+            }
+        } else if (mLevel > 0 && dropped == 0 && meanCost < budgetNs(mLevel - 1) * HEADROOM_RATIO) {
+            mOverloadedWindows = 0;
+            if (++mHeadroomWindows >= mUpWindows) {
+                mWindowsSinceUp = 0;
+                return setLevel(mLevel - 1);
+            }
+        } else {
+            mOverloadedWindows = 0;
+            mHeadroomWindows = 0;
+        }
+        return false;
+    }
+
+    private boolean setLevel(int level) {
+        mLevel = level;
+        mOverloadedWindows = 0;
+        mHeadroomWindows = 0;
+        return true;
+    }
+
+    /**
+     * 每帧的平均耗时预算
+     */
+    long budgetNs(int level) {
+        return (long) (1000000000L * BUDGET_RATIO / fpsOf(level));
+    }
+
+    private int fpsOf(int level) {
+        return mFpsSteps[Math.min(level, mFpsSteps.length - 1)];
+    }
+
+    private int processIntervalOf(int level) {
+        return Math.max(1, level - mFpsSteps.length + 2);
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public int getLevelCount() {
+        return mLevelCount;
+    }
+
+    /**
+     * @return 当前档位的采集帧率
+     */
+    public int getFps() {
+        return fpsOf(mLevel);
+    }
+
+    /**
+     * @return 当前档位每几帧处理一次
+     */
+    public int getProcessInterval() {
+        return processIntervalOf(mLevel);
+    }
+
+    /**
+     * 回到最高档，清空统计
+     */
+    public void reset() {
+        mLevel = 0;
+        mTotalCostNs = 0;
+        mFrameCount = 0;
+        mUpWindows = UP_WINDOWS;
+        mWindowsSinceUp = Integer.MAX_VALUE;
+        mDropped = 0;
+        mOverloadedWindows = 0;
+        mHeadroomWindows = 0;
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.junyuecao.androidlivedemo;
+
+/**
+ * 渲染管线各阶段的耗时统计
+ */
+public class FrameTimings {
+    /**
+     * 相机回调到开始渲染这一帧
+     */
+    public static final int STAGE_CAPTURE_TO_RENDER = 0;
+    /**
+     * SurfaceTexture.updateTexImage
+     */
+    public static final int STAGE_UPDATE_TEX_IMAGE = 1;
+    /**
+     * SurfaceTextureCallback.processTexture
+     */
+    public static final int STAGE_PROCESS_TEXTURE = 2;
+    /**
+     * TextureRender.drawFrame
+     */
+    public static final int STAGE_DRAW_FRAME = 3;
+    /**
+     * 两次渲染之间的间隔
+     */
+    public static final int STAGE_FRAME_INTERVAL = 4;
+    public static final int STAGE_COUNT = 5;
+
+    private static final long FRAME_BUDGET_NS = 1000000000L / 30;
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[]{
+            new LatencyHistogram("captureToRender", FRAME_BUDGET_NS),
+            new LatencyHistogram("updateTexImage", FRAME_BUDGET_NS / 4),
+            new LatencyHistogram("processTexture", FRAME_BUDGET_NS / 2),
+            new LatencyHistogram("drawFrame", FRAME_BUDGET_NS / 2),
+            // 间隔超过1.5帧说明至少掉了一帧
+            new LatencyHistogram("frameInterval", FRAME_BUDGET_NS * 3 / 2),
+    };
+
+    private long mLastFrameNs;
+
+    public void record(int stage, long durationNs) {
+        mHistograms[stage].record(durationNs);
+    }
+
+    /**
+     * 渲染线程每帧调用一次，记录帧间隔
+     */
+    public void onFrameRendered(long nowNs) {
+        if (mLastFrameNs != 0) {
+            mHistograms[STAGE_FRAME_INTERVAL].record(nowNs - mLastFrameNs);
+        }
+        mLastFrameNs = nowNs;
+    }
+
+    public LatencyHistogram getHistogram(int stage) {
+        return mHistograms[stage];
+    }
+
+    /**
+     * @return 按STAGE_*顺序排列的各阶段统计
+     */
+    public LatencyHistogram.Snapshot[] snapshot() {
+        LatencyHistogram.Snapshot[] snapshots = new LatencyHistogram.Snapshot[STAGE_COUNT];
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            snapshots[i] = mHistograms[i].snapshot();
+        }
+        return snapshots;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        mLastFrameNs = 0;
+    }
+}
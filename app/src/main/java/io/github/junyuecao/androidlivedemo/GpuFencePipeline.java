@@ -0,0 +1,128 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+/**
+ * 用GLES3 sync fence代替每帧的glFinish
+ * <p>
+ * 每提交一帧插入一个fence，最多允许maxFramesInFlight帧还在GPU上排队，超过时才等最旧的一帧完成，
+ * 让CPU和GPU的工作可以重叠。需要完整像素的地方不用额外等待：TextureReader的PBO读回带着自己的fence，
+ * glReadPixels和编码器surface的eglSwapBuffers由驱动隐式同步。GLES2 context上退化为原来的glFinish。
+ */
+class GpuFencePipeline {
+    private static final String TAG = "GpuFencePipeline";
+    private static final long WAIT_TIMEOUT_NS = 100 * 1000 * 1000L;
+
+    private final long[] mFences;
+    private int mHead;
+    private int mCount;
+    private boolean mFenceSupported;
+    private boolean mPipelined = true;
+
+    GpuFencePipeline(int maxFramesInFlight) {
+        if (maxFramesInFlight < 1) {
+            throw new IllegalArgumentException("maxFramesInFlight must be positive: " + maxFramesInFlight);
+        }
+        mFences = new long[maxFramesInFlight];
+    }
+
+    /**
+     * 在GL线程上调用，检查当前context是否支持fence
+     */
+    void init() {
+        // 旧context的fence已经随context一起失效
+        mHead = 0;
+        mCount = 0;
+        mFenceSupported = isGles3Context();
+        Log.d(TAG, "fence sync " + (mFenceSupported ? "enabled" : "not supported, using glFinish"));
+    }
+
+    static boolean isGles3Context() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        // "OpenGL ES 3.x ..."
+        return version != null && version.startsWith("OpenGL ES ")
+                && version.length() > 10 && version.charAt(10) >= '3';
+    }
+
+    boolean isFenceSupported() {
+        return mFenceSupported;
+    }
+
+    /**
+     * 关闭后每帧都glFinish，和之前的行为一致
+     */
+    void setPipelined(boolean pipelined) {
+        if (!pipelined) {
+            waitForCompletion();
+        }
+        mPipelined = pipelined;
+    }
+
+    boolean isPipelined() {
+        return mPipelined && mFenceSupported;
+    }
+
+    /**
+     * 一帧的GL命令提交完成后调用
+     */
+    void onFrameSubmitted() {
+        if (!isPipelined()) {
+            GLES20.glFinish();
+            return;
+        }
+        if (mCount == mFences.length) {
+            // 排队的帧太多，等最旧的一帧完成
+            waitAndDelete(mFences[mHead]);
+            mHead = (mHead + 1) % mFences.length;
+            mCount--;
+        }
+        long fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        if (fence == 0) {
+            GLES20.glFinish();
+            return;
+        }
+        mFences[(mHead + mCount) % mFences.length] = fence;
+        mCount++;
+    }
+
+    /**
+     * 等待到目前为止提交的所有GL命令完成，关闭流水线时调用
+     */
+    private void waitForCompletion() {
+        if (!isPipelined()) {
+            GLES20.glFinish();
+            return;
+        }
+        // 新插一个fence覆盖到目前为止的所有命令，之前的fence不用再等
+        release();
+        long fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        if (fence == 0) {
+            GLES20.glFinish();
+            return;
+        }
+        waitAndDelete(fence);
+    }
+
+    private void waitAndDelete(long fence) {
+        int result = GLES30.glClientWaitSync(fence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT_NS);
+        if (result == GLES30.GL_TIMEOUT_EXPIRED || result == GLES30.GL_WAIT_FAILED) {
+            Log.w(TAG, "glClientWaitSync result " + result);
+        }
+        GLES30.glDeleteSync(fence);
+    }
+
+    /**
+     * 删除所有还没等待的fence，context销毁前调用
+     */
+    void release() {
+        if (mFenceSupported) {
+            for (int i = 0; i < mCount; i++) {
+                GLES30.glDeleteSync(mFences[(mHead + i) % mFences.length]);
+            }
+        }
+        mHead = 0;
+        mCount = 0;
+    }
+}
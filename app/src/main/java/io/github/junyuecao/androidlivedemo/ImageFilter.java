@@ -0,0 +1,61 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES20;
+
+/**
+ * FilterChain里的一个滤镜
+ * <p>
+ * 片元shader从 {@code uniform sampler2D sTexture} 按 {@code varying vec2 vTextureCoord} 采样，
+ * 输出到gl_FragColor。需要额外uniform的滤镜覆盖onInit和onDraw。
+ */
+public class ImageFilter {
+    public static final String NO_FILTER_FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "uniform sampler2D sTexture;\n" +
+                    "void main() {\n" +
+                    "  gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+                    "}\n";
+    public static final String GRAYSCALE_FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "uniform sampler2D sTexture;\n" +
+                    "void main() {\n" +
+                    "  vec4 tc = texture2D(sTexture, vTextureCoord);\n" +
+                    "  float color = tc.r * 0.3 + tc.g * 0.59 + tc.b * 0.11;\n" +
+                    "  gl_FragColor = vec4(color, color, color, 1.0);\n" +
+                    "}\n";
+
+    private final String mFragmentShader;
+
+    public ImageFilter() {
+        this(NO_FILTER_FRAGMENT_SHADER);
+    }
+
+    public ImageFilter(String fragmentShader) {
+        mFragmentShader = fragmentShader;
+    }
+
+    public String getFragmentShader() {
+        return mFragmentShader;
+    }
+
+    /**
+     * program链接后调用一次，用来取uniform location
+     */
+    protected void onInit(int program) {
+    }
+
+    /**
+     * 每帧draw之前调用，program已经use，用来设置uniform；不要在这里分配对象
+     */
+    protected void onDraw(int width, int height) {
+    }
+
+    /**
+     * 工具方法，取不到时返回-1
+     */
+    protected static int getUniformLocation(int program, String name) {
+        return GLES20.glGetUniformLocation(program, name);
+    }
+}
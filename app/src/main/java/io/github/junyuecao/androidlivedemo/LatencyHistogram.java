@@ -0,0 +1,130 @@
+package io.github.junyuecao.androidlivedemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定分桶的无锁耗时直方图
+ * <p>
+ * 每个桶宽100us，覆盖0~100ms，超出的计入最后一个溢出桶。record不加锁也不分配对象，
+ * 可以在渲染线程和相机回调线程上每帧调用。
+ */
+public class LatencyHistogram {
+    public static final long BUCKET_WIDTH_NS = 100 * 1000L;
+    public static final int BUCKET_COUNT = 1000;
+
+    private final String mName;
+    private final long mJankThresholdNs;
+    /**
+     * 最后一个桶是溢出桶
+     */
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT + 1);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNs = new AtomicLong();
+    private final AtomicLong mMaxNs = new AtomicLong();
+    private final AtomicLong mJankCount = new AtomicLong();
+
+    /**
+     * @param jankThresholdNs 超过这个耗时计为一次jank
+     */
+    public LatencyHistogram(String name, long jankThresholdNs) {
+        mName = name;
+        mJankThresholdNs = jankThresholdNs;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void record(long durationNs) {
+        if (durationNs < 0) return;
+        long index = durationNs / BUCKET_WIDTH_NS;
+        mBuckets.incrementAndGet(index >= BUCKET_COUNT ? BUCKET_COUNT : (int) index);
+        mCount.incrementAndGet();
+        mTotalNs.addAndGet(durationNs);
+        if (durationNs > mJankThresholdNs) {
+            mJankCount.incrementAndGet();
+        }
+        long max;
+        while (durationNs > (max = mMaxNs.get())) {
+            if (mMaxNs.compareAndSet(max, durationNs)) break;
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i <= BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mTotalNs.set(0);
+        mMaxNs.set(0);
+        mJankCount.set(0);
+    }
+
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKET_COUNT + 1];
+        long count = 0;
+        for (int i = 0; i <= BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+            count += buckets[i];
+        }
+        long max = mMaxNs.get();
+        return new Snapshot(mName, count, count == 0 ? 0 : mTotalNs.get() / count,
+                percentile(buckets, count, max, 0.50),
+                percentile(buckets, count, max, 0.95),
+                percentile(buckets, count, max, 0.99),
+                max, mJankCount.get());
+    }
+
+    /**
+     * 返回所在桶的上界，不会超过记录到的最大值
+     */
+    private static long percentile(long[] buckets, long count, long max, double p) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(count * p);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min((i + 1) * BUCKET_WIDTH_NS, max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 某一时刻直方图的统计结果，单位都是纳秒
+     */
+    public static class Snapshot {
+        public final String name;
+        public final long count;
+        public final long meanNs;
+        public final long p50Ns;
+        public final long p95Ns;
+        public final long p99Ns;
+        public final long maxNs;
+        public final long jankCount;
+
+        Snapshot(String name, long count, long meanNs, long p50Ns, long p95Ns, long p99Ns,
+                 long maxNs, long jankCount) {
+            this.name = name;
+            this.count = count;
+            this.meanNs = meanNs;
+            this.p50Ns = p50Ns;
+            this.p95Ns = p95Ns;
+            this.p99Ns = p99Ns;
+            this.maxNs = maxNs;
+            this.jankCount = jankCount;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": n=" + count
+                    + " p50=" + p50Ns / 1000 + "us"
+                    + " p95=" + p95Ns / 1000 + "us"
+                    + " p99=" + p99Ns / 1000 + "us"
+                    + " max=" + maxNs / 1000 + "us"
+                    + " jank=" + jankCount;
+        }
+    }
+}
@@ -66,7 +66,7 @@ public class MainActivity extends AppCompatActivity implements CameraCapture.Pre
     }
 
     @Override
-    public int processTexture(int texId, int texWidth, int texHeight, float[] matrix, byte[] outYUV) {
+    public int processTexture(int texId, int texWidth, int texHeight, float[] matrix, byte[] outYUV, long timestampNs) {
         return texId;
     }
 
@@ -84,5 +84,11 @@ public class MainActivity extends AppCompatActivity implements CameraCapture.Pre
         mCameraCapture.onPause();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mCameraCapture.onDestroy();
+    }
+
 
 }
@@ -0,0 +1,233 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 在GPU上把NV21/NV12的buffer转换成RGBA纹理
+ * <p>
+ * Y平面上传成GL_LUMINANCE纹理，交错的色度平面上传成半尺寸的GL_LUMINANCE_ALPHA纹理，
+ * 尺寸不变时只用glTexSubImage2D更新；转换矩阵按色彩空间和范围算好后作为uniform传给shader。
+ * 输出到FrameBufferPool的RGBA纹理，方向和FilterChain的输出一致(图像的顶部在t = 1)，可以直接交给滤镜或者drawTexture。
+ * 只能在GL线程上使用。
+ */
+class Nv21Render {
+    private static final String VERTEX_SHADER =
+            "attribute vec4 aPosition;\n" +
+                    "attribute vec4 aTextureCoord;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "void main() {\n" +
+                    "  gl_Position = aPosition;\n" +
+                    "  vTextureCoord = aTextureCoord.xy;\n" +
+                    "}\n";
+
+    static final String FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "uniform sampler2D sTextureY;\n" +
+                    "uniform sampler2D sTextureUV;\n" +
+                    "uniform mat3 uYuvMatrix;\n" +
+                    "uniform vec3 uYuvOffset;\n" +
+                    "uniform float uVFirst;\n" +
+                    "void main() {\n" +
+                    "  float y = texture2D(sTextureY, vTextureCoord).r;\n" +
+                    // LUMINANCE_ALPHA：第一个字节在rgb，第二个字节在a
+                    "  vec4 c = texture2D(sTextureUV, vTextureCoord);\n" +
+                    "  vec2 uv = uVFirst > 0.5 ? vec2(c.a, c.r) : vec2(c.r, c.a);\n" +
+                    "  gl_FragColor = vec4(uYuvMatrix * (vec3(y, uv) - uYuvOffset), 1.0);\n" +
+                    "}\n";
+
+    private final ShaderProgramCache mProgramCache;
+    private final FrameBufferPool mFrameBufferPool;
+    private final QuadVertexBuffer mQuad = new QuadVertexBuffer();
+    /**
+     * 上传时第0行在t = 0，垂直翻转后图像的顶部在t = 1
+     */
+    private final int mRotationIndex = TextureRotationUtil.getRotationIndex(0, false, true);
+    private final float[] mYuvMatrix = new float[9];
+    private final float[] mYuvOffset = new float[3];
+
+    private int mProgram;
+    /**
+     * aPosition, aTextureCoord, sTextureY, sTextureUV, uYuvMatrix, uYuvOffset, uVFirst
+     */
+    private final int[] mHandles = new int[7];
+    /**
+     * Y和UV两个纹理
+     */
+    private final int[] mTextures = new int[2];
+    private int mTextureWidth;
+    private int mTextureHeight;
+    private FrameBufferPool.FrameBuffer mTarget;
+
+    Nv21Render(ShaderProgramCache programCache, FrameBufferPool frameBufferPool) {
+        mProgramCache = programCache;
+        mFrameBufferPool = frameBufferPool;
+        setColorConversion(CameraCapture.COLOR_SPACE_BT601, false);
+    }
+
+    /**
+     * @param colorSpace CameraCapture.COLOR_SPACE_BT601或COLOR_SPACE_BT709
+     * @param fullRange  Y是0~255(JPEG、部分解码器)还是16~235(相机、大部分视频)
+     */
+    void setColorConversion(int colorSpace, boolean fullRange) {
+        computeConversion(colorSpace, fullRange, mYuvMatrix, mYuvOffset);
+    }
+
+    /**
+     * rgb = matrix * (yuv - offset)，yuv都归一化到0~1
+     *
+     * @param matrix 3x3，列主序，和glUniformMatrix3fv一致
+     */
+    static void computeConversion(int colorSpace, boolean fullRange, float[] matrix, float[] offset) {
+        float kr;
+        float kb;
+        if (colorSpace == CameraCapture.COLOR_SPACE_BT709) {
+            kr = 0.2126f;
+            kb = 0.0722f;
+        } else if (colorSpace == CameraCapture.COLOR_SPACE_BT601) {
+            kr = 0.299f;
+            kb = 0.114f;
+        } else {
+            throw new IllegalArgumentException("unsupported color space " + colorSpace);
+        }
+        float kg = 1.0f - kr - kb;
+        float yScale = fullRange ? 1.0f : 255.0f / 219.0f;
+        float cScale = fullRange ? 1.0f : 255.0f / 224.0f;
+        // Y列
+        matrix[0] = yScale;
+        matrix[1] = yScale;
+        matrix[2] = yScale;
+        // U列
+        matrix[3] = 0.0f;
+        matrix[4] = -2.0f * kb * (1.0f - kb) / kg * cScale;
+        matrix[5] = 2.0f * (1.0f - kb) * cScale;
+        // V列
+        matrix[6] = 2.0f * (1.0f - kr) * cScale;
+        matrix[7] = -2.0f * kr * (1.0f - kr) / kg * cScale;
+        matrix[8] = 0.0f;
+        offset[0] = fullRange ? 0.0f : 16.0f / 255.0f;
+        offset[1] = 128.0f / 255.0f;
+        offset[2] = 128.0f / 255.0f;
+    }
+
+    /**
+     * 上传一帧并转换成RGBA
+     *
+     * @param data   至少width * height * 3 / 2字节，从position 0开始；返回时position恢复为0
+     * @param format YuvConverter.FORMAT_NV21或FORMAT_NV12
+     * @return 转换结果的2D纹理，在下一次render之前有效
+     */
+    int render(ByteBuffer data, int width, int height, int format) {
+        if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+        }
+        if (format != YuvConverter.FORMAT_NV21 && format != YuvConverter.FORMAT_NV12) {
+            throw new IllegalArgumentException("unsupported format " + format);
+        }
+        if (data.capacity() < width * height * 3 / 2) {
+            throw new IllegalArgumentException("buffer too small for " + width + "x" + height);
+        }
+        if (mProgram == 0) {
+            mProgram = mProgramCache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+            if (mProgram == 0) {
+                throw new RuntimeException("failed creating nv21 program");
+            }
+            mHandles[0] = GLES20.glGetAttribLocation(mProgram, "aPosition");
+            mHandles[1] = GLES20.glGetAttribLocation(mProgram, "aTextureCoord");
+            mHandles[2] = GLES20.glGetUniformLocation(mProgram, "sTextureY");
+            mHandles[3] = GLES20.glGetUniformLocation(mProgram, "sTextureUV");
+            mHandles[4] = GLES20.glGetUniformLocation(mProgram, "uYuvMatrix");
+            mHandles[5] = GLES20.glGetUniformLocation(mProgram, "uYuvOffset");
+            mHandles[6] = GLES20.glGetUniformLocation(mProgram, "uVFirst");
+        }
+        upload(data, width, height);
+
+        if (mTarget != null && (mTarget.width != width || mTarget.height != height)) {
+            mFrameBufferPool.release(mTarget);
+            mTarget = null;
+        }
+        if (mTarget == null) {
+            mTarget = mFrameBufferPool.acquire(width, height);
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mTarget.framebufferId);
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glUseProgram(mProgram);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
+        GLES20.glUniform1i(mHandles[2], 0);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[1]);
+        GLES20.glUniform1i(mHandles[3], 1);
+        GLES20.glUniformMatrix3fv(mHandles[4], 1, false, mYuvMatrix, 0);
+        GLES20.glUniform3f(mHandles[5], mYuvOffset[0], mYuvOffset[1], mYuvOffset[2]);
+        GLES20.glUniform1f(mHandles[6], format == YuvConverter.FORMAT_NV21 ? 1.0f : 0.0f);
+        mQuad.bind(mHandles[0], mHandles[1], mRotationIndex);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        mQuad.unbind(mHandles[0], mHandles[1]);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        return mTarget.textureId;
+    }
+
+    private void upload(ByteBuffer data, int width, int height) {
+        if (mTextures[0] == 0 || width != mTextureWidth || height != mTextureHeight) {
+            if (mTextures[0] != 0) {
+                GLES20.glDeleteTextures(2, mTextures, 0);
+            }
+            GLES20.glGenTextures(2, mTextures, 0);
+            allocate(mTextures[0], GLES20.GL_LUMINANCE, width, height);
+            allocate(mTextures[1], GLES20.GL_LUMINANCE_ALPHA, width / 2, height / 2);
+            mTextureWidth = width;
+            mTextureHeight = height;
+        }
+        // 行宽不一定是4的倍数
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        data.position(0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, data);
+        // glTexSubImage2D从position开始读，不用slice就不会分配
+        data.position(width * height);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[1]);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width / 2, height / 2,
+                GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, data);
+        data.position(0);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+    }
+
+    private static void allocate(int texture, int format, int width, int height) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0,
+                format, GLES20.GL_UNSIGNED_BYTE, null);
+    }
+
+    void release() {
+        if (mTextures[0] != 0) {
+            GLES20.glDeleteTextures(2, mTextures, 0);
+            mTextures[0] = 0;
+            mTextures[1] = 0;
+        }
+        mFrameBufferPool.release(mTarget);
+        mTarget = null;
+        mQuad.release();
+    }
+
+    /**
+     * GL context已经丢失，只丢掉引用
+     */
+    void abandon() {
+        mTextures[0] = 0;
+        mTextures[1] = 0;
+        mTarget = null;
+        mProgram = 0;
+        mQuad.abandon();
+    }
+}
@@ -23,6 +23,24 @@ public class OpenGLUtils {
 	public static final int NOT_INIT = -1;
 	public static final int ON_DRAWN = 1;
 
+	/**
+	 * 每帧上传用这个：usedTexId是pool借出的同尺寸纹理时只更新内容，不重新分配显存
+	 */
+	public static int loadTexture(final TexturePool pool, final Bitmap img, final int usedTexId) {
+		if(img == null)
+			return NO_TEXTURE;
+		return pool.upload(img, usedTexId);
+	}
+
+	public static int loadTexture(final TexturePool pool, final Buffer data, final int width, final int height, final int usedTexId) {
+		if(data == null)
+			return NO_TEXTURE;
+		return pool.upload(data, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, usedTexId);
+	}
+
+	/**
+	 * 复用usedTexId时不知道它原来的尺寸，只能重新分配存储，频繁上传请用TexturePool的版本
+	 */
 	public static int loadTexture(final Bitmap img, final int usedTexId) {
 		return loadTexture(img, usedTexId, false);
     }
@@ -55,6 +73,9 @@ public class OpenGLUtils {
         return textures[0];
     }
 
+	/**
+	 * 复用usedTexId时不知道它原来的尺寸，只能重新分配存储，频繁上传请用TexturePool的版本
+	 */
 	public static int loadTexture(final Buffer data, final int width, final int height, final int usedTexId) {
 		if(data == null)
 			return NO_TEXTURE;
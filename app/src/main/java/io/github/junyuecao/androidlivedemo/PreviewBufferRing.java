@@ -0,0 +1,187 @@
+package io.github.junyuecao.androidlivedemo;
+
+/**
+ * 预览回调buffer环
+ * <p>
+ * 按previewBufferSize预分配N个byte[]，相机回调后由使用方归还再重新加入相机队列，
+ * 只有预览尺寸变化时才重新分配。同时统计投递帧数、因没有可用buffer而丢掉的帧数，
+ * 以及每个buffer被占用的时长。
+ */
+public class PreviewBufferRing {
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+
+    /**
+     * buffer归还的去处，一般是Camera.addCallbackBuffer
+     */
+    public interface BufferQueue {
+        void queueBuffer(byte[] buffer);
+    }
+
+    private final int mBufferCount;
+    private byte[][] mBuffers;
+    /**
+     * 每个buffer是否被使用方占用，以及被取出的时间
+     */
+    private final boolean[] mHeld;
+    private final long[] mHeldSinceNs;
+    private int mBufferSize;
+    private int mQueuedCount;
+
+    private long mFramesDelivered;
+    private long mFramesDropped;
+    private long mHoldCount;
+    private long mHoldTotalNs;
+    private long mHoldMaxNs;
+
+    private boolean mHasLastDeliver;
+    private long mLastDeliverNs;
+    private long mFrameIntervalNs;
+    private boolean mStarved;
+    private long mStarvedSinceNs;
+
+    public PreviewBufferRing() {
+        this(DEFAULT_BUFFER_COUNT);
+    }
+
+    public PreviewBufferRing(int bufferCount) {
+        if (bufferCount < 1) {
+            throw new IllegalArgumentException("bufferCount must be positive: " + bufferCount);
+        }
+        mBufferCount = bufferCount;
+        mHeld = new boolean[bufferCount];
+        mHeldSinceNs = new long[bufferCount];
+    }
+
+    public int getBufferCount() {
+        return mBufferCount;
+    }
+
+    public synchronized int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * 确保buffer大小为bufferSize，尺寸没变化时直接复用
+     *
+     * @return 是否重新分配了buffer
+     */
+    public synchronized boolean ensureBufferSize(int bufferSize) {
+        if (mBuffers != null && mBufferSize == bufferSize) {
+            return false;
+        }
+        mBuffers = new byte[mBufferCount][];
+        for (int i = 0; i < mBufferCount; i++) {
+            mBuffers[i] = new byte[bufferSize];
+            mHeld[i] = false;
+        }
+        mBufferSize = bufferSize;
+        mQueuedCount = 0;
+        mStarved = false;
+        return true;
+    }
+
+    /**
+     * 把所有没有被占用的buffer加入相机队列，相机重新打开后需要调用
+     */
+    public synchronized void queueAll(BufferQueue queue) {
+        if (mBuffers == null) return;
+        mQueuedCount = 0;
+        for (int i = 0; i < mBufferCount; i++) {
+            if (!mHeld[i]) {
+                queue.queueBuffer(mBuffers[i]);
+                mQueuedCount++;
+            }
+        }
+        mStarved = false;
+        mHasLastDeliver = false;
+    }
+
+    /**
+     * 相机回调了一帧数据，buffer从相机队列中取出
+     *
+     * @return data是否属于当前的buffer环，尺寸变化前的旧buffer返回false
+     */
+    public synchronized boolean onFrameDelivered(byte[] data, long nowNs) {
+        int index = indexOf(data);
+        if (index < 0) return false;
+        mFramesDelivered++;
+        mHeld[index] = true;
+        mHeldSinceNs[index] = nowNs;
+        if (mQueuedCount > 0) mQueuedCount--;
+        if (mHasLastDeliver) {
+            long interval = nowNs - mLastDeliverNs;
+            // 平滑后的帧间隔，用来估算饥饿期间丢掉的帧数
+            mFrameIntervalNs = mFrameIntervalNs == 0 ? interval : (mFrameIntervalNs * 7 + interval) / 8;
+        }
+        mLastDeliverNs = nowNs;
+        mHasLastDeliver = true;
+        if (mQueuedCount == 0 && !mStarved) {
+            mStarved = true;
+            mStarvedSinceNs = nowNs;
+        }
+        return true;
+    }
+
+    /**
+     * 使用方用完buffer，重新加入相机队列
+     */
+    public synchronized void release(byte[] data, BufferQueue queue, long nowNs) {
+        int index = indexOf(data);
+        if (index < 0) return;
+        if (!mHeld[index]) return;
+        long held = nowNs - mHeldSinceNs[index];
+        mHoldCount++;
+        mHoldTotalNs += held;
+        if (held > mHoldMaxNs) mHoldMaxNs = held;
+        mHeld[index] = false;
+
+        if (mStarved) {
+            if (mFrameIntervalNs > 0) {
+                // 饥饿期间每到一个帧间隔，相机就丢掉一帧
+                mFramesDropped += (nowNs - mStarvedSinceNs) / mFrameIntervalNs;
+            }
+            mStarved = false;
+        }
+        mQueuedCount++;
+        queue.queueBuffer(data);
+    }
+
+    private int indexOf(byte[] data) {
+        if (mBuffers == null || data == null) return -1;
+        for (int i = 0; i < mBufferCount; i++) {
+            if (mBuffers[i] == data) return i;
+        }
+        return -1;
+    }
+
+    public synchronized int getQueuedCount() {
+        return mQueuedCount;
+    }
+
+    public synchronized long getFramesDelivered() {
+        return mFramesDelivered;
+    }
+
+    /**
+     * @return 相机因为没有可用buffer而丢掉的帧数(按平滑后的帧间隔估算)
+     */
+    public synchronized long getFramesDropped() {
+        return mFramesDropped;
+    }
+
+    public synchronized long getAverageHoldTimeNs() {
+        return mHoldCount == 0 ? 0 : mHoldTotalNs / mHoldCount;
+    }
+
+    public synchronized long getMaxHoldTimeNs() {
+        return mHoldMaxNs;
+    }
+
+    public synchronized void resetStats() {
+        mFramesDelivered = 0;
+        mFramesDropped = 0;
+        mHoldCount = 0;
+        mHoldTotalNs = 0;
+        mHoldMaxNs = 0;
+    }
+}
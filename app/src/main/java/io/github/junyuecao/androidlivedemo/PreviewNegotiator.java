@@ -0,0 +1,199 @@
+package io.github.junyuecao.androidlivedemo;
+
+import java.util.List;
+
+/**
+ * 根据目标分辨率、显示区域的宽高比和目标帧率，从相机支持的预览尺寸和帧率范围里选一个开销最小的组合
+ * <p>
+ * 每个尺寸和帧率范围的组合按三部分打分：
+ * 宽高比和显示区域的差距(会被裁掉的部分)，像素数超出目标的部分，以及像素数乘最大帧率的带宽超出目标的部分，
+ * 都取对数比值，再按权重相加。能满足目标分辨率和帧率的组合里取代价最小的；都满足不了时取差得最少的。
+ * <p>
+ * 尺寸不区分横竖，都按长边和短边比较。纯Java实现，不依赖Camera。
+ */
+public class PreviewNegotiator {
+    public static final float DEFAULT_ASPECT_WEIGHT = 4f;
+    public static final float DEFAULT_PIXEL_WEIGHT = 1f;
+    public static final float DEFAULT_BANDWIDTH_WEIGHT = 1f;
+    /**
+     * 低于目标时每差一倍的代价，远大于其他项，保证尽量接近目标
+     */
+    private static final float SHORTFALL_WEIGHT = 16f;
+
+    /**
+     * 协商的结果，宽高沿用相机的横向尺寸，帧率和Camera.Parameters一样乘了1000
+     */
+    public static class Config {
+        public final int width;
+        public final int height;
+        public final int minFps;
+        public final int maxFps;
+        /**
+         * 是否满足目标分辨率和帧率
+         */
+        public final boolean meetsTarget;
+        public final double cost;
+
+        Config(int width, int height, int minFps, int maxFps, boolean meetsTarget, double cost) {
+            this.width = width;
+            this.height = height;
+            this.minFps = minFps;
+            this.maxFps = maxFps;
+            this.meetsTarget = meetsTarget;
+            this.cost = cost;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + minFps + "~" + maxFps + " cost=" + cost;
+        }
+    }
+
+    private int mTargetLong;
+    private int mTargetShort;
+    private double mDisplayAspect;
+    private int mTargetFps = 30000;
+    private float mAspectWeight = DEFAULT_ASPECT_WEIGHT;
+    private float mPixelWeight = DEFAULT_PIXEL_WEIGHT;
+    private float mBandwidthWeight = DEFAULT_BANDWIDTH_WEIGHT;
+
+    /**
+     * @param width  需要的宽，不区分横竖
+     * @param height 需要的高
+     */
+    public PreviewNegotiator(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid target " + width + "x" + height);
+        }
+        mTargetLong = Math.max(width, height);
+        mTargetShort = Math.min(width, height);
+        mDisplayAspect = (double) mTargetLong / mTargetShort;
+    }
+
+    /**
+     * 显示区域的尺寸，不设置时按目标分辨率的宽高比
+     */
+    public PreviewNegotiator setDisplaySize(int width, int height) {
+        if (width > 0 && height > 0) {
+            mDisplayAspect = (double) Math.max(width, height) / Math.min(width, height);
+        }
+        return this;
+    }
+
+    /**
+     * @param fps 目标帧率，比如30
+     */
+    public PreviewNegotiator setTargetFps(int fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("invalid fps " + fps);
+        }
+        mTargetFps = fps * 1000;
+        return this;
+    }
+
+    public PreviewNegotiator setWeights(float aspect, float pixel, float bandwidth) {
+        mAspectWeight = aspect;
+        mPixelWeight = pixel;
+        mBandwidthWeight = bandwidth;
+        return this;
+    }
+
+    /**
+     * @param sizes      支持的尺寸，每个是{width, height}
+     * @param fpsRanges  支持的帧率范围，每个是{min, max}，乘了1000；null或空时只选尺寸
+     * @return sizes为空时返回null
+     */
+    public Config negotiate(List<int[]> sizes, List<int[]> fpsRanges) {
+        if (sizes == null || sizes.isEmpty()) {
+            return null;
+        }
+        boolean hasRanges = fpsRanges != null && !fpsRanges.isEmpty();
+        int rangeCount = hasRanges ? fpsRanges.size() : 1;
+        Config best = null;
+        for (int i = 0; i < sizes.size(); i++) {
+            int[] size = sizes.get(i);
+            for (int j = 0; j < rangeCount; j++) {
+                int minFps = hasRanges ? fpsRanges.get(j)[0] : mTargetFps;
+                int maxFps = hasRanges ? fpsRanges.get(j)[1] : mTargetFps;
+                Config config = score(size[0], size[1], minFps, maxFps);
+                if (best == null || isBetter(config, best)) {
+                    best = config;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 预览中只改帧率时使用：最大帧率不低于目标的范围里取最大帧率最低的，同样时取下限最高的，帧率更稳定；
+     * 都达不到目标时取最大帧率最高的
+     *
+     * @param fpsRanges 每个是{min, max}，乘了1000
+     * @param targetFps 乘了1000
+     * @return fpsRanges为空时返回null
+     */
+    public static int[] chooseFpsRange(List<int[]> fpsRanges, int targetFps) {
+        if (fpsRanges == null) {
+            return null;
+        }
+        int[] best = null;
+        for (int i = 0; i < fpsRanges.size(); i++) {
+            int[] range = fpsRanges.get(i);
+            if (best == null) {
+                best = range;
+            } else if ((range[1] >= targetFps) != (best[1] >= targetFps)) {
+                if (range[1] >= targetFps) best = range;
+            } else if (range[1] != best[1]) {
+                if ((range[1] < best[1]) == (range[1] >= targetFps)) best = range;
+            } else if (range[0] > best[0]) {
+                best = range;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isBetter(Config a, Config b) {
+        if (a.meetsTarget != b.meetsTarget) {
+            return a.meetsTarget;
+        }
+        if (a.cost != b.cost) {
+            return a.cost < b.cost;
+        }
+        long pixelsA = (long) a.width * a.height;
+        long pixelsB = (long) b.width * b.height;
+        if (pixelsA != pixelsB) {
+            return pixelsA < pixelsB;
+        }
+        // 同样的代价下，下限更低的范围让相机在暗光下可以降帧省电
+        return a.minFps < b.minFps;
+    }
+
+    Config score(int width, int height, int minFps, int maxFps) {
+        int longSide = Math.max(width, height);
+        int shortSide = Math.min(width, height);
+        double aspect = (double) longSide / shortSide;
+        double aspectCost = Math.abs(Math.log(aspect / mDisplayAspect));
+
+        double pixels = (double) longSide * shortSide;
+        double targetPixels = (double) mTargetLong * mTargetShort;
+        double pixelCost = Math.log(pixels / targetPixels);
+        double bandwidthCost = Math.log(pixels * maxFps / (targetPixels * mTargetFps));
+
+        double shortfall = 0;
+        if (longSide < mTargetLong) {
+            shortfall += Math.log((double) mTargetLong / longSide);
+        }
+        if (shortSide < mTargetShort) {
+            shortfall += Math.log((double) mTargetShort / shortSide);
+        }
+        if (maxFps < mTargetFps) {
+            shortfall += Math.log((double) mTargetFps / maxFps);
+        }
+        // 不够的部分只算shortfall，富余的部分才算像素和带宽的代价
+        double cost = mAspectWeight * aspectCost
+                + mPixelWeight * Math.max(0, pixelCost)
+                + mBandwidthWeight * Math.max(0, bandwidthCost)
+                + SHORTFALL_WEIGHT * shortfall;
+        return new Config(width, height, minFps, maxFps, shortfall == 0, cost);
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * 全屏四边形的顶点VBO，第一次使用时上传一次，之后每帧只绑定和设置偏移
+ * <p>
+ * 16组(4个旋转角度 x 水平翻转 x 垂直翻转)四边形交错存放，每个顶点是x, y, s, t，
+ * 用TextureRotationUtil.getRotationIndex选择。位置都是CUBE，按比例缩放交给MVP矩阵。
+ * 只在GL线程上使用。
+ */
+class QuadVertexBuffer {
+    static final int FLOATS_PER_VERTEX = 4;
+    static final int STRIDE_BYTES = FLOATS_PER_VERTEX * 4;
+    static final int VERTEX_COUNT = 4;
+    static final int QUAD_FLOATS = VERTEX_COUNT * FLOATS_PER_VERTEX;
+    private static final int TEXTURE_OFFSET_BYTES = 2 * 4;
+
+    private final int[] mBuffer = new int[1];
+
+    /**
+     * 所有组合的顶点数据，第i组从i * QUAD_FLOATS开始
+     */
+    static float[] buildVertices() {
+        int count = TextureRotationUtil.getRotationCount();
+        float[] vertices = new float[count * QUAD_FLOATS];
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (int flags = 0; flags < 4; flags++) {
+                boolean flipHorizontal = (flags & 1) != 0;
+                boolean flipVertical = (flags & 2) != 0;
+                int base = TextureRotationUtil.getRotationIndex(rotation, flipHorizontal, flipVertical) * QUAD_FLOATS;
+                float[] texture = TextureRotationUtil.getRotation(rotation, flipHorizontal, flipVertical);
+                for (int v = 0; v < VERTEX_COUNT; v++) {
+                    int offset = base + v * FLOATS_PER_VERTEX;
+                    vertices[offset] = TextureRotationUtil.CUBE[v * 2];
+                    vertices[offset + 1] = TextureRotationUtil.CUBE[v * 2 + 1];
+                    vertices[offset + 2] = texture[v * 2];
+                    vertices[offset + 3] = texture[v * 2 + 1];
+                }
+            }
+        }
+        return vertices;
+    }
+
+    private void init() {
+        float[] vertices = buildVertices();
+        FloatBuffer data = ByteBuffer.allocateDirect(vertices.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        data.put(vertices).position(0);
+        GLES20.glGenBuffers(1, mBuffer, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffer[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertices.length * 4, data, GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * 绑定VBO并设置顶点属性，画完调用unbind
+     *
+     * @param textureHandle 不需要纹理坐标时传-1
+     * @param rotationIndex TextureRotationUtil.getRotationIndex的返回值
+     */
+    void bind(int positionHandle, int textureHandle, int rotationIndex) {
+        if (mBuffer[0] == 0) {
+            init();
+        }
+        int base = rotationIndex * QUAD_FLOATS * 4;
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffer[0]);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, STRIDE_BYTES, base);
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        if (textureHandle >= 0) {
+            GLES20.glVertexAttribPointer(textureHandle, 2, GLES20.GL_FLOAT, false, STRIDE_BYTES,
+                    base + TEXTURE_OFFSET_BYTES);
+            GLES20.glEnableVertexAttribArray(textureHandle);
+        }
+    }
+
+    /**
+     * 解除绑定，其他还在用客户端数组的代码不受影响
+     */
+    void unbind(int positionHandle, int textureHandle) {
+        GLES20.glDisableVertexAttribArray(positionHandle);
+        if (textureHandle >= 0) {
+            GLES20.glDisableVertexAttribArray(textureHandle);
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    void release() {
+        if (mBuffer[0] != 0) {
+            GLES20.glDeleteBuffers(1, mBuffer, 0);
+            mBuffer[0] = 0;
+        }
+    }
+
+    /**
+     * GL context已经丢失，只丢掉引用，下次bind时在新的context上重建
+     */
+    void abandon() {
+        mBuffer[0] = 0;
+    }
+}
@@ -0,0 +1,162 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.EGLSurface;
+
+/**
+ * CameraCapture的一个输出目标：预览的View、编码器的输入Surface或者离屏的pbuffer
+ * <p>
+ * 每帧的滤镜和processTexture只跑一次，结果再画到每个输出上。每个输出有自己的尺寸、旋转和最大帧率，
+ * 超过最大帧率的帧直接跳过。EGL surface和绘制用的TextureRender都在GL线程上按需创建。
+ */
+public class RenderOutput {
+    public interface Callback {
+        /**
+         * 在GL线程上，这个输出的surface还是current的时候调用，可以在这里读pbuffer的像素
+         *
+         * @param timestampNs 这一帧的采集时间，System.nanoTime基准
+         */
+        void onFrameRendered(RenderOutput output, long timestampNs);
+    }
+
+    /**
+     * Surface、SurfaceTexture或SurfaceHolder，离屏输出时为null
+     */
+    private final Object mSurface;
+    private final int mWidth;
+    private final int mHeight;
+    private volatile int mRotation;
+    private volatile long mMinIntervalNs;
+    private volatile Callback mCallback;
+
+    // 以下只在GL线程上访问
+    EGLSurface mEglSurface;
+    TextureRender mRender;
+    /**
+     * 画这个输出时的相机方向、是否镜像和图像尺寸，变化时重新计算顶点和纹理坐标
+     */
+    int mGeometryRotation = -1;
+    boolean mGeometryMirror;
+    int mGeometryImageWidth;
+    int mGeometryImageHeight;
+    private long mNextFrameNs;
+    private volatile long mRenderedCount;
+    private volatile long mSkippedCount;
+
+    private RenderOutput(Object surface, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+        }
+        mSurface = surface;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * @param surface Surface、SurfaceTexture或SurfaceHolder，比如MediaCodec.createInputSurface()
+     */
+    public static RenderOutput window(Object surface, int width, int height) {
+        if (surface == null) {
+            throw new IllegalArgumentException("surface is null");
+        }
+        return new RenderOutput(surface, width, height);
+    }
+
+    /**
+     * 离屏的pbuffer，通过Callback读取
+     */
+    public static RenderOutput offscreen(int width, int height) {
+        return new RenderOutput(null, width, height);
+    }
+
+    /**
+     * @param degrees 在相机方向的基础上再顺时针旋转的角度，0、90、180或270
+     */
+    public RenderOutput setRotation(int degrees) {
+        if (degrees % 90 != 0) {
+            throw new IllegalArgumentException("invalid rotation " + degrees);
+        }
+        mRotation = (degrees % 360 + 360) % 360;
+        return this;
+    }
+
+    /**
+     * @param fps 最大帧率，0表示每帧都画
+     */
+    public RenderOutput setMaxFps(int fps) {
+        if (fps < 0) {
+            throw new IllegalArgumentException("invalid fps " + fps);
+        }
+        mMinIntervalNs = fps == 0 ? 0 : 1000000000L / fps;
+        return this;
+    }
+
+    public RenderOutput setCallback(Callback callback) {
+        mCallback = callback;
+        return this;
+    }
+
+    public boolean isOffscreen() {
+        return mSurface == null;
+    }
+
+    Object getSurface() {
+        return mSurface;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getRotation() {
+        return mRotation;
+    }
+
+    Callback getCallback() {
+        return mCallback;
+    }
+
+    /**
+     * 按最大帧率抽帧。允许比间隔早1/4个间隔，相机帧的抖动不会让输出帧率掉一半；
+     * 落后超过一个间隔时从当前帧重新计时，不会为了追赶连续输出
+     *
+     * @return 这一帧是否要画到这个输出上
+     */
+    boolean shouldRender(long timestampNs) {
+        long interval = mMinIntervalNs;
+        if (interval == 0) {
+            mRenderedCount++;
+            return true;
+        }
+        long next = mNextFrameNs;
+        if (next != 0 && timestampNs < next - interval / 4) {
+            mSkippedCount++;
+            return false;
+        }
+        mNextFrameNs = next == 0 || timestampNs - next > interval ? timestampNs + interval : next + interval;
+        mRenderedCount++;
+        return true;
+    }
+
+    /**
+     * @return 画到这个输出上的帧数
+     */
+    public long getRenderedCount() {
+        return mRenderedCount;
+    }
+
+    /**
+     * @return 因为最大帧率跳过的帧数
+     */
+    public long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    @Override
+    public String toString() {
+        return (isOffscreen() ? "offscreen " : "window ") + mWidth + "x" + mHeight + " rotation=" + mRotation;
+    }
+}
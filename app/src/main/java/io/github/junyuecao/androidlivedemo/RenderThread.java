@@ -0,0 +1,129 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.EGLSurface;
+import android.opengl.GLSurfaceView;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 自己持有EGL context的渲染线程，代替GLSurfaceView驱动CameraCapture
+ * <p>
+ * context默认绑定一个1x1的pbuffer，相机的OES纹理和滤镜都在这个context上，画面通过
+ * {@link CameraCapture#addOutput(RenderOutput)}输出到预览View、编码器等任意多个Surface。
+ * config带EGL_RECORDABLE_ANDROID，可以直接输出到MediaCodec的输入Surface。
+ * <pre>
+ * RenderThread renderThread = new RenderThread();
+ * CameraCapture capture = new CameraCapture(context, renderThread, new CameraProxy());
+ * renderThread.start(capture);
+ * renderThread.setSurfaceSize(width, height);
+ * capture.addOutput(RenderOutput.window(surfaceHolder.getSurface(), width, height));
+ * </pre>
+ */
+public class RenderThread {
+    private static final String TAG = "RenderThread";
+
+    private final HandlerThread mThread;
+    private Handler mHandler;
+    private GLSurfaceView.Renderer mRenderer;
+    // 以下只在渲染线程上访问
+    private EglCore mEglCore;
+    private EGLSurface mPbuffer;
+
+    private final AtomicBoolean mRenderRequested = new AtomicBoolean();
+    private final Runnable mDrawTask = new Runnable() {
+        @Override
+        public void run() {
+            mRenderRequested.set(false);
+            if (mEglCore != null) {
+                mRenderer.onDrawFrame(null);
+            }
+        }
+    };
+
+    public RenderThread() {
+        mThread = new HandlerThread(TAG);
+    }
+
+    /**
+     * 启动线程，创建EGL context后调用renderer的onSurfaceCreated
+     */
+    public void start(GLSurfaceView.Renderer renderer) {
+        if (mRenderer != null) {
+            throw new IllegalStateException("already started");
+        }
+        mRenderer = renderer;
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mEglCore = new EglCore();
+                    mPbuffer = mEglCore.createOffscreenSurface(1, 1);
+                    mEglCore.makeCurrent(mPbuffer);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "EGL init failed", e);
+                    mEglCore = null;
+                    return;
+                }
+                mRenderer.onSurfaceCreated(null, null);
+            }
+        });
+    }
+
+    /**
+     * 相当于GLSurfaceView的surface尺寸，CameraCapture按它选择预览尺寸。onResume之后需要再调用一次
+     */
+    public void setSurfaceSize(final int width, final int height) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                if (mEglCore != null) {
+                    mRenderer.onSurfaceChanged(null, width, height);
+                }
+            }
+        });
+    }
+
+    public void queueEvent(Runnable event) {
+        if (mHandler != null) {
+            mHandler.post(event);
+        }
+    }
+
+    /**
+     * 请求渲染一帧，上一次请求还没有执行时合并
+     */
+    public void requestRender() {
+        if (mHandler != null && mRenderRequested.compareAndSet(false, true)) {
+            mHandler.post(mDrawTask);
+        }
+    }
+
+    /**
+     * 只在渲染线程上调用，context还没有创建或创建失败时为null
+     */
+    EglCore getEglCore() {
+        return mEglCore;
+    }
+
+    /**
+     * 已经提交的任务执行完后销毁EGL context并退出
+     */
+    public void quit() {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                if (mEglCore != null) {
+                    mEglCore.releaseSurface(mPbuffer);
+                    mEglCore.release();
+                    mEglCore = null;
+                }
+            }
+        });
+        mThread.quitSafely();
+    }
+}
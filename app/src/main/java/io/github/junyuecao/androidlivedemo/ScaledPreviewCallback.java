@@ -0,0 +1,134 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.graphics.ImageFormat;
+
+/**
+ * 把预览帧缩小后再交给另一个PreviewCallback
+ * <p>
+ * 给只需要低分辨率的分析类consumer(运动检测、亮度统计、人脸等)使用，注册到CameraCapture.addPreviewCallback，
+ * 在FrameDispatcher的工作线程上用面积平均缩小，分析的开销就只和分析分辨率有关。
+ * 输出buffer从池子里取，delegate返回后立即还回池子，所以delegate不能在返回后继续持有buffer。
+ * <p>
+ * 宽高沿用CameraCapture.PreviewCallback的约定：回调里的width是buffer的高，height是buffer的宽。
+ */
+public class ScaledPreviewCallback implements CameraCapture.PreviewCallback {
+    /**
+     * ImageFormat.Y8，API 29才有
+     */
+    public static final int IMAGE_FORMAT_Y8 = 0x20203859;
+
+    private final CameraCapture.PreviewCallback mDelegate;
+    private final int mDivisor;
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+    private final int mFormat;
+
+    private final Object mPoolLock = new Object();
+    private byte[][] mFreeBuffers = new byte[2][];
+    private int mFreeCount;
+
+    private ScaledPreviewCallback(CameraCapture.PreviewCallback delegate, int divisor,
+                                  int targetWidth, int targetHeight, int format) {
+        if (format != YuvConverter.FORMAT_NV21 && format != YuvConverter.FORMAT_I420
+                && format != YuvConverter.FORMAT_Y8) {
+            throw new IllegalArgumentException("unsupported format " + format);
+        }
+        mDelegate = delegate;
+        mDivisor = divisor;
+        mTargetWidth = targetWidth;
+        mTargetHeight = targetHeight;
+        mFormat = format;
+    }
+
+    /**
+     * 按比例缩小，比如2就是1/2，4就是1/4，正好整除时走SIMD的盒式平均
+     *
+     * @param format YuvConverter.FORMAT_NV21、FORMAT_I420或FORMAT_Y8
+     */
+    public static ScaledPreviewCallback byDivisor(CameraCapture.PreviewCallback delegate, int divisor, int format) {
+        if (divisor < 1) {
+            throw new IllegalArgumentException("divisor must be positive");
+        }
+        return new ScaledPreviewCallback(delegate, divisor, 0, 0, format);
+    }
+
+    /**
+     * 缩小到指定尺寸，宽高必须是偶数
+     */
+    public static ScaledPreviewCallback bySize(CameraCapture.PreviewCallback delegate, int width, int height,
+                                               int format) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("width and height must be positive and even");
+        }
+        return new ScaledPreviewCallback(delegate, 0, width, height, format);
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] bytes, int width, int height, int rotation, int fmt, long tsInNanoTime) {
+        if (fmt != ImageFormat.NV21) {
+            return;
+        }
+        // buffer本身是横的
+        int srcWidth = height;
+        int srcHeight = width;
+        int dstWidth;
+        int dstHeight;
+        if (mDivisor > 0) {
+            dstWidth = Math.max(2, (srcWidth / mDivisor) & ~1);
+            dstHeight = Math.max(2, (srcHeight / mDivisor) & ~1);
+        } else {
+            dstWidth = mTargetHeight;
+            dstHeight = mTargetWidth;
+        }
+        byte[] out = acquire(YuvConverter.frameSize(mFormat, dstWidth, dstHeight));
+        try {
+            YuvConverter.scale(bytes, YuvConverter.FORMAT_NV21, srcWidth, srcHeight, out, mFormat, dstWidth, dstHeight);
+            mDelegate.onPreviewFrame(out, dstHeight, dstWidth, rotation, imageFormat(mFormat), tsInNanoTime);
+        } finally {
+            release(out);
+        }
+    }
+
+    private static int imageFormat(int format) {
+        switch (format) {
+            case YuvConverter.FORMAT_NV21:
+                return ImageFormat.NV21;
+            case YuvConverter.FORMAT_I420:
+                return ImageFormat.YUV_420_888;
+            default:
+                return IMAGE_FORMAT_Y8;
+        }
+    }
+
+    public CameraCapture.PreviewCallback getDelegate() {
+        return mDelegate;
+    }
+
+    /**
+     * 多个工作线程可能同时处理不同的帧，每个线程拿到各自的buffer
+     */
+    private byte[] acquire(int size) {
+        synchronized (mPoolLock) {
+            while (mFreeCount > 0) {
+                byte[] buffer = mFreeBuffers[--mFreeCount];
+                mFreeBuffers[mFreeCount] = null;
+                if (buffer.length == size) {
+                    return buffer;
+                }
+                // 分辨率变了，旧尺寸的buffer直接丢掉
+            }
+        }
+        return new byte[size];
+    }
+
+    private void release(byte[] buffer) {
+        synchronized (mPoolLock) {
+            if (mFreeCount == mFreeBuffers.length) {
+                byte[][] grown = new byte[mFreeBuffers.length * 2][];
+                System.arraycopy(mFreeBuffers, 0, grown, 0, mFreeCount);
+                mFreeBuffers = grown;
+            }
+            mFreeBuffers[mFreeCount++] = buffer;
+        }
+    }
+}
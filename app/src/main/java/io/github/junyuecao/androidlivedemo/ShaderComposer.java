@@ -0,0 +1,209 @@
+package io.github.junyuecao.androidlivedemo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 把一串ColorOp融合成尽量少的片元shader
+ * <p>
+ * 连续的逐像素操作融合到同一个pass里，只读一次输入纹理；需要邻近像素的操作开始一个新的pass，
+ * 它后面的逐像素操作接着融合进这个pass。生成的shader和ImageFilter的约定一致，
+ * 可以直接交给FilterChain。纯Java实现，可以在host上做单元测试。
+ */
+public class ShaderComposer {
+    static final String LUMA = "vec3(0.3, 0.59, 0.11)";
+
+    /**
+     * 一个渲染pass
+     */
+    public static class Pass {
+        private final List<ColorOp> mOps;
+        private final String mFragmentShader;
+        private final boolean mNeedsTexelSize;
+
+        Pass(List<ColorOp> ops, String fragmentShader, boolean needsTexelSize) {
+            mOps = Collections.unmodifiableList(ops);
+            mFragmentShader = fragmentShader;
+            mNeedsTexelSize = needsTexelSize;
+        }
+
+        public List<ColorOp> getOps() {
+            return mOps;
+        }
+
+        public String getFragmentShader() {
+            return mFragmentShader;
+        }
+
+        /**
+         * @return shader里是否有uTexelSize，需要每帧设置为(1/width, 1/height)
+         */
+        public boolean needsTexelSize() {
+            return mNeedsTexelSize;
+        }
+    }
+
+    /**
+     * compose的结果
+     */
+    public static class Composition {
+        private final List<Pass> mPasses;
+        private final List<ColorOp> mUnfusable;
+
+        Composition(List<Pass> passes, List<ColorOp> unfusable) {
+            mPasses = Collections.unmodifiableList(passes);
+            mUnfusable = Collections.unmodifiableList(unfusable);
+        }
+
+        public List<Pass> getPasses() {
+            return mPasses;
+        }
+
+        /**
+         * @return 因为需要邻近像素而不能融合、单独占一个pass的操作
+         */
+        public List<ColorOp> getUnfusableOps() {
+            return mUnfusable;
+        }
+    }
+
+    private ShaderComposer() {
+    }
+
+    public static Composition compose(List<ColorOp> ops) {
+        List<Pass> passes = new ArrayList<>();
+        List<ColorOp> unfusable = new ArrayList<>();
+        List<ColorOp> current = new ArrayList<>();
+        for (ColorOp op : ops) {
+            if (!op.isPointwise()) {
+                unfusable.add(op);
+                if (!current.isEmpty()) {
+                    passes.add(buildPass(current));
+                    current = new ArrayList<>();
+                }
+            }
+            current.add(op);
+        }
+        if (!current.isEmpty()) {
+            passes.add(buildPass(current));
+        }
+        return new Composition(passes, unfusable);
+    }
+
+    /**
+     * @return op在pass里第paramIndex个参数的uniform名字
+     */
+    public static String uniformName(int opIndex, int paramIndex) {
+        return "uOp" + opIndex + "_" + paramIndex;
+    }
+
+    public static String lutSamplerName(int opIndex) {
+        return "uLut" + opIndex;
+    }
+
+    /**
+     * ops里只有第一个可以是非逐像素操作
+     */
+    private static Pass buildPass(List<ColorOp> ops) {
+        ColorOp head = ops.get(0);
+        boolean needsTexelSize = !head.isPointwise();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("precision mediump float;\n");
+        sb.append("varying vec2 vTextureCoord;\n");
+        sb.append("uniform sampler2D sTexture;\n");
+        if (needsTexelSize) {
+            sb.append("uniform vec2 uTexelSize;\n");
+        }
+        for (int i = 0; i < ops.size(); i++) {
+            ColorOp op = ops.get(i);
+            for (int p = 0; p < op.getParamCount(); p++) {
+                sb.append("uniform float ").append(uniformName(i, p)).append(";\n");
+            }
+            if (op.getType() == ColorOp.TYPE_LUT) {
+                sb.append("uniform sampler2D ").append(lutSamplerName(i)).append(";\n");
+            }
+        }
+        sb.append("void main() {\n");
+        if (needsTexelSize) {
+            appendNeighborhoodFetch(sb, head);
+        } else {
+            sb.append("  vec4 color = texture2D(sTexture, vTextureCoord);\n");
+        }
+        for (int i = needsTexelSize ? 1 : 0; i < ops.size(); i++) {
+            appendPointwise(sb, ops.get(i), i);
+        }
+        sb.append("  gl_FragColor = color;\n");
+        sb.append("}\n");
+        return new Pass(new ArrayList<>(ops), sb.toString(), needsTexelSize);
+    }
+
+    private static void appendNeighborhoodFetch(StringBuilder sb, ColorOp op) {
+        sb.append("  // ").append(op.getName()).append('\n');
+        switch (op.getType()) {
+            case ColorOp.TYPE_SHARPEN:
+                sb.append("  vec4 center = texture2D(sTexture, vTextureCoord);\n");
+                sb.append("  vec3 edges = texture2D(sTexture, vTextureCoord + vec2(uTexelSize.x, 0.0)).rgb\n");
+                sb.append("      + texture2D(sTexture, vTextureCoord - vec2(uTexelSize.x, 0.0)).rgb\n");
+                sb.append("      + texture2D(sTexture, vTextureCoord + vec2(0.0, uTexelSize.y)).rgb\n");
+                sb.append("      + texture2D(sTexture, vTextureCoord - vec2(0.0, uTexelSize.y)).rgb;\n");
+                sb.append("  vec4 color = vec4(clamp(center.rgb * (1.0 + 4.0 * ").append(uniformName(0, 0))
+                        .append(") - edges * ").append(uniformName(0, 0)).append(", 0.0, 1.0), center.a);\n");
+                break;
+            case ColorOp.TYPE_BOX_BLUR:
+                sb.append("  vec4 color = vec4(0.0);\n");
+                sb.append("  for (int y = -1; y <= 1; y++) {\n");
+                sb.append("    for (int x = -1; x <= 1; x++) {\n");
+                sb.append("      color += texture2D(sTexture, vTextureCoord + vec2(float(x), float(y)) * uTexelSize);\n");
+                sb.append("    }\n");
+                sb.append("  }\n");
+                sb.append("  color /= 9.0;\n");
+                break;
+            default:
+                throw new IllegalArgumentException("Not a neighborhood op: " + op);
+        }
+    }
+
+    private static void appendPointwise(StringBuilder sb, ColorOp op, int index) {
+        sb.append("  // ").append(op.getName()).append('\n');
+        switch (op.getType()) {
+            case ColorOp.TYPE_GRAYSCALE:
+                sb.append("  color.rgb = vec3(dot(color.rgb, ").append(LUMA).append("));\n");
+                break;
+            case ColorOp.TYPE_BRIGHTNESS:
+                sb.append("  color.rgb = clamp(color.rgb + ").append(uniformName(index, 0))
+                        .append(", 0.0, 1.0);\n");
+                break;
+            case ColorOp.TYPE_CONTRAST:
+                sb.append("  color.rgb = clamp((color.rgb - 0.5) * ").append(uniformName(index, 0))
+                        .append(" + 0.5, 0.0, 1.0);\n");
+                break;
+            case ColorOp.TYPE_SATURATION:
+                sb.append("  color.rgb = clamp(mix(vec3(dot(color.rgb, ").append(LUMA).append(")), color.rgb, ")
+                        .append(uniformName(index, 0)).append("), 0.0, 1.0);\n");
+                break;
+            case ColorOp.TYPE_LUT: {
+                String lut = lutSamplerName(index);
+                String v = "lut" + index;
+                sb.append("  {\n");
+                sb.append("    float blue = color.b * 63.0;\n");
+                sb.append("    vec2 q1 = vec2(floor(mod(floor(blue), 8.0)), floor(floor(blue) / 8.0));\n");
+                sb.append("    vec2 q2 = vec2(floor(mod(ceil(blue), 8.0)), floor(ceil(blue) / 8.0));\n");
+                sb.append("    vec2 rg = 0.5 / 512.0 + (63.0 / 512.0) * color.rg;\n");
+                sb.append("    vec4 ").append(v).append(" = mix(texture2D(").append(lut).append(", q1 * 0.125 + rg),\n");
+                sb.append("        texture2D(").append(lut).append(", q2 * 0.125 + rg), fract(blue));\n");
+                sb.append("    color.rgb = mix(color.rgb, ").append(v).append(".rgb, ")
+                        .append(uniformName(index, 0)).append(");\n");
+                sb.append("  }\n");
+                break;
+            }
+            case ColorOp.TYPE_VIGNETTE:
+                sb.append("  color.rgb *= 1.0 - smoothstep(").append(uniformName(index, 0)).append(", ")
+                        .append(uniformName(index, 1)).append(", distance(vTextureCoord, vec2(0.5)));\n");
+                break;
+            default:
+                throw new IllegalArgumentException("Not a pointwise op: " + op);
+        }
+    }
+}
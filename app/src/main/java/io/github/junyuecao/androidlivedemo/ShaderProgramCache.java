@@ -0,0 +1,291 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 已链接的shader program缓存，一个GL context一个实例
+ * <p>
+ * 按顶点和片元shader源码的hash缓存program，切换滤镜时不再删除重编译。
+ * GLES3 context上还会把program binary存到磁盘，下次冷启动或resume时直接加载，跳过shader编译。
+ * binary的key里带上GL_RENDERER和GL_VERSION，驱动升级后旧的binary自然失效。
+ */
+class ShaderProgramCache {
+    private static final String TAG = "ShaderProgramCache";
+    private static final int BINARY_MAGIC = 0x50524f47; // "PROG"
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 写磁盘放到后台线程，不占用GL线程
+     */
+    private static final ExecutorService sDiskExecutor = Executors.newSingleThreadExecutor();
+
+    private final Map<String, Integer> mPrograms = new HashMap<>();
+    private final File mBinaryDir;
+    private boolean mBinarySupported;
+    private String mDriverId = "";
+
+    /**
+     * @param binaryDir program binary的存放目录，null表示只做内存缓存
+     */
+    ShaderProgramCache(File binaryDir) {
+        mBinaryDir = binaryDir;
+    }
+
+    /**
+     * 在GL线程上调用，context重建后需要重新调用，旧context的program随context一起失效
+     */
+    void init() {
+        mPrograms.clear();
+        mDriverId = GLES20.glGetString(GLES20.GL_RENDERER) + "/" + GLES20.glGetString(GLES20.GL_VERSION);
+        mBinarySupported = false;
+        if (mBinaryDir != null && GpuFencePipeline.isGles3Context()) {
+            int[] formats = new int[1];
+            GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+            mBinarySupported = formats[0] > 0;
+        }
+        Log.d(TAG, "program binary " + (mBinarySupported ? "enabled" : "disabled") + " for " + mDriverId);
+    }
+
+    /**
+     * 返回缓存的program，没有时先尝试从磁盘加载binary，再从源码编译
+     *
+     * @return program id，失败返回0
+     */
+    int getProgram(String vertexSource, String fragmentSource) {
+        String key = key(vertexSource, fragmentSource);
+        Integer cached = mPrograms.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        int program = 0;
+        if (mBinarySupported) {
+            program = loadBinary(key);
+        }
+        if (program == 0) {
+            program = createProgram(vertexSource, fragmentSource);
+            if (program != 0 && mBinarySupported) {
+                saveBinary(key, program);
+            }
+        }
+        if (program != 0) {
+            mPrograms.put(key, program);
+        }
+        return program;
+    }
+
+    /**
+     * 删除所有缓存的program，需要在context还有效时调用
+     */
+    void release() {
+        for (int program : mPrograms.values()) {
+            GLES20.glDeleteProgram(program);
+        }
+        mPrograms.clear();
+    }
+
+    int size() {
+        return mPrograms.size();
+    }
+
+    private String key(String vertexSource, String fragmentSource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(vertexSource.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(fragmentSource.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(mDriverId.getBytes(UTF_8));
+            byte[] hash = digest.digest();
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return vertexSource.hashCode() + "_" + fragmentSource.hashCode() + "_" + mDriverId.hashCode();
+        }
+    }
+
+    private File binaryFile(String key) {
+        return new File(mBinaryDir, key + ".bin");
+    }
+
+    private int loadBinary(String key) {
+        File file = binaryFile(key);
+        if (!file.exists()) {
+            return 0;
+        }
+        int format;
+        byte[] data;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != BINARY_MAGIC) {
+                throw new IOException("bad magic");
+            }
+            format = in.readInt();
+            data = new byte[in.readInt()];
+            in.readFully(data);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read program binary " + file + ": " + e.getMessage());
+            file.delete();
+            return 0;
+        } finally {
+            if (in != null)
+                try {
+                    in.close();
+                } catch (IOException ignore) {
+                }
+        }
+
+        ByteBuffer binary = ByteBuffer.allocateDirect(data.length).order(ByteOrder.nativeOrder());
+        binary.put(data).position(0);
+        int program = GLES20.glCreateProgram();
+        GLES30.glProgramBinary(program, format, binary, data.length);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            // 驱动拒绝了这个binary，回退到源码编译
+            Log.w(TAG, "Program binary rejected, recompiling: " + GLES20.glGetProgramInfoLog(program));
+            GLES20.glDeleteProgram(program);
+            // 清掉glProgramBinary可能留下的错误
+            while (GLES20.glGetError() != GLES20.GL_NO_ERROR) ;
+            file.delete();
+            return 0;
+        }
+        Log.d(TAG, "Program loaded from binary " + file.getName());
+        return program;
+    }
+
+    private void saveBinary(String key, int program) {
+        int[] params = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, params, 0);
+        final int length = params[0];
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+        int[] lengthOut = new int[1];
+        int[] format = new int[1];
+        GLES30.glGetProgramBinary(program, length, lengthOut, 0, format, 0, binary);
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || lengthOut[0] <= 0) {
+            return;
+        }
+        final byte[] data = new byte[lengthOut[0]];
+        binary.position(0);
+        binary.get(data);
+        final int binaryFormat = format[0];
+        final File file = binaryFile(key);
+        sDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeBinary(file, binaryFormat, data);
+            }
+        });
+    }
+
+    private static void writeBinary(File file, int format, byte[] data) {
+        File parent = file.getParentFile();
+        if (!parent.exists())
+            parent.mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tmp));
+            out.writeInt(BINARY_MAGIC);
+            out.writeInt(format);
+            out.writeInt(data.length);
+            out.write(data);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write program binary " + file + ": " + e.getMessage());
+            tmp.delete();
+            return;
+        } finally {
+            if (out != null)
+                try {
+                    out.close();
+                } catch (IOException ignore) {
+                }
+        }
+        // 先写临时文件再rename，避免读到写了一半的binary
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+        }
+    }
+
+    static int loadShader(int shaderType, String source) {
+        int shader = GLES20.glCreateShader(shaderType);
+        checkGlError("glCreateShader type=" + shaderType);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] compiled = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        if (compiled[0] == 0) {
+            Log.e(TAG, "Could not compile shader " + shaderType + ":");
+            Log.e(TAG, " " + GLES20.glGetShaderInfoLog(shader));
+            GLES20.glDeleteShader(shader);
+            shader = 0;
+        }
+        return shader;
+    }
+
+    static int createProgram(String vertexSource, String fragmentSource) {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        if (vertexShader == 0) {
+            return 0;
+        }
+        int pixelShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        if (pixelShader == 0) {
+            GLES20.glDeleteShader(vertexShader);
+            return 0;
+        }
+        int program = GLES20.glCreateProgram();
+        checkGlError("glCreateProgram");
+        if (program == 0) {
+            Log.e(TAG, "Could not create program");
+        }
+        GLES20.glAttachShader(program, vertexShader);
+        checkGlError("glAttachShader");
+        GLES20.glAttachShader(program, pixelShader);
+        checkGlError("glAttachShader");
+        GLES20.glLinkProgram(program);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            Log.e(TAG, "Could not link program: ");
+            Log.e(TAG, GLES20.glGetProgramInfoLog(program));
+            GLES20.glDeleteProgram(program);
+            program = 0;
+        }
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(pixelShader);
+        return program;
+    }
+
+    private static void checkGlError(String op) {
+        int error;
+        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+            Log.e(TAG, op + ": glError " + error);
+            throw new RuntimeException(op + ": glError " + error);
+        }
+    }
+}
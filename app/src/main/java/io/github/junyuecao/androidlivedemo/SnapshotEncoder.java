@@ -0,0 +1,419 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * 在后台线程把截图编码成JPEG/PNG写到存储
+ * <p>
+ * 作为TextureReader的Callback使用：capture.setTextureReader(new TextureReader(encoder))，
+ * 然后requestSnapshots(n)截取接下来的n帧。读回线程上只做一次拷贝(同时上下翻转成图像的方向)放进队列，
+ * 编码和写文件都在单独的编码线程上，渲染线程和读回线程都不会被文件IO阻塞。
+ * <p>
+ * 队列里的像素总量不超过maxQueuedBytes，超出时按rejectPolicy丢帧；像素buffer和Bitmap都复用。
+ */
+public class SnapshotEncoder implements TextureReader.Callback, TextureReader.Demand {
+    private static final String TAG = "SnapshotEncoder";
+
+    public static final int FORMAT_JPEG = 0;
+    public static final int FORMAT_PNG = 1;
+
+    /**
+     * 队列满时丢掉新来的帧
+     */
+    public static final int REJECT_NEWEST = 0;
+    /**
+     * 队列满时丢掉队列里最旧的帧，给新来的帧腾位置
+     */
+    public static final int REJECT_OLDEST = 1;
+
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 64L * 1024 * 1024;
+
+    public interface Listener {
+        /**
+         * 在编码线程上回调
+         */
+        void onSnapshotSaved(File file, long timestampNs);
+
+        void onSnapshotFailed(long timestampNs, IOException e);
+    }
+
+    /**
+     * 把一帧RGBA写到文件，默认用Bitmap.compress
+     */
+    interface FrameWriter {
+        /**
+         * @return 写入的字节数
+         */
+        long write(ByteBuffer rgba, int width, int height, File file) throws IOException;
+    }
+
+    /**
+     * 队列里的一帧，像素buffer复用
+     */
+    private static class Snapshot {
+        ByteBuffer pixels;
+        int width;
+        int height;
+        long timestampNs;
+    }
+
+    private final File mDirectory;
+    private final int mFormat;
+    private final long mMaxQueuedBytes;
+    private final int mRejectPolicy;
+    private final FrameWriter mWriter;
+    private final Thread mThread;
+    private volatile Listener mListener;
+
+    private final Object mLock = new Object();
+    private final ArrayDeque<Snapshot> mPending = new ArrayDeque<>();
+    private final ArrayDeque<Snapshot> mFree = new ArrayDeque<>();
+    /**
+     * 正在编码的一帧，仍然算在mQueuedBytes里
+     */
+    private Snapshot mEncoding;
+    private long mQueuedBytes;
+    private long mFreeBytes;
+    private int mRequested;
+    private boolean mShutdown;
+
+    private long mSavedCount;
+    private long mFailedCount;
+    private long mRejectedCount;
+    private long mBytesWritten;
+    private long mWriteNanos;
+
+    /**
+     * @param directory 输出目录，不存在时创建
+     * @param format    FORMAT_JPEG或FORMAT_PNG
+     * @param quality   JPEG质量，0-100，PNG忽略
+     */
+    public SnapshotEncoder(File directory, int format, int quality, long maxQueuedBytes, int rejectPolicy) {
+        this(directory, format, maxQueuedBytes, rejectPolicy, new BitmapWriter(format, quality));
+    }
+
+    public SnapshotEncoder(File directory) {
+        this(directory, FORMAT_JPEG, 90, DEFAULT_MAX_QUEUED_BYTES, REJECT_NEWEST);
+    }
+
+    SnapshotEncoder(File directory, int format, long maxQueuedBytes, int rejectPolicy, FrameWriter writer) {
+        if (format != FORMAT_JPEG && format != FORMAT_PNG) {
+            throw new IllegalArgumentException("unsupported format " + format);
+        }
+        if (rejectPolicy != REJECT_NEWEST && rejectPolicy != REJECT_OLDEST) {
+            throw new IllegalArgumentException("unknown reject policy " + rejectPolicy);
+        }
+        if (maxQueuedBytes <= 0) {
+            throw new IllegalArgumentException("maxQueuedBytes must be positive");
+        }
+        mDirectory = directory;
+        mFormat = format;
+        mMaxQueuedBytes = maxQueuedBytes;
+        mRejectPolicy = rejectPolicy;
+        mWriter = writer;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                encodeLoop();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 截取接下来读回的count帧，可以在任何线程调用，多次调用累加
+     */
+    public void requestSnapshots(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        synchronized (mLock) {
+            mRequested += count;
+        }
+    }
+
+    /**
+     * 没有截图请求时TextureReader不读回
+     */
+    @Override
+    public boolean isFrameWanted() {
+        synchronized (mLock) {
+            return mRequested > 0 && !mShutdown;
+        }
+    }
+
+    @Override
+    public void onFrameRead(ByteBuffer rgba, int width, int height, long timestampNs) {
+        int size = width * height * 4;
+        Snapshot snapshot;
+        synchronized (mLock) {
+            if (mRequested == 0 || mShutdown) {
+                return;
+            }
+            mRequested--;
+            if (size > mMaxQueuedBytes) {
+                mRejectedCount++;
+                return;
+            }
+            if (mRejectPolicy == REJECT_OLDEST) {
+                while (mQueuedBytes + size > mMaxQueuedBytes && !mPending.isEmpty()) {
+                    Snapshot oldest = mPending.pollFirst();
+                    mQueuedBytes -= oldest.width * oldest.height * 4;
+                    recycleLocked(oldest);
+                    mRejectedCount++;
+                }
+            }
+            // 正在编码的一帧不能丢，腾不出位置时仍然丢新来的帧
+            if (mQueuedBytes + size > mMaxQueuedBytes) {
+                mRejectedCount++;
+                return;
+            }
+            mQueuedBytes += size;
+            snapshot = obtainLocked(size);
+        }
+        copyFlipped(rgba, snapshot.pixels, width, height);
+        snapshot.width = width;
+        snapshot.height = height;
+        snapshot.timestampNs = timestampNs;
+        synchronized (mLock) {
+            mPending.addLast(snapshot);
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * GL读回的第一行是图像底部，拷贝时翻转，Bitmap不需要再做一次变换
+     */
+    static void copyFlipped(ByteBuffer src, ByteBuffer dst, int width, int height) {
+        int stride = width * 4;
+        int base = src.position();
+        int limit = src.limit();
+        dst.clear();
+        for (int y = height - 1; y >= 0; y--) {
+            int start = base + y * stride;
+            src.limit(start + stride);
+            src.position(start);
+            dst.put(src);
+        }
+        src.limit(limit);
+        src.position(base);
+        dst.flip();
+    }
+
+    private Snapshot obtainLocked(int size) {
+        Snapshot snapshot = mFree.pollFirst();
+        if (snapshot == null) {
+            snapshot = new Snapshot();
+        } else {
+            mFreeBytes -= snapshot.pixels.capacity();
+        }
+        if (snapshot.pixels == null || snapshot.pixels.capacity() != size) {
+            // 分辨率变了，旧尺寸的buffer直接丢掉
+            snapshot.pixels = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+        return snapshot;
+    }
+
+    private void recycleLocked(Snapshot snapshot) {
+        // 池子里的buffer也算在预算里，超过就不再保留
+        if (mFreeBytes + snapshot.pixels.capacity() <= mMaxQueuedBytes) {
+            mFreeBytes += snapshot.pixels.capacity();
+            mFree.addLast(snapshot);
+        }
+    }
+
+    private void encodeLoop() {
+        while (true) {
+            Snapshot snapshot;
+            synchronized (mLock) {
+                while (mPending.isEmpty() && !mShutdown) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                snapshot = mPending.pollFirst();
+                if (snapshot == null) {
+                    return;
+                }
+                mEncoding = snapshot;
+            }
+            encode(snapshot);
+            synchronized (mLock) {
+                mEncoding = null;
+                mQueuedBytes -= snapshot.width * snapshot.height * 4;
+                recycleLocked(snapshot);
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    private void encode(Snapshot snapshot) {
+        Listener listener = mListener;
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            IOException e = new IOException("failed creating " + mDirectory);
+            onFailed(snapshot, e, listener);
+            return;
+        }
+        File file = new File(mDirectory, "snapshot_" + snapshot.timestampNs
+                + (mFormat == FORMAT_PNG ? ".png" : ".jpg"));
+        long start = System.nanoTime();
+        long written;
+        try {
+            written = mWriter.write(snapshot.pixels, snapshot.width, snapshot.height, file);
+        } catch (IOException e) {
+            onFailed(snapshot, e, listener);
+            return;
+        } catch (RuntimeException e) {
+            // 比如Bitmap分配失败，不能让编码线程退出，否则awaitIdle永远等不到
+            onFailed(snapshot, new IOException("failed encoding " + file, e), listener);
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        synchronized (mLock) {
+            mSavedCount++;
+            mBytesWritten += written;
+            mWriteNanos += elapsed;
+        }
+        if (listener != null) {
+            listener.onSnapshotSaved(file, snapshot.timestampNs);
+        }
+    }
+
+    private void onFailed(Snapshot snapshot, IOException e, Listener listener) {
+        Log.e(TAG, "failed saving snapshot", e);
+        synchronized (mLock) {
+            mFailedCount++;
+        }
+        if (listener != null) {
+            listener.onSnapshotFailed(snapshot.timestampNs, e);
+        }
+    }
+
+    /**
+     * @return 等待编码的帧数，包括正在编码的一帧
+     */
+    public int getQueueDepth() {
+        synchronized (mLock) {
+            return mPending.size() + (mEncoding != null ? 1 : 0);
+        }
+    }
+
+    public long getQueuedBytes() {
+        synchronized (mLock) {
+            return mQueuedBytes;
+        }
+    }
+
+    public long getSavedCount() {
+        synchronized (mLock) {
+            return mSavedCount;
+        }
+    }
+
+    public long getFailedCount() {
+        synchronized (mLock) {
+            return mFailedCount;
+        }
+    }
+
+    /**
+     * @return 超出队列预算而丢掉的帧数
+     */
+    public long getRejectedCount() {
+        synchronized (mLock) {
+            return mRejectedCount;
+        }
+    }
+
+    /**
+     * @return 编码加写文件的平均吞吐，字节/秒，按写入的文件大小计算
+     */
+    public double getWriteThroughput() {
+        synchronized (mLock) {
+            return mWriteNanos == 0 ? 0 : mBytesWritten * 1e9 / mWriteNanos;
+        }
+    }
+
+    /**
+     * 等队列里的帧全部写完
+     *
+     * @return 超时前是否写完
+     */
+    public boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (mLock) {
+            while (!mPending.isEmpty() || mEncoding != null) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                mLock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 不再接受新的截图，队列里已有的帧写完后编码线程退出
+     */
+    public void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            mRequested = 0;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * 复用同一个Bitmap和编码buffer
+     */
+    private static class BitmapWriter implements FrameWriter {
+        private final Bitmap.CompressFormat mFormat;
+        private final int mQuality;
+        private final ByteArrayOutputStream mEncoded = new ByteArrayOutputStream(512 * 1024);
+        private Bitmap mBitmap;
+
+        BitmapWriter(int format, int quality) {
+            mFormat = format == FORMAT_PNG ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+            mQuality = quality;
+        }
+
+        @Override
+        public long write(ByteBuffer rgba, int width, int height, File file) throws IOException {
+            if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+                if (mBitmap != null) {
+                    mBitmap.recycle();
+                }
+                mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            rgba.position(0);
+            mBitmap.copyPixelsFromBuffer(rgba);
+            mEncoded.reset();
+            if (!mBitmap.compress(mFormat, mQuality, mEncoded)) {
+                throw new IOException("failed encoding " + file);
+            }
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                mEncoded.writeTo(out);
+            } finally {
+                out.close();
+            }
+            return mEncoded.size();
+        }
+    }
+}
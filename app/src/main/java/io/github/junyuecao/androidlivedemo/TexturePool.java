@@ -0,0 +1,268 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按(宽, 高, 格式)复用的2D纹理池
+ * <p>
+ * 贴纸、水印这类每帧都要上传的纹理从这里取：上传到尺寸格式相同的纹理时只用glTexSubImage2D更新内容，
+ * 不会让驱动重新分配显存；尺寸变了才换一个纹理。还回来的纹理留在池子里复用，
+ * 总量超过上限时先删最早还回来的。没有还回来的纹理可以用getLeakReport查看。只能在GL线程上使用。
+ */
+public class TexturePool {
+    private static final String TAG = "TexturePool";
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    private static class Entry {
+        final int textureId;
+        final int width;
+        final int height;
+        final int format;
+        final int type;
+        final long bytes;
+        String owner;
+
+        Entry(int textureId, int width, int height, int format, int type) {
+            this.textureId = textureId;
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.type = type;
+            this.bytes = (long) width * height * bytesPerPixel(format, type);
+        }
+
+        boolean matches(int width, int height, int format, int type) {
+            return this.width == width && this.height == height && this.format == format && this.type == type;
+        }
+    }
+
+    /**
+     * 借出去的纹理
+     */
+    private final List<Entry> mInUse = new ArrayList<>();
+    /**
+     * 空闲的纹理，按还回来的顺序，最早的在前面
+     */
+    private final List<Entry> mFree = new ArrayList<>();
+    private final int[] mTmpIds = new int[1];
+    private long mMaxBytes = DEFAULT_MAX_BYTES;
+    private long mAllocatedBytes;
+
+    /**
+     * @param maxBytes 池子里所有纹理(包括借出去的)的显存上限，超过时删除空闲的纹理
+     */
+    public void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToLimit();
+    }
+
+    public int acquire(int width, int height, int format, int type) {
+        return acquire(width, height, format, type, null);
+    }
+
+    /**
+     * 取一个指定尺寸和格式的纹理，内容未定义
+     *
+     * @param owner 出现在泄漏报告里，方便找到没有还的地方，可以为null
+     */
+    public int acquire(int width, int height, int format, int type, String owner) {
+        for (int i = mFree.size() - 1; i >= 0; i--) {
+            Entry entry = mFree.get(i);
+            if (entry.matches(width, height, format, type)) {
+                mFree.remove(i);
+                entry.owner = owner;
+                mInUse.add(entry);
+                return entry.textureId;
+            }
+        }
+        GLES20.glGenTextures(1, mTmpIds, 0);
+        int textureId = mTmpIds[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        // 只分配一次存储，之后的上传都是sub image
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format, type, null);
+        Entry entry = new Entry(textureId, width, height, format, type);
+        entry.owner = owner;
+        mInUse.add(entry);
+        mAllocatedBytes += entry.bytes;
+        trimToLimit();
+        if (mAllocatedBytes > mMaxBytes) {
+            Log.w(TAG, "textures in use exceed limit: " + mAllocatedBytes + " > " + mMaxBytes);
+        }
+        return textureId;
+    }
+
+    /**
+     * 还回一个纹理，不是这个池子借出去的纹理忽略
+     */
+    public void release(int textureId) {
+        int index = indexOfInUse(textureId);
+        if (index < 0) {
+            return;
+        }
+        Entry entry = mInUse.remove(index);
+        entry.owner = null;
+        mFree.add(entry);
+        trimToLimit();
+    }
+
+    /**
+     * 上传像素，usedTexId的尺寸和格式相同时只更新内容，否则还掉旧的换一个合适的
+     *
+     * @param usedTexId 上一次返回的纹理，第一次传OpenGLUtils.NO_TEXTURE
+     * @return 装着这次数据的纹理
+     */
+    public int upload(Buffer data, int width, int height, int format, int type, int usedTexId) {
+        int textureId = ensureTexture(width, height, format, type, usedTexId);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        // 行宽不一定是4的倍数
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format, type, data);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+        return textureId;
+    }
+
+    /**
+     * 同upload(Buffer...)，格式由bitmap的config决定
+     */
+    public int upload(Bitmap bitmap, int usedTexId) {
+        int format = GLUtils.getInternalFormat(bitmap);
+        int type = GLUtils.getType(bitmap);
+        int textureId = ensureTexture(bitmap.getWidth(), bitmap.getHeight(), format, type, usedTexId);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+        return textureId;
+    }
+
+    private int ensureTexture(int width, int height, int format, int type, int usedTexId) {
+        String owner = null;
+        if (usedTexId != OpenGLUtils.NO_TEXTURE) {
+            int index = indexOfInUse(usedTexId);
+            if (index >= 0) {
+                Entry entry = mInUse.get(index);
+                if (entry.matches(width, height, format, type)) {
+                    return usedTexId;
+                }
+                owner = entry.owner;
+                release(usedTexId);
+            }
+        }
+        return acquire(width, height, format, type, owner);
+    }
+
+    private int indexOfInUse(int textureId) {
+        for (int i = 0; i < mInUse.size(); i++) {
+            if (mInUse.get(i).textureId == textureId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void trimToLimit() {
+        while (mAllocatedBytes > mMaxBytes && !mFree.isEmpty()) {
+            delete(mFree.remove(0));
+        }
+    }
+
+    private void delete(Entry entry) {
+        mTmpIds[0] = entry.textureId;
+        GLES20.glDeleteTextures(1, mTmpIds, 0);
+        mAllocatedBytes -= entry.bytes;
+    }
+
+    /**
+     * 删除所有空闲的纹理
+     */
+    public void trim() {
+        for (int i = 0; i < mFree.size(); i++) {
+            delete(mFree.get(i));
+        }
+        mFree.clear();
+    }
+
+    /**
+     * @return 所有纹理占用的显存，包括借出去的
+     */
+    public long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    public int getInUseCount() {
+        return mInUse.size();
+    }
+
+    public int getFreeCount() {
+        return mFree.size();
+    }
+
+    /**
+     * @return 还没有还回来的纹理，每行一个；没有时返回空字符串
+     */
+    public String getLeakReport() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mInUse.size(); i++) {
+            Entry entry = mInUse.get(i);
+            sb.append("texture ").append(entry.textureId).append(' ')
+                    .append(entry.width).append('x').append(entry.height)
+                    .append(" format=0x").append(Integer.toHexString(entry.format))
+                    .append(" bytes=").append(entry.bytes);
+            if (entry.owner != null) {
+                sb.append(" owner=").append(entry.owner);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 删除所有纹理，包括没还回来的，没还的纹理打印泄漏报告。需要在GL线程上调用
+     */
+    public void release() {
+        if (!mInUse.isEmpty()) {
+            Log.w(TAG, mInUse.size() + " textures not released:\n" + getLeakReport());
+            for (int i = 0; i < mInUse.size(); i++) {
+                delete(mInUse.get(i));
+            }
+            mInUse.clear();
+        }
+        trim();
+    }
+
+    /**
+     * GL context已经丢失，纹理随context一起销毁，只清掉记录
+     */
+    public void abandon() {
+        mInUse.clear();
+        mFree.clear();
+        mAllocatedBytes = 0;
+    }
+
+    static int bytesPerPixel(int format, int type) {
+        if (type == GLES20.GL_UNSIGNED_SHORT_5_6_5 || type == GLES20.GL_UNSIGNED_SHORT_4_4_4_4
+                || type == GLES20.GL_UNSIGNED_SHORT_5_5_5_1) {
+            return 2;
+        }
+        switch (format) {
+            case GLES20.GL_ALPHA:
+            case GLES20.GL_LUMINANCE:
+                return 1;
+            case GLES20.GL_LUMINANCE_ALPHA:
+                return 2;
+            case GLES20.GL_RGB:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 异步读回纹理像素
+ * <p>
+ * GLES3上glReadPixels写到pixel pack buffer(PBO)里立即返回，N个PBO轮流使用，
+ * N-1帧之后GPU早已写完，再map出来拷到池子里的ByteBuffer，渲染线程不需要等GPU。
+ * 每次读回都带一个fence，map之前发现GPU还没写完就丢掉这一帧，而不是阻塞渲染线程。
+ * GLES2上没有PBO，退化为同步的glReadPixels。
+ * <p>
+ * 像素交给Callback时在单独的线程上，不阻塞onDrawFrame；Callback处理不过来时新读回的帧被丢弃。
+ * Callback同时实现Demand时，没有需要的帧就不发起读回，只收取已经在PBO里的帧。
+ * 除了Callback，其他方法都只能在GL线程上调用。只用readTextureInto时callback可以为null。
+ */
+public class TextureReader {
+    private static final String TAG = "TextureReader";
+    public static final int DEFAULT_PBO_COUNT = 3;
+    /**
+     * 同时交给Callback还没处理完的帧数上限
+     */
+    private static final int MAX_PENDING_CALLBACKS = 2;
+
+    public interface Callback {
+        /**
+         * 在读回线程上回调
+         *
+         * @param rgba RGBA像素，第一行是图像的底部(GL坐标系)；只在回调期间有效
+         */
+        void onFrameRead(ByteBuffer rgba, int width, int height, long timestampNs);
+    }
+
+    /**
+     * Callback可以同时实现，告诉TextureReader当前是否需要新的帧
+     */
+    public interface Demand {
+        /**
+         * 在GL线程上每帧调用，需要很快返回
+         */
+        boolean isFrameWanted();
+    }
+
+    /**
+     * 交给Callback的一帧，预先分配，避免每帧创建对象
+     */
+    private class Frame implements Runnable {
+        ByteBuffer buffer;
+        int width;
+        int height;
+        long timestampNs;
+
+        @Override
+        public void run() {
+            try {
+                mCallback.onFrameRead(buffer, width, height, timestampNs);
+            } finally {
+                recycle(this);
+            }
+        }
+    }
+
+    private final Callback mCallback;
+    private final Demand mDemand;
+    private final ExecutorService mExecutor;
+    private final int mPboCount;
+    private final int[] mTmpIds = new int[1];
+
+    private boolean mInitialized;
+    private boolean mPboSupported;
+    private int mFramebuffer;
+
+    private int[] mPbos;
+    private int[] mPboSizes;
+    private long[] mFences;
+    private int[] mWidths;
+    private int[] mHeights;
+    private long[] mTimestamps;
+    private boolean[] mPending;
+    private int mWriteIndex;
+
+    private final Object mFrameLock = new Object();
+    private final Frame[] mFreeFrames = new Frame[MAX_PENDING_CALLBACKS];
+    private int mFreeCount;
+
+    private long mFramesRead;
+    private long mLastCollectedTimestampNs;
+    private long mFramesDropped;
+
+    /**
+     * @param pboCount PBO的个数，读回的结果延迟pboCount - 1帧交给Callback
+     */
+    public TextureReader(int pboCount, Callback callback) {
+        if (pboCount < 2) {
+            throw new IllegalArgumentException("pboCount must be at least 2");
+        }
+        mPboCount = pboCount;
+        mCallback = callback;
+        mDemand = callback instanceof Demand ? (Demand) callback : null;
+        for (int i = 0; i < MAX_PENDING_CALLBACKS; i++) {
+            mFreeFrames[mFreeCount++] = new Frame();
+        }
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, TAG);
+            }
+        });
+    }
+
+    public TextureReader(Callback callback) {
+        this(DEFAULT_PBO_COUNT, callback);
+    }
+
+    private void init() {
+        mPboSupported = GpuFencePipeline.isGles3Context();
+        GLES20.glGenFramebuffers(1, mTmpIds, 0);
+        mFramebuffer = mTmpIds[0];
+        if (mPboSupported) {
+            mPbos = new int[mPboCount];
+            GLES20.glGenBuffers(mPboCount, mPbos, 0);
+            mPboSizes = new int[mPboCount];
+            mFences = new long[mPboCount];
+            mWidths = new int[mPboCount];
+            mHeights = new int[mPboCount];
+            mTimestamps = new long[mPboCount];
+            mPending = new boolean[mPboCount];
+            mWriteIndex = 0;
+        }
+        mInitialized = true;
+        Log.d(TAG, mPboSupported ? "using " + mPboCount + " PBOs" : "PBO not supported, using glReadPixels");
+    }
+
+    /**
+     * 读回一个2D纹理
+     */
+    public void readTexture(int textureId, int width, int height, long timestampNs) {
+        if (!mInitialized) {
+            init();
+        }
+        if (!isFrameWanted()) {
+            collectReady();
+            return;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, textureId, 0);
+        read(width, height, timestampNs);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * 读回当前绑定的framebuffer，比如onDrawFrame里已经画好、还没swap的屏幕
+     */
+    public void readFramebuffer(int width, int height, long timestampNs) {
+        if (!mInitialized) {
+            init();
+        }
+        if (!isFrameWanted()) {
+            collectReady();
+            return;
+        }
+        read(width, height, timestampNs);
+    }
+
+    /**
+     * 在GL线程上直接取结果，不经过Callback和读回线程，每帧没有分配
+     * <p>
+     * GLES3上发起这一帧的读回，然后把最旧的一帧拷到out，结果比发起时晚pboCount - 1帧；
+     * GPU还没写完时不等待，返回false。GLES2上同步读回这一帧。
+     *
+     * @param out 从position开始写，至少width * height * 4字节
+     * @return 是否拷出了一帧，时间戳用getLastCollectedTimestampNs取
+     */
+    boolean readTextureInto(int textureId, int width, int height, long timestampNs, ByteBuffer out) {
+        if (!mInitialized) {
+            init();
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, textureId, 0);
+        boolean collected;
+        if (!mPboSupported) {
+            GLES20.glPixelStorei(GLES20.GL_PACK_ALIGNMENT, 4);
+            GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, out);
+            mFramesRead++;
+            mLastCollectedTimestampNs = timestampNs;
+            collected = true;
+        } else {
+            // 和read一样只收最旧的一个，GPU还没写完就跳过这一帧
+            collected = collect(issue(width, height, timestampNs), false, out);
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        return collected;
+    }
+
+    /**
+     * @return readTextureInto最近一次拷出的帧的时间戳
+     */
+    long getLastCollectedTimestampNs() {
+        return mLastCollectedTimestampNs;
+    }
+
+    private boolean isFrameWanted() {
+        return mDemand == null || mDemand.isFrameWanted();
+    }
+
+    private void read(int width, int height, long timestampNs) {
+        if (!mPboSupported) {
+            Frame frame = obtainFrame(width * height * 4);
+            if (frame == null) {
+                mFramesDropped++;
+                return;
+            }
+            GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, frame.buffer);
+            deliver(frame, width, height, timestampNs);
+            return;
+        }
+        int index = issue(width, height, timestampNs);
+        // 最旧的一个PBO已经是N-1帧之前写的
+        collect(index, false);
+    }
+
+    /**
+     * 把当前framebuffer读到下一个PBO里，不等GPU
+     *
+     * @return 下一个要收取的PBO，也就是最旧的一个
+     */
+    private int issue(int width, int height, long timestampNs) {
+        int index = mWriteIndex;
+        if (mPending[index]) {
+            // collectReady留下的还没写完的一帧，被这一帧覆盖
+            GLES30.glDeleteSync(mFences[index]);
+            mPending[index] = false;
+            mFramesDropped++;
+        }
+        int size = width * height * 4;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPbos[index]);
+        if (mPboSizes[index] != size) {
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+            mPboSizes[index] = size;
+        }
+        GLES30.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        mFences[index] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        mWidths[index] = width;
+        mHeights[index] = height;
+        mTimestamps[index] = timestampNs;
+        mPending[index] = true;
+        mWriteIndex = (index + 1) % mPboCount;
+        return mWriteIndex;
+    }
+
+    /**
+     * map一个PBO并交给Callback
+     *
+     * @param wait GPU还没写完时是否等待，否则丢掉这一帧
+     */
+    private void collect(int index, boolean wait) {
+        collect(index, wait, null);
+    }
+
+    /**
+     * map一个PBO，拷到out里，out为null时交给Callback
+     *
+     * @return 是否拷出了一帧
+     */
+    private boolean collect(int index, boolean wait, ByteBuffer out) {
+        if (!mPending[index]) {
+            return false;
+        }
+        mPending[index] = false;
+        long fence = mFences[index];
+        mFences[index] = 0;
+        int status = GLES30.glClientWaitSync(fence, wait ? GLES30.GL_SYNC_FLUSH_COMMANDS_BIT : 0,
+                wait ? GLES30.GL_TIMEOUT_IGNORED : 0);
+        GLES30.glDeleteSync(fence);
+        if (status != GLES30.GL_ALREADY_SIGNALED && status != GLES30.GL_CONDITION_SATISFIED) {
+            mFramesDropped++;
+            return false;
+        }
+        int width = mWidths[index];
+        int height = mHeights[index];
+        int size = width * height * 4;
+        Frame frame = null;
+        ByteBuffer dst = out;
+        if (dst == null) {
+            frame = obtainFrame(size);
+            if (frame == null) {
+                mFramesDropped++;
+                return false;
+            }
+            dst = frame.buffer;
+        } else if (dst.remaining() < size) {
+            // 尺寸变了，旧尺寸的结果不要了
+            mFramesDropped++;
+            return false;
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPbos[index]);
+        ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, size,
+                GLES30.GL_MAP_READ_BIT);
+        if (mapped != null) {
+            dst.put(mapped);
+        }
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        if (mapped == null) {
+            if (frame != null) {
+                recycle(frame);
+            }
+            mFramesDropped++;
+            return false;
+        }
+        if (frame != null) {
+            frame.buffer.flip();
+            deliver(frame, width, height, mTimestamps[index]);
+        } else {
+            mFramesRead++;
+            mLastCollectedTimestampNs = mTimestamps[index];
+        }
+        return true;
+    }
+
+    /**
+     * 不发起新的读回时，从最旧的开始收取GPU已经写完的PBO，没写完的留到下一帧
+     */
+    private void collectReady() {
+        if (!mPboSupported) {
+            return;
+        }
+        for (int i = 0; i < mPboCount; i++) {
+            int index = (mWriteIndex + i) % mPboCount;
+            if (!mPending[index]) {
+                continue;
+            }
+            if (GLES30.glClientWaitSync(mFences[index], 0, 0) == GLES30.GL_TIMEOUT_EXPIRED) {
+                return;
+            }
+            collect(index, false);
+        }
+    }
+
+    /**
+     * 把还在PBO里的帧都交给Callback，会等GPU完成，停止读回时调用
+     */
+    public void flush() {
+        if (!mInitialized || !mPboSupported) {
+            return;
+        }
+        for (int i = 0; i < mPboCount; i++) {
+            collect((mWriteIndex + i) % mPboCount, true);
+        }
+    }
+
+    private Frame obtainFrame(int size) {
+        Frame frame;
+        synchronized (mFrameLock) {
+            if (mFreeCount == 0) {
+                return null;
+            }
+            frame = mFreeFrames[--mFreeCount];
+            mFreeFrames[mFreeCount] = null;
+        }
+        if (frame.buffer == null || frame.buffer.capacity() != size) {
+            frame.buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+        frame.buffer.clear();
+        return frame;
+    }
+
+    private void recycle(Frame frame) {
+        synchronized (mFrameLock) {
+            mFreeFrames[mFreeCount++] = frame;
+        }
+    }
+
+    private void deliver(Frame frame, int width, int height, long timestampNs) {
+        frame.buffer.position(0);
+        frame.width = width;
+        frame.height = height;
+        frame.timestampNs = timestampNs;
+        mFramesRead++;
+        mExecutor.execute(frame);
+    }
+
+    public long getFramesRead() {
+        return mFramesRead;
+    }
+
+    /**
+     * @return Callback处理不过来或GPU没有及时写完而丢掉的帧数
+     */
+    public long getFramesDropped() {
+        return mFramesDropped;
+    }
+
+    public boolean isPboSupported() {
+        return mPboSupported;
+    }
+
+    /**
+     * 删除GL对象，需要在GL线程上调用；之后再读回会重新创建
+     */
+    public void release() {
+        if (!mInitialized) {
+            return;
+        }
+        if (mPboSupported) {
+            for (int i = 0; i < mPboCount; i++) {
+                if (mPending[i]) {
+                    GLES30.glDeleteSync(mFences[i]);
+                    mPending[i] = false;
+                }
+            }
+            GLES20.glDeleteBuffers(mPboCount, mPbos, 0);
+        }
+        mTmpIds[0] = mFramebuffer;
+        GLES20.glDeleteFramebuffers(1, mTmpIds, 0);
+        mInitialized = false;
+    }
+
+    /**
+     * GL context已经丢失，只清掉记录，下次读回时在新context上重新创建
+     */
+    public void abandon() {
+        mInitialized = false;
+    }
+
+    /**
+     * 停止读回线程，已经交出去的帧会处理完
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+}
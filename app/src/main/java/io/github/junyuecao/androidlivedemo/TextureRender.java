@@ -25,9 +25,6 @@ import android.opengl.GLES20;
 import android.opengl.Matrix;
 import android.util.Log;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 import java.util.Arrays;
 
 /**
@@ -39,6 +36,10 @@ class TextureRender {
     private static final int TRIANGLE_VERTICES_DATA_STRIDE_BYTES = 5 * FLOAT_SIZE_BYTES;
     private static final int TRIANGLE_VERTICES_DATA_POS_OFFSET = 0;
     private static final int TRIANGLE_VERTICES_DATA_UV_OFFSET = 3;
+    /**
+     * 不等待GPU时最多允许排队的帧数
+     */
+    private static final int MAX_FRAMES_IN_FLIGHT = 2;
     public static final int FILTER_NONE = 0;
     public static final int FILTER_BW = 1;
     public static final String VERTEX_SHADER =
@@ -69,20 +70,57 @@ class TextureRender {
                     "  float color = tc.r * 0.3 + tc.g * 0.59 + tc.b * 0.11;\n" +
                     "  gl_FragColor = vec4(color, color, color, 1.0);" +
                     "}\n";
+    /**
+     * 画滤镜链输出的2D纹理
+     */
+    public static final String FRAGMENT_SHADER_2D =
+            "precision mediump float;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "uniform sampler2D sTexture;\n" +
+                    "void main() {\n" +
+                    "  gl_FragColor = texture2D(sTexture, vTextureCoord);" +
+                    "}\n";
     private float[] mMVPMatrix = new float[16];
+    private final float[] mIdentityMatrix = new float[16];
     private float[] mSTMatrix = new float[16];
     private int mProgram;
     private int mTextureID = -12345;
     private int muMVPMatrixHandle;
     private int muSTMatrixHandle;
+    private int mProgram2D;
+    /**
+     * 2D program的aPosition, aTextureCoord, uMVPMatrix, uSTMatrix
+     */
+    private final int[] mHandles2D = new int[4];
     private int maPositionHandle;
     private int maTextureHandle;
-    private FloatBuffer mTextureBuffer;
-    private FloatBuffer mVertexBuffer;
+    /**
+     * 顶点和16种纹理坐标都在VBO里，mRotationIndex选择其中一组
+     */
+    private final QuadVertexBuffer mQuad = new QuadVertexBuffer();
+    private int mRotationIndex;
+    private final GpuFencePipeline mFencePipeline = new GpuFencePipeline(MAX_FRAMES_IN_FLIGHT);
+    private final ShaderProgramCache mProgramCache;
+    private final boolean mOwnsProgramCache;
+    /**
+     * 输出到window surface时由eglSwapBuffers同步，不需要fence或者glFinish
+     */
+    private boolean mFrameSync = true;
 
 
     public TextureRender() {
+        this(null);
+    }
+
+    /**
+     * @param programCache 当前GL context的program缓存，null时使用自己的内存缓存
+     */
+    TextureRender(ShaderProgramCache programCache) {
         Matrix.setIdentityM(mSTMatrix, 0);
+        Matrix.setIdentityM(mIdentityMatrix, 0);
+        Matrix.setIdentityM(mMVPMatrix, 0);
+        mOwnsProgramCache = programCache == null;
+        mProgramCache = mOwnsProgramCache ? new ShaderProgramCache(null) : programCache;
     }
     public int getTextureId() {
         return mTextureID;
@@ -94,37 +132,118 @@ class TextureRender {
             return;
         }
         st.getTransformMatrix(mSTMatrix);
+        drawQuad(mProgram, maPositionHandle, maTextureHandle, muMVPMatrixHandle, muSTMatrixHandle,
+                GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureID, mSTMatrix);
+    }
+
+    /**
+     * 画一个OES纹理，比如另一个TextureRender创建的相机纹理
+     */
+    public void drawExternalTexture(int textureId, float[] stMatrix) {
+        checkGlError("drawExternalTexture start");
+        if (mProgram == 0) {
+            return;
+        }
+        drawQuad(mProgram, maPositionHandle, maTextureHandle, muMVPMatrixHandle, muSTMatrixHandle,
+                GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId, stMatrix);
+    }
+
+    /**
+     * 画一个2D纹理，比如滤镜链的输出；纹理已经是SurfaceTexture坐标系，不再乘transform matrix
+     */
+    public void drawTexture(int textureId) {
+        checkGlError("drawTexture start");
+        if (mProgram2D == 0) {
+            mProgram2D = mProgramCache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER_2D);
+            if (mProgram2D == 0) {
+                return;
+            }
+            mHandles2D[0] = GLES20.glGetAttribLocation(mProgram2D, "aPosition");
+            mHandles2D[1] = GLES20.glGetAttribLocation(mProgram2D, "aTextureCoord");
+            mHandles2D[2] = GLES20.glGetUniformLocation(mProgram2D, "uMVPMatrix");
+            mHandles2D[3] = GLES20.glGetUniformLocation(mProgram2D, "uSTMatrix");
+        }
+        drawQuad(mProgram2D, mHandles2D[0], mHandles2D[1], mHandles2D[2], mHandles2D[3],
+                GLES20.GL_TEXTURE_2D, textureId, mIdentityMatrix);
+    }
+
+    private void drawQuad(int program, int positionHandle, int textureHandle, int mvpMatrixHandle,
+                          int stMatrixHandle, int textureTarget, int textureId, float[] stMatrix) {
         GLES20.glClearColor(0.0f, 1.0f, 0.0f, 1.0f);
         GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
-        GLES20.glUseProgram(mProgram);
+        GLES20.glUseProgram(program);
         checkGlError("glUseProgram");
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureID);
-        GLES20.glVertexAttribPointer(maPositionHandle, 3, GLES20.GL_FLOAT, false,
-                3 * FLOAT_SIZE_BYTES, mVertexBuffer);
-        checkGlError("glVertexAttribPointer maPosition");
-        GLES20.glEnableVertexAttribArray(maPositionHandle);
-        checkGlError("glEnableVertexAttribArray maPositionHandle");
-        GLES20.glVertexAttribPointer(maTextureHandle, 2, GLES20.GL_FLOAT, false,
-                2 * FLOAT_SIZE_BYTES, mTextureBuffer);
-        checkGlError("glVertexAttribPointer maTextureHandle");
-        GLES20.glEnableVertexAttribArray(maTextureHandle);
-        checkGlError("glEnableVertexAttribArray maTextureHandle");
-        Matrix.setIdentityM(mMVPMatrix, 0);
-        GLES20.glUniformMatrix4fv(muMVPMatrixHandle, 1, false, mMVPMatrix, 0);
-        GLES20.glUniformMatrix4fv(muSTMatrixHandle, 1, false, mSTMatrix, 0);
+        GLES20.glBindTexture(textureTarget, textureId);
+        mQuad.bind(positionHandle, textureHandle, mRotationIndex);
+        checkGlError("bind quad");
+        GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mMVPMatrix, 0);
+        GLES20.glUniformMatrix4fv(stMatrixHandle, 1, false, stMatrix, 0);
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
         checkGlError("glDrawArrays");
-        GLES20.glFinish();
+        mQuad.unbind(positionHandle, textureHandle);
+        if (mFrameSync) {
+            mFencePipeline.onFrameSubmitted();
+        }
     }
+
+    /**
+     * 开启后drawFrame不再glFinish，用fence限制GPU上排队的帧数；GLES2 context上无效
+     */
+    public void setPipelined(boolean pipelined) {
+        mFencePipeline.setPipelined(pipelined);
+    }
+
+    /**
+     * 关闭后画完不插fence也不glFinish，由调用方同步
+     */
+    void setFrameSync(boolean frameSync) {
+        mFrameSync = frameSync;
+    }
+
+    public boolean isPipelined() {
+        return mFencePipeline.isPipelined();
+    }
+
     /**
      * Initializes GL state.  Call this after the EGL surface has been created and made current.
      */
     public void surfaceCreated() {
-        mProgram = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        initPrograms();
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        mTextureID = textures[0];
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureID);
+        checkGlError("glBindTexture mTextureID");
+        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        checkGlError("glTexParameter");
+    }
+
+    /**
+     * 只初始化program，不创建相机纹理，用来画别的TextureRender的纹理
+     */
+    void initPrograms() {
+        mFencePipeline.init();
+        // 新的context，VBO在第一次画时重建
+        mQuad.abandon();
+        if (mOwnsProgramCache) {
+            mProgramCache.init();
+        }
+        mProgram = mProgramCache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER);
         if (mProgram == 0) {
             throw new RuntimeException("failed creating program");
         }
+        loadHandles();
+    }
+
+    private void loadHandles() {
         maPositionHandle = GLES20.glGetAttribLocation(mProgram, "aPosition");
         checkGlError("glGetAttribLocation aPosition");
         if (maPositionHandle == -1) {
@@ -145,77 +264,17 @@ class TextureRender {
         if (muSTMatrixHandle == -1) {
             throw new RuntimeException("Could not get attrib location for uSTMatrix");
         }
-        int[] textures = new int[1];
-        GLES20.glGenTextures(1, textures, 0);
-        mTextureID = textures[0];
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureID);
-        checkGlError("glBindTexture mTextureID");
-        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER,
-                GLES20.GL_LINEAR);
-        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER,
-                GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S,
-                GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T,
-                GLES20.GL_CLAMP_TO_EDGE);
-        checkGlError("glTexParameter");
     }
     /**
-     * Replaces the fragment shader.
+     * Replaces the fragment shader. Programs stay alive in the cache, so switching back is free.
      */
     public void changeFragmentShader(String fragmentShader) {
-        if (mProgram > 0) {
-            GLES20.glDeleteProgram(mProgram);
+        mProgram = mProgramCache.getProgram(VERTEX_SHADER, fragmentShader);
+        if (mProgram != 0) {
+            loadHandles();
         }
-        mProgram = createProgram(VERTEX_SHADER, fragmentShader);
     }
 
-    private int loadShader(int shaderType, String source) {
-        int shader = GLES20.glCreateShader(shaderType);
-        checkGlError("glCreateShader type=" + shaderType);
-        GLES20.glShaderSource(shader, source);
-        GLES20.glCompileShader(shader);
-        int[] compiled = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
-        if (compiled[0] == 0) {
-            Log.e(TAG, "Could not compile shader " + shaderType + ":");
-            Log.e(TAG, " " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
-            shader = 0;
-        }
-        return shader;
-    }
-    private int createProgram(String vertexSource, String fragmentSource) {
-        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
-        if (vertexShader == 0) {
-            return 0;
-        }
-        int pixelShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
-        if (pixelShader == 0) {
-            return 0;
-        }
-        int program = GLES20.glCreateProgram();
-        checkGlError("glCreateProgram");
-        if (program == 0) {
-            Log.e(TAG, "Could not create program");
-        }
-        GLES20.glAttachShader(program, vertexShader);
-        checkGlError("glAttachShader");
-        GLES20.glAttachShader(program, pixelShader);
-        checkGlError("glAttachShader");
-        GLES20.glLinkProgram(program);
-        int[] linkStatus = new int[1];
-        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
-        if (linkStatus[0] != GLES20.GL_TRUE) {
-            Log.e(TAG, "Could not link program: ");
-            Log.e(TAG, GLES20.glGetProgramInfoLog(program));
-            GLES20.glDeleteProgram(program);
-            program = 0;
-        }
-        GLES20.glDeleteShader(vertexShader);
-        GLES20.glDeleteShader(pixelShader);
-        return program;
-    }
     public void checkGlError(String op) {
         int error;
         while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
@@ -228,17 +287,12 @@ class TextureRender {
         float[] textureCords = TextureRotationUtil.getRotation(orientation, flipHorizontal, flipVertical);
         Log.d(TAG, "==========rotation: " + orientation + " flipVertical: " + flipVertical
                 + " texturePos: " + Arrays.toString(textureCords));
-        if (mTextureBuffer == null) {
-            mTextureBuffer = ByteBuffer.allocateDirect(textureCords.length * 4)
-                    .order(ByteOrder.nativeOrder())
-                    .asFloatBuffer();
-        }
-        mTextureBuffer.clear();
-        mTextureBuffer.put(textureCords).position(0);
+        mRotationIndex = TextureRotationUtil.getRotationIndex(orientation, flipHorizontal, flipVertical);
     }
 
     /**
-     * 用来计算贴纸渲染的纹理最终需要的顶点坐标
+     * 用来计算贴纸渲染的纹理最终需要的顶点坐标，只在surface或图像尺寸变化时调用。
+     * VBO里的顶点固定是CUBE，这里只更新MVP矩阵里的缩放
      */
     public void calculateVertexBuffer(int displayW, int displayH, int imageW, int imageH) {
         int outputHeight = displayH;
@@ -253,20 +307,8 @@ class TextureRender {
         float ratioWidth = imageWidthNew / (float) outputWidth;
         float ratioHeight = imageHeightNew / (float) outputHeight;
 
-        float[] cube = new float[]{
-                TextureRotationUtil.CUBE[0] / ratioHeight, TextureRotationUtil.CUBE[1] / ratioWidth, 0f,
-                TextureRotationUtil.CUBE[2] / ratioHeight, TextureRotationUtil.CUBE[3] / ratioWidth, 0f,
-                TextureRotationUtil.CUBE[4] / ratioHeight, TextureRotationUtil.CUBE[5] / ratioWidth, 0f,
-                TextureRotationUtil.CUBE[6] / ratioHeight, TextureRotationUtil.CUBE[7] / ratioWidth, 0f
-        };
-
-        if (mVertexBuffer == null) {
-            mVertexBuffer = ByteBuffer.allocateDirect(cube.length * 4)
-                    .order(ByteOrder.nativeOrder())
-                    .asFloatBuffer();
-        }
-        mVertexBuffer.clear();
-        mVertexBuffer.put(cube).position(0);
+        Matrix.setIdentityM(mMVPMatrix, 0);
+        Matrix.scaleM(mMVPMatrix, 0, 1f / ratioHeight, 1f / ratioWidth, 1f);
     }
 
     // /**
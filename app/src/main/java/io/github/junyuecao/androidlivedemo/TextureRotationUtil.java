@@ -56,10 +56,64 @@ public class TextureRotationUtil {
 	};
 
 
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+    /**
+     * 预先算好的4个旋转角度 x 水平翻转 x 垂直翻转，共16种纹理坐标
+     */
+    private static final float[][] ROTATION_TABLE = new float[16][];
+
+    static {
+        for (int i = 0; i < ROTATIONS.length; i++) {
+            for (int flags = 0; flags < 4; flags++) {
+                ROTATION_TABLE[i * 4 + flags] = computeRotation(ROTATIONS[i],
+                        (flags & 1) != 0, (flags & 2) != 0);
+            }
+        }
+    }
+
     private TextureRotationUtil() {}
 
+    /**
+     * 返回的数组是共享的，调用方不能修改
+     */
     public static float[] getRotation(final int rotation, final boolean flipHorizontal,
                                       final boolean flipVertical) {
+        return ROTATION_TABLE[getRotationIndex(rotation, flipHorizontal, flipVertical)];
+    }
+
+    /**
+     * @return 这个组合在16种纹理坐标里的下标，和QuadVertexBuffer里的顺序一致
+     */
+    public static int getRotationIndex(final int rotation, final boolean flipHorizontal,
+                                       final boolean flipVertical) {
+        return rotationIndex(rotation) * 4 + (flipHorizontal ? 1 : 0) + (flipVertical ? 2 : 0);
+    }
+
+    /**
+     * 16种组合的个数
+     */
+    public static int getRotationCount() {
+        return ROTATION_TABLE.length;
+    }
+
+    private static int rotationIndex(int rotation) {
+        switch (rotation) {
+            case 90:
+                return 1;
+            case 180:
+                return 2;
+            case 270:
+                return 3;
+            case 0:
+            case 360:
+            default:
+                return 0;
+        }
+    }
+
+    private static float[] computeRotation(final int rotation, final boolean flipHorizontal,
+                                           final boolean flipVertical) {
         float[] rotatedTex;
         switch (rotation) {
             case 90:
@@ -77,6 +131,7 @@ public class TextureRotationUtil {
                 rotatedTex = TEXTURE_NO_ROTATION;
                 break;
         }
+        rotatedTex = rotatedTex.clone();
         if (flipHorizontal) {
             rotatedTex = new float[]{
                     flip(rotatedTex[0]), rotatedTex[1],
@@ -0,0 +1,495 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * NV21和I420/NV12/RGBA之间的转换
+ * <p>
+ * 优先使用native-lib里的SIMD实现(ARM上NEON，x86上SSE2)，加载不到时退回纯Java实现。
+ * 两种实现使用相同的定点公式，输出逐字节一致。宽高必须是偶数，各平面紧密排列。
+ * RGBA使用BT.601 video range：
+ * <pre>
+ * c = 298 * (Y - 16), d = U - 128, e = V - 128
+ * R = clamp((c + 409 * e + 128) >> 8)
+ * G = clamp((c - 100 * d - 208 * e + 128) >> 8)
+ * B = clamp((c + 516 * d + 128) >> 8)
+ * </pre>
+ * transform把旋转、镜像和格式转换合并在一遍里完成，按32x32的块遍历，读写都留在cache里。
+ * scale用面积平均缩小，同样可以顺带转换格式，权重都是整数，Java和native结果一致。
+ */
+public class YuvConverter {
+    private static final String TAG = "YuvConverter";
+    public static final int FORMAT_NV21 = 0;
+    public static final int FORMAT_NV12 = 1;
+    public static final int FORMAT_I420 = 2;
+    /**
+     * 只有Y平面，只能作为scale的输出格式
+     */
+    public static final int FORMAT_Y8 = 3;
+
+    static final int TILE = 32;
+    private static final boolean NATIVE_AVAILABLE;
+
+    static {
+        boolean loaded;
+        try {
+            System.loadLibrary("native-lib");
+            loaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            Log.w(TAG, "native-lib not available, using java implementation");
+            loaded = false;
+        }
+        NATIVE_AVAILABLE = loaded;
+    }
+
+    private YuvConverter() {
+    }
+
+    public static boolean isNativeAvailable() {
+        return NATIVE_AVAILABLE;
+    }
+
+    /**
+     * @return "neon"、"sse2"、"c"，native不可用时为"java"
+     */
+    public static String getImplementationName() {
+        return NATIVE_AVAILABLE ? nativeSimdName() : "java";
+    }
+
+    public static void nv21ToI420(byte[] src, byte[] dst, int width, int height) {
+        if (NATIVE_AVAILABLE) {
+            nativeNv21ToI420(src, dst, width, height);
+        } else {
+            nv21ToI420Java(src, dst, width, height);
+        }
+    }
+
+    public static void i420ToNv21(byte[] src, byte[] dst, int width, int height) {
+        if (NATIVE_AVAILABLE) {
+            nativeI420ToNv21(src, dst, width, height);
+        } else {
+            i420ToNv21Java(src, dst, width, height);
+        }
+    }
+
+    /**
+     * NV21和NV12只是UV顺序相反，也可以用来把NV12转成NV21
+     */
+    public static void nv21ToNv12(byte[] src, byte[] dst, int width, int height) {
+        if (NATIVE_AVAILABLE) {
+            nativeNv21ToNv12(src, dst, width, height);
+        } else {
+            nv21ToNv12Java(src, dst, width, height);
+        }
+    }
+
+    /**
+     * @param dst 至少width * height * 4字节
+     */
+    public static void nv21ToRgba(byte[] src, byte[] dst, int width, int height) {
+        if (NATIVE_AVAILABLE) {
+            nativeNv21ToRgba(src, dst, width, height);
+        } else {
+            nv21ToRgbaJava(src, dst, width, height);
+        }
+    }
+
+    /**
+     * 旋转/镜像并转换格式，参数和TextureRotationUtil.getRotation一致：
+     * 先在传感器坐标系下做镜像，再顺时针旋转orientation度
+     *
+     * @param width  src的宽，也就是相机buffer的宽；orientation为90/270时dst的宽高互换
+     * @param height src的高
+     */
+    public static void transform(byte[] src, int srcFormat, byte[] dst, int dstFormat, int width, int height,
+                                 int orientation, boolean flipHorizontal, boolean flipVertical) {
+        int rotation = normalizeRotation(orientation);
+        checkFormat(srcFormat);
+        checkFormat(dstFormat);
+        if (NATIVE_AVAILABLE) {
+            nativeTransform(src, srcFormat, dst, dstFormat, width, height, rotation, flipHorizontal, flipVertical);
+        } else {
+            transformJava(src, srcFormat, dst, dstFormat, width, height, rotation, flipHorizontal, flipVertical);
+        }
+    }
+
+    /**
+     * 面积平均缩放，主要用于缩小；宽高都必须是偶数
+     *
+     * @param srcFormat FORMAT_NV21、FORMAT_NV12或FORMAT_I420
+     * @param dstFormat 另外可以是FORMAT_Y8
+     */
+    public static void scale(byte[] src, int srcFormat, int srcWidth, int srcHeight,
+                             byte[] dst, int dstFormat, int dstWidth, int dstHeight) {
+        checkFormat(srcFormat);
+        if (dstFormat != FORMAT_Y8) {
+            checkFormat(dstFormat);
+        }
+        if (NATIVE_AVAILABLE) {
+            nativeScale(src, srcFormat, srcWidth, srcHeight, dst, dstFormat, dstWidth, dstHeight);
+        } else {
+            scaleJava(src, srcFormat, srcWidth, srcHeight, dst, dstFormat, dstWidth, dstHeight);
+        }
+    }
+
+    /**
+     * @return 一帧指定格式的数据需要的字节数
+     */
+    public static int frameSize(int format, int width, int height) {
+        return format == FORMAT_Y8 ? width * height : width * height * 3 / 2;
+    }
+
+    static int normalizeRotation(int orientation) {
+        int rotation = ((orientation % 360) + 360) % 360;
+        if (rotation % 90 != 0) {
+            throw new IllegalArgumentException("orientation must be a multiple of 90: " + orientation);
+        }
+        return rotation;
+    }
+
+    private static void checkFormat(int format) {
+        if (format != FORMAT_NV21 && format != FORMAT_NV12 && format != FORMAT_I420) {
+            throw new IllegalArgumentException("unknown format " + format);
+        }
+    }
+
+    private static void checkArgs(byte[] src, int srcSize, byte[] dst, int dstSize, int width, int height) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("width and height must be positive and even");
+        }
+        if (src.length < srcSize || dst.length < dstSize) {
+            throw new IllegalArgumentException("buffer too small");
+        }
+    }
+
+    // 以下是Java参考实现
+
+    static void nv21ToI420Java(byte[] src, byte[] dst, int width, int height) {
+        int ySize = width * height;
+        int pairs = ySize / 4;
+        checkArgs(src, ySize * 3 / 2, dst, ySize * 3 / 2, width, height);
+        System.arraycopy(src, 0, dst, 0, ySize);
+        for (int i = 0; i < pairs; i++) {
+            dst[ySize + pairs + i] = src[ySize + 2 * i];
+            dst[ySize + i] = src[ySize + 2 * i + 1];
+        }
+    }
+
+    static void i420ToNv21Java(byte[] src, byte[] dst, int width, int height) {
+        int ySize = width * height;
+        int pairs = ySize / 4;
+        checkArgs(src, ySize * 3 / 2, dst, ySize * 3 / 2, width, height);
+        System.arraycopy(src, 0, dst, 0, ySize);
+        for (int i = 0; i < pairs; i++) {
+            dst[ySize + 2 * i] = src[ySize + pairs + i];
+            dst[ySize + 2 * i + 1] = src[ySize + i];
+        }
+    }
+
+    static void nv21ToNv12Java(byte[] src, byte[] dst, int width, int height) {
+        int ySize = width * height;
+        checkArgs(src, ySize * 3 / 2, dst, ySize * 3 / 2, width, height);
+        System.arraycopy(src, 0, dst, 0, ySize);
+        for (int i = ySize; i < ySize * 3 / 2; i += 2) {
+            byte a = src[i];
+            dst[i] = src[i + 1];
+            dst[i + 1] = a;
+        }
+    }
+
+    static void nv21ToRgbaJava(byte[] src, byte[] dst, int width, int height) {
+        int ySize = width * height;
+        checkArgs(src, ySize * 3 / 2, dst, ySize * 4, width, height);
+        for (int j = 0; j < height; j++) {
+            int yRow = j * width;
+            int vuRow = ySize + (j >> 1) * width;
+            int out = 4 * yRow;
+            for (int x = 0; x < width; x++) {
+                int c = 298 * ((src[yRow + x] & 0xff) - 16);
+                int e = (src[vuRow + (x & ~1)] & 0xff) - 128;
+                int d = (src[vuRow + (x & ~1) + 1] & 0xff) - 128;
+                dst[out++] = clamp((c + 409 * e + 128) >> 8);
+                dst[out++] = clamp((c - 100 * d - 208 * e + 128) >> 8);
+                dst[out++] = clamp((c + 516 * d + 128) >> 8);
+                dst[out++] = (byte) 255;
+            }
+        }
+    }
+
+    /**
+     * dst坐标(dx, dy)对应的src下标，对dx、dy是线性的
+     */
+    private static int mapIndex(int dx, int dy, int width, int height, int rotation,
+                                boolean flipHorizontal, boolean flipVertical) {
+        int x;
+        int y;
+        switch (rotation) {
+            case 90:
+                x = dy;
+                y = height - 1 - dx;
+                break;
+            case 180:
+                x = width - 1 - dx;
+                y = height - 1 - dy;
+                break;
+            case 270:
+                x = width - 1 - dy;
+                y = dx;
+                break;
+            default:
+                x = dx;
+                y = dy;
+                break;
+        }
+        if (flipHorizontal) {
+            x = width - 1 - x;
+        }
+        if (flipVertical) {
+            y = height - 1 - y;
+        }
+        return y * width + x;
+    }
+
+    /**
+     * 按块复制一个平面，src下标 = start + dx * stepX + dy * stepY，下标乘以pixelStride再加offset得到字节位置
+     */
+    private static void transformPlane(byte[] src, int srcOffset, int srcPixelStride,
+                                       byte[] dst, int dstOffset, int dstPixelStride,
+                                       int width, int height, int rotation,
+                                       boolean flipHorizontal, boolean flipVertical) {
+        int start = mapIndex(0, 0, width, height, rotation, flipHorizontal, flipVertical);
+        int stepX = mapIndex(1, 0, width, height, rotation, flipHorizontal, flipVertical) - start;
+        int stepY = mapIndex(0, 1, width, height, rotation, flipHorizontal, flipVertical) - start;
+        boolean swap = rotation == 90 || rotation == 270;
+        int dstWidth = swap ? height : width;
+        int dstHeight = swap ? width : height;
+        for (int ty = 0; ty < dstHeight; ty += TILE) {
+            int yEnd = Math.min(ty + TILE, dstHeight);
+            for (int tx = 0; tx < dstWidth; tx += TILE) {
+                int xEnd = Math.min(tx + TILE, dstWidth);
+                for (int dy = ty; dy < yEnd; dy++) {
+                    int s = start + dy * stepY + tx * stepX;
+                    int d = dy * dstWidth + tx;
+                    for (int dx = tx; dx < xEnd; dx++) {
+                        dst[dstOffset + d * dstPixelStride] = src[srcOffset + s * srcPixelStride];
+                        s += stepX;
+                        d++;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int uOffset(int format, int ySize) {
+        return format == FORMAT_NV21 ? ySize + 1 : ySize;
+    }
+
+    private static int vOffset(int format, int ySize) {
+        switch (format) {
+            case FORMAT_NV21:
+                return ySize;
+            case FORMAT_NV12:
+                return ySize + 1;
+            default:
+                return ySize + ySize / 4;
+        }
+    }
+
+    private static int chromaPixelStride(int format) {
+        return format == FORMAT_I420 ? 1 : 2;
+    }
+
+    static void transformJava(byte[] src, int srcFormat, byte[] dst, int dstFormat, int width, int height,
+                              int rotation, boolean flipHorizontal, boolean flipVertical) {
+        int ySize = width * height;
+        checkArgs(src, ySize * 3 / 2, dst, ySize * 3 / 2, width, height);
+        transformPlane(src, 0, 1, dst, 0, 1, width, height, rotation, flipHorizontal, flipVertical);
+        int srcStride = chromaPixelStride(srcFormat);
+        int dstStride = chromaPixelStride(dstFormat);
+        transformPlane(src, uOffset(srcFormat, ySize), srcStride, dst, uOffset(dstFormat, ySize), dstStride,
+                width / 2, height / 2, rotation, flipHorizontal, flipVertical);
+        transformPlane(src, vOffset(srcFormat, ySize), srcStride, dst, vOffset(dstFormat, ySize), dstStride,
+                width / 2, height / 2, rotation, flipHorizontal, flipVertical);
+    }
+
+    static void scaleJava(byte[] src, int srcFormat, int srcWidth, int srcHeight,
+                          byte[] dst, int dstFormat, int dstWidth, int dstHeight) {
+        checkArgs(src, frameSize(srcFormat, srcWidth, srcHeight), dst, frameSize(dstFormat, dstWidth, dstHeight),
+                srcWidth, srcHeight);
+        checkArgs(src, 0, dst, 0, dstWidth, dstHeight);
+        scalePlane(src, 0, 1, srcWidth, srcHeight, dst, 0, 1, dstWidth, dstHeight);
+        if (dstFormat == FORMAT_Y8) {
+            return;
+        }
+        int srcYSize = srcWidth * srcHeight;
+        int dstYSize = dstWidth * dstHeight;
+        int srcStride = chromaPixelStride(srcFormat);
+        int dstStride = chromaPixelStride(dstFormat);
+        scalePlane(src, uOffset(srcFormat, srcYSize), srcStride, srcWidth / 2, srcHeight / 2,
+                dst, uOffset(dstFormat, dstYSize), dstStride, dstWidth / 2, dstHeight / 2);
+        scalePlane(src, vOffset(srcFormat, srcYSize), srcStride, srcWidth / 2, srcHeight / 2,
+                dst, vOffset(dstFormat, dstYSize), dstStride, dstWidth / 2, dstHeight / 2);
+    }
+
+    /**
+     * src的每个像素看成dstWidth x dstHeight个单位，dst的每个像素看成srcWidth x srcHeight个单位，
+     * 按重叠面积加权平均；正好2倍、4倍时等价于(sum + n / 2) / n的盒式平均
+     */
+    private static void scalePlane(byte[] src, int srcOffset, int srcPixelStride, int srcWidth, int srcHeight,
+                                   byte[] dst, int dstOffset, int dstPixelStride, int dstWidth, int dstHeight) {
+        if (srcPixelStride == 1 && dstPixelStride == 1) {
+            if (srcWidth == 2 * dstWidth && srcHeight == 2 * dstHeight) {
+                boxPlane(src, srcOffset, srcWidth, dst, dstOffset, dstWidth, dstHeight, 2);
+                return;
+            }
+            if (srcWidth == 4 * dstWidth && srcHeight == 4 * dstHeight) {
+                boxPlane(src, srcOffset, srcWidth, dst, dstOffset, dstWidth, dstHeight, 4);
+                return;
+            }
+        }
+        // Y平面从0开始，色度平面在它后面
+        AreaScaler scaler = SCALERS.get()[srcOffset == 0 ? 0 : 1];
+        scaler.prepare(srcWidth, srcHeight, dstWidth, dstHeight);
+        int[] xStart = scaler.xStart;
+        int[] xCount = scaler.xCount;
+        int[] xWeights = scaler.xWeights;
+        int[] yStart = scaler.yStart;
+        int[] yCount = scaler.yCount;
+        int[] yWeights = scaler.yWeights;
+        long[] acc = scaler.acc;
+        long total = (long) srcWidth * srcHeight;
+        int wy = 0;
+        for (int y = 0; y < dstHeight; y++) {
+            Arrays.fill(acc, 0, dstWidth, 0);
+            for (int j = 0; j < yCount[y]; j++, wy++) {
+                int row = srcOffset + (yStart[y] + j) * srcWidth * srcPixelStride;
+                int weight = yWeights[wy];
+                int wx = 0;
+                for (int x = 0; x < dstWidth; x++) {
+                    int p = row + xStart[x] * srcPixelStride;
+                    int sum = 0;
+                    for (int i = 0; i < xCount[x]; i++, wx++) {
+                        sum += xWeights[wx] * (src[p + i * srcPixelStride] & 0xff);
+                    }
+                    acc[x] += (long) weight * sum;
+                }
+            }
+            int out = dstOffset + y * dstWidth * dstPixelStride;
+            for (int x = 0; x < dstWidth; x++) {
+                dst[out + x * dstPixelStride] = (byte) ((acc[x] + total / 2) / total);
+            }
+        }
+    }
+
+    /**
+     * 一种(src, dst)尺寸的重叠权重和累加行，尺寸不变时复用，每帧不再分配。
+     * dst的第x个像素覆盖src的[start[x], start[x] + count[x])，权重在weights里连续存放
+     */
+    private static final class AreaScaler {
+        int srcWidth;
+        int srcHeight;
+        int dstWidth;
+        int dstHeight;
+        int[] xStart;
+        int[] xCount;
+        int[] xWeights;
+        int[] yStart;
+        int[] yCount;
+        int[] yWeights;
+        long[] acc;
+
+        void prepare(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+            if (acc != null && srcWidth == this.srcWidth && srcHeight == this.srcHeight
+                    && dstWidth == this.dstWidth && dstHeight == this.dstHeight) {
+                return;
+            }
+            xStart = new int[dstWidth];
+            xCount = new int[dstWidth];
+            xWeights = computeWeights(srcWidth, dstWidth, xStart, xCount);
+            yStart = new int[dstHeight];
+            yCount = new int[dstHeight];
+            yWeights = computeWeights(srcHeight, dstHeight, yStart, yCount);
+            acc = new long[dstWidth];
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+            this.dstWidth = dstWidth;
+            this.dstHeight = dstHeight;
+        }
+
+        /**
+         * src第i个像素[i * dstSize, (i + 1) * dstSize)和dst第x个像素[x * srcSize, (x + 1) * srcSize)的重叠长度
+         */
+        private static int[] computeWeights(int srcSize, int dstSize, int[] start, int[] count) {
+            int n = 0;
+            for (int x = 0; x < dstSize; x++) {
+                long lo = (long) x * srcSize;
+                start[x] = (int) (lo / dstSize);
+                count[x] = (int) ((lo + srcSize - 1) / dstSize) - start[x] + 1;
+                n += count[x];
+            }
+            int[] weights = new int[n];
+            int w = 0;
+            for (int x = 0; x < dstSize; x++) {
+                long lo = (long) x * srcSize;
+                long hi = lo + srcSize;
+                for (int i = start[x]; i < start[x] + count[x]; i++) {
+                    long a = (long) i * dstSize;
+                    long b = a + dstSize;
+                    weights[w++] = (int) (Math.min(b, hi) - Math.max(a, lo));
+                }
+            }
+            return weights;
+        }
+    }
+
+    /**
+     * 每个线程一份，Y平面和色度平面各一个
+     */
+    private static final ThreadLocal<AreaScaler[]> SCALERS = new ThreadLocal<AreaScaler[]>() {
+        @Override
+        protected AreaScaler[] initialValue() {
+            return new AreaScaler[]{new AreaScaler(), new AreaScaler()};
+        }
+    };
+
+    private static void boxPlane(byte[] src, int srcOffset, int srcWidth, byte[] dst, int dstOffset,
+                                 int dstWidth, int dstHeight, int factor) {
+        int n = factor * factor;
+        for (int y = 0; y < dstHeight; y++) {
+            int rowStart = srcOffset + y * factor * srcWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                int sum = 0;
+                for (int j = 0; j < factor; j++) {
+                    int p = rowStart + j * srcWidth + x * factor;
+                    for (int i = 0; i < factor; i++) {
+                        sum += src[p + i] & 0xff;
+                    }
+                }
+                dst[dstOffset + y * dstWidth + x] = (byte) ((sum + n / 2) / n);
+            }
+        }
+    }
+
+    private static byte clamp(int v) {
+        return (byte) (v < 0 ? 0 : (v > 255 ? 255 : v));
+    }
+
+    private static native String nativeSimdName();
+
+    private static native void nativeNv21ToI420(byte[] src, byte[] dst, int width, int height);
+
+    private static native void nativeI420ToNv21(byte[] src, byte[] dst, int width, int height);
+
+    private static native void nativeNv21ToNv12(byte[] src, byte[] dst, int width, int height);
+
+    private static native void nativeNv21ToRgba(byte[] src, byte[] dst, int width, int height);
+
+    private static native void nativeTransform(byte[] src, int srcFormat, byte[] dst, int dstFormat,
+                                               int width, int height, int rotation,
+                                               boolean flipHorizontal, boolean flipVertical);
+
+    private static native void nativeScale(byte[] src, int srcFormat, int srcWidth, int srcHeight,
+                                           byte[] dst, int dstFormat, int dstWidth, int dstHeight);
+}
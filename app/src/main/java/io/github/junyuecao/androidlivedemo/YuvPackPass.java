@@ -0,0 +1,205 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+/**
+ * 在GPU上把RGBA纹理打包成NV12/I420
+ * <p>
+ * 渲染目标是宽width / 4、高height * 3 / 2的RGBA纹理，每个输出像素放4个Y或UV样本，
+ * 目标的第r行(gl_FragCoord.y)正好是YUV数据的第r个width字节，所以读回的内存就是NV12/I420，
+ * 读回的数据量是1.5字节/像素而不是4字节，也省掉了CPU上的RGBA转YUV。
+ * 颜色转换使用BT.601 video range，和YuvConverter一致；色度在2x2块的中心双线性采样，相当于2x2平均。
+ * YUV的第一行是图像的顶部。只能在GL线程上使用。
+ */
+class YuvPackPass {
+    private static final String VERTEX_SHADER =
+            "attribute vec4 aPosition;\n" +
+                    "void main() {\n" +
+                    "  gl_Position = aPosition;\n" +
+                    "}\n";
+
+    private static final String FRAGMENT_SHADER_BODY =
+            "uniform mat4 uSTMatrix;\n" +
+                    "uniform vec2 uSize;\n" +
+                    "uniform float uPlanar;\n" +
+                    "const vec3 Y_COEF = vec3(0.257, 0.504, 0.098);\n" +
+                    "const vec3 U_COEF = vec3(-0.148, -0.291, 0.439);\n" +
+                    "const vec3 V_COEF = vec3(0.439, -0.368, -0.071);\n" +
+                    // p是源图像上的像素坐标，原点在左上角
+                    "vec3 sampleAt(vec2 p) {\n" +
+                    "  vec2 uv = vec2(p.x / uSize.x, 1.0 - p.y / uSize.y);\n" +
+                    "  return texture2D(sTexture, (uSTMatrix * vec4(uv, 0.0, 1.0)).xy).rgb;\n" +
+                    "}\n" +
+                    "float luma(float x, float y) {\n" +
+                    "  return dot(sampleAt(vec2(x + 0.5, y + 0.5)), Y_COEF) + 16.0 / 255.0;\n" +
+                    "}\n" +
+                    // 第(cx, cy)个色度样本，采样点在2x2块的中心
+                    "vec2 chroma(float cx, float cy) {\n" +
+                    "  vec3 rgb = sampleAt(vec2(cx * 2.0 + 1.0, cy * 2.0 + 1.0));\n" +
+                    "  return vec2(dot(rgb, U_COEF), dot(rgb, V_COEF)) + 128.0 / 255.0;\n" +
+                    "}\n" +
+                    "void main() {\n" +
+                    "  float x = floor(gl_FragCoord.x) * 4.0;\n" +
+                    "  float row = floor(gl_FragCoord.y);\n" +
+                    "  if (row < uSize.y) {\n" +
+                    "    gl_FragColor = vec4(luma(x, row), luma(x + 1.0, row), luma(x + 2.0, row), luma(x + 3.0, row));\n" +
+                    "  } else if (uPlanar < 0.5) {\n" +
+                    // NV12：一行是一整行UV交错的色度
+                    "    float cy = row - uSize.y;\n" +
+                    "    vec2 c0 = chroma(x * 0.5, cy);\n" +
+                    "    vec2 c1 = chroma(x * 0.5 + 1.0, cy);\n" +
+                    "    gl_FragColor = vec4(c0, c1);\n" +
+                    "  } else {\n" +
+                    // I420：一行放两行U或两行V，U平面占前height / 4行
+                    "    float r = row - uSize.y;\n" +
+                    "    float quarter = uSize.y * 0.25;\n" +
+                    "    bool isV = r >= quarter;\n" +
+                    "    if (isV) {\n" +
+                    "      r -= quarter;\n" +
+                    "    }\n" +
+                    "    float halfWidth = uSize.x * 0.5;\n" +
+                    "    float cy = r * 2.0;\n" +
+                    "    float cx = x;\n" +
+                    "    if (cx >= halfWidth) {\n" +
+                    "      cx -= halfWidth;\n" +
+                    "      cy += 1.0;\n" +
+                    "    }\n" +
+                    "    vec2 c0 = chroma(cx, cy);\n" +
+                    "    vec2 c1 = chroma(cx + 1.0, cy);\n" +
+                    "    vec2 c2 = chroma(cx + 2.0, cy);\n" +
+                    "    vec2 c3 = chroma(cx + 3.0, cy);\n" +
+                    "    gl_FragColor = isV ? vec4(c0.y, c1.y, c2.y, c3.y) : vec4(c0.x, c1.x, c2.x, c3.x);\n" +
+                    "  }\n" +
+                    "}\n";
+
+    static final String FRAGMENT_SHADER_2D =
+            "precision highp float;\n" +
+                    "uniform sampler2D sTexture;\n" +
+                    FRAGMENT_SHADER_BODY;
+
+    static final String FRAGMENT_SHADER_OES =
+            "#extension GL_OES_EGL_image_external : require\n" +
+                    "precision highp float;\n" +
+                    "uniform samplerExternalOES sTexture;\n" +
+                    FRAGMENT_SHADER_BODY;
+
+    private final ShaderProgramCache mProgramCache;
+    private final FrameBufferPool mFrameBufferPool;
+    private final QuadVertexBuffer mQuad = new QuadVertexBuffer();
+    private final float[] mIdentityMatrix = new float[16];
+
+    /**
+     * 2D和OES两个program，每个program的aPosition, uSTMatrix, uSize, uPlanar
+     */
+    private final int[] mPrograms = new int[2];
+    private final int[][] mHandles = new int[2][4];
+    private FrameBufferPool.FrameBuffer mTarget;
+
+    YuvPackPass(ShaderProgramCache programCache, FrameBufferPool frameBufferPool) {
+        mProgramCache = programCache;
+        mFrameBufferPool = frameBufferPool;
+        Matrix.setIdentityM(mIdentityMatrix, 0);
+    }
+
+    /**
+     * @return 一帧YUV的字节数
+     */
+    static int yuvSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    static int packedWidth(int width) {
+        return width / 4;
+    }
+
+    static int packedHeight(int height) {
+        return height * 3 / 2;
+    }
+
+    /**
+     * 每个输出像素放4个样本，I420的一行放两行色度，所以宽必须是8的倍数、高是4的倍数
+     */
+    static boolean isSupportedSize(int width, int height) {
+        return width > 0 && height > 0 && width % 8 == 0 && height % 4 == 0;
+    }
+
+    /**
+     * 把纹理打包到内部的渲染目标里，之后读回getPackedTextureId
+     *
+     * @param oes      是否是相机的OES纹理
+     * @param stMatrix 纹理坐标变换，2D纹理传null
+     * @param format   YuvConverter.FORMAT_NV12或FORMAT_I420
+     */
+    void pack(int textureId, boolean oes, float[] stMatrix, int width, int height, int format) {
+        if (!isSupportedSize(width, height)) {
+            throw new IllegalArgumentException("width must be a multiple of 8 and height a multiple of 4: "
+                    + width + "x" + height);
+        }
+        if (format != YuvConverter.FORMAT_NV12 && format != YuvConverter.FORMAT_I420) {
+            throw new IllegalArgumentException("unsupported format " + format);
+        }
+        int index = oes ? 1 : 0;
+        if (mPrograms[index] == 0) {
+            int program = mProgramCache.getProgram(VERTEX_SHADER, oes ? FRAGMENT_SHADER_OES : FRAGMENT_SHADER_2D);
+            if (program == 0) {
+                throw new RuntimeException("failed creating yuv pack program");
+            }
+            mPrograms[index] = program;
+            int[] handles = mHandles[index];
+            handles[0] = GLES20.glGetAttribLocation(program, "aPosition");
+            handles[1] = GLES20.glGetUniformLocation(program, "uSTMatrix");
+            handles[2] = GLES20.glGetUniformLocation(program, "uSize");
+            handles[3] = GLES20.glGetUniformLocation(program, "uPlanar");
+        }
+        int targetWidth = packedWidth(width);
+        int targetHeight = packedHeight(height);
+        if (mTarget != null && (mTarget.width != targetWidth || mTarget.height != targetHeight)) {
+            mFrameBufferPool.release(mTarget);
+            mTarget = null;
+        }
+        if (mTarget == null) {
+            mTarget = mFrameBufferPool.acquire(targetWidth, targetHeight);
+        }
+
+        int[] handles = mHandles[index];
+        int textureTarget = oes ? GLES11Ext.GL_TEXTURE_EXTERNAL_OES : GLES20.GL_TEXTURE_2D;
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mTarget.framebufferId);
+        GLES20.glViewport(0, 0, targetWidth, targetHeight);
+        GLES20.glUseProgram(mPrograms[index]);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(textureTarget, textureId);
+        mQuad.bind(handles[0], -1, 0);
+        GLES20.glUniformMatrix4fv(handles[1], 1, false, stMatrix != null ? stMatrix : mIdentityMatrix, 0);
+        GLES20.glUniform2f(handles[2], width, height);
+        GLES20.glUniform1f(handles[3], format == YuvConverter.FORMAT_I420 ? 1.0f : 0.0f);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        mQuad.unbind(handles[0], -1);
+        GLES20.glBindTexture(textureTarget, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * @return pack结果所在的RGBA纹理，宽packedWidth、高packedHeight，交给TextureReader读回
+     */
+    int getPackedTextureId() {
+        return mTarget != null ? mTarget.textureId : OpenGLUtils.NO_TEXTURE;
+    }
+
+    void release() {
+        mFrameBufferPool.release(mTarget);
+        mTarget = null;
+        mQuad.release();
+    }
+
+    /**
+     * GL context已经丢失，只丢掉引用
+     */
+    void abandon() {
+        mTarget = null;
+        mQuad.abandon();
+        mPrograms[0] = 0;
+        mPrograms[1] = 0;
+    }
+}
@@ -0,0 +1,268 @@
+// yuv_convert的host测试：SIMD实现和C实现逐字节一致，并且和Java参考实现的校验和相同
+// cmake -DYUV_HOST_TESTS=ON 编译后运行yuv_convert_test，失败时返回非0
+
+#include <stdint.h>
+#include <stdio.h>
+#include <string.h>
+
+#include <algorithm>
+#include <vector>
+
+#include "yuv_convert.h"
+
+namespace {
+
+// 和YuvConverterTest里的常量相同
+const int kWidth = 70;
+const int kHeight = 34;
+const uint32_t kChecksumI420 = 0x270be457;
+const uint32_t kChecksumNv12 = 0xc5dee0bd;
+const uint32_t kChecksumRgba = 0x3265f14c;
+// NV21 -> I420，旋转90度并水平镜像
+const uint32_t kChecksumTransform = 0xd9967d0d;
+// NV21 70x34 -> I420 30x20
+const uint32_t kChecksumScale = 0xaea1679d;
+
+int gFailures = 0;
+
+std::vector<uint8_t> TestPattern(int width, int height) {
+    std::vector<uint8_t> data(static_cast<size_t>(width * height * 3 / 2));
+    uint32_t x = 12345;
+    for (size_t i = 0; i < data.size(); i++) {
+        x = x * 1103515245u + 12345u;
+        data[i] = static_cast<uint8_t>(x >> 16);
+    }
+    return data;
+}
+
+uint32_t Checksum(const std::vector<uint8_t> &data) {
+    uint32_t h = 0x811c9dc5u;
+    for (size_t i = 0; i < data.size(); i++) {
+        h ^= data[i];
+        h *= 0x01000193u;
+    }
+    return h;
+}
+
+void Expect(bool ok, const char *what, int width, int height) {
+    if (!ok) {
+        fprintf(stderr, "FAILED: %s at %dx%d\n", what, width, height);
+        gFailures++;
+    }
+}
+
+typedef void (*ConvertFn)(const uint8_t *, uint8_t *, int, int);
+
+void CompareWithC(const char *name, ConvertFn simd, ConvertFn ref, const std::vector<uint8_t> &src,
+                  size_t dstSize, int width, int height) {
+    std::vector<uint8_t> expected(dstSize, 0xcd);
+    std::vector<uint8_t> actual(dstSize, 0xcd);
+    ref(src.data(), expected.data(), width, height);
+    simd(src.data(), actual.data(), width, height);
+    Expect(expected == actual, name, width, height);
+}
+
+void CompareAll(int width, int height) {
+    std::vector<uint8_t> src = TestPattern(width, height);
+    size_t yuvSize = src.size();
+    size_t rgbaSize = static_cast<size_t>(width * height * 4);
+    CompareWithC("Nv21ToI420", yuv::Nv21ToI420, yuv::c::Nv21ToI420, src, yuvSize, width, height);
+    CompareWithC("I420ToNv21", yuv::I420ToNv21, yuv::c::I420ToNv21, src, yuvSize, width, height);
+    CompareWithC("Nv21ToNv12", yuv::Nv21ToNv12, yuv::c::Nv21ToNv12, src, yuvSize, width, height);
+    CompareWithC("Nv21ToRgba", yuv::Nv21ToRgba, yuv::c::Nv21ToRgba, src, rgbaSize, width, height);
+}
+
+// 每个Y和每对UV的组合都走一遍，覆盖饱和的边界
+void CompareExhaustiveRgba() {
+    const int width = 256;
+    const int height = 2;
+    std::vector<uint8_t> src(static_cast<size_t>(width * height * 3 / 2));
+    std::vector<uint8_t> expected(static_cast<size_t>(width * height * 4));
+    std::vector<uint8_t> actual(expected.size());
+    for (int v = 0; v < 256; v++) {
+        for (int u = 0; u < 256; u += 2) {
+            for (int x = 0; x < width; x++) {
+                src[x] = static_cast<uint8_t>(x);
+                src[width + x] = static_cast<uint8_t>(255 - x);
+                int pair = x / 2;
+                src[2 * width + 2 * pair] = static_cast<uint8_t>(v);
+                src[2 * width + 2 * pair + 1] = static_cast<uint8_t>(u + (pair & 1));
+            }
+            yuv::c::Nv21ToRgba(src.data(), expected.data(), width, height);
+            yuv::Nv21ToRgba(src.data(), actual.data(), width, height);
+            if (expected != actual) {
+                Expect(false, "Nv21ToRgba exhaustive", width, height);
+                return;
+            }
+        }
+    }
+}
+
+void CheckJavaChecksums() {
+    std::vector<uint8_t> src = TestPattern(kWidth, kHeight);
+    std::vector<uint8_t> yuv(src.size());
+    std::vector<uint8_t> rgba(static_cast<size_t>(kWidth * kHeight * 4));
+    yuv::Nv21ToI420(src.data(), yuv.data(), kWidth, kHeight);
+    uint32_t i420 = Checksum(yuv);
+    yuv::Nv21ToNv12(src.data(), yuv.data(), kWidth, kHeight);
+    uint32_t nv12 = Checksum(yuv);
+    yuv::Nv21ToRgba(src.data(), rgba.data(), kWidth, kHeight);
+    uint32_t rgbaSum = Checksum(rgba);
+    yuv::Transform(src.data(), yuv::kFormatNv21, yuv.data(), yuv::kFormatI420, kWidth, kHeight, 90, true, false);
+    uint32_t transform = Checksum(yuv);
+    std::vector<uint8_t> scaled(30 * 20 * 3 / 2);
+    yuv::Scale(src.data(), yuv::kFormatNv21, kWidth, kHeight, scaled.data(), yuv::kFormatI420, 30, 20);
+    uint32_t scale = Checksum(scaled);
+    printf("checksums i420=0x%08x nv12=0x%08x rgba=0x%08x transform=0x%08x scale=0x%08x\n",
+           i420, nv12, rgbaSum, transform, scale);
+    Expect(i420 == kChecksumI420, "I420 checksum", kWidth, kHeight);
+    Expect(nv12 == kChecksumNv12, "NV12 checksum", kWidth, kHeight);
+    Expect(rgbaSum == kChecksumRgba, "RGBA checksum", kWidth, kHeight);
+    Expect(transform == kChecksumTransform, "Transform checksum", kWidth, kHeight);
+    Expect(scale == kChecksumScale, "Scale checksum", kWidth, kHeight);
+}
+
+// plane: 0 Y, 1 U, 2 V
+int Offset(int format, int plane, int ySize, int index) {
+    if (plane == 0) {
+        return index;
+    }
+    bool u = plane == 1;
+    switch (format) {
+        case yuv::kFormatNv21:
+            return ySize + 2 * index + (u ? 1 : 0);
+        case yuv::kFormatNv12:
+            return ySize + 2 * index + (u ? 0 : 1);
+        default:
+            return ySize + index + (u ? 0 : ySize / 4);
+    }
+}
+
+// 逐像素正向映射，和分块实现互相独立
+std::vector<uint8_t> NaiveTransform(const std::vector<uint8_t> &src, int srcFormat, int dstFormat,
+                                    int width, int height, int rotation, bool flipH, bool flipV) {
+    std::vector<uint8_t> dst(src.size());
+    int ySize = width * height;
+    for (int plane = 0; plane < 3; plane++) {
+        int w = plane == 0 ? width : width / 2;
+        int h = plane == 0 ? height : height / 2;
+        int dstWidth = rotation % 180 == 0 ? w : h;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int fx = flipH ? w - 1 - x : x;
+                int fy = flipV ? h - 1 - y : y;
+                int dx = fx;
+                int dy = fy;
+                if (rotation == 90) {
+                    dx = h - 1 - fy;
+                    dy = fx;
+                } else if (rotation == 180) {
+                    dx = w - 1 - fx;
+                    dy = h - 1 - fy;
+                } else if (rotation == 270) {
+                    dx = fy;
+                    dy = w - 1 - fx;
+                }
+                dst[Offset(dstFormat, plane, ySize, dy * dstWidth + dx)] =
+                        src[Offset(srcFormat, plane, ySize, y * w + x)];
+            }
+        }
+    }
+    return dst;
+}
+
+void CompareTransform(int width, int height) {
+    std::vector<uint8_t> src = TestPattern(width, height);
+    std::vector<uint8_t> dst(src.size());
+    const int formats[] = {yuv::kFormatNv21, yuv::kFormatNv12, yuv::kFormatI420};
+    for (int rotation = 0; rotation < 360; rotation += 90) {
+        for (int flags = 0; flags < 4; flags++) {
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 3; j++) {
+                    bool flipH = (flags & 1) != 0;
+                    bool flipV = (flags & 2) != 0;
+                    yuv::Transform(src.data(), formats[i], dst.data(), formats[j], width, height,
+                                   rotation, flipH, flipV);
+                    Expect(dst == NaiveTransform(src, formats[i], formats[j], width, height,
+                                                 rotation, flipH, flipV), "Transform", width, height);
+                }
+            }
+        }
+    }
+}
+
+// 按二维重叠面积直接求和
+std::vector<uint8_t> NaiveScalePlane(const uint8_t *src, int stride, int sw, int sh, int dw, int dh) {
+    std::vector<uint8_t> out(static_cast<size_t>(dw * dh));
+    long long total = static_cast<long long>(sw) * sh;
+    for (int y = 0; y < dh; y++) {
+        for (int x = 0; x < dw; x++) {
+            long long sum = 0;
+            for (int j = 0; j < sh; j++) {
+                long long oy = std::min<long long>((j + 1LL) * dh, (y + 1LL) * sh)
+                               - std::max<long long>(1LL * j * dh, 1LL * y * sh);
+                if (oy <= 0) {
+                    continue;
+                }
+                for (int i = 0; i < sw; i++) {
+                    long long ox = std::min<long long>((i + 1LL) * dw, (x + 1LL) * sw)
+                                   - std::max<long long>(1LL * i * dw, 1LL * x * sw);
+                    if (ox > 0) {
+                        sum += ox * oy * src[(j * sw + i) * stride];
+                    }
+                }
+            }
+            out[y * dw + x] = static_cast<uint8_t>((sum + total / 2) / total);
+        }
+    }
+    return out;
+}
+
+// I420输入的三个平面都是单通道，2倍和4倍时走SIMD
+void CompareScale(int srcFormat, int sw, int sh, int dw, int dh) {
+    std::vector<uint8_t> src = TestPattern(sw, sh);
+    std::vector<uint8_t> dst(static_cast<size_t>(dw * dh * 3 / 2));
+    yuv::Scale(src.data(), srcFormat, sw, sh, dst.data(), yuv::kFormatI420, dw, dh);
+    int srcY = sw * sh;
+    int dstY = dw * dh;
+    int stride = srcFormat == yuv::kFormatI420 ? 1 : 2;
+    int srcU = srcFormat == yuv::kFormatI420 ? srcY : srcY + 1;
+    int srcV = srcFormat == yuv::kFormatI420 ? srcY + srcY / 4 : srcY;
+    std::vector<uint8_t> y = NaiveScalePlane(src.data(), 1, sw, sh, dw, dh);
+    std::vector<uint8_t> u = NaiveScalePlane(src.data() + srcU, stride, sw / 2, sh / 2, dw / 2, dh / 2);
+    std::vector<uint8_t> v = NaiveScalePlane(src.data() + srcV, stride, sw / 2, sh / 2, dw / 2, dh / 2);
+    bool ok = memcmp(dst.data(), y.data(), y.size()) == 0
+              && memcmp(dst.data() + dstY, u.data(), u.size()) == 0
+              && memcmp(dst.data() + dstY + dstY / 4, v.data(), v.size()) == 0;
+    Expect(ok, "Scale", dw, dh);
+}
+
+}  // namespace
+
+int main() {
+    printf("simd: %s\n", yuv::SimdName());
+    const int sizes[][2] = {{2, 2}, {16, 2}, {18, 4}, {kWidth, kHeight}, {640, 480}, {1280, 720}};
+    for (size_t i = 0; i < sizeof(sizes) / sizeof(sizes[0]); i++) {
+        CompareAll(sizes[i][0], sizes[i][1]);
+    }
+    CompareExhaustiveRgba();
+    CompareTransform(kWidth, kHeight);
+    CompareTransform(2, 2);
+    CompareTransform(96, 64);
+    const int formats[] = {yuv::kFormatNv21, yuv::kFormatI420};
+    for (int i = 0; i < 2; i++) {
+        CompareScale(formats[i], kWidth, kHeight, 30, 20);
+        CompareScale(formats[i], 140, 68, 70, 34);
+        CompareScale(formats[i], 280, 136, 70, 34);
+        CompareScale(formats[i], 64, 32, 32, 16);
+        CompareScale(formats[i], 128, 64, 32, 16);
+        CompareScale(formats[i], 64, 32, 6, 2);
+    }
+    CheckJavaChecksums();
+    if (gFailures != 0) {
+        fprintf(stderr, "%d failure(s)\n", gFailures);
+        return 1;
+    }
+    printf("OK\n");
+    return 0;
+}
@@ -0,0 +1,28 @@
+package android.hardware;
+
+/**
+ * 本地单元测试用的Camera，android.jar里Camera的构造函数不公开，只能放在这个包里。
+ * <p>
+ * 其他方法都是空实现；setParameters记录调用次数，可以设置成抛异常
+ */
+public class FakeCamera extends Camera {
+    public int setParametersCount;
+    public RuntimeException setParametersFailure;
+
+    public FakeCamera() {
+        super();
+    }
+
+    @Override
+    public void setParameters(Parameters params) {
+        setParametersCount++;
+        if (setParametersFailure != null) {
+            throw setParametersFailure;
+        }
+    }
+
+    @Override
+    public Parameters getParameters() {
+        return null;
+    }
+}
@@ -0,0 +1,274 @@
+package android.opengl;
+
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+
+/**
+ * 本地单元测试用的假GL层，覆盖android.jar里的GLES20。
+ * <p>
+ * 只记录调用次数并返回能让渲染流程继续下去的值，不做任何分配。
+ * 渲染路径用到新的GLES20方法时需要在这里补上。
+ */
+public class GLES20 {
+    public static final int GL_NO_ERROR = 0;
+    public static final int GL_TRUE = 1;
+    public static final int GL_COMPILE_STATUS = 0x8B81;
+    public static final int GL_LINK_STATUS = 0x8B82;
+    public static final int GL_FRAMEBUFFER_COMPLETE = 0x8CD5;
+    public static final int GL_RGB = 0x1907;
+    public static final int GL_RGBA = 0x1908;
+    public static final int GL_UNSIGNED_BYTE = 0x1401;
+    public static final int GL_VERSION = 0x1F02;
+    public static final int GL_UNPACK_ALIGNMENT = 0x0CF5;
+
+    private static int sNextName = 1;
+    public static long drawCalls;
+    public static long texImageCalls;
+    public static long texSubImageCalls;
+    public static long deletedTextures;
+    /**
+     * 最近一次glUniform1f的值
+     */
+    public static float lastUniform1f;
+    public static long compileCalls;
+    public static long finishCalls;
+    /**
+     * 当前的GL_UNPACK_ALIGNMENT，和最近一次glTexSubImage2D时的值
+     */
+    public static int unpackAlignment;
+    public static int lastSubImageUnpackAlignment;
+    /**
+     * true时GL_VERSION是OpenGL ES 3.0，GLES30的方法可用，否则是OpenGL ES 2.0
+     */
+    public static boolean gles3;
+    /**
+     * 链接状态为失败的program，GLES30.glProgramBinary拒绝binary时设置
+     */
+    static int sFailedProgram;
+
+    public static void reset() {
+        sNextName = 1;
+        drawCalls = 0;
+        texImageCalls = 0;
+        texSubImageCalls = 0;
+        deletedTextures = 0;
+        lastUniform1f = 0;
+        compileCalls = 0;
+        finishCalls = 0;
+        unpackAlignment = 4;
+        lastSubImageUnpackAlignment = 0;
+        gles3 = false;
+        sFailedProgram = 0;
+        GLES30.resetGles3();
+    }
+
+    public static int glGetError() {
+        return GL_NO_ERROR;
+    }
+
+    public static void glEnable(int cap) {
+    }
+
+    public static void glDisable(int cap) {
+    }
+
+    public static void glClearColor(float red, float green, float blue, float alpha) {
+    }
+
+    public static void glClear(int mask) {
+    }
+
+    public static void glViewport(int x, int y, int width, int height) {
+    }
+
+    public static void glFinish() {
+        finishCalls++;
+    }
+
+    public static void glFlush() {
+    }
+
+    public static int glCreateShader(int type) {
+        return sNextName++;
+    }
+
+    public static void glShaderSource(int shader, String string) {
+    }
+
+    public static void glCompileShader(int shader) {
+        compileCalls++;
+    }
+
+    public static void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        params[offset] = GL_TRUE;
+    }
+
+    public static String glGetShaderInfoLog(int shader) {
+        return "";
+    }
+
+    public static void glDeleteShader(int shader) {
+    }
+
+    public static int glCreateProgram() {
+        return sNextName++;
+    }
+
+    public static void glAttachShader(int program, int shader) {
+    }
+
+    public static void glLinkProgram(int program) {
+    }
+
+    public static void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        params[offset] = program == sFailedProgram ? 0 : GL_TRUE;
+    }
+
+    public static String glGetProgramInfoLog(int program) {
+        return "";
+    }
+
+    public static void glDeleteProgram(int program) {
+    }
+
+    public static void glUseProgram(int program) {
+    }
+
+    public static int glGetAttribLocation(int program, String name) {
+        return 1;
+    }
+
+    public static int glGetUniformLocation(int program, String name) {
+        return 1;
+    }
+
+    public static void glGenTextures(int n, int[] textures, int offset) {
+        for (int i = 0; i < n; i++) {
+            textures[offset + i] = sNextName++;
+        }
+    }
+
+    public static void glDeleteTextures(int n, int[] textures, int offset) {
+        deletedTextures += n;
+    }
+
+    public static void glBindTexture(int target, int texture) {
+    }
+
+    public static void glActiveTexture(int texture) {
+    }
+
+    public static void glTexParameterf(int target, int pname, float param) {
+    }
+
+    public static void glTexParameteri(int target, int pname, int param) {
+    }
+
+    public static void glTexImage2D(int target, int level, int internalformat, int width, int height,
+                                    int border, int format, int type, Buffer pixels) {
+        texImageCalls++;
+    }
+
+    public static void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width,
+                                       int height, int format, int type, Buffer pixels) {
+        texSubImageCalls++;
+        lastSubImageUnpackAlignment = unpackAlignment;
+    }
+
+    public static void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            framebuffers[offset + i] = sNextName++;
+        }
+    }
+
+    public static void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+    }
+
+    public static void glBindFramebuffer(int target, int framebuffer) {
+    }
+
+    public static void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+    }
+
+    public static int glCheckFramebufferStatus(int target) {
+        return GL_FRAMEBUFFER_COMPLETE;
+    }
+
+    public static void glGenBuffers(int n, int[] buffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            buffers[offset + i] = sNextName++;
+        }
+    }
+
+    public static void glDeleteBuffers(int n, int[] buffers, int offset) {
+    }
+
+    public static void glBindBuffer(int target, int buffer) {
+    }
+
+    public static void glBufferData(int target, int size, Buffer data, int usage) {
+    }
+
+    public static void glBufferSubData(int target, int offset, int size, Buffer data) {
+    }
+
+    public static void glGetIntegerv(int pname, int[] params, int offset) {
+        params[offset] = gles3 && pname == GLES30.GL_NUM_PROGRAM_BINARY_FORMATS ? 1 : 0;
+    }
+
+    public static void glGetIntegerv(int pname, IntBuffer params) {
+    }
+
+    public static String glGetString(int name) {
+        if (name == GL_VERSION) {
+            return gles3 ? "OpenGL ES 3.0 fake" : "OpenGL ES 2.0 fake";
+        }
+        return "";
+    }
+
+    public static void glVertexAttribPointer(int indx, int size, int type, boolean normalized,
+                                             int stride, Buffer ptr) {
+    }
+
+    public static void glVertexAttribPointer(int indx, int size, int type, boolean normalized,
+                                             int stride, int offset) {
+    }
+
+    public static void glEnableVertexAttribArray(int index) {
+    }
+
+    public static void glDisableVertexAttribArray(int index) {
+    }
+
+    public static void glUniform1i(int location, int x) {
+    }
+
+    public static void glUniform1f(int location, float x) {
+        lastUniform1f = x;
+    }
+
+    public static void glUniform2f(int location, float x, float y) {
+    }
+
+    public static void glUniform3f(int location, float x, float y, float z) {
+    }
+
+    public static void glUniformMatrix3fv(int location, int count, boolean transpose, float[] value, int offset) {
+    }
+
+    public static void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+    }
+
+    public static void glDrawArrays(int mode, int first, int count) {
+        drawCalls++;
+    }
+
+    public static void glPixelStorei(int pname, int param) {
+        if (pname == GL_UNPACK_ALIGNMENT) {
+            unpackAlignment = param;
+        }
+    }
+
+    public static void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels) {
+    }
+}
@@ -0,0 +1,118 @@
+package android.opengl;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * 本地单元测试用的假GLES30，和android.jar一样继承GLES20，需要先设置GLES20.gles3。
+ * <p>
+ * program binary的内容是一个字节，可以设置成被驱动拒绝。
+ * PBO读回不写真实像素，map出来的内容是被读回的PBO的名字；fence的状态由syncStatus控制。
+ */
+public class GLES30 extends GLES20 {
+    public static final int GL_PROGRAM_BINARY_LENGTH = 0x8741;
+    public static final int GL_NUM_PROGRAM_BINARY_FORMATS = 0x87FE;
+    public static final int GL_PIXEL_PACK_BUFFER = 0x88EB;
+    public static final int GL_STREAM_READ = 0x88E1;
+    public static final int GL_MAP_READ_BIT = 0x0001;
+    public static final int GL_SYNC_GPU_COMMANDS_COMPLETE = 0x9117;
+    public static final int GL_SYNC_FLUSH_COMMANDS_BIT = 0x00000001;
+    public static final long GL_TIMEOUT_IGNORED = -1;
+    public static final int GL_ALREADY_SIGNALED = 0x911A;
+    public static final int GL_TIMEOUT_EXPIRED = 0x911B;
+    public static final int GL_CONDITION_SATISFIED = 0x911C;
+    public static final int GL_WAIT_FAILED = 0x911D;
+
+    public static long programBinaryLoads;
+    /**
+     * true时glProgramBinary加载的program链接失败
+     */
+    public static boolean rejectBinary;
+    public static long pboReads;
+    public static long fencesCreated;
+    public static long fencesDeleted;
+    public static long clientWaits;
+    public static long lastWaitedSync;
+    /**
+     * true时glFenceSync失败返回0
+     */
+    public static boolean failFenceSync;
+    /**
+     * 不等待的glClientWaitSync返回的状态，GL_TIMEOUT_EXPIRED表示GPU还没写完
+     */
+    public static int syncStatus;
+
+    private static long sNextFence;
+    private static int sPackBuffer;
+
+    static void resetGles3() {
+        programBinaryLoads = 0;
+        rejectBinary = false;
+        pboReads = 0;
+        fencesCreated = 0;
+        fencesDeleted = 0;
+        clientWaits = 0;
+        lastWaitedSync = 0;
+        failFenceSync = false;
+        syncStatus = GL_ALREADY_SIGNALED;
+        sNextFence = 1;
+        sPackBuffer = 0;
+    }
+
+    public static void glBindBuffer(int target, int buffer) {
+        if (target == GL_PIXEL_PACK_BUFFER) {
+            sPackBuffer = buffer;
+        }
+    }
+
+    public static void glReadPixels(int x, int y, int width, int height, int format, int type, int offset) {
+        pboReads++;
+    }
+
+    public static long glFenceSync(int condition, int flags) {
+        if (failFenceSync) {
+            return 0;
+        }
+        fencesCreated++;
+        return sNextFence++;
+    }
+
+    public static int glClientWaitSync(long sync, int flags, long timeout) {
+        clientWaits++;
+        lastWaitedSync = sync;
+        if (timeout == GL_TIMEOUT_IGNORED) {
+            return GL_CONDITION_SATISFIED;
+        }
+        return syncStatus;
+    }
+
+    public static void glDeleteSync(long sync) {
+        fencesDeleted++;
+    }
+
+    public static Buffer glMapBufferRange(int target, int offset, int length, int access) {
+        ByteBuffer mapped = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            mapped.put(i, (byte) sPackBuffer);
+        }
+        return mapped;
+    }
+
+    public static boolean glUnmapBuffer(int target) {
+        return true;
+    }
+
+    public static void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        programBinaryLoads++;
+        if (rejectBinary) {
+            sFailedProgram = program;
+        }
+    }
+
+    public static void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                                          int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        ((ByteBuffer) binary).put(0, (byte) program);
+        length[lengthOffset] = 1;
+        binaryFormat[binaryFormatOffset] = 1;
+    }
+}
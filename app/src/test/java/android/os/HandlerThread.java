@@ -0,0 +1,27 @@
+package android.os;
+
+/**
+ * 测试用的HandlerThread，不启动线程。getLooper和Looper.myLooper()都返回null，
+ * 所以提交到CameraThread的任务直接在调用线程上同步执行
+ */
+public class HandlerThread extends Thread {
+    public HandlerThread(String name) {
+        super(name);
+    }
+
+    @Override
+    public synchronized void start() {
+    }
+
+    public Looper getLooper() {
+        return null;
+    }
+
+    public boolean quit() {
+        return true;
+    }
+
+    public boolean quitSafely() {
+        return true;
+    }
+}
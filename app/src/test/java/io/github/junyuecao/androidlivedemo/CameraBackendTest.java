@@ -0,0 +1,340 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用假的CameraBackend验证CameraCapture的开启、YUV_420_888平面回调和切换流程
+ */
+public class CameraBackendTest {
+    private CameraCapture mCapture;
+    private FakeBackend mBackend;
+
+    private static class FakeBackend implements CameraBackend {
+        int cameraId = -1;
+        int openCount;
+        int previewWidth;
+        int previewHeight;
+        SurfaceTexture previewTexture;
+        FrameCallback callback;
+        int queuedBuffers;
+        /**
+         * 和Camera1一样，stopPreview不清空buffer队列，去掉回调或者重新打开时才清空
+         */
+        int buffersInQueue;
+        int previewFormat = ImageFormat.YUV_420_888;
+        int[] fpsRange;
+        /**
+         * 打开这个ID时失败，-1表示都能打开
+         */
+        int failingId = -1;
+        int releaseCount;
+
+        @Override
+        public boolean openCamera(int id) {
+            // 和真实的后端一样，先关掉当前的相机
+            releaseCamera();
+            if (id == failingId) {
+                return false;
+            }
+            cameraId = id;
+            openCount++;
+            buffersInQueue = 0;
+            return true;
+        }
+
+        @Override
+        public void releaseCamera() {
+            stopPreview();
+            cameraId = -1;
+        }
+
+        @Override
+        public void release() {
+            releaseCamera();
+            releaseCount++;
+        }
+
+        @Override
+        public boolean isOpened() {
+            return cameraId >= 0;
+        }
+
+        @Override
+        public int getNumberOfCameras() {
+            return 2;
+        }
+
+        @Override
+        public int getCameraId() {
+            return cameraId;
+        }
+
+        @Override
+        public boolean isFrontCamera() {
+            return cameraId == Camera.CameraInfo.CAMERA_FACING_FRONT;
+        }
+
+        @Override
+        public int getOrientation() {
+            return isFrontCamera() ? 270 : 90;
+        }
+
+        @Override
+        public int getTimestampTimebase() {
+            return CaptureClock.TIMEBASE_MONOTONIC;
+        }
+
+        @Override
+        public PreviewNegotiator.Config negotiatePreview(PreviewNegotiator negotiator) {
+            PreviewNegotiator.Config config = negotiator.negotiate(
+                    Arrays.asList(new int[]{640, 480}, new int[]{1280, 720}),
+                    Collections.singletonList(new int[]{15000, 30000}));
+            previewWidth = config.width;
+            previewHeight = config.height;
+            return config;
+        }
+
+        @Override
+        public List<int[]> getSupportedPreviewFpsRanges() {
+            return Arrays.asList(new int[]{15000, 30000}, new int[]{20000, 20000}, new int[]{30000, 30000});
+        }
+
+        @Override
+        public boolean setPreviewFpsRange(int minFps, int maxFps) {
+            fpsRange = new int[]{minFps, maxFps};
+            return true;
+        }
+
+        @Override
+        public void setPreviewSize(int width, int height) {
+            previewWidth = width;
+            previewHeight = height;
+        }
+
+        @Override
+        public int getPreviewWidth() {
+            return previewWidth;
+        }
+
+        @Override
+        public int getPreviewHeight() {
+            return previewHeight;
+        }
+
+        @Override
+        public int getPreviewFormat() {
+            return previewFormat;
+        }
+
+        @Override
+        public void startPreview(SurfaceTexture surfaceTexture, FrameCallback frameCallback) {
+            previewTexture = surfaceTexture;
+            callback = frameCallback;
+            if (frameCallback == null) {
+                buffersInQueue = 0;
+            }
+        }
+
+        @Override
+        public void stopPreview() {
+            previewTexture = null;
+            callback = null;
+        }
+
+        @Override
+        public void addCallbackBuffer(byte[] buffer) {
+            queuedBuffers++;
+            buffersInQueue++;
+        }
+
+        @Override
+        public void setLightEnable(boolean enable) {
+        }
+
+        @Override
+        public boolean isLightAvailable() {
+            return false;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        GLES20.reset();
+        mBackend = new FakeBackend();
+        mCapture = new CameraCapture(new GLSurfaceView(null), mBackend);
+        mCapture.onSurfaceCreated(null, null);
+        mCapture.onSurfaceChanged(null, 720, 1280);
+    }
+
+    @After
+    public void tearDown() {
+        mCapture.onDestroy();
+    }
+
+    @Test
+    public void frameCountDoesNotSurvivePauseOrSurfaceChange() throws Exception {
+        assertTrue(mCapture.onResume().get());
+        Field field = CameraCapture.class.getDeclaredField("mAvailableFrames");
+        field.setAccessible(true);
+        AtomicInteger available = (AtomicInteger) field.get(mCapture);
+
+        mCapture.onFrameAvailable(mBackend.previewTexture);
+        assertEquals(1, available.get());
+        mCapture.onPause();
+        mCapture.onDrawFrame(null);
+        assertEquals(0, available.get());
+
+        mCapture.onFrameAvailable(mBackend.previewTexture);
+        mCapture.onSurfaceChanged(null, 720, 1280);
+        assertEquals(0, available.get());
+    }
+
+    @Test
+    public void destroyReleasesBackend() throws Exception {
+        assertTrue(mCapture.onResume().get());
+        mCapture.onDestroy();
+        assertEquals(1, mBackend.releaseCount);
+        assertFalse(mBackend.isOpened());
+    }
+
+    @Test
+    public void resumeStartsPreviewWithoutCallbackBuffers() throws Exception {
+        assertTrue(mCapture.onResume().get());
+        assertEquals(1, mBackend.openCount);
+        assertNotNull(mBackend.previewTexture);
+        assertNotNull(mBackend.callback);
+        assertEquals(1280, mBackend.previewWidth);
+        // YUV_420_888不走byte[]回调buffer
+        assertEquals(0, mBackend.queuedBuffers);
+    }
+
+    @Test
+    public void yuvPlanesAreDeliveredWithoutCopy() throws Exception {
+        final ByteBuffer y = ByteBuffer.allocateDirect(16);
+        final ByteBuffer u = ByteBuffer.allocateDirect(8);
+        final ByteBuffer v = ByteBuffer.allocateDirect(8);
+        final Object[] received = new Object[4];
+        mCapture.setYuvPlanesCallback(new CameraCapture.YuvPlanesCallback() {
+            @Override
+            public void onYuvFrame(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane, int yRowStride,
+                                   int uvRowStride, int uvPixelStride, int width, int height, int rotation,
+                                   long timestampNs) {
+                received[0] = yPlane;
+                received[1] = uPlane;
+                received[2] = vPlane;
+                received[3] = rotation;
+            }
+        });
+        mCapture.onResume().get();
+        mBackend.callback.onYuvFrame(y, u, v, 4, 4, 2, 4, 4, 1L);
+        assertSame(y, received[0]);
+        assertSame(u, received[1]);
+        assertSame(v, received[2]);
+        assertEquals(270, received[3]);
+    }
+
+    @Test
+    public void switchCameraKeepsSurfaceTextureAndMeasuresFirstFrame() throws Exception {
+        mCapture.onResume().get();
+        SurfaceTexture before = mBackend.previewTexture;
+        assertTrue(mCapture.switchCamera().get());
+        assertEquals(Camera.CameraInfo.CAMERA_FACING_BACK, mBackend.cameraId);
+        assertSame(before, mBackend.previewTexture);
+        assertEquals(0, mCapture.getTimeToFirstFrameMs());
+        Thread.sleep(2);
+        // 新相机的第一帧进入SurfaceTexture
+        mCapture.onFrameAvailable(before);
+        assertTrue(mCapture.getTimeToFirstFrameMs() > 0);
+    }
+
+    @Test
+    public void failedSwitchReopensPreviousCamera() throws Exception {
+        mCapture.onResume().get();
+        mBackend.failingId = Camera.CameraInfo.CAMERA_FACING_BACK;
+        assertFalse(mCapture.switchCamera().get());
+        assertEquals(Camera.CameraInfo.CAMERA_FACING_FRONT, mBackend.cameraId);
+        assertTrue(mCapture.isFrontCamera());
+        assertNotNull(mBackend.previewTexture);
+
+        // 新相机恢复之后可以再切换
+        mBackend.failingId = -1;
+        assertTrue(mCapture.switchCamera().get());
+        assertEquals(Camera.CameraInfo.CAMERA_FACING_BACK, mBackend.cameraId);
+        assertFalse(mCapture.isFrontCamera());
+    }
+
+    @Test
+    public void textureOnlyModeHasNoFrameCallback() throws Exception {
+        mCapture.setTextureOnly(true);
+        mCapture.onResume().get();
+        assertNotNull(mBackend.previewTexture);
+        assertNull(mBackend.callback);
+        assertEquals(0, mBackend.queuedBuffers);
+
+        // 预览中切回来会重启预览并注册回调
+        mCapture.setTextureOnly(false);
+        assertNotNull(mBackend.callback);
+    }
+
+    @Test
+    public void previewRestartDoesNotRequeueCallbackBuffers() throws Exception {
+        mBackend.previewFormat = ImageFormat.NV21;
+        mCapture.onResume().get();
+        int count = mCapture.getPreviewBufferRing().getBufferCount();
+        assertEquals(count, mBackend.buffersInQueue);
+
+        // 同一个相机因为surface重建重启预览
+        mCapture.onSurfaceCreated(null, null);
+        mCapture.onSurfaceChanged(null, 720, 1280);
+        assertEquals(count, mBackend.buffersInQueue);
+
+        // 纹理模式去掉了回调，切回来时需要重新加入
+        mCapture.setTextureOnly(true);
+        assertEquals(0, mBackend.buffersInQueue);
+        mCapture.setTextureOnly(false);
+        assertEquals(count, mBackend.buffersInQueue);
+
+        // 新打开的相机队列是空的
+        assertTrue(mCapture.switchCamera().get());
+        assertEquals(count, mBackend.buffersInQueue);
+    }
+
+    @Test
+    public void framesBetweenRendersAreCoalesced() throws Exception {
+        mCapture.setTextureOnly(true);
+        mCapture.onResume().get();
+        SurfaceTexture texture = mBackend.previewTexture;
+        mCapture.onFrameAvailable(texture);
+        mCapture.drawCameraFrame();
+        assertEquals(0, mCapture.getSkippedFrameCount());
+
+        mCapture.onFrameAvailable(texture);
+        mCapture.onFrameAvailable(texture);
+        mCapture.onFrameAvailable(texture);
+        mCapture.drawCameraFrame();
+        assertEquals(2, mCapture.getRenderedFrameCount());
+        assertEquals(2, mCapture.getSkippedFrameCount());
+
+        // 旧的SurfaceTexture不触发渲染
+        mCapture.onFrameAvailable(new SurfaceTexture(0));
+        mCapture.drawCameraFrame();
+        assertEquals(2, mCapture.getSkippedFrameCount());
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.hardware.FakeCamera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用假的Camera验证CameraProxy按Camera1的语义使用回调，以及参数的批量提交
+ */
+public class CameraProxyTest {
+    private FakeCamera mCamera;
+    private Camera1Proxy mProxy;
+
+    /**
+     * 和Camera1一样，回调一直有效直到明确设置成别的或者null，stopPreview不会清掉
+     */
+    private static class Camera1Proxy extends CameraProxy {
+        Camera.PreviewCallback installed;
+
+        @Override
+        void setPreviewCallbackWithBuffer(Camera.PreviewCallback previewCallback) {
+            installed = previewCallback;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mCamera = new FakeCamera();
+        mProxy = new Camera1Proxy();
+        Field field = CameraProxy.class.getDeclaredField("mCamera");
+        field.setAccessible(true);
+        field.set(mProxy, mCamera);
+    }
+
+    @Test
+    public void textureOnlyRestartClearsBufferCallback() {
+        SurfaceTexture texture = new SurfaceTexture(0);
+        mProxy.startPreview(texture, new CameraBackend.FrameCallback() {
+            @Override
+            public void onNv21Frame(byte[] data, long timestampNs) {
+            }
+
+            @Override
+            public void onYuvFrame(ByteBuffer y, ByteBuffer u, ByteBuffer v,
+                                   int yRowStride, int uvRowStride, int uvPixelStride, int width, int height,
+                                   long timestampNs) {
+            }
+        });
+        assertNotNull(mProxy.installed);
+
+        mProxy.stopPreview();
+        mProxy.startPreview(texture, (CameraBackend.FrameCallback) null);
+        assertNull(mProxy.installed);
+    }
+
+    @Test
+    public void nestedBatchCommitsOnceAtOutermost() {
+        mProxy.beginParameters();
+        mProxy.beginParameters();
+        assertTrue(mProxy.commitParameters());
+        assertEquals(0, mCamera.setParametersCount);
+        assertTrue(mProxy.commitParameters());
+        assertEquals(1, mCamera.setParametersCount);
+    }
+
+    @Test
+    public void throwInsideBatchStillCloses() {
+        // 假相机没有参数缓存，batch里设置字段会抛NullPointerException
+        try {
+            mProxy.setRotation(90);
+            fail();
+        } catch (NullPointerException expected) {
+        }
+        assertEquals(1, mCamera.setParametersCount);
+
+        // 之后的修改照常提交，而不是被当成嵌套在没关闭的batch里
+        mProxy.beginParameters();
+        assertTrue(mProxy.commitParameters());
+        assertEquals(2, mCamera.setParametersCount);
+    }
+
+    @Test
+    public void rejectedParametersDoNotLeaveBatchOpen() {
+        mCamera.setParametersFailure = new RuntimeException("setParameters failed");
+        mProxy.beginParameters();
+        assertFalse(mProxy.commitParameters());
+        mCamera.setParametersFailure = null;
+        mProxy.beginParameters();
+        assertTrue(mProxy.commitParameters());
+        assertEquals(2, mCamera.setParametersCount);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void commitWithoutBeginThrows() {
+        mProxy.commitParameters();
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.junyuecao.androidlivedemo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CaptureClockTest {
+    private static final long FRAME_NS = 33333333L;
+    private static final long NOW = 100L * 1000000000L;
+
+    private CaptureClock mClock;
+    private long mIrregularInterval;
+    private long mLatency;
+
+    @Before
+    public void setUp() {
+        mClock = new CaptureClock();
+        mClock.setTimebase(CaptureClock.TIMEBASE_MONOTONIC, 0);
+        mClock.setListener(new CaptureClock.Listener() {
+            @Override
+            public void onIrregularInterval(long captureTimestampNs, long intervalNs, long expectedNs) {
+                mIrregularInterval = intervalNs;
+            }
+
+            @Override
+            public void onFrameDisplayed(long captureTimestampNs, long latencyNs) {
+                mLatency = latencyNs;
+            }
+        });
+    }
+
+    @Test
+    public void realtimeTimestampsAreConvertedToMonotonic() {
+        long offset = 5L * 1000000000L;
+        mClock.setTimebase(CaptureClock.TIMEBASE_REALTIME, offset);
+        assertEquals(NOW - 1000000, mClock.toMonotonic(NOW + offset - 1000000, NOW));
+        // 没有时间戳时用当前时间
+        assertEquals(NOW, mClock.toMonotonic(0, NOW));
+    }
+
+    @Test
+    public void switchesTimebaseWhenTimestampsDoNotMatch() {
+        long offset = 5L * 1000000000L;
+        mClock.setTimebase(CaptureClock.TIMEBASE_MONOTONIC, offset);
+        // 声明是MONOTONIC，实际是BOOTTIME
+        assertEquals(NOW - 2000000, mClock.toMonotonic(NOW + offset - 2000000, NOW));
+        assertEquals(CaptureClock.TIMEBASE_REALTIME, mClock.getTimebase());
+    }
+
+    @Test
+    public void detectsDroppedAndBurstFrames() {
+        long ts = NOW;
+        for (int i = 0; i <= CaptureClock.WARM_UP_INTERVALS + 5; i++) {
+            ts += FRAME_NS;
+            mClock.onFrameCaptured(ts, ts + 1000000);
+        }
+        assertEquals(0, mClock.getIrregularIntervalCount());
+        assertEquals(FRAME_NS, mClock.getExpectedIntervalNs(), 1000);
+
+        // 掉了两帧
+        ts += FRAME_NS * 3;
+        mClock.onFrameCaptured(ts, ts + 1000000);
+        assertEquals(1, mClock.getIrregularIntervalCount());
+        assertEquals(FRAME_NS * 3, mIrregularInterval);
+
+        // 突发到达
+        ts += FRAME_NS / 4;
+        mClock.onFrameCaptured(ts, ts + 1000000);
+        assertEquals(2, mClock.getIrregularIntervalCount());
+
+        // 异常的间隔不影响估计
+        assertEquals(FRAME_NS, mClock.getExpectedIntervalNs(), 1000);
+    }
+
+    @Test
+    public void recordsCaptureToDisplayLatency() {
+        long capture = mClock.onFrameCaptured(NOW - 20000000, NOW);
+        assertEquals(NOW - 20000000, capture);
+        mClock.onFrameDisplayed(capture, NOW + 30000000);
+        assertEquals(50000000, mLatency);
+        assertEquals(50000000, mClock.getLastLatencyNs());
+        assertEquals(1, mClock.getLatencyHistogram().snapshot().count);
+    }
+}
@@ -0,0 +1,120 @@
+package io.github.junyuecao.androidlivedemo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FrameDispatcherTest {
+
+    private static class Releaser implements FrameDispatcher.FrameReleaser {
+        final List<byte[]> released = Collections.synchronizedList(new ArrayList<byte[]>());
+
+        @Override
+        public void releaseFrame(byte[] data) {
+            released.add(data);
+        }
+    }
+
+    /**
+     * 第一帧一直卡住，直到gate打开
+     */
+    private static class BlockingConsumer implements CameraCapture.PreviewCallback {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<byte[]> frames = Collections.synchronizedList(new ArrayList<byte[]>());
+
+        @Override
+        public void onPreviewFrame(byte[] bytes, int width, int height, int rotation, int fmt, long tsInNanoTime) {
+            started.countDown();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignore) {
+            }
+            frames.add(bytes);
+        }
+    }
+
+    @Test
+    public void releasesAfterEveryConsumer() throws Exception {
+        Releaser releaser = new Releaser();
+        FrameDispatcher dispatcher = new FrameDispatcher(2, 2, FrameDispatcher.OVERFLOW_BLOCK, releaser);
+        BlockingConsumer slow = new BlockingConsumer();
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        dispatcher.addConsumer(slow);
+        dispatcher.addConsumer(new CameraCapture.PreviewCallback() {
+            @Override
+            public void onPreviewFrame(byte[] bytes, int width, int height, int rotation, int fmt, long tsInNanoTime) {
+                fastDone.countDown();
+            }
+        });
+        byte[] frame = new byte[4];
+        assertTrue(dispatcher.dispatch(frame, 2, 2, 90, 17, 1L));
+        assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+        assertTrue(releaser.released.isEmpty());
+
+        slow.gate.countDown();
+        waitForReleased(releaser, 1);
+        assertSame(frame, releaser.released.get(0));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void dropNewestReleasesIncomingFrame() throws Exception {
+        Releaser releaser = new Releaser();
+        FrameDispatcher dispatcher = new FrameDispatcher(1, 1, FrameDispatcher.OVERFLOW_DROP_NEWEST, releaser);
+        BlockingConsumer consumer = new BlockingConsumer();
+        dispatcher.addConsumer(consumer);
+
+        byte[] first = new byte[1];
+        byte[] second = new byte[1];
+        byte[] third = new byte[1];
+        dispatcher.dispatch(first, 1, 1, 0, 17, 1L);
+        assertTrue(consumer.started.await(5, TimeUnit.SECONDS));
+        assertTrue(dispatcher.dispatch(second, 1, 1, 0, 17, 2L));
+        assertFalse(dispatcher.dispatch(third, 1, 1, 0, 17, 3L));
+        assertSame(third, releaser.released.get(0));
+        assertEquals(1, dispatcher.getFramesDropped());
+
+        consumer.gate.countDown();
+        waitForReleased(releaser, 3);
+        assertEquals(2, consumer.frames.size());
+        assertSame(second, consumer.frames.get(1));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void dropOldestKeepsLatestFrame() throws Exception {
+        Releaser releaser = new Releaser();
+        FrameDispatcher dispatcher = new FrameDispatcher(1, 1, FrameDispatcher.OVERFLOW_DROP_OLDEST, releaser);
+        BlockingConsumer consumer = new BlockingConsumer();
+        dispatcher.addConsumer(consumer);
+
+        byte[] first = new byte[1];
+        byte[] second = new byte[1];
+        byte[] third = new byte[1];
+        dispatcher.dispatch(first, 1, 1, 0, 17, 1L);
+        assertTrue(consumer.started.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(second, 1, 1, 0, 17, 2L);
+        assertTrue(dispatcher.dispatch(third, 1, 1, 0, 17, 3L));
+        assertSame(second, releaser.released.get(0));
+
+        consumer.gate.countDown();
+        waitForReleased(releaser, 3);
+        assertSame(third, consumer.frames.get(1));
+        dispatcher.shutdown();
+    }
+
+    private static void waitForReleased(Releaser releaser, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (releaser.released.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, releaser.released.size());
+    }
+}
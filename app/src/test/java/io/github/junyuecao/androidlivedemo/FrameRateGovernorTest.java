@@ -0,0 +1,85 @@
+package io.github.junyuecao.androidlivedemo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用模拟的耗时序列驱动FrameRateGovernor
+ */
+public class FrameRateGovernorTest {
+    private static final long MS = 1000000L;
+
+    private FrameRateGovernor mGovernor;
+    private int mChanges;
+
+    @Before
+    public void setUp() {
+        mGovernor = new FrameRateGovernor();
+    }
+
+    /**
+     * 每帧的渲染耗时固定，每processInterval帧里有一帧多出processNs的处理耗时
+     */
+    private void run(int windows, long renderNs, long processNs, int droppedPerWindow) {
+        for (int i = 0; i < windows * FrameRateGovernor.WINDOW_FRAMES; i++) {
+            long cost = renderNs + (i % mGovernor.getProcessInterval() == 0 ? processNs : 0);
+            int dropped = i % FrameRateGovernor.WINDOW_FRAMES == 0 ? droppedPerWindow : 0;
+            if (mGovernor.onFrame(cost, dropped)) {
+                mChanges++;
+            }
+        }
+    }
+
+    @Test
+    public void throttledDeviceSettlesAtStableFps() {
+        // 36ms放得进20fps的预算，放不进24fps的
+        run(100, 36 * MS, 0, 0);
+        assertEquals(20, mGovernor.getFps());
+        assertEquals(1, mGovernor.getProcessInterval());
+        assertEquals(2, mChanges);
+    }
+
+    @Test
+    public void recoversWhenHeadroomReturns() {
+        run(10, 36 * MS, 0, 0);
+        assertEquals(20, mGovernor.getFps());
+        run(FrameRateGovernor.UP_WINDOWS - 1, 10 * MS, 0, 0);
+        assertEquals(20, mGovernor.getFps());
+        run(1, 10 * MS, 0, 0);
+        assertEquals(24, mGovernor.getFps());
+        run(FrameRateGovernor.UP_WINDOWS, 10 * MS, 0, 0);
+        assertEquals(30, mGovernor.getFps());
+    }
+
+    @Test
+    public void lowersProcessingCadenceBelowMinimumFps() {
+        run(100, 10 * MS, 64 * MS, 0);
+        assertEquals(20, mGovernor.getFps());
+        assertEquals(3, mGovernor.getProcessInterval());
+        assertEquals(mGovernor.getLevelCount() - 1, mGovernor.getLevel());
+    }
+
+    @Test
+    public void droppedFramesLowerFps() {
+        run(FrameRateGovernor.DOWN_WINDOWS, 5 * MS, 0, 2);
+        assertEquals(24, mGovernor.getFps());
+    }
+
+    @Test
+    public void failedUpgradeBacksOff() {
+        run(FrameRateGovernor.DOWN_WINDOWS, 30 * MS, 0, 0);
+        assertEquals(24, mGovernor.getFps());
+        run(FrameRateGovernor.UP_WINDOWS, 12 * MS, 0, 0);
+        assertEquals(30, mGovernor.getFps());
+        // 升上去马上撑不住
+        run(FrameRateGovernor.DOWN_WINDOWS, 30 * MS, 0, 0);
+        assertEquals(24, mGovernor.getFps());
+        // 下次升档需要两倍的窗口
+        run(FrameRateGovernor.UP_WINDOWS * 2 - 1, 12 * MS, 0, 0);
+        assertEquals(24, mGovernor.getFps());
+        run(1, 12 * MS, 0, 0);
+        assertEquals(30, mGovernor.getFps());
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * GpuFencePipeline的fence排队和glFinish回退，GL调用由test下的fake GLES20/GLES30接管
+ */
+public class GpuFencePipelineTest {
+
+    @Before
+    public void setUp() {
+        GLES20.reset();
+    }
+
+    private static GpuFencePipeline newPipeline(int maxFramesInFlight) {
+        GpuFencePipeline pipeline = new GpuFencePipeline(maxFramesInFlight);
+        pipeline.init();
+        return pipeline;
+    }
+
+    @Test
+    public void waitsOnOldestFenceWhenFull() {
+        GLES20.gles3 = true;
+        GpuFencePipeline pipeline = newPipeline(2);
+        assertTrue(pipeline.isPipelined());
+        pipeline.onFrameSubmitted();
+        pipeline.onFrameSubmitted();
+        // 没有超过上限，不等待
+        assertEquals(0, GLES30.clientWaits);
+
+        pipeline.onFrameSubmitted();
+        assertEquals(1, GLES30.clientWaits);
+        assertEquals(1, GLES30.lastWaitedSync);
+        pipeline.onFrameSubmitted();
+        assertEquals(2, GLES30.clientWaits);
+        assertEquals(2, GLES30.lastWaitedSync);
+
+        assertEquals(4, GLES30.fencesCreated);
+        assertEquals(2, GLES30.fencesDeleted);
+        assertEquals(0, GLES20.finishCalls);
+    }
+
+    @Test
+    public void fallsBackToFinishOnGles2() {
+        GpuFencePipeline pipeline = newPipeline(2);
+        assertFalse(pipeline.isFenceSupported());
+        assertFalse(pipeline.isPipelined());
+        for (int i = 0; i < 3; i++) {
+            pipeline.onFrameSubmitted();
+        }
+        assertEquals(3, GLES20.finishCalls);
+        assertEquals(0, GLES30.fencesCreated);
+    }
+
+    @Test
+    public void fallsBackToFinishWhenFenceSyncFails() {
+        GLES20.gles3 = true;
+        GLES30.failFenceSync = true;
+        GpuFencePipeline pipeline = newPipeline(2);
+        for (int i = 0; i < 3; i++) {
+            pipeline.onFrameSubmitted();
+        }
+        assertEquals(3, GLES20.finishCalls);
+        // 没有记下失败的fence，也就不会等待或删除它
+        assertEquals(0, GLES30.clientWaits);
+        pipeline.release();
+        assertEquals(0, GLES30.fencesDeleted);
+    }
+
+    @Test
+    public void releaseDeletesOutstandingFences() {
+        GLES20.gles3 = true;
+        GpuFencePipeline pipeline = newPipeline(3);
+        pipeline.onFrameSubmitted();
+        pipeline.onFrameSubmitted();
+        pipeline.release();
+        assertEquals(2, GLES30.fencesDeleted);
+        // 重复release不会删两次
+        pipeline.release();
+        assertEquals(2, GLES30.fencesDeleted);
+        assertEquals(0, GLES30.clientWaits);
+    }
+
+    @Test
+    public void disablingPipelineWaitsForSubmittedFrames() {
+        GLES20.gles3 = true;
+        GpuFencePipeline pipeline = newPipeline(3);
+        pipeline.onFrameSubmitted();
+        pipeline.onFrameSubmitted();
+        pipeline.setPipelined(false);
+        // 旧的fence删掉，等一个覆盖所有命令的新fence
+        assertEquals(1, GLES30.clientWaits);
+        assertEquals(3, GLES30.lastWaitedSync);
+        assertEquals(GLES30.fencesCreated, GLES30.fencesDeleted);
+
+        pipeline.onFrameSubmitted();
+        assertEquals(1, GLES20.finishCalls);
+        assertEquals(3, GLES30.fencesCreated);
+    }
+}
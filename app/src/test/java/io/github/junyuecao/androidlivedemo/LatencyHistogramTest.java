@@ -0,0 +1,37 @@
+package io.github.junyuecao.androidlivedemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void percentilesFollowDistribution() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test", 20 * MS);
+        // 1ms~100ms各一次
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * MS - 1);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.count);
+        assertEquals(50 * MS, snapshot.p50Ns);
+        assertEquals(95 * MS, snapshot.p95Ns);
+        assertEquals(99 * MS, snapshot.p99Ns);
+        assertEquals(100 * MS - 1, snapshot.maxNs);
+        assertEquals(80, snapshot.jankCount);
+    }
+
+    @Test
+    public void overflowReportsMax() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test", MS);
+        histogram.record(500 * MS);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(500 * MS, snapshot.p50Ns);
+        assertEquals(500 * MS, snapshot.maxNs);
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().count);
+    }
+}
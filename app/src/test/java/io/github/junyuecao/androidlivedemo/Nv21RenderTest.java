@@ -0,0 +1,111 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES20;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 在CPU上用Nv21Render传给shader的矩阵转换已知的颜色，以及在假GL上的纹理管理
+ */
+public class Nv21RenderTest {
+    private static final float EPSILON = 0.01f;
+
+    private static float[] toRgb(int colorSpace, boolean fullRange, int y, int u, int v) {
+        float[] m = new float[9];
+        float[] offset = new float[3];
+        Nv21Render.computeConversion(colorSpace, fullRange, m, offset);
+        float dy = y / 255f - offset[0];
+        float du = u / 255f - offset[1];
+        float dv = v / 255f - offset[2];
+        // 列主序，和GLSL的mat3 * vec3一致
+        return new float[]{
+                m[0] * dy + m[3] * du + m[6] * dv,
+                m[1] * dy + m[4] * du + m[7] * dv,
+                m[2] * dy + m[5] * du + m[8] * dv,
+        };
+    }
+
+    private static void assertRgb(float r, float g, float b, float[] rgb) {
+        assertEquals(r, rgb[0], EPSILON);
+        assertEquals(g, rgb[1], EPSILON);
+        assertEquals(b, rgb[2], EPSILON);
+    }
+
+    @Test
+    public void limitedRangeBlackAndWhite() {
+        assertRgb(0, 0, 0, toRgb(CameraCapture.COLOR_SPACE_BT601, false, 16, 128, 128));
+        assertRgb(1, 1, 1, toRgb(CameraCapture.COLOR_SPACE_BT601, false, 235, 128, 128));
+    }
+
+    @Test
+    public void fullRangeBlackAndWhite() {
+        assertRgb(0, 0, 0, toRgb(CameraCapture.COLOR_SPACE_BT709, true, 0, 128, 128));
+        assertRgb(1, 1, 1, toRgb(CameraCapture.COLOR_SPACE_BT709, true, 255, 128, 128));
+    }
+
+    @Test
+    public void bt601Red() {
+        assertRgb(1, 0, 0, toRgb(CameraCapture.COLOR_SPACE_BT601, false, 81, 90, 240));
+        assertRgb(1, 0, 0, toRgb(CameraCapture.COLOR_SPACE_BT601, true, 76, 85, 255));
+    }
+
+    @Test
+    public void bt709Red() {
+        assertRgb(1, 0, 0, toRgb(CameraCapture.COLOR_SPACE_BT709, false, 63, 102, 240));
+        // 同样的YUV按BT.601解释会偏色
+        float[] wrong = toRgb(CameraCapture.COLOR_SPACE_BT601, false, 63, 102, 240);
+        assertTrue(Math.abs(wrong[1]) > 0.05f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownColorSpace() {
+        Nv21Render.computeConversion(7, false, new float[9], new float[3]);
+    }
+
+    @Test
+    public void selectsChromaOrderByFormat() {
+        GLES20.reset();
+        Nv21Render render = new Nv21Render(new ShaderProgramCache(null), new FrameBufferPool());
+        ByteBuffer data = ByteBuffer.allocateDirect(16 * 8 * 3 / 2);
+        render.render(data, 16, 8, YuvConverter.FORMAT_NV21);
+        // uVFirst是render里唯一的glUniform1f
+        assertEquals(1.0f, GLES20.lastUniform1f, 0);
+        render.render(data, 16, 8, YuvConverter.FORMAT_NV12);
+        assertEquals(0.0f, GLES20.lastUniform1f, 0);
+        assertEquals(0, data.position());
+    }
+
+    @Test
+    public void rebuildsTexturesOnlyWhenSizeChanges() {
+        GLES20.reset();
+        FrameBufferPool pool = new FrameBufferPool();
+        Nv21Render render = new Nv21Render(new ShaderProgramCache(null), pool);
+        ByteBuffer data = ByteBuffer.allocateDirect(32 * 16 * 3 / 2);
+        int first = render.render(data, 16, 8, YuvConverter.FORMAT_NV21);
+        long texImageCalls = GLES20.texImageCalls;
+        assertEquals(first, render.render(data, 16, 8, YuvConverter.FORMAT_NV21));
+        // 尺寸不变只更新两个平面
+        assertEquals(texImageCalls, GLES20.texImageCalls);
+        assertEquals(0, GLES20.deletedTextures);
+        assertEquals(4, GLES20.texSubImageCalls);
+
+        int second = render.render(data, 32, 16, YuvConverter.FORMAT_NV21);
+        // 删掉旧的Y和UV纹理，重新分配两个平面和新尺寸的输出
+        assertEquals(2, GLES20.deletedTextures);
+        assertEquals(texImageCalls + 3, GLES20.texImageCalls);
+        assertTrue(second != first);
+
+        render.release();
+        assertEquals(4, GLES20.deletedTextures);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooSmallBuffer() {
+        Nv21Render render = new Nv21Render(new ShaderProgramCache(null), new FrameBufferPool());
+        render.render(ByteBuffer.allocateDirect(16), 16, 8, YuvConverter.FORMAT_NV21);
+    }
+}
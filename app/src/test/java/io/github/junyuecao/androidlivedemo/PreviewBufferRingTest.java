@@ -0,0 +1,84 @@
+package io.github.junyuecao.androidlivedemo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PreviewBufferRingTest {
+    private static final long FRAME_NS = 33000000L;
+
+    private static class FakeCamera implements PreviewBufferRing.BufferQueue {
+        final List<byte[]> queue = new ArrayList<>();
+
+        @Override
+        public void queueBuffer(byte[] buffer) {
+            queue.add(buffer);
+        }
+
+        byte[] take() {
+            return queue.isEmpty() ? null : queue.remove(0);
+        }
+    }
+
+    @Test
+    public void reallocatesOnlyWhenSizeChanges() throws Exception {
+        PreviewBufferRing ring = new PreviewBufferRing(3);
+        assertTrue(ring.ensureBufferSize(100));
+        assertFalse(ring.ensureBufferSize(100));
+        assertTrue(ring.ensureBufferSize(200));
+        assertEquals(200, ring.getBufferSize());
+    }
+
+    @Test
+    public void recyclesBuffersWithoutDrops() throws Exception {
+        PreviewBufferRing ring = new PreviewBufferRing(3);
+        FakeCamera camera = new FakeCamera();
+        ring.ensureBufferSize(16);
+        ring.queueAll(camera);
+        assertEquals(3, camera.queue.size());
+
+        long now = 1;
+        for (int i = 0; i < 100; i++) {
+            byte[] data = camera.take();
+            assertTrue(ring.onFrameDelivered(data, now));
+            ring.release(data, camera, now + 1000);
+            now += FRAME_NS;
+        }
+        assertEquals(100, ring.getFramesDelivered());
+        assertEquals(0, ring.getFramesDropped());
+        assertEquals(1000, ring.getAverageHoldTimeNs());
+        assertEquals(3, camera.queue.size());
+    }
+
+    @Test
+    public void countsFramesDroppedWhileStarved() throws Exception {
+        PreviewBufferRing ring = new PreviewBufferRing(2);
+        FakeCamera camera = new FakeCamera();
+        ring.ensureBufferSize(16);
+        ring.queueAll(camera);
+
+        byte[] first = camera.take();
+        byte[] second = camera.take();
+        ring.onFrameDelivered(first, 0);
+        ring.onFrameDelivered(second, FRAME_NS);
+        assertEquals(0, ring.getQueuedCount());
+
+        // 饥饿了3.5个帧间隔，相机丢掉3帧
+        ring.release(first, camera, FRAME_NS + FRAME_NS * 7 / 2);
+        assertEquals(3, ring.getFramesDropped());
+        assertEquals(1, ring.getQueuedCount());
+    }
+
+    @Test
+    public void ignoresForeignBuffers() throws Exception {
+        PreviewBufferRing ring = new PreviewBufferRing(2);
+        FakeCamera camera = new FakeCamera();
+        ring.ensureBufferSize(16);
+        ring.queueAll(camera);
+        assertFalse(ring.onFrameDelivered(new byte[16], 0));
+        assertEquals(0, ring.getFramesDelivered());
+    }
+}
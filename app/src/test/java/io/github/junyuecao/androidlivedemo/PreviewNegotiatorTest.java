@@ -0,0 +1,96 @@
+package io.github.junyuecao.androidlivedemo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用假的尺寸和帧率列表验证PreviewNegotiator的选择
+ */
+public class PreviewNegotiatorTest {
+    private static List<int[]> sizes(int... wh) {
+        List<int[]> list = new ArrayList<>();
+        for (int i = 0; i < wh.length; i += 2) {
+            list.add(new int[]{wh[i], wh[i + 1]});
+        }
+        return list;
+    }
+
+    private static final List<int[]> SIZES = sizes(
+            4000, 3000, 1920, 1080, 1440, 1080, 1280, 960, 1280, 720, 960, 720, 640, 480, 320, 240);
+    private static final List<int[]> RANGES = Arrays.asList(
+            new int[]{15000, 15000}, new int[]{7000, 30000}, new int[]{30000, 30000}, new int[]{60000, 60000});
+
+    @Test
+    public void picksSmallestSizeMatchingTargetAndAspect() {
+        PreviewNegotiator.Config config = new PreviewNegotiator(720, 1280)
+                .setDisplaySize(1080, 1920)
+                .negotiate(SIZES, RANGES);
+        assertEquals(1280, config.width);
+        assertEquals(720, config.height);
+        assertTrue(config.meetsTarget);
+        // 不选60fps，30fps里下限更低的范围优先
+        assertEquals(7000, config.minFps);
+        assertEquals(30000, config.maxFps);
+    }
+
+    @Test
+    public void displayAspectPrefersUncroppedSize() {
+        // 4:3的显示区域多采一些像素，换来不被裁掉
+        PreviewNegotiator.Config config = new PreviewNegotiator(720, 1280)
+                .setDisplaySize(1080, 1440)
+                .negotiate(SIZES, RANGES);
+        assertEquals(1280, config.width);
+        assertEquals(960, config.height);
+
+        // 宽高比的差距不值得采6倍以上的像素
+        config = new PreviewNegotiator(480, 640)
+                .setDisplaySize(1080, 1920)
+                .negotiate(SIZES, RANGES);
+        assertEquals(640, config.width);
+        assertEquals(480, config.height);
+    }
+
+    @Test
+    public void fallsBackToClosestWhenTargetIsUnreachable() {
+        PreviewNegotiator.Config config = new PreviewNegotiator(2160, 3840)
+                .setTargetFps(30)
+                .negotiate(sizes(1920, 1080, 1280, 720, 640, 480), RANGES);
+        assertFalse(config.meetsTarget);
+        assertEquals(1920, config.width);
+        assertEquals(1080, config.height);
+        assertEquals(30000, config.maxFps);
+
+        config = new PreviewNegotiator(720, 1280)
+                .setTargetFps(60)
+                .negotiate(SIZES, Arrays.asList(new int[]{15000, 30000}, new int[]{15000, 24000}));
+        assertFalse(config.meetsTarget);
+        assertEquals(30000, config.maxFps);
+    }
+
+    @Test
+    public void chooseFpsRangePrefersLowestSufficientMax() {
+        List<int[]> ranges = Arrays.asList(new int[]{15000, 30000}, new int[]{15000, 20000},
+                new int[]{20000, 20000}, new int[]{30000, 30000});
+        int[] range = PreviewNegotiator.chooseFpsRange(ranges, 20000);
+        assertEquals(20000, range[0]);
+        assertEquals(20000, range[1]);
+        range = PreviewNegotiator.chooseFpsRange(ranges, 24000);
+        assertEquals(30000, range[0]);
+        assertEquals(30000, range[1]);
+        range = PreviewNegotiator.chooseFpsRange(ranges, 60000);
+        assertEquals(30000, range[1]);
+    }
+
+    @Test
+    public void emptySizesReturnNull() {
+        assertNull(new PreviewNegotiator(720, 1280).negotiate(new ArrayList<int[]>(), RANGES));
+    }
+}
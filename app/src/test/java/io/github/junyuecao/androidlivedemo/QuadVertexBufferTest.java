@@ -0,0 +1,46 @@
+package io.github.junyuecao.androidlivedemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * VBO里的16组四边形和TextureRotationUtil的纹理坐标一致
+ */
+public class QuadVertexBufferTest {
+
+    @Test
+    public void everyCombinationMatchesRotationTable() {
+        float[] vertices = QuadVertexBuffer.buildVertices();
+        assertEquals(16 * QuadVertexBuffer.QUAD_FLOATS, vertices.length);
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (int flags = 0; flags < 4; flags++) {
+                boolean flipHorizontal = (flags & 1) != 0;
+                boolean flipVertical = (flags & 2) != 0;
+                int base = TextureRotationUtil.getRotationIndex(rotation, flipHorizontal, flipVertical)
+                        * QuadVertexBuffer.QUAD_FLOATS;
+                float[] texture = TextureRotationUtil.getRotation(rotation, flipHorizontal, flipVertical);
+                for (int v = 0; v < QuadVertexBuffer.VERTEX_COUNT; v++) {
+                    int offset = base + v * QuadVertexBuffer.FLOATS_PER_VERTEX;
+                    assertEquals(TextureRotationUtil.CUBE[v * 2], vertices[offset], 0f);
+                    assertEquals(TextureRotationUtil.CUBE[v * 2 + 1], vertices[offset + 1], 0f);
+                    assertEquals(texture[v * 2], vertices[offset + 2], 0f);
+                    assertEquals(texture[v * 2 + 1], vertices[offset + 3], 0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rotationIndicesAreDistinct() {
+        boolean[] seen = new boolean[TextureRotationUtil.getRotationCount()];
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (int flags = 0; flags < 4; flags++) {
+                int index = TextureRotationUtil.getRotationIndex(rotation, (flags & 1) != 0, (flags & 2) != 0);
+                assertFalse(seen[index]);
+                seen[index] = true;
+            }
+        }
+        assertEquals(0, TextureRotationUtil.getRotationIndex(360, false, false));
+    }
+}
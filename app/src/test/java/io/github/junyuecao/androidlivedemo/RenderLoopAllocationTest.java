@@ -0,0 +1,277 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 用假的GL和相机层跑几千帧渲染路径，稳定状态下每帧不允许有任何分配
+ */
+public class RenderLoopAllocationTest {
+    private static final int WARM_UP_FRAMES = 2000;
+    private static final int MEASURED_FRAMES = 10000;
+
+    private CameraCapture mCapture;
+    private PreviewBufferRing mRing;
+    private FakeCamera mCamera;
+    private FrameDispatcher mDispatcher;
+    private byte[] mLastYuv;
+    private long mLastTimestampNs;
+    private long mLastYuvTimestampNs;
+
+    private static class FakeCamera implements PreviewBufferRing.BufferQueue {
+        final byte[][] queue = new byte[8][];
+        int head;
+        int size;
+
+        @Override
+        public void queueBuffer(byte[] buffer) {
+            queue[(head + size) % queue.length] = buffer;
+            size++;
+        }
+
+        byte[] take() {
+            byte[] data = queue[head];
+            queue[head] = null;
+            head = (head + 1) % queue.length;
+            size--;
+            return data;
+        }
+    }
+
+    private final CameraCapture.SurfaceTextureCallback mProcessor = new CameraCapture.SurfaceTextureCallback() {
+        @Override
+        public void onSurfaceCreated(int texWidth, int texHeight) {
+        }
+
+        @Override
+        public int processTexture(int texId, int texWidth, int texHeight, float[] matrix, byte[] outYUV,
+                                  long timestampNs) {
+            mLastYuv = outYUV;
+            mLastTimestampNs = timestampNs;
+            mLastYuvTimestampNs = mCapture.getYuvTimestampNs();
+            return texId;
+        }
+    };
+
+    private final CameraCapture.PreviewCallback mConsumer = new CameraCapture.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] bytes, int width, int height, int rotation, int fmt, long tsInNanoTime) {
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        GLES20.reset();
+        mCapture = new CameraCapture(new GLSurfaceView(null));
+        mCapture.setSurfaceTextureCallback(mProcessor);
+        mCapture.onSurfaceCreated(null, null);
+        mCapture.onSurfaceChanged(null, 720, 1280);
+        setField(mCapture, "mSurfaceTexture", new SurfaceTexture(0));
+
+        mCamera = new FakeCamera();
+        mRing = new PreviewBufferRing(3);
+        mRing.ensureBufferSize(16);
+        mRing.queueAll(mCamera);
+        mDispatcher = new FrameDispatcher(1, 2, FrameDispatcher.OVERFLOW_DROP_NEWEST,
+                new FrameDispatcher.FrameReleaser() {
+                    @Override
+                    public void releaseFrame(byte[] data) {
+                        synchronized (mCamera) {
+                            mRing.release(data, mCamera, System.nanoTime());
+                        }
+                    }
+                });
+        mDispatcher.addConsumer(mConsumer);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDispatcher.shutdown();
+        mCapture.onDestroy();
+    }
+
+    @Test
+    public void steadyStateFrameDoesNotAllocate() throws Exception {
+        assertNoAllocationPerFrame();
+    }
+
+    @Test
+    public void filterChainFrameDoesNotAllocate() throws Exception {
+        FilterChain chain = (FilterChain) getField(mCapture, "mFilterChain");
+        chain.setFilters(new ImageFilter[]{
+                new ImageFilter(ImageFilter.GRAYSCALE_FRAGMENT_SHADER),
+                new ImageFilter(),
+                new ImageFilter(ImageFilter.GRAYSCALE_FRAGMENT_SHADER),
+        });
+        long before = GLES20.drawCalls;
+        mCapture.drawCameraFrame();
+        // 链头转换一次，3个滤镜各一个pass，再画到屏幕
+        assertEquals(5, GLES20.drawCalls - before);
+        GLES20.reset();
+        assertNoAllocationPerFrame();
+    }
+
+    @Test
+    public void yuvOutputFrameDoesNotAllocate() throws Exception {
+        setField(mCapture, "mImageWidth", 720);
+        setField(mCapture, "mImageHeight", 1280);
+        setField(mCapture, "mYuvOutputFormat", YuvConverter.FORMAT_I420);
+        long before = GLES20.drawCalls;
+        mCapture.drawCameraFrame();
+        // 打包一个pass，再画到屏幕
+        assertEquals(2, GLES20.drawCalls - before);
+        assertNotNull(mLastYuv);
+        assertEquals(1280 * 720 * 3 / 2, mLastYuv.length);
+        GLES20.reset();
+        assertNoAllocationPerFrame();
+        assertNotNull(mLastYuv);
+    }
+
+    @Test
+    public void asyncYuvOutputCarriesItsOwnTimestamp() throws Exception {
+        GLES20.gles3 = true;
+        setField(mCapture, "mImageWidth", 720);
+        setField(mCapture, "mImageHeight", 1280);
+        setField(mCapture, "mYuvOutputFormat", YuvConverter.FORMAT_I420);
+        long[] timestamps = new long[6];
+        for (int i = 0; i < timestamps.length; i++) {
+            Thread.sleep(1);
+            mCapture.drawCameraFrame();
+            timestamps[i] = mLastTimestampNs;
+            // PBO读回晚两次打包
+            if (i < 2) {
+                assertNull(mLastYuv);
+            } else {
+                assertNotNull(mLastYuv);
+                assertEquals(timestamps[i - 2], mLastYuvTimestampNs);
+            }
+        }
+
+        // 每两帧处理一次时，outYUV晚四个渲染帧
+        setField(mCapture, "mProcessInterval", 2);
+        setField(mCapture, "mProcessFrameIndex", 0);
+        long[] processed = new long[8];
+        processed[0] = timestamps[4];
+        processed[1] = timestamps[5];
+        int count = 2;
+        for (int i = 0; i < 12; i++) {
+            Thread.sleep(1);
+            mCapture.drawCameraFrame();
+            if (i % 2 == 0) {
+                assertNotNull(mLastYuv);
+                assertEquals(processed[count - 2], mLastYuvTimestampNs);
+                processed[count++] = mLastTimestampNs;
+            } else {
+                assertNull(mLastYuv);
+            }
+        }
+    }
+
+    @Test
+    public void preprocessedNv21FrameDoesNotAllocate() throws Exception {
+        setField(mCapture, "mImageWidth", 720);
+        setField(mCapture, "mImageHeight", 1280);
+        mCapture.setPreprocessByteBuffer(ByteBuffer.allocateDirect(1280 * 720 * 3 / 2));
+        long before = GLES20.drawCalls;
+        mCapture.drawCameraFrame();
+        // 转换一个pass，再画到屏幕
+        assertEquals(2, GLES20.drawCalls - before);
+        assertEquals(2, GLES20.texSubImageCalls);
+        long texImageCalls = GLES20.texImageCalls;
+        mCapture.drawCameraFrame();
+        // 尺寸不变时只更新两个平面，不再分配纹理存储
+        assertEquals(4, GLES20.texSubImageCalls);
+        assertEquals(texImageCalls, GLES20.texImageCalls);
+        GLES20.reset();
+        assertNoAllocationPerFrame();
+    }
+
+    @Test
+    public void imageSizeChangeDeletesStaleFrameBuffers() throws Exception {
+        setField(mCapture, "mImageWidth", 720);
+        setField(mCapture, "mImageHeight", 1280);
+        mCapture.setPreprocessByteBuffer(ByteBuffer.allocateDirect(1280 * 720 * 3 / 2));
+        mCapture.drawCameraFrame();
+        FrameBufferPool pool = (FrameBufferPool) getField(mCapture, "mFrameBufferPool");
+        assertEquals(1, pool.getAllocatedCount());
+
+        setField(mCapture, "mImageWidth", 480);
+        setField(mCapture, "mImageHeight", 640);
+        mCapture.setPreprocessByteBuffer(ByteBuffer.allocateDirect(640 * 480 * 3 / 2));
+        mCapture.drawCameraFrame();
+        // 旧尺寸的FBO还回池子后被删掉，只剩新尺寸的一个
+        assertEquals(1, pool.getAllocatedCount());
+    }
+
+    private void assertNoAllocationPerFrame() {
+        com.sun.management.ThreadMXBean threadBean = threadBean();
+        assumeTrue(threadBean != null && threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            runFrame(i);
+        }
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            runFrame(i);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(GLES20.drawCalls >= WARM_UP_FRAMES + MEASURED_FRAMES);
+        // 允许统计本身的少量开销，但不能每帧都有分配
+        assertTrue("allocated " + allocated + " bytes in " + MEASURED_FRAMES + " frames",
+                allocated < MEASURED_FRAMES);
+    }
+
+    private void runFrame(int i) {
+        byte[] data;
+        synchronized (mCamera) {
+            data = mCamera.size > 0 ? mCamera.take() : null;
+        }
+        if (data != null) {
+            long now = System.nanoTime();
+            boolean delivered;
+            synchronized (mCamera) {
+                delivered = mRing.onFrameDelivered(data, now);
+            }
+            if (delivered) {
+                mDispatcher.dispatch(data, 4, 2, 90, 17, now);
+            }
+        }
+        TextureRotationUtil.getRotation((i % 4) * 90, (i & 1) != 0, (i & 2) != 0);
+        mCapture.drawCameraFrame();
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return (com.sun.management.ThreadMXBean) bean;
+        }
+        return null;
+    }
+
+    private static Object getField(Object target, String name) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+
+    private static void setField(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
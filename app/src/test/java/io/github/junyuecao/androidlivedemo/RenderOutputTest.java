@@ -0,0 +1,67 @@
+package io.github.junyuecao.androidlivedemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * RenderOutput按最大帧率抽帧
+ */
+public class RenderOutputTest {
+    private static final long FRAME_30FPS = 1000000000L / 30;
+
+    private static int render(RenderOutput output, int frames, long intervalNs, long jitterNs) {
+        int rendered = 0;
+        long ts = 1000000000L;
+        for (int i = 0; i < frames; i++) {
+            long jitter = i % 2 == 0 ? jitterNs : -jitterNs;
+            if (output.shouldRender(ts + jitter)) {
+                rendered++;
+            }
+            ts += intervalNs;
+        }
+        return rendered;
+    }
+
+    @Test
+    public void unlimitedRendersEveryFrame() {
+        RenderOutput output = RenderOutput.offscreen(16, 16);
+        assertEquals(30, render(output, 30, FRAME_30FPS, 0));
+        assertEquals(0, output.getSkippedCount());
+    }
+
+    @Test
+    public void halvesFrameRate() {
+        RenderOutput output = RenderOutput.offscreen(16, 16).setMaxFps(15);
+        assertEquals(15, render(output, 30, FRAME_30FPS, 0));
+        assertEquals(15, output.getSkippedCount());
+    }
+
+    @Test
+    public void jitterDoesNotHalveOutput() {
+        // 采集帧率和输出帧率相同，±3ms的抖动不应该跳帧
+        RenderOutput output = RenderOutput.offscreen(16, 16).setMaxFps(30);
+        assertEquals(30, render(output, 30, FRAME_30FPS, 3000000L));
+    }
+
+    @Test
+    public void nonIntegerRatioKeepsAverageRate() {
+        RenderOutput output = RenderOutput.offscreen(16, 16).setMaxFps(20);
+        assertEquals(20, render(output, 30, FRAME_30FPS, 0));
+    }
+
+    @Test
+    public void resyncsAfterGap() {
+        RenderOutput output = RenderOutput.offscreen(16, 16).setMaxFps(15);
+        assertTrue(output.shouldRender(0));
+        // 停了一秒，之后不会连续输出来追赶
+        assertTrue(output.shouldRender(1000000000L));
+        assertFalse(output.shouldRender(1000000000L + FRAME_30FPS));
+        assertTrue(output.shouldRender(1000000000L + 2 * FRAME_30FPS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidRotation() {
+        RenderOutput.offscreen(16, 16).setRotation(45);
+    }
+}
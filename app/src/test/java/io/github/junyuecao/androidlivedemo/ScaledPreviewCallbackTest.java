@@ -0,0 +1,57 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.graphics.ImageFormat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * ScaledPreviewCallback的尺寸约定和buffer复用
+ */
+public class ScaledPreviewCallbackTest {
+
+    private static class Recorder implements CameraCapture.PreviewCallback {
+        byte[] bytes;
+        int width;
+        int height;
+        int fmt;
+
+        @Override
+        public void onPreviewFrame(byte[] bytes, int width, int height, int rotation, int fmt, long tsInNanoTime) {
+            this.bytes = bytes;
+            this.width = width;
+            this.height = height;
+            this.fmt = fmt;
+        }
+    }
+
+    @Test
+    public void scalesAndReusesBuffer() {
+        Recorder recorder = new Recorder();
+        ScaledPreviewCallback callback = ScaledPreviewCallback.byDivisor(recorder, 4, YuvConverter.FORMAT_I420);
+        // buffer是640x480，回调里的width/height是竖屏方向
+        byte[] frame = new byte[640 * 480 * 3 / 2];
+        callback.onPreviewFrame(frame, 480, 640, 90, ImageFormat.NV21, 0);
+        assertEquals(120, recorder.width);
+        assertEquals(160, recorder.height);
+        assertEquals(ImageFormat.YUV_420_888, recorder.fmt);
+        assertEquals(160 * 120 * 3 / 2, recorder.bytes.length);
+
+        byte[] first = recorder.bytes;
+        callback.onPreviewFrame(frame, 480, 640, 90, ImageFormat.NV21, 1);
+        assertSame(first, recorder.bytes);
+    }
+
+    @Test
+    public void scalesToFixedSize() {
+        Recorder recorder = new Recorder();
+        ScaledPreviewCallback callback = ScaledPreviewCallback.bySize(recorder, 90, 160, YuvConverter.FORMAT_Y8);
+        byte[] frame = new byte[1280 * 720 * 3 / 2];
+        callback.onPreviewFrame(frame, 720, 1280, 90, ImageFormat.NV21, 0);
+        assertEquals(90, recorder.width);
+        assertEquals(160, recorder.height);
+        assertEquals(160 * 90, recorder.bytes.length);
+    }
+}
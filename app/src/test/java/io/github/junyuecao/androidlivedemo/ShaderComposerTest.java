@@ -0,0 +1,71 @@
+package io.github.junyuecao.androidlivedemo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ShaderComposer的融合规则
+ */
+public class ShaderComposerTest {
+
+    private static int count(String s, String sub) {
+        int n = 0;
+        for (int i = s.indexOf(sub); i >= 0; i = s.indexOf(sub, i + 1)) {
+            n++;
+        }
+        return n;
+    }
+
+    @Test
+    public void pointwiseOpsFuseIntoOnePassWithOneFetch() {
+        List<ColorOp> ops = Arrays.asList(ColorOp.grayscale(), ColorOp.brightness(0.1f),
+                ColorOp.contrast(1.2f), ColorOp.saturation(0.8f), ColorOp.lut(5, 1f),
+                ColorOp.vignette(0.3f, 0.7f));
+        ShaderComposer.Composition c = ShaderComposer.compose(ops);
+
+        assertEquals(1, c.getPasses().size());
+        assertTrue(c.getUnfusableOps().isEmpty());
+        String fs = c.getPasses().get(0).getFragmentShader();
+        assertEquals(1, count(fs, "texture2D(sTexture"));
+        assertTrue(fs.contains("uniform float uOp1_0;"));
+        assertTrue(fs.contains("uniform float uOp5_1;"));
+        assertTrue(fs.contains("uniform sampler2D uLut4;"));
+        assertFalse(fs.contains("uTexelSize"));
+        assertFalse(c.getPasses().get(0).needsTexelSize());
+        // 操作顺序保持不变
+        assertTrue(fs.indexOf("// brightness") < fs.indexOf("// contrast"));
+    }
+
+    @Test
+    public void neighborhoodOpsStartNewPass() {
+        ColorOp blur = ColorOp.boxBlur();
+        ColorOp sharpen = ColorOp.sharpen(0.5f);
+        List<ColorOp> ops = Arrays.asList(ColorOp.brightness(0.1f), blur, ColorOp.saturation(1.5f),
+                ColorOp.grayscale(), sharpen);
+        ShaderComposer.Composition c = ShaderComposer.compose(ops);
+
+        assertEquals(Arrays.asList(blur, sharpen), c.getUnfusableOps());
+        List<ShaderComposer.Pass> passes = c.getPasses();
+        assertEquals(3, passes.size());
+        assertEquals(1, passes.get(0).getOps().size());
+        // 模糊后面的逐像素操作融合进模糊的pass
+        assertEquals(3, passes.get(1).getOps().size());
+        assertTrue(passes.get(1).needsTexelSize());
+        assertTrue(passes.get(1).getFragmentShader().contains("uniform float uOp1_0;"));
+        assertEquals(1, passes.get(2).getOps().size());
+        assertTrue(passes.get(2).getFragmentShader().contains("uniform float uOp0_0;"));
+    }
+
+    @Test
+    public void emptyListHasNoPasses() {
+        ShaderComposer.Composition c = ShaderComposer.compose(Arrays.<ColorOp>asList());
+        assertTrue(c.getPasses().isEmpty());
+        assertTrue(c.getUnfusableOps().isEmpty());
+    }
+}
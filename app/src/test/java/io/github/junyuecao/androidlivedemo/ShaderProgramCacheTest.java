@@ -0,0 +1,140 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * ShaderProgramCache的内存缓存和program binary的持久化，GL调用由test下的fake GLES20/GLES30接管
+ */
+public class ShaderProgramCacheTest {
+    private static final String VERTEX = "void main() { gl_Position = vec4(0.0); }";
+    private static final String FRAGMENT = "void main() { gl_FragColor = vec4(1.0); }";
+    private static final String OTHER_FRAGMENT = "void main() { gl_FragColor = vec4(0.5); }";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        GLES20.reset();
+    }
+
+    private ShaderProgramCache newCache(File dir) {
+        ShaderProgramCache cache = new ShaderProgramCache(dir);
+        cache.init();
+        return cache;
+    }
+
+    /**
+     * binary在后台线程写入
+     */
+    private static File awaitBinary(File dir) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(".bin")) {
+                        return file;
+                    }
+                }
+            }
+            Thread.sleep(10);
+        }
+        fail("program binary not written");
+        return null;
+    }
+
+    @Test
+    public void cachesProgramBySource() {
+        ShaderProgramCache cache = newCache(null);
+        int program = cache.getProgram(VERTEX, FRAGMENT);
+        assertTrue(program != 0);
+        assertEquals(2, GLES20.compileCalls);
+
+        // 命中时不再编译
+        assertEquals(program, cache.getProgram(VERTEX, FRAGMENT));
+        assertEquals(2, GLES20.compileCalls);
+
+        int other = cache.getProgram(VERTEX, OTHER_FRAGMENT);
+        assertTrue(other != program);
+        assertEquals(4, GLES20.compileCalls);
+        assertEquals(2, cache.size());
+
+        // 新的context上重新编译
+        cache.init();
+        assertEquals(0, cache.size());
+        cache.getProgram(VERTEX, FRAGMENT);
+        assertEquals(6, GLES20.compileCalls);
+    }
+
+    @Test
+    public void noBinaryOnGles2() throws Exception {
+        File dir = mFolder.newFolder();
+        newCache(dir).getProgram(VERTEX, FRAGMENT);
+        assertEquals(0, GLES30.programBinaryLoads);
+        String[] files = dir.list();
+        assertEquals(0, files == null ? 0 : files.length);
+    }
+
+    @Test
+    public void persistedBinarySkipsCompile() throws Exception {
+        GLES20.gles3 = true;
+        File dir = mFolder.newFolder();
+        newCache(dir).getProgram(VERTEX, FRAGMENT);
+        assertEquals(2, GLES20.compileCalls);
+        awaitBinary(dir);
+
+        // 冷启动：新的cache从磁盘加载binary，不编译
+        int program = newCache(dir).getProgram(VERTEX, FRAGMENT);
+        assertTrue(program != 0);
+        assertEquals(1, GLES30.programBinaryLoads);
+        assertEquals(2, GLES20.compileCalls);
+    }
+
+    @Test
+    public void rejectedBinaryFallsBackToSource() throws Exception {
+        GLES20.gles3 = true;
+        File dir = mFolder.newFolder();
+        newCache(dir).getProgram(VERTEX, FRAGMENT);
+        awaitBinary(dir);
+
+        // 驱动升级之类的原因拒绝了binary
+        GLES30.rejectBinary = true;
+        int program = newCache(dir).getProgram(VERTEX, FRAGMENT);
+        assertTrue(program != 0);
+        assertEquals(1, GLES30.programBinaryLoads);
+        assertEquals(4, GLES20.compileCalls);
+        // 拒绝的binary被删掉，重新编译后写入新的
+        assertNotNull(awaitBinary(dir));
+    }
+
+    @Test
+    public void corruptBinaryFallsBackToSource() throws Exception {
+        GLES20.gles3 = true;
+        File dir = mFolder.newFolder();
+        newCache(dir).getProgram(VERTEX, FRAGMENT);
+        File binary = awaitBinary(dir);
+        FileOutputStream out = new FileOutputStream(binary);
+        try {
+            out.write(new byte[]{1, 2, 3});
+        } finally {
+            out.close();
+        }
+
+        int program = newCache(dir).getProgram(VERTEX, FRAGMENT);
+        assertTrue(program != 0);
+        assertEquals(0, GLES30.programBinaryLoads);
+        assertEquals(4, GLES20.compileCalls);
+    }
+}
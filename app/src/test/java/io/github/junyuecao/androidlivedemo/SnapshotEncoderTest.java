@@ -0,0 +1,152 @@
+package io.github.junyuecao.androidlivedemo;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SnapshotEncoder的队列预算和丢帧策略，编码由假的FrameWriter代替
+ */
+public class SnapshotEncoderTest {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+    private static final int FRAME_BYTES = WIDTH * HEIGHT * 4;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private SnapshotEncoder mEncoder;
+    private final CountDownLatch mStarted = new CountDownLatch(1);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+    private final List<Long> mWritten = Collections.synchronizedList(new ArrayList<Long>());
+    private volatile byte mFirstByte;
+
+    private final SnapshotEncoder.FrameWriter mWriter = new SnapshotEncoder.FrameWriter() {
+        @Override
+        public long write(ByteBuffer rgba, int width, int height, File file) throws IOException {
+            mStarted.countDown();
+            try {
+                mRelease.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            mFirstByte = rgba.get(0);
+            String name = file.getName();
+            mWritten.add(Long.parseLong(name.substring("snapshot_".length(), name.indexOf('.'))));
+            return rgba.remaining();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        if (mEncoder != null) {
+            mEncoder.shutdown();
+        }
+    }
+
+    private static ByteBuffer frame() {
+        ByteBuffer rgba = ByteBuffer.allocateDirect(FRAME_BYTES);
+        for (int i = 0; i < FRAME_BYTES; i++) {
+            // 每个字节是所在的行号
+            rgba.put((byte) (i / (WIDTH * 4)));
+        }
+        rgba.flip();
+        return rgba;
+    }
+
+    @Test
+    public void burstBeyondBudgetRejectsNewest() throws InterruptedException {
+        mEncoder = new SnapshotEncoder(mFolder.getRoot(), SnapshotEncoder.FORMAT_JPEG, 4 * FRAME_BYTES,
+                SnapshotEncoder.REJECT_NEWEST, mWriter);
+        mEncoder.requestSnapshots(10);
+        ByteBuffer rgba = frame();
+        for (int i = 0; i < 12; i++) {
+            mEncoder.onFrameRead(rgba, WIDTH, HEIGHT, i);
+        }
+        // 只截取请求的10帧，预算只够4帧
+        assertEquals(4, mEncoder.getQueueDepth());
+        assertEquals(4 * FRAME_BYTES, mEncoder.getQueuedBytes());
+        assertEquals(6, mEncoder.getRejectedCount());
+
+        mRelease.countDown();
+        assertTrue(mEncoder.awaitIdle(5000));
+        assertEquals(4, mEncoder.getSavedCount());
+        assertEquals(0, mEncoder.getQueuedBytes());
+        assertEquals(0L, (long) mWritten.get(0));
+        assertEquals(3L, (long) mWritten.get(3));
+        // GL读回的最后一行是图像顶部
+        assertEquals(HEIGHT - 1, mFirstByte);
+    }
+
+    @Test
+    public void rejectOldestKeepsLatestFrames() throws InterruptedException {
+        mEncoder = new SnapshotEncoder(mFolder.getRoot(), SnapshotEncoder.FORMAT_PNG, 3 * FRAME_BYTES,
+                SnapshotEncoder.REJECT_OLDEST, mWriter);
+        mEncoder.requestSnapshots(10);
+        ByteBuffer rgba = frame();
+        mEncoder.onFrameRead(rgba, WIDTH, HEIGHT, 0);
+        // 等第一帧开始编码，正在编码的帧不会被丢掉
+        assertTrue(mStarted.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 10; i++) {
+            mEncoder.onFrameRead(rgba, WIDTH, HEIGHT, i);
+        }
+        assertEquals(3, mEncoder.getQueueDepth());
+        assertEquals(7, mEncoder.getRejectedCount());
+
+        mRelease.countDown();
+        assertTrue(mEncoder.awaitIdle(5000));
+        assertEquals(3, mWritten.size());
+        assertEquals(0L, (long) mWritten.get(0));
+        assertEquals(8L, (long) mWritten.get(1));
+        assertEquals(9L, (long) mWritten.get(2));
+    }
+
+    @Test
+    public void runtimeErrorFailsOnlyThatSnapshot() throws InterruptedException {
+        final int[] calls = new int[1];
+        mEncoder = new SnapshotEncoder(mFolder.getRoot(), SnapshotEncoder.FORMAT_JPEG, 4 * FRAME_BYTES,
+                SnapshotEncoder.REJECT_NEWEST, new SnapshotEncoder.FrameWriter() {
+            @Override
+            public long write(ByteBuffer rgba, int width, int height, File file) throws IOException {
+                if (calls[0]++ == 0) {
+                    throw new IllegalStateException("bitmap allocation failed");
+                }
+                return rgba.remaining();
+            }
+        });
+        mEncoder.requestSnapshots(2);
+        ByteBuffer rgba = frame();
+        mEncoder.onFrameRead(rgba, WIDTH, HEIGHT, 0);
+        mEncoder.onFrameRead(rgba, WIDTH, HEIGHT, 1);
+        // 编码线程没有退出，后面的帧照常写出
+        assertTrue(mEncoder.awaitIdle(5000));
+        assertEquals(1, mEncoder.getFailedCount());
+        assertEquals(1, mEncoder.getSavedCount());
+    }
+
+    @Test
+    public void wantsFramesOnlyWhileRequested() {
+        mEncoder = new SnapshotEncoder(mFolder.getRoot(), SnapshotEncoder.FORMAT_JPEG, 4 * FRAME_BYTES,
+                SnapshotEncoder.REJECT_NEWEST, mWriter);
+        assertFalse(mEncoder.isFrameWanted());
+        mEncoder.requestSnapshots(1);
+        assertTrue(mEncoder.isFrameWanted());
+        mEncoder.onFrameRead(frame(), WIDTH, HEIGHT, 0);
+        assertFalse(mEncoder.isFrameWanted());
+    }
+}
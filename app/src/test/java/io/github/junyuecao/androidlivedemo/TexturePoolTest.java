@@ -0,0 +1,91 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES20;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用假的GL层检查TexturePool的复用、上限和泄漏报告
+ */
+public class TexturePoolTest {
+    private TexturePool mPool;
+
+    @Before
+    public void setUp() {
+        GLES20.reset();
+        mPool = new TexturePool();
+    }
+
+    @Test
+    public void sameSizeUploadsOnlyUpdateContent() {
+        ByteBuffer data = ByteBuffer.allocateDirect(64 * 64 * 4);
+        int tex = OpenGLUtils.NO_TEXTURE;
+        for (int i = 0; i < 30; i++) {
+            int next = OpenGLUtils.loadTexture(mPool, data, 64, 64, tex);
+            if (tex != OpenGLUtils.NO_TEXTURE) {
+                assertEquals(tex, next);
+            }
+            tex = next;
+        }
+        assertEquals(1, GLES20.texImageCalls);
+        assertEquals(30, GLES20.texSubImageCalls);
+        assertEquals(64 * 64 * 4, mPool.getAllocatedBytes());
+    }
+
+    @Test
+    public void sizeChangeSwapsTextureAndReusesOldOne() {
+        ByteBuffer data = ByteBuffer.allocateDirect(128 * 128 * 4);
+        int small = mPool.upload(data, 64, 64, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, OpenGLUtils.NO_TEXTURE);
+        int large = mPool.upload(data, 128, 128, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, small);
+        assertNotEquals(small, large);
+        assertEquals(1, mPool.getInUseCount());
+        assertEquals(1, mPool.getFreeCount());
+        // 回到原来的尺寸时拿回空闲的纹理，不再分配
+        int again = mPool.upload(data, 64, 64, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, large);
+        assertEquals(small, again);
+        assertEquals(2, GLES20.texImageCalls);
+    }
+
+    @Test
+    public void uploadsUnalignedRowsWithByteAlignment() {
+        // RGB行宽63 * 3字节，不是4的倍数
+        ByteBuffer data = ByteBuffer.allocateDirect(63 * 63 * 3);
+        mPool.upload(data, 63, 63, GLES20.GL_RGB, GLES20.GL_UNSIGNED_BYTE, OpenGLUtils.NO_TEXTURE);
+        assertEquals(1, GLES20.lastSubImageUnpackAlignment);
+        // 恢复默认值，不影响之后的上传
+        assertEquals(4, GLES20.unpackAlignment);
+    }
+
+    @Test
+    public void freeTexturesAreTrimmedToLimit() {
+        mPool.setMaxBytes(2 * 64 * 64 * 4);
+        int a = mPool.acquire(64, 64, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE);
+        int b = mPool.acquire(64, 64, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE);
+        mPool.release(a);
+        mPool.release(b);
+        assertEquals(2, mPool.getFreeCount());
+        // 第三个超过上限，最早还回来的a被删掉
+        mPool.acquire(32, 32, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE);
+        assertEquals(1, mPool.getFreeCount());
+        assertEquals(1, GLES20.deletedTextures);
+        assertEquals(b, mPool.acquire(64, 64, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE));
+    }
+
+    @Test
+    public void leakReportListsOutstandingTextures() {
+        int tex = mPool.acquire(16, 8, GLES20.GL_RGB, GLES20.GL_UNSIGNED_BYTE, "sticker");
+        mPool.acquire(4, 4, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE);
+        String report = mPool.getLeakReport();
+        assertTrue(report, report.contains("texture " + tex + " 16x8"));
+        assertTrue(report, report.contains("bytes=384 owner=sticker"));
+        mPool.release();
+        assertEquals(0, mPool.getInUseCount());
+        assertEquals(0, mPool.getAllocatedBytes());
+        assertEquals("", mPool.getLeakReport());
+    }
+}
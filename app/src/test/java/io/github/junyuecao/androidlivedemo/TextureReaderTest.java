@@ -0,0 +1,188 @@
+package io.github.junyuecao.androidlivedemo;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TextureReader在GLES2和GLES3 context上的读回和丢帧，GL调用由test下的fake GLES20/GLES30接管
+ */
+public class TextureReaderTest {
+    private TextureReader mReader;
+
+    @Before
+    public void setUp() {
+        GLES20.reset();
+    }
+
+    @After
+    public void tearDown() {
+        if (mReader != null) {
+            mReader.shutdown();
+        }
+    }
+
+    @Test
+    public void deliversFramesOnReaderThread() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final int[] size = new int[3];
+        final Thread[] thread = new Thread[1];
+        mReader = new TextureReader(new TextureReader.Callback() {
+            @Override
+            public void onFrameRead(ByteBuffer rgba, int width, int height, long timestampNs) {
+                size[0] = width;
+                size[1] = height;
+                size[2] = rgba.remaining();
+                thread[0] = Thread.currentThread();
+                latch.countDown();
+            }
+        });
+        mReader.readTexture(1, 64, 32, 0);
+        assertFalse(mReader.isPboSupported());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(64, size[0]);
+        assertEquals(32, size[1]);
+        assertEquals(64 * 32 * 4, size[2]);
+        assertTrue(thread[0] != Thread.currentThread());
+        assertEquals(1, mReader.getFramesRead());
+    }
+
+    @Test
+    public void dropsFramesWhenCallbackIsBusy() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        mReader = new TextureReader(new TextureReader.Callback() {
+            @Override
+            public void onFrameRead(ByteBuffer rgba, int width, int height, long timestampNs) {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        mReader.readFramebuffer(16, 16, 0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // 一帧正在回调，一帧排队，之后的帧丢掉
+        for (int i = 0; i < 5; i++) {
+            mReader.readFramebuffer(16, 16, i);
+        }
+        assertEquals(2, mReader.getFramesRead());
+        assertEquals(4, mReader.getFramesDropped());
+        release.countDown();
+    }
+
+    private static class DemandCallback implements TextureReader.Callback, TextureReader.Demand {
+        volatile boolean wanted;
+
+        @Override
+        public boolean isFrameWanted() {
+            return wanted;
+        }
+
+        @Override
+        public void onFrameRead(ByteBuffer rgba, int width, int height, long timestampNs) {
+        }
+    }
+
+    @Test
+    public void skipsReadWhenNoFrameIsWanted() {
+        DemandCallback callback = new DemandCallback();
+        mReader = new TextureReader(callback);
+        for (int i = 0; i < 3; i++) {
+            mReader.readFramebuffer(16, 16, i);
+        }
+        assertEquals(0, mReader.getFramesRead());
+        callback.wanted = true;
+        mReader.readFramebuffer(16, 16, 3);
+        assertEquals(1, mReader.getFramesRead());
+    }
+
+    @Test
+    public void pboRingDeliversOldestFrameAfterWrapAround() {
+        GLES20.gles3 = true;
+        mReader = new TextureReader(3, null);
+        ByteBuffer out = ByteBuffer.allocateDirect(16 * 16 * 4);
+        byte[] pbos = new byte[9];
+        for (int i = 0; i < pbos.length; i++) {
+            out.clear();
+            boolean collected = mReader.readTextureInto(1, 16, 16, i, out);
+            assertTrue(mReader.isPboSupported());
+            // 前两帧PBO里还没有结果，之后每帧拿到两帧之前的结果
+            assertEquals(i >= 2, collected);
+            if (collected) {
+                assertEquals(i - 2, mReader.getLastCollectedTimestampNs());
+                assertEquals(16 * 16 * 4, out.position());
+                pbos[i] = out.get(0);
+            }
+        }
+        assertEquals(9, GLES30.pboReads);
+        assertEquals(7, mReader.getFramesRead());
+        assertEquals(0, mReader.getFramesDropped());
+        // 三个PBO轮流使用
+        for (int i = 2; i + 3 < pbos.length; i++) {
+            assertEquals(pbos[i], pbos[i + 3]);
+            assertNotEquals(pbos[i], pbos[i + 1]);
+        }
+    }
+
+    @Test
+    public void dropsFrameWhenFenceIsNotSignaled() {
+        GLES20.gles3 = true;
+        GLES30.syncStatus = GLES30.GL_TIMEOUT_EXPIRED;
+        mReader = new TextureReader(3, null);
+        ByteBuffer out = ByteBuffer.allocateDirect(16 * 16 * 4);
+        for (int i = 0; i < 5; i++) {
+            out.clear();
+            // 不等GPU，直接跳过
+            assertFalse(mReader.readTextureInto(1, 16, 16, i, out));
+        }
+        assertEquals(0, mReader.getFramesRead());
+        assertEquals(3, mReader.getFramesDropped());
+        assertEquals(3, GLES30.fencesDeleted);
+
+        GLES30.syncStatus = GLES30.GL_ALREADY_SIGNALED;
+        out.clear();
+        assertTrue(mReader.readTextureInto(1, 16, 16, 5, out));
+        assertEquals(3, mReader.getLastCollectedTimestampNs());
+        mReader.release();
+        assertEquals(GLES30.fencesCreated, GLES30.fencesDeleted);
+    }
+
+    @Test
+    public void collectsPendingFramesOnlyWhenReady() {
+        GLES20.gles3 = true;
+        GLES30.syncStatus = GLES30.GL_TIMEOUT_EXPIRED;
+        DemandCallback callback = new DemandCallback();
+        callback.wanted = true;
+        mReader = new TextureReader(3, callback);
+        mReader.readFramebuffer(16, 16, 0);
+        mReader.readFramebuffer(16, 16, 1);
+        assertEquals(2, GLES30.pboReads);
+
+        // 不需要新的帧时只收取已经写完的PBO，没写完的留着
+        callback.wanted = false;
+        mReader.readFramebuffer(16, 16, 2);
+        assertEquals(0, mReader.getFramesRead());
+        assertEquals(0, mReader.getFramesDropped());
+
+        GLES30.syncStatus = GLES30.GL_ALREADY_SIGNALED;
+        mReader.readFramebuffer(16, 16, 3);
+        assertEquals(2, GLES30.pboReads);
+        assertEquals(2, mReader.getFramesRead());
+        assertEquals(0, mReader.getFramesDropped());
+    }
+}
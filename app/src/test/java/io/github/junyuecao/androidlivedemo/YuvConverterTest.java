@@ -0,0 +1,346 @@
+package io.github.junyuecao.androidlivedemo;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * YuvConverter的Java参考实现，以及native实现和它的逐字节一致性
+ * <p>
+ * CHECKSUM_*和src/test/cpp/yuv_convert_test.cpp里的值相同，两边对同一帧测试图案计算，
+ * 这样不加载JNI也能确认C/SIMD实现和Java实现一致。
+ */
+public class YuvConverterTest {
+    // 宽度不是16的倍数，覆盖SIMD的尾巴
+    static final int WIDTH = 70;
+    static final int HEIGHT = 34;
+    static final int CHECKSUM_I420 = 0x270be457;
+    static final int CHECKSUM_NV12 = 0xc5dee0bd;
+    static final int CHECKSUM_RGBA = 0x3265f14c;
+    // NV21 -> I420，旋转90度并水平镜像，前置摄像头的常见情况
+    static final int CHECKSUM_TRANSFORM = 0xd9967d0d;
+    // NV21 70x34 -> I420 30x20
+    static final int CHECKSUM_SCALE = 0xaea1679d;
+
+    /**
+     * 和C++测试相同的LCG
+     */
+    static byte[] testPattern(int width, int height) {
+        byte[] data = new byte[width * height * 3 / 2];
+        int x = 12345;
+        for (int i = 0; i < data.length; i++) {
+            x = x * 1103515245 + 12345;
+            data[i] = (byte) (x >>> 16);
+        }
+        return data;
+    }
+
+    /**
+     * FNV-1a
+     */
+    static int checksum(byte[] data, int length) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < length; i++) {
+            h ^= data[i] & 0xff;
+            h *= 0x01000193;
+        }
+        return h;
+    }
+
+    private static byte[] nv21(int y, int u, int v) {
+        byte[] data = new byte[2 * 2 * 3 / 2];
+        for (int i = 0; i < 4; i++) {
+            data[i] = (byte) y;
+        }
+        data[4] = (byte) v;
+        data[5] = (byte) u;
+        return data;
+    }
+
+    private static int[] rgbaOf(byte[] nv21) {
+        byte[] rgba = new byte[2 * 2 * 4];
+        YuvConverter.nv21ToRgbaJava(nv21, rgba, 2, 2);
+        return new int[]{rgba[0] & 0xff, rgba[1] & 0xff, rgba[2] & 0xff, rgba[3] & 0xff};
+    }
+
+    @Test
+    public void rgbaKnownColors() {
+        assertArrayEquals(new int[]{0, 0, 0, 255}, rgbaOf(nv21(16, 128, 128)));
+        assertArrayEquals(new int[]{255, 255, 255, 255}, rgbaOf(nv21(235, 128, 128)));
+        // BT.601的纯红 Y=81 U=90 V=240
+        assertArrayEquals(new int[]{255, 0, 0, 255}, rgbaOf(nv21(81, 90, 240)));
+    }
+
+    @Test
+    public void planarRoundTrip() {
+        byte[] src = testPattern(WIDTH, HEIGHT);
+        byte[] i420 = new byte[src.length];
+        byte[] back = new byte[src.length];
+        YuvConverter.nv21ToI420Java(src, i420, WIDTH, HEIGHT);
+        YuvConverter.i420ToNv21Java(i420, back, WIDTH, HEIGHT);
+        assertArrayEquals(src, back);
+
+        byte[] nv12 = new byte[src.length];
+        YuvConverter.nv21ToNv12Java(src, nv12, WIDTH, HEIGHT);
+        YuvConverter.nv21ToNv12Java(nv12, back, WIDTH, HEIGHT);
+        assertArrayEquals(src, back);
+        int ySize = WIDTH * HEIGHT;
+        assertEquals(src[ySize], i420[ySize + ySize / 4]);
+        assertEquals(src[ySize + 1], i420[ySize]);
+        assertEquals(src[ySize], nv12[ySize + 1]);
+    }
+
+    @Test
+    public void referenceChecksumsMatchNative() {
+        byte[] src = testPattern(WIDTH, HEIGHT);
+        byte[] yuv = new byte[src.length];
+        byte[] rgba = new byte[WIDTH * HEIGHT * 4];
+        YuvConverter.nv21ToI420Java(src, yuv, WIDTH, HEIGHT);
+        assertEquals(CHECKSUM_I420, checksum(yuv, yuv.length));
+        YuvConverter.nv21ToNv12Java(src, yuv, WIDTH, HEIGHT);
+        assertEquals(CHECKSUM_NV12, checksum(yuv, yuv.length));
+        YuvConverter.nv21ToRgbaJava(src, rgba, WIDTH, HEIGHT);
+        assertEquals(CHECKSUM_RGBA, checksum(rgba, rgba.length));
+    }
+
+    /**
+     * 只有在java.library.path里有host编译的native-lib时才运行
+     */
+    @Test
+    public void nativeIsBitExact() {
+        Assume.assumeTrue(YuvConverter.isNativeAvailable());
+        byte[] src = testPattern(WIDTH, HEIGHT);
+        byte[] expected = new byte[WIDTH * HEIGHT * 4];
+        byte[] actual = new byte[WIDTH * HEIGHT * 4];
+        YuvConverter.nv21ToRgbaJava(src, expected, WIDTH, HEIGHT);
+        YuvConverter.nv21ToRgba(src, actual, WIDTH, HEIGHT);
+        assertArrayEquals(expected, actual);
+        YuvConverter.nv21ToI420Java(src, expected, WIDTH, HEIGHT);
+        YuvConverter.nv21ToI420(src, actual, WIDTH, HEIGHT);
+        assertArrayEquals(expected, actual);
+        YuvConverter.i420ToNv21Java(src, expected, WIDTH, HEIGHT);
+        YuvConverter.i420ToNv21(src, actual, WIDTH, HEIGHT);
+        assertArrayEquals(expected, actual);
+        YuvConverter.nv21ToNv12Java(src, expected, WIDTH, HEIGHT);
+        YuvConverter.nv21ToNv12(src, actual, WIDTH, HEIGHT);
+        assertArrayEquals(expected, actual);
+        YuvConverter.transformJava(src, YuvConverter.FORMAT_NV21, expected, YuvConverter.FORMAT_NV12,
+                WIDTH, HEIGHT, 270, true, true);
+        YuvConverter.transform(src, YuvConverter.FORMAT_NV21, actual, YuvConverter.FORMAT_NV12,
+                WIDTH, HEIGHT, 270, true, true);
+        assertArrayEquals(expected, actual);
+    }
+
+    /**
+     * 逐像素正向映射的朴素实现，和transform的分块实现互相独立
+     */
+    private static byte[] naiveTransform(byte[] src, int srcFormat, int dstFormat, int width, int height,
+                                         int rotation, boolean flipH, boolean flipV) {
+        byte[] dst = new byte[src.length];
+        int ySize = width * height;
+        for (int plane = 0; plane < 3; plane++) {
+            int w = plane == 0 ? width : width / 2;
+            int h = plane == 0 ? height : height / 2;
+            int dstWidth = rotation % 180 == 0 ? w : h;
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    int fx = flipH ? w - 1 - x : x;
+                    int fy = flipV ? h - 1 - y : y;
+                    int dx;
+                    int dy;
+                    if (rotation == 90) {
+                        dx = h - 1 - fy;
+                        dy = fx;
+                    } else if (rotation == 180) {
+                        dx = w - 1 - fx;
+                        dy = h - 1 - fy;
+                    } else if (rotation == 270) {
+                        dx = fy;
+                        dy = w - 1 - fx;
+                    } else {
+                        dx = fx;
+                        dy = fy;
+                    }
+                    dst[offset(dstFormat, plane, ySize, dy * dstWidth + dx)] =
+                            src[offset(srcFormat, plane, ySize, y * w + x)];
+                }
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * plane: 0 Y, 1 U, 2 V
+     */
+    private static int offset(int format, int plane, int ySize, int index) {
+        if (plane == 0) {
+            return index;
+        }
+        boolean u = plane == 1;
+        switch (format) {
+            case YuvConverter.FORMAT_NV21:
+                return ySize + 2 * index + (u ? 1 : 0);
+            case YuvConverter.FORMAT_NV12:
+                return ySize + 2 * index + (u ? 0 : 1);
+            default:
+                return ySize + index + (u ? 0 : ySize / 4);
+        }
+    }
+
+    @Test
+    public void transformRotatesClockwise() {
+        // 4x2的Y平面
+        byte[] src = {
+                1, 2, 3, 4,
+                5, 6, 7, 8,
+                0, 0, 0, 0};
+        byte[] dst = new byte[src.length];
+        YuvConverter.transformJava(src, YuvConverter.FORMAT_I420, dst, YuvConverter.FORMAT_I420, 4, 2,
+                90, false, false);
+        assertArrayEquals(new byte[]{5, 1, 6, 2, 7, 3, 8, 4}, Arrays.copyOf(dst, 8));
+        YuvConverter.transformJava(src, YuvConverter.FORMAT_I420, dst, YuvConverter.FORMAT_I420, 4, 2,
+                0, true, false);
+        assertArrayEquals(new byte[]{4, 3, 2, 1, 8, 7, 6, 5}, Arrays.copyOf(dst, 8));
+    }
+
+    @Test
+    public void transformMatchesNaiveForAllCombinations() {
+        // 比TILE大且不是TILE的倍数
+        int width = 2 * YuvConverter.TILE + 6;
+        int height = YuvConverter.TILE + 10;
+        byte[] src = testPattern(width, height);
+        byte[] dst = new byte[src.length];
+        int[] formats = {YuvConverter.FORMAT_NV21, YuvConverter.FORMAT_NV12, YuvConverter.FORMAT_I420};
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (int flags = 0; flags < 4; flags++) {
+                boolean flipH = (flags & 1) != 0;
+                boolean flipV = (flags & 2) != 0;
+                for (int srcFormat : formats) {
+                    for (int dstFormat : formats) {
+                        YuvConverter.transformJava(src, srcFormat, dst, dstFormat, width, height,
+                                rotation, flipH, flipV);
+                        assertArrayEquals(rotation + " " + flags + " " + srcFormat + "->" + dstFormat,
+                                naiveTransform(src, srcFormat, dstFormat, width, height, rotation, flipH, flipV),
+                                dst);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void transformChecksumMatchesNative() {
+        byte[] src = testPattern(WIDTH, HEIGHT);
+        byte[] dst = new byte[src.length];
+        YuvConverter.transformJava(src, YuvConverter.FORMAT_NV21, dst, YuvConverter.FORMAT_I420, WIDTH, HEIGHT,
+                90, true, false);
+        assertEquals(CHECKSUM_TRANSFORM, checksum(dst, dst.length));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonRightAngle() {
+        YuvConverter.normalizeRotation(45);
+    }
+
+    /**
+     * 按二维重叠面积直接求和，和scale的可分离实现互相独立
+     */
+    private static byte[] naiveScalePlane(byte[] src, int srcOffset, int srcStride, int sw, int sh,
+                                          int dw, int dh) {
+        byte[] out = new byte[dw * dh];
+        long total = (long) sw * sh;
+        for (int y = 0; y < dh; y++) {
+            for (int x = 0; x < dw; x++) {
+                long sum = 0;
+                for (int j = 0; j < sh; j++) {
+                    long oy = Math.min((long) (j + 1) * dh, (long) (y + 1) * sh) - Math.max((long) j * dh, (long) y * sh);
+                    if (oy <= 0) {
+                        continue;
+                    }
+                    for (int i = 0; i < sw; i++) {
+                        long ox = Math.min((long) (i + 1) * dw, (long) (x + 1) * sw)
+                                - Math.max((long) i * dw, (long) x * sw);
+                        if (ox > 0) {
+                            sum += ox * oy * (src[srcOffset + (j * sw + i) * srcStride] & 0xff);
+                        }
+                    }
+                }
+                out[y * dw + x] = (byte) ((sum + total / 2) / total);
+            }
+        }
+        return out;
+    }
+
+    private void assertScaleMatchesNaive(int sw, int sh, int dw, int dh) {
+        byte[] src = testPattern(sw, sh);
+        byte[] dst = new byte[dw * dh * 3 / 2];
+        YuvConverter.scaleJava(src, YuvConverter.FORMAT_NV21, sw, sh, dst, YuvConverter.FORMAT_I420, dw, dh);
+        int srcY = sw * sh;
+        int dstY = dw * dh;
+        String what = sw + "x" + sh + "->" + dw + "x" + dh;
+        assertArrayEquals(what, naiveScalePlane(src, 0, 1, sw, sh, dw, dh), Arrays.copyOf(dst, dstY));
+        // I420的U在前，NV21的U在奇数位
+        assertArrayEquals(what, naiveScalePlane(src, srcY + 1, 2, sw / 2, sh / 2, dw / 2, dh / 2),
+                Arrays.copyOfRange(dst, dstY, dstY + dstY / 4));
+        assertArrayEquals(what, naiveScalePlane(src, srcY, 2, sw / 2, sh / 2, dw / 2, dh / 2),
+                Arrays.copyOfRange(dst, dstY + dstY / 4, dstY * 3 / 2));
+    }
+
+    @Test
+    public void scaleMatchesNaiveAreaAverage() {
+        assertScaleMatchesNaive(WIDTH, HEIGHT, WIDTH / 2 + 1, HEIGHT / 2 + 1);
+        assertScaleMatchesNaive(WIDTH, HEIGHT, 30, 20);
+        assertScaleMatchesNaive(64, 32, 32, 16);
+        assertScaleMatchesNaive(64, 32, 16, 8);
+        assertScaleMatchesNaive(64, 32, 6, 2);
+        // 不是缩小的情况也有定义
+        assertScaleMatchesNaive(4, 4, 6, 6);
+    }
+
+    @Test
+    public void scaleBoxAverage() {
+        byte[] src = new byte[4 * 4 * 3 / 2];
+        for (int i = 0; i < 16; i++) {
+            src[i] = (byte) (i * 16);
+        }
+        byte[] dst = new byte[2 * 2];
+        YuvConverter.scaleJava(src, YuvConverter.FORMAT_NV21, 4, 4, dst, YuvConverter.FORMAT_Y8, 2, 2);
+        // 左上角(0 + 16 + 64 + 80 + 2) / 4
+        assertEquals(40, dst[0] & 0xff);
+    }
+
+    @Test
+    public void scaleChecksumMatchesNative() {
+        byte[] src = testPattern(WIDTH, HEIGHT);
+        byte[] dst = new byte[30 * 20 * 3 / 2];
+        YuvConverter.scaleJava(src, YuvConverter.FORMAT_NV21, WIDTH, HEIGHT, dst, YuvConverter.FORMAT_I420, 30, 20);
+        assertEquals(CHECKSUM_SCALE, checksum(dst, dst.length));
+    }
+
+    @Test
+    public void repeatedScaleDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        byte[] src = testPattern(WIDTH, HEIGHT);
+        byte[] dst = new byte[30 * 20 * 3 / 2];
+        long threadId = Thread.currentThread().getId();
+        // 第一帧计算权重
+        YuvConverter.scaleJava(src, YuvConverter.FORMAT_NV21, WIDTH, HEIGHT, dst, YuvConverter.FORMAT_I420, 30, 20);
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1000; i++) {
+            YuvConverter.scaleJava(src, YuvConverter.FORMAT_NV21, WIDTH, HEIGHT, dst, YuvConverter.FORMAT_I420, 30, 20);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("allocated " + allocated + " bytes in 1000 frames", allocated < 1000);
+        assertEquals(CHECKSUM_SCALE, checksum(dst, dst.length));
+    }
+}